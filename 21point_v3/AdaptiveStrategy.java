@@ -0,0 +1,75 @@
+/**
+ * 自适应策略
+ * 根据对手行为模型（OpponentModel）学习到的人类玩家习惯调整电脑的要牌概率
+ *
+ * 决策规则：
+ * - 人类玩家已停牌时，其点数已知：低于该点数必定要牌，高于该点数必定停牌，
+ *   相同时按默认策略决定
+ * - 人类玩家尚未停牌时，按模型估计"人类最终停牌点数高于电脑当前点数"的概率q，
+ *   电脑停牌大概率会输时更倾向要牌
+ * - 模型记录较少时更多依赖默认策略：要牌概率 = w * q + (1 - w) * 默认概率，
+ *   其中 w = 停牌记录数 / (停牌记录数 + PRIOR_WEIGHT)
+ *
+ * 决策只读取模型中的计数，不分配对象，不会带来可感知的决策延迟
+ */
+public class AdaptiveStrategy implements ComputerStrategy {
+    /**
+     * 默认策略在混合中的先验权重（相当于多少条停牌记录）
+     */
+    private static final double PRIOR_WEIGHT = 20.0;
+
+    /**
+     * 模型数据不足或无法判断时使用的默认策略
+     */
+    private final ComputerStrategy fallback = new ProbabilisticStrategy();
+
+    @Override
+    public double getHitProbability(ComputerPlayer self, int score) {
+        HumanPlayer opponent = self.getOpponent();
+        if (opponent == null) {
+            return hitProbability(self, score, 0, false);
+        }
+        return hitProbability(self, score, opponent.getTotalScore(), opponent.isStanding());
+    }
+
+    /**
+     * 推演时使用假设局面中人类玩家的点数和停牌状态，而不是牌桌上的实际状态
+     */
+    @Override
+    public double getHitProbability(ComputerPlayer self, int score, Situation situation) {
+        return hitProbability(self, score, situation.getHumanScore(), situation.isHumanStanding());
+    }
+
+    /**
+     * 对手行为模型随人类玩家的每次决策更新
+     */
+    @Override
+    public boolean isLearning(ComputerPlayer self) {
+        return true;
+    }
+
+    private double hitProbability(ComputerPlayer self, int score, int humanScore, boolean humanStanding) {
+        if (score >= 21) {
+            return 0.0;
+        }
+        double base = fallback.getHitProbability(self, score);
+        HumanPlayer opponent = self.getOpponent();
+        if (opponent == null) {
+            return base;
+        }
+
+        if (humanStanding) {
+            if (score < humanScore) {
+                return 1.0;
+            } else if (score > humanScore) {
+                return 0.0;
+            }
+            return base;
+        }
+
+        OpponentModel model = opponent.getActionModel();
+        double w = model.getStandCount() / (model.getStandCount() + PRIOR_WEIGHT);
+        double q = model.getStandAboveRate(score);
+        return w * q + (1 - w) * base;
+    }
+}
@@ -0,0 +1,210 @@
+/**
+ * 后台自动存档
+ * 作为游戏监听器，在每次操作后把游戏标记为需要保存，由后台线程把最新状态写入存档文件
+ *
+ * 设计要点：
+ * - 游戏对象不是线程安全的，因此在操作游戏的线程中把游戏编码到内存（几十个字节，远小于一微秒），
+ *   磁盘操作全部在后台线程中进行，界面的事件派发线程和控制台循环都不会因写盘而阻塞
+ * - 两次写盘之间至少间隔intervalMillis毫秒；间隔内的多次操作只保留最新的编码，合并为一次写入
+ * - 写入时先写临时文件并fsync，再原子地替换存档文件，任何时候存档文件都是完整的某一次保存
+ *
+ * 存档使用GameCodec格式，可以直接用BlackjackGame.loadGame()加载
+ */
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class Autosaver implements GameListener, Closeable {
+    private final BlackjackGame game;
+    private final Path path;
+    private final long intervalMillis;
+    private final ExecutorService writer;
+
+    /**
+     * 尚未写盘的最新编码，写盘线程取走后置为null
+     */
+    private final AtomicReference<byte[]> latest = new AtomicReference<>();
+
+    /**
+     * 是否已经安排了一次写盘
+     */
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+
+    /**
+     * 上次写盘的时间（System.nanoTime()），只在写盘线程中访问
+     */
+    private long lastWrite;
+
+    private volatile long writeCount;
+    private volatile IOException failure;
+    private boolean closed;
+
+    /**
+     * 为游戏开启自动存档：注册为游戏监听器，并立即安排保存当前状态
+     * 通常通过BlackjackGame.enableAutosave()调用
+     *
+     * @param game           游戏对象
+     * @param path           存档文件路径
+     * @param intervalMillis 两次写盘之间的最小间隔（毫秒）
+     * @return 已经开始工作的自动存档
+     */
+    public static Autosaver start(BlackjackGame game, Path path, long intervalMillis) {
+        Autosaver autosaver = new Autosaver(game, path, intervalMillis);
+        // 构造完成之后再注册，监听器回调不会看到未初始化完的对象
+        game.addGameListener(autosaver);
+        autosaver.markDirty();
+        return autosaver;
+    }
+
+    private Autosaver(BlackjackGame game, Path path, long intervalMillis) {
+        if (intervalMillis < 0) {
+            throw new IllegalArgumentException("存档间隔不能为负数: " + intervalMillis);
+        }
+        this.game = game;
+        this.path = path;
+        this.intervalMillis = intervalMillis;
+        this.writer = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "autosave");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.lastWrite = System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(intervalMillis);
+    }
+
+    @Override
+    public void roundStarted(BlackjackGame game) {
+        markDirty();
+    }
+
+    @Override
+    public void humanHit(BlackjackGame game) {
+        markDirty();
+    }
+
+    @Override
+    public void humanStood(BlackjackGame game) {
+        markDirty();
+    }
+
+    @Override
+    public void computerDecided(BlackjackGame game, boolean hit) {
+        markDirty();
+    }
+
+    @Override
+    public void roundFinished(BlackjackGame game, BlackjackGame.GameState result) {
+        markDirty();
+    }
+
+    @Override
+    public void settingsChanged(BlackjackGame game) {
+        markDirty();
+    }
+
+    /**
+     * 把游戏标记为需要保存
+     * 在调用线程中把当前状态编码到内存，并在没有待执行的写盘时安排一次写盘
+     */
+    public void markDirty() {
+        ByteBuffer buffer = ByteBuffer.allocate(GameCodec.encodedSize(game, GameCodec.DeckEncoding.SEED));
+        GameCodec.encode(game, buffer, GameCodec.DeckEncoding.SEED);
+        latest.set(buffer.array());
+        if (scheduled.compareAndSet(false, true)) {
+            try {
+                writer.execute(this::writeLatest);
+            } catch (RejectedExecutionException e) {
+                // 已经关闭，最后的状态由close()写入
+                scheduled.set(false);
+            }
+        }
+    }
+
+    /**
+     * @return 实际写盘的次数
+     */
+    public long getWriteCount() {
+        return writeCount;
+    }
+
+    /**
+     * 停止自动存档，写入最后的状态并等待写盘完成
+     *
+     * @throws IOException 如果最后一次写盘失败，或之前的后台写盘失败
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        game.removeGameListener(this);
+        writer.shutdown();
+        try {
+            writer.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        byte[] bytes = latest.getAndSet(null);
+        if (bytes != null) {
+            write(bytes);
+        }
+        IOException e = failure;
+        if (e != null) {
+            throw e;
+        }
+    }
+
+    /**
+     * 写盘任务：等到距上次写盘满intervalMillis后，写入当时最新的编码
+     */
+    private void writeLatest() {
+        long wait = lastWrite + TimeUnit.MILLISECONDS.toNanos(intervalMillis) - System.nanoTime();
+        if (wait > 0 && !writer.isShutdown()) {
+            try {
+                Thread.sleep(TimeUnit.NANOSECONDS.toMillis(wait) + 1);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        // 先清除标志再取走编码，之后的标记一定会安排新的写盘
+        scheduled.set(false);
+        byte[] bytes = latest.getAndSet(null);
+        if (bytes == null) {
+            return;
+        }
+        try {
+            write(bytes);
+        } catch (IOException e) {
+            failure = e;
+        }
+        lastWrite = System.nanoTime();
+    }
+
+    /**
+     * 写入临时文件并fsync，再原子地替换存档文件
+     */
+    private void write(byte[] bytes) throws IOException {
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(true);
+        }
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        writeCount++;
+    }
+}
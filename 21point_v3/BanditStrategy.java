@@ -0,0 +1,177 @@
+/**
+ * 多臂老虎机策略选择器
+ * 把多个电脑策略作为"臂"，每局开始时用UCB1算法选择一个策略，
+ * 根据该局的结果在线更新各策略的统计，长期运行后自动偏向效果最好的策略
+ *
+ * UCB1得分 = 平均收益 + sqrt(2 * ln(总局数) / 该策略局数)，未尝试过的策略优先
+ * 收益从电脑角度计算：电脑获胜计1，平局计0.5，失败计0
+ *
+ * 并发设计：
+ * - 同一个选择器可以被多局并发的游戏共享，选择和更新统计在同一把锁下进行，
+ *   冷启动时每个策略恰好先被选中一次，不会在第一局结束前都选到同一个策略
+ * - 本局选定的策略编号保存在电脑玩家对象上，本局结束时清除；没有选定策略的局不计入任何策略
+ * - 选择和更新只读写基本类型，不分配任何对象
+ */
+public class BanditStrategy implements ComputerStrategy {
+    /**
+     * 可选的子策略
+     */
+    private final ComputerStrategy[] arms;
+
+    /**
+     * 各策略被选中的局数，包括还没有结束的局
+     */
+    private final long[] selections;
+
+    /**
+     * 各策略被选中并完成的局数
+     */
+    private final long[] pulls;
+
+    /**
+     * 各策略的累计收益，以0.5为单位保存为整数（胜计2，平计1，负计0）
+     */
+    private final long[] halfRewards;
+
+    /**
+     * 所有策略完成的总局数
+     */
+    private long totalPulls;
+
+    /**
+     * @param arms 可选的子策略，至少一个
+     */
+    public BanditStrategy(ComputerStrategy... arms) {
+        if (arms.length == 0) {
+            throw new IllegalArgumentException("至少需要一个子策略");
+        }
+        this.arms = arms.clone();
+        this.selections = new long[arms.length];
+        this.pulls = new long[arms.length];
+        this.halfRewards = new long[arms.length];
+    }
+
+    @Override
+    public double getHitProbability(ComputerPlayer self, int score) {
+        return arms[currentArm(self)].getHitProbability(self, score);
+    }
+
+    @Override
+    public double getHitProbability(ComputerPlayer self, int score, Situation situation) {
+        return arms[currentArm(self)].getHitProbability(self, score, situation);
+    }
+
+    @Override
+    public boolean isLearning(ComputerPlayer self) {
+        return arms[currentArm(self)].isLearning(self);
+    }
+
+    @Override
+    public void roundStarted(ComputerPlayer self) {
+        int arm;
+        synchronized (this) {
+            arm = select();
+            selections[arm]++;
+        }
+        self.setStrategyArm(arm);
+        arms[arm].roundStarted(self);
+    }
+
+    /**
+     * 本局结束时把结果计入本局选定的策略；没有选定策略的局（例如没有经过roundStarted）不计入任何策略
+     */
+    @Override
+    public void roundFinished(ComputerPlayer self, BlackjackGame.GameState result) {
+        int arm = self.getStrategyArm();
+        if (arm < 0 || arm >= arms.length) {
+            return;
+        }
+        self.setStrategyArm(-1);
+        arms[arm].roundFinished(self, result);
+        synchronized (this) {
+            halfRewards[arm] += halfReward(result);
+            pulls[arm]++;
+            totalPulls++;
+        }
+    }
+
+    /**
+     * 按UCB1算法选择下一局使用的策略
+     * 还没有被选中过的策略优先；已经选中但还没有结束一局的策略，在其他策略都有结果之前不参与比较
+     *
+     * @return 策略编号
+     */
+    public synchronized int select() {
+        double logTotal = Math.log(Math.max(1, totalPulls));
+        int best = -1;
+        double bestScore = Double.NEGATIVE_INFINITY;
+        int leastSelected = 0;
+        for (int i = 0; i < arms.length; i++) {
+            if (selections[i] == 0) {
+                return i;
+            }
+            if (selections[i] < selections[leastSelected]) {
+                leastSelected = i;
+            }
+            long n = pulls[i];
+            if (n == 0) {
+                continue;
+            }
+            double score = halfRewards[i] / (2.0 * n) + Math.sqrt(2 * logTotal / n);
+            if (score > bestScore) {
+                bestScore = score;
+                best = i;
+            }
+        }
+        // 所有策略都还没有结束的局时轮流选择
+        return best >= 0 ? best : leastSelected;
+    }
+
+    /**
+     * @return 子策略的数量
+     */
+    public int getArmCount() {
+        return arms.length;
+    }
+
+    /**
+     * @param arm 策略编号
+     * @return 该策略完成的局数
+     */
+    public synchronized long getPulls(int arm) {
+        return pulls[arm];
+    }
+
+    /**
+     * @param arm 策略编号
+     * @return 该策略的平均收益；尚未完成任何一局时为0
+     */
+    public synchronized double getMeanReward(int arm) {
+        long n = pulls[arm];
+        return n == 0 ? 0 : halfRewards[arm] / (2.0 * n);
+    }
+
+    /**
+     * 获取电脑玩家本局选定的策略编号
+     * 如果没有选定（例如在开局前或本局结束后调用），使用第0个策略
+     */
+    private int currentArm(ComputerPlayer self) {
+        int arm = self.getStrategyArm();
+        return (arm >= 0 && arm < arms.length) ? arm : 0;
+    }
+
+    /**
+     * 从电脑角度计算一局的收益（以0.5为单位）
+     */
+    private static int halfReward(BlackjackGame.GameState result) {
+        switch (result) {
+            case COMPUTER_WIN:
+            case HUMAN_BUST:
+                return 2;
+            case DRAW:
+                return 1;
+            default:
+                return 0;
+        }
+    }
+}
@@ -8,10 +8,58 @@ import javax.swing.*;
 import java.awt.*;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.List;
 
-public class BlackjackGUI extends JFrame {
-    private BlackjackGame game;
+public final class BlackjackGUI extends JFrame {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * 保存人类玩家行为模型的目录，每名玩家一个文件，使电脑在多次游戏之间延续对该玩家的学习结果
+     */
+    private static final Path MODEL_DIR = Paths.get("opponent_models");
+
+    /**
+     * 操作日志文件，程序异常退出后下次启动时从中恢复牌局
+     */
+    private static final Path JOURNAL_FILE = Paths.get("game.journal");
+
+    /**
+     * 保存牌局记录的目录
+     */
+    private static final Path HISTORY_DIR = Paths.get("hand_history");
+
+    /**
+     * 自动存档文件，可以用BlackjackGame.loadGame()加载
+     */
+    private static final String AUTOSAVE_FILE = "autosave.sav";
+
+    /**
+     * 玩家档案日志，保存玩家的余额和胜负统计
+     */
+    private static final Path PROFILE_FILE = Paths.get("profiles.wal");
+
+    /**
+     * 排行榜检查点文件
+     */
+    private static final Path LEADERBOARD_FILE = Paths.get("leaderboard.bin");
+
+    /**
+     * 两次自动存档之间的最小间隔（毫秒）
+     */
+    private static final long AUTOSAVE_INTERVAL = 1000;
+
+    // 窗口不会被序列化，打开的文件和游戏状态都不参与序列化
+    private transient BlackjackGame game;
+    private transient GameJournal journal;
+    private transient HandHistoryWriter history;
+    private transient ProfileStore profiles;
+    private transient Leaderboard leaderboard;
 
     // GUI组件
     private JPanel playerCardsPanel;
@@ -19,6 +67,7 @@ public class BlackjackGUI extends JFrame {
     private JLabel playerScoreLabel;
     private JLabel computerScoreLabel;
     private JLabel gameStatusLabel;
+    private JLabel hintLabel;
     private JButton hitButton;
     private JButton standButton;
     private JButton newGameButton;
@@ -28,9 +77,61 @@ public class BlackjackGUI extends JFrame {
      * 构造函数，初始化GUI组件和游戏逻辑
      */
     public BlackjackGUI() {
-        game = new BlackjackGame();
+        if (Files.exists(JOURNAL_FILE)) {
+            try {
+                game = GameJournal.recover(JOURNAL_FILE);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        if (game == null) {
+            game = new BlackjackGame();
+        }
+        try {
+            game.getHuman().setActionModel(OpponentModel.load(MODEL_DIR, game.getHuman().getId()));
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        try {
+            journal = GameJournal.open(JOURNAL_FILE, game);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        try {
+            history = new HandHistoryWriter(HISTORY_DIR);
+            game.addGameListener(history);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        try {
+            profiles = ProfileStore.open(PROFILE_FILE);
+            game.addGameListener(profiles);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        if (profiles != null) {
+            try {
+                // 排行榜以玩家档案库为准，不单独统计对局
+                leaderboard = Leaderboard.open(LEADERBOARD_FILE, profiles);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        try {
+            // 写盘在后台线程中进行，不会阻塞事件派发线程
+            game.enableAutosave(AUTOSAVE_FILE, AUTOSAVE_INTERVAL);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
         initializeGUI();
-        startNewGame();
+
+        // 恢复的牌局如果还在等待玩家操作，直接继续；否则开始新游戏
+        if (game.getState() == BlackjackGame.GameState.PLAYING && !game.getHuman().isStanding()) {
+            updateDisplay();
+            addMessage("已恢复上次未完成的牌局");
+        } else {
+            startNewGame();
+        }
     }
 
     /**
@@ -43,6 +144,31 @@ public class BlackjackGUI extends JFrame {
         setLocationRelativeTo(null);
         setResizable(false);
 
+        // 关闭窗口时保存玩家行为模型，关闭操作日志、牌局记录、玩家档案、排行榜和自动存档
+        addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowClosing(WindowEvent e) {
+                if (history != null) {
+                    history.close();
+                }
+                try {
+                    game.getHuman().getActionModel().save(MODEL_DIR, game.getHuman().getId());
+                    if (journal != null) {
+                        journal.close();
+                    }
+                    game.disableAutosave();
+                    if (profiles != null) {
+                        profiles.close();
+                    }
+                    if (leaderboard != null) {
+                        leaderboard.close();
+                    }
+                } catch (IOException ex) {
+                    ex.printStackTrace();
+                }
+            }
+        });
+
         // 创建主面板
         setLayout(new BorderLayout());
 
@@ -75,7 +201,14 @@ public class BlackjackGUI extends JFrame {
         gameStatusLabel.setFont(new Font("微软雅黑", Font.BOLD, 18));
         gameStatusLabel.setForeground(Color.WHITE);
 
+        // 胜率提示
+        hintLabel = new JLabel(" ");
+        hintLabel.setFont(new Font("微软雅黑", Font.PLAIN, 14));
+        hintLabel.setForeground(Color.YELLOW);
+
         panel.add(gameStatusLabel);
+        panel.add(Box.createHorizontalStrut(20));
+        panel.add(hintLabel);
         return panel;
     }
 
@@ -324,6 +457,34 @@ public class BlackjackGUI extends JFrame {
                 status = "游戏准备中...";
         }
         gameStatusLabel.setText(status);
+        updateHint();
+    }
+
+    /**
+     * 更新胜率提示
+     * 只在轮到人类玩家操作时显示要牌/停牌两种选择的胜率和建议，一局结束后显示玩家的余额和战绩
+     */
+    private void updateHint() {
+        if (game.getState() != BlackjackGame.GameState.PLAYING || game.getHuman().isStanding()) {
+            boolean finished = game.getState() != BlackjackGame.GameState.PLAYING
+                    && game.getState() != BlackjackGame.GameState.NOT_STARTED;
+            PlayerProfile profile = profiles != null && finished ? profiles.get(game.getHuman().getId()) : null;
+            String text = profile != null ? String.format("余额 %d | 胜/负/平 %d/%d/%d",
+                    profile.getBalance(), profile.getWins(), profile.getLosses(), profile.getDraws()) : " ";
+            // 排行榜在本局落盘之后才更新，新玩家的第一局可能还没有名次
+            int rank = leaderboard != null && finished
+                    ? leaderboard.rank(Leaderboard.Ranking.WINS, game.getHuman().getId()) : -1;
+            if (rank > 0) {
+                text += String.format(" | 排名 %d/%d", rank, leaderboard.size());
+            }
+            hintLabel.setText(text);
+            return;
+        }
+        WinOracle.Estimate estimate = game.estimateHumanChances();
+        hintLabel.setText(String.format("要牌胜率 %.1f%% | 停牌胜率 %.1f%% | 建议%s",
+                estimate.getHitWinProbability() * 100,
+                estimate.getStandWinProbability() * 100,
+                estimate.isHitBetter() ? "要牌" : "停牌"));
     }
 
     /**
@@ -419,7 +580,7 @@ public class BlackjackGUI extends JFrame {
                         boolean wantsToHit = game.checkComputerWantsToHit();
                         if (wantsToHit) {
                             addMessage("电脑选择了要牌");
-                            game.computerHit();
+                            game.applyComputerDecision(true);
 
                             if (game.getState() == BlackjackGame.GameState.COMPUTER_BUST) {
                                 addMessage("电脑爆牌了！");
@@ -430,7 +591,7 @@ public class BlackjackGUI extends JFrame {
                             }
                         } else {
                             addMessage("电脑选择了停牌");
-                            game.getComputer().setStanding(true);
+                            game.applyComputerDecision(false);
                         }
 
                         updateDisplay();
@@ -477,14 +638,14 @@ public class BlackjackGUI extends JFrame {
                 boolean wantsToHit = game.checkComputerWantsToHit();
                 if (wantsToHit && !game.getComputer().isStanding()) {
                     addMessage("电脑选择了要牌");
-                    game.computerHit();
+                    game.applyComputerDecision(true);
 
                     if (game.getState() == BlackjackGame.GameState.COMPUTER_BUST) {
                         addMessage("电脑爆牌了！");
                     }
                 } else {
                     addMessage("电脑选择了停牌");
-                    game.getComputer().setStanding(true);
+                    game.applyComputerDecision(false);
                 }
 
                 updateDisplay();
@@ -511,6 +672,13 @@ public class BlackjackGUI extends JFrame {
                     e.printStackTrace();
                 }
 
+                try {
+                    // 加载起手牌胜率表（如果存在），用于即时显示起手提示
+                    BlackjackGame.loadStartingHandTable("starting_hands.bin");
+                } catch (java.io.IOException e) {
+                    e.printStackTrace();
+                }
+
                 new BlackjackGUI().setVisible(true);
             }
         });
@@ -4,13 +4,31 @@
  * 管理21点游戏的核心逻辑、状态和流程
  * 负责初始化游戏、处理玩家操作、控制AI行为、判定游戏胜负等核心功能
  * 
- * 该类实现了Serializable接口，支持游戏状态的保存和加载
+ * 游戏状态以紧凑的二进制格式保存和加载（见GameCodec）；
+ * 该类仍实现Serializable接口，以便读取旧版本以Java序列化保存的存档
  * 游戏采用状态模式进行状态管理，通过GameState枚举定义了所有可能的游戏状态
+ *
+ * 每个操作完成后生成一个不可变的GameSnapshot（手牌和牌组与上一个快照共享结构），
+ * 最近的快照保存在撤销历史中：撤销、重做只是在历史中移动并把快照恢复到游戏中，
+ * 假设推演可以用fromSnapshot()从任意快照开出一个独立的游戏
+ *
+ * 游戏本身不是线程安全的，操作应在同一个线程中进行（见ConcurrentGame）；
+ * 最新的快照通过volatile引用发布，渲染、观战、统计等其他线程应通过getSnapshot()读取，
+ * 不需要加锁，也不会读到操作进行到一半的状态
  */
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 
 public class BlackjackGame implements Serializable {
     /**
@@ -20,22 +38,77 @@ public class BlackjackGame implements Serializable {
     private static final long serialVersionUID = 1L;
 
     /**
-     * 游戏使用的牌组
-     * 包含52张标准扑克牌，初始包含四种花色(♠、♥、♦、♣)，每种花色13张牌(1-13)
-     * 在游戏过程中，牌组中的牌会被逐渐抽走
+     * 游戏使用的牌组（牌靴）
+     * 包含deckCount副标准扑克牌，每副四种花色(♠、♥、♦、♣)，每种花色13张牌(1-13)
+     * 洗牌后牌组内容不再改变，发牌时只移动发牌位置deckPos
+     * 与human、computer一起保持旧版本存档的序列化布局，因此不能标记为transient
      */
+    @SuppressWarnings("serial")
     private List<Card> deck = new ArrayList<>(52);
 
+    /**
+     * 发牌位置：下一张要发出的牌在deck中的下标
+     * deckPos之前的牌已经发出，之后的牌为剩余牌组
+     */
+    private int deckPos;
+
+    /**
+     * 随机数生成器，每次洗牌时从中取出一个新的洗牌种子
+     * 可以通过构造方法注入，以便测试、模拟和回放得到可重现的牌序
+     */
+    private Random random;
+
+    /**
+     * 当前牌组的洗牌种子
+     * 牌组完全由副数和种子决定：用new Random(种子)打乱按编码排列的牌靴即可重建
+     */
+    private long shuffleSeed;
+
+    /**
+     * 当前牌组是否由shuffleSeed生成
+     * 从完整牌组的存档恢复后无法得知种子，此时为false，存档只能保存完整牌组
+     */
+    private boolean deckFromSeed;
+
+    /**
+     * 回放操作日志时预先指定的洗牌种子，洗牌时优先按顺序使用，用完后再从random中取
+     */
+    private transient ArrayDeque<Long> replaySeeds;
+
+    /**
+     * 牌靴中牌的副数，默认为1副
+     */
+    private int deckCount = 1;
+
+    /**
+     * 牌靴的渗透率：已发出的牌达到牌靴的这一比例后，下一局开始前重新洗牌
+     * 为0时每局都重新洗牌（默认行为）
+     */
+    private double penetration = 0;
+
+    /**
+     * 算牌使用的计点系统，默认为Hi-Lo
+     */
+    private CardCounter.TagSystem countingSystem = CardCounter.TagSystem.HI_LO;
+
+    /**
+     * 算牌器，每发一张牌以O(1)更新，洗牌时重置
+     * 不参与序列化，加载游戏后按已发出的牌重新建立
+     */
+    private transient CardCounter cardCounter;
+
     /**
      * 代表人类玩家的对象
      * 由用户通过控制台输入进行控制
      */
+    @SuppressWarnings("serial")
     private HumanPlayer human = new HumanPlayer();
 
     /**
      * 代表电脑玩家的对象
      * 由AI决策逻辑自动控制其行为
      */
+    @SuppressWarnings("serial")
     private ComputerPlayer computer = new ComputerPlayer();
 
     /**
@@ -44,6 +117,117 @@ public class BlackjackGame implements Serializable {
      */
     private GameState state = GameState.NOT_STARTED;
 
+    /**
+     * 胜率预测器
+     * 首次查询胜率时才创建，之后随发牌增量更新；不参与序列化，加载游戏后按剩余牌组重新建立
+     */
+    private transient WinOracle oracle;
+
+    /**
+     * 预先计算的起手牌胜率表
+     * 所有游戏实例共享同一份只读的内存映射表，未加载时为null
+     */
+    private static volatile StartingHandTable startingHandTable;
+
+    /**
+     * 游戏事件监听器，不参与序列化
+     */
+    private transient List<GameListener> listeners;
+
+    /**
+     * 后台自动存档，未开启时为null，不参与序列化
+     */
+    private transient Autosaver autosaver;
+
+    /**
+     * 当前一局的局号，每次开局加一，随快照撤销和重做，不参与序列化
+     */
+    private transient int round;
+
+    /**
+     * 已经通知过结果的最大局号；撤销越过已经结束的局之后重新打到这些局时不再计入统计
+     */
+    private transient int reportedRound;
+
+    /**
+     * 最近结束的一局是否是撤销之后重新打的局
+     */
+    private transient boolean replayedRound;
+
+    /**
+     * 撤销历史中最多保存的快照数
+     */
+    public static final int HISTORY_LIMIT = 128;
+
+    /**
+     * 最近一次操作完成后的快照，由操作游戏的线程发布，任意线程都可以读取，不参与序列化
+     */
+    private transient volatile GameSnapshot snapshot;
+
+    /**
+     * 撤销历史，不参与序列化
+     */
+    private transient History history;
+
+    /**
+     * 正在执行的组合操作（playHit、playStand）的嵌套层数，组合操作只在结束时生成一个快照
+     */
+    private transient int actionDepth;
+
+    /**
+     * 撤销历史：固定容量的环形缓冲区，cursor指向当前快照，之后的是可以重做的快照
+     */
+    private static final class History {
+        private final GameSnapshot[] entries = new GameSnapshot[HISTORY_LIMIT];
+        private int start;
+        private int size;
+        private int cursor = -1;
+
+        /**
+         * 在当前快照之后追加一个快照，丢弃可以重做的快照；历史已满时丢弃最早的快照
+         */
+        void push(GameSnapshot entry) {
+            size = cursor + 1;
+            if (size == entries.length) {
+                start = (start + 1) % entries.length;
+                size--;
+            }
+            entries[(start + size) % entries.length] = entry;
+            cursor = size++;
+        }
+
+        GameSnapshot move(int delta) {
+            cursor += delta;
+            return entries[(start + cursor) % entries.length];
+        }
+
+        boolean canUndo() {
+            return cursor > 0;
+        }
+
+        boolean canRedo() {
+            return cursor < size - 1;
+        }
+    }
+
+    /**
+     * 创建游戏，使用新的随机数生成器洗牌
+     */
+    public BlackjackGame() {
+        this(new Random());
+    }
+
+    /**
+     * 创建游戏，使用注入的随机数生成器产生洗牌种子
+     * 相同种子的随机数生成器会产生完全相同的牌序
+     * 
+     * @param random 随机数生成器
+     */
+    public BlackjackGame(Random random) {
+        this.random = random;
+        commit();
+    }
+
     /**
      * 游戏状态枚举
      * 定义了21点游戏中所有可能的状态
@@ -64,27 +248,23 @@ public class BlackjackGame implements Serializable {
      * 开始新的21点游戏
      * 执行以下操作：
      * 1. 重置玩家状态（清空手牌，重置停牌状态）
-     * 2. 初始化牌组（创建52张标准扑克牌）
-     * 3. 洗牌（随机打乱牌组顺序）
-     * 4. 发初始牌（每位玩家发一张牌）
-     * 5. 设置游戏状态为进行中
+     * 2. 需要时初始化牌组并洗牌（默认每局都洗牌；牌靴模式下达到渗透率才洗牌）
+     * 3. 发初始牌（每位玩家发一张牌）
+     * 4. 设置游戏状态为进行中
      */
     public void startGame() {
         // 重置玩家状态
         human.reset();
         computer.reset();
 
-        // 初始化牌组
-        String[] suits = { "\u2660", "\u2665", "\u2666", "\u2663" }; // Unicode花色符号
-        deck.clear();
-        for (String suit : suits) {
-            for (int value = 1; value <= 13; value++) {
-                deck.add(new Card(suit, value));
-            }
+        // 初始化牌组并洗牌
+        if (needsShuffle()) {
+            shuffleShoe();
         }
-
-        // 洗牌
-        Collections.shuffle(deck);
+        computer.setCardCounter(getCardCounter());
+        computer.setOpponent(human);
+        round++;
+        computer.getStrategy().roundStarted(computer);
 
         // 发初始牌（每人发一张牌）
         human.addCard(drawCard());
@@ -92,6 +272,10 @@ public class BlackjackGame implements Serializable {
 
         // 设置游戏状态为进行中
         state = GameState.PLAYING;
+        for (GameListener listener : getListeners()) {
+            listener.roundStarted(this);
+        }
+        commit();
     }
 
     /**
@@ -105,6 +289,7 @@ public class BlackjackGame implements Serializable {
 
         // 检查是否有玩家拿到了Blackjack（21点）
         checkBlackjack();
+        commit();
     }
 
     /**
@@ -115,6 +300,7 @@ public class BlackjackGame implements Serializable {
         if (computer.getHand().size() == 1) {
             computer.addCard(drawCard());
             checkBlackjack();
+            commit();
         }
     }
 
@@ -128,6 +314,55 @@ public class BlackjackGame implements Serializable {
         return computer.shouldHit();
     }
 
+    /**
+     * 计算人类玩家现在要牌或停牌时的胜率
+     * 基于剩余牌组构成和电脑玩家的决策策略进行精确推演，结果会被缓存并随发牌增量复用，
+     * 因此可以在每次发牌后调用以实时显示提示
+     * 
+     * @return 胜率估计结果，包含要牌和停牌两种选择下的获胜与平局概率
+     */
+    public WinOracle.Estimate estimateHumanChances() {
+        List<Card> humanHand = human.getHand();
+        List<Card> computerHand = computer.getHand();
+        StartingHandTable table = startingHandTable;
+        if (table != null && computer.getStrategy().getClass() == ProbabilisticStrategy.class
+                && StartingHandTable.covers(humanHand, computerHand, deck.size(), deck.size() - deckPos)) {
+            return table.lookup(humanHand.get(0), humanHand.get(1), computerHand.get(0), computer.isStanding());
+        }
+        if (oracle == null) {
+            oracle = new WinOracle();
+            oracle.reset(getRemainingDeck());
+        }
+        return oracle.estimate(humanHand, computerHand, computer, computer.isStanding());
+    }
+
+    /**
+     * 加载预先计算的起手牌胜率表
+     * 加载后，起手局面的胜率查询直接读取内存映射的表，不再进行实时计算
+     * 如果文件不存在则保持实时计算，不视为错误
+     * 
+     * @param filename 起手牌胜率表文件名（由StartingHandTable生成）
+     * @return true表示加载成功，false表示文件不存在
+     * @throws IOException 如果文件存在但无法读取或格式不正确
+     */
+    public static boolean loadStartingHandTable(String filename) throws IOException {
+        Path path = Paths.get(filename);
+        if (!Files.exists(path)) {
+            return false;
+        }
+        startingHandTable = StartingHandTable.open(path);
+        return true;
+    }
+
+    /**
+     * 给出人类玩家当前的操作建议
+     * 
+     * @return true表示建议要牌，false表示建议停牌
+     */
+    public boolean isHitRecommended() {
+        return estimateHumanChances().isHitBetter();
+    }
+
     /**
      * 检查玩家是否在初始发牌后就拿到了Blackjack（21点）
      * 这是21点游戏的一个特殊规则：如果玩家在初始的两张牌就拿到21点（A+10/J/Q/K），
@@ -143,28 +378,190 @@ public class BlackjackGame implements Serializable {
         boolean computerBJ = (computer.getTotalScore() == 21);
 
         if (humanBJ && computerBJ) {
-            state = GameState.DRAW;
+            endRound(GameState.DRAW);
         } else if (humanBJ) {
-            state = GameState.HUMAN_WIN;
+            endRound(GameState.HUMAN_WIN);
         } else if (computerBJ) {
-            state = GameState.COMPUTER_WIN;
+            endRound(GameState.COMPUTER_WIN);
+        }
+    }
+
+    /**
+     * 初始化牌靴并洗牌
+     * 创建deckCount副标准扑克牌，随机打乱顺序，重置发牌位置、算牌器和胜率预测器
+     * 
+     * 牌局进行中牌靴发完时，双方手中的牌仍在牌桌上：把新牌靴中对应的牌移到开头并计为已发出，
+     * 同一局中不会再次发出相同的牌，计数也包括这些牌；此时牌序不再只由种子决定
+     */
+    private void shuffleShoe() {
+        if (random == null) {
+            // 旧版本存档中没有随机数生成器
+            random = new Random();
         }
+        if (replaySeeds != null && !replaySeeds.isEmpty()) {
+            shuffleSeed = replaySeeds.poll();
+        } else {
+            shuffleSeed = random.nextLong();
+        }
+        deck = buildShoe(deckCount, shuffleSeed);
+        deckPos = 0;
+        dealInPlayCards(human.getHand());
+        dealInPlayCards(computer.getHand());
+        deckFromSeed = deckPos == 0;
+        if (cardCounter != null) {
+            cardCounter.reset(deck.size());
+            for (int i = 0; i < deckPos; i++) {
+                cardCounter.cardDealt(deck.get(i));
+            }
+        }
+        if (oracle != null) {
+            oracle.reset(getRemainingDeck());
+        }
+        for (GameListener listener : getListeners()) {
+            listener.shuffled(this, shuffleSeed);
+        }
+    }
+
+    /**
+     * 把手中的牌从新牌靴的未发部分移到已发部分的末尾
+     * 
+     * @param hand 玩家手牌
+     */
+    private void dealInPlayCards(List<Card> hand) {
+        for (Card card : hand) {
+            for (int i = deckPos; i < deck.size(); i++) {
+                if (deck.get(i).getCode() == card.getCode()) {
+                    deck.add(deckPos++, deck.remove(i));
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * 按副数和洗牌种子构造打乱后的牌靴
+     * 相同的副数和种子总是得到相同的牌序，因此存档和牌局记录中只需保存种子
+     * 
+     * @param deckCount 牌的副数
+     * @param seed      洗牌种子
+     * @return 打乱后的牌靴
+     */
+    static List<Card> buildShoe(int deckCount, long seed) {
+        List<Card> shoe = new ArrayList<>(52 * deckCount);
+        for (int d = 0; d < deckCount; d++) {
+            // 按编码依次加入♠、♥、♦、♣四种花色的A~K，使用共享的不可变实例
+            for (int code = 0; code < 52; code++) {
+                shoe.add(Card.fromCode(code));
+            }
+        }
+
+        // 洗牌
+        Collections.shuffle(shoe, new Random(seed));
+        return shoe;
     }
 
     /**
      * 从游戏牌组中抽取一张牌
      * 这是一个私有辅助方法，用于游戏内部的牌的发放逻辑
      * 
-     * 如果牌组为空，会自动重新初始化并洗牌，确保游戏能够持续进行
+     * 如果牌组已发完，会自动重新洗牌，确保游戏能够持续进行
      * 
      * @return 从牌组顶部抽取的牌
      */
     private Card drawCard() {
-        if (deck.isEmpty()) {
-            // 如果牌组空了，重新初始化并洗牌
-            startGame();
+        if (deckPos >= deck.size()) {
+            // 如果牌组发完了，重新洗牌
+            shuffleShoe();
         }
-        return deck.remove(0);
+        Card card = deck.get(deckPos++);
+        if (cardCounter != null) {
+            cardCounter.cardDealt(card);
+        }
+        if (oracle != null) {
+            oracle.cardDealt(card);
+        }
+        for (GameListener listener : getListeners()) {
+            listener.cardDrawn(this, card);
+        }
+        return card;
+    }
+
+    /**
+     * 下一次开局时是否会重新洗牌：每局都洗牌，或者牌靴已经发到渗透率
+     *
+     * @return 会重新洗牌返回true
+     */
+    public boolean needsShuffle() {
+        return penetration <= 0 || deckPos >= deck.size() * penetration;
+    }
+
+    /**
+     * 获取剩余牌组（尚未发出的牌）
+     * 
+     * @return 剩余牌组的只读视图
+     */
+    private List<Card> getRemainingDeck() {
+        return Collections.unmodifiableList(deck.subList(deckPos, deck.size()));
+    }
+
+    /**
+     * 设置牌靴模式
+     * 牌靴模式下多副牌混合使用，并且不是每局都洗牌，而是发到渗透率后才重新洗牌，
+     * 这样已发出的牌会影响后续牌局，算牌才有意义
+     * 设置在下一次洗牌时生效
+     * 
+     * @param deckCount   牌的副数（1~8）
+     * @param penetration 渗透率（0~1），为0时每局都洗牌
+     */
+    public void setShoe(int deckCount, double penetration) {
+        if (deckCount < 1 || deckCount > 8) {
+            throw new IllegalArgumentException("牌的副数必须在1到8之间: " + deckCount);
+        }
+        if (penetration < 0 || penetration > 1) {
+            throw new IllegalArgumentException("渗透率必须在0到1之间: " + penetration);
+        }
+        this.deckCount = deckCount;
+        this.penetration = penetration;
+        // 强制下一局重新洗牌
+        this.deckPos = deck.size();
+        for (GameListener listener : getListeners()) {
+            listener.settingsChanged(this);
+        }
+        commit();
+    }
+
+    /**
+     * 获取算牌器
+     * 算牌器随每张发出的牌以O(1)更新，策略可以直接读取当前的流水计数和真数
+     * 
+     * @return 算牌器
+     */
+    public CardCounter getCardCounter() {
+        if (cardCounter == null) {
+            // 首次使用或加载游戏后，按本次洗牌以来已发出的牌重建计数
+            cardCounter = new CardCounter(countingSystem);
+            cardCounter.reset(deck.size());
+            for (int i = 0; i < deckPos; i++) {
+                cardCounter.cardDealt(deck.get(i));
+            }
+        }
+        return cardCounter;
+    }
+
+    /**
+     * 设置算牌使用的计点系统
+     * 会按本次洗牌以来已发出的牌重新计算计数
+     * 
+     * @param system 计点系统
+     */
+    public void setCountingSystem(CardCounter.TagSystem system) {
+        this.countingSystem = system;
+        this.cardCounter = null;
+        computer.setCardCounter(getCardCounter());
+        for (GameListener listener : getListeners()) {
+            listener.settingsChanged(this);
+        }
+        commit();
     }
 
     /**
@@ -183,10 +580,17 @@ public class BlackjackGame implements Serializable {
         if (state != GameState.PLAYING || human.isStanding())
             return;
 
+        if (round > reportedRound) {
+            human.getActionModel().recordHit(human.getTotalScore());
+        }
         human.addCard(drawCard());
+        for (GameListener listener : getListeners()) {
+            listener.humanHit(this);
+        }
         if (human.getTotalScore() > 21) {
-            state = GameState.HUMAN_BUST;
+            endRound(GameState.HUMAN_BUST);
         }
+        commit();
     }
 
     /**
@@ -194,15 +598,23 @@ public class BlackjackGame implements Serializable {
      * 
      * 执行此操作的条件：
      * 1. 游戏状态必须是PLAYING
+     * 2. 人类玩家尚未停牌
      * 
      * 执行操作：
      * 1. 将人类玩家的停牌状态设置为true
      */
     public void humanStand() {
-        if (state != GameState.PLAYING)
+        if (state != GameState.PLAYING || human.isStanding())
             return;
 
+        if (round > reportedRound) {
+            human.getActionModel().recordStand(human.getTotalScore());
+        }
         human.setStanding(true);
+        for (GameListener listener : getListeners()) {
+            listener.humanStood(this);
+        }
+        commit();
     }
 
     /**
@@ -213,15 +625,32 @@ public class BlackjackGame implements Serializable {
         if (state != GameState.PLAYING || computer.isStanding())
             return;
 
-        boolean wantsToHit = computer.shouldHit();
-        if (wantsToHit) {
+        applyComputerDecision(computer.shouldHit());
+    }
+
+    /**
+     * 执行电脑玩家已经做出的决策
+     * 界面先通过checkComputerWantsToHit()取得并显示决策时，应调用此方法执行同一个决策，
+     * 而不是调用computerHit()重新决策；回放操作日志时也通过此方法重现电脑的决策
+     * 
+     * @param hit true表示要牌，false表示停牌
+     */
+    public void applyComputerDecision(boolean hit) {
+        if (state != GameState.PLAYING || computer.isStanding())
+            return;
+
+        if (hit) {
             computer.addCard(drawCard());
-            if (computer.getTotalScore() > 21) {
-                state = GameState.COMPUTER_BUST;
-            }
         } else {
             computer.setStanding(true);
         }
+        for (GameListener listener : getListeners()) {
+            listener.computerDecided(this, hit);
+        }
+        if (hit && computer.getTotalScore() > 21) {
+            endRound(GameState.COMPUTER_BUST);
+        }
+        commit();
     }
 
     /**
@@ -239,7 +668,47 @@ public class BlackjackGame implements Serializable {
     public void finalizeGame() {
         if (state == GameState.PLAYING && human.isStanding() && computer.isStanding()) {
             determineWinner();
+            commit();
+        }
+    }
+
+    /**
+     * 按控制台和图形界面相同的回合顺序处理一次人类玩家要牌
+     * 人类玩家要牌后，如果游戏仍在进行且电脑未停牌，电脑进行一次决策；
+     * 如果此时游戏结束，确定最终胜负
+     */
+    public void playHit() {
+        actionDepth++;
+        try {
+            humanHit();
+            if (state == GameState.PLAYING && !computer.isStanding()) {
+                computerHit();
+            }
+            if (isGameOver()) {
+                finalizeGame();
+            }
+        } finally {
+            actionDepth--;
         }
+        commit();
+    }
+
+    /**
+     * 按控制台和图形界面相同的回合顺序处理人类玩家停牌
+     * 人类玩家停牌后，电脑持续决策直到停牌或爆牌，然后确定最终胜负
+     */
+    public void playStand() {
+        actionDepth++;
+        try {
+            humanStand();
+            while (!isGameOver()) {
+                computerHit();
+            }
+            finalizeGame();
+        } finally {
+            actionDepth--;
+        }
+        commit();
     }
 
     /**
@@ -259,11 +728,96 @@ public class BlackjackGame implements Serializable {
         int computerScore = computer.getTotalScore();
 
         if (humanScore > computerScore) {
-            state = GameState.HUMAN_WIN;
+            endRound(GameState.HUMAN_WIN);
         } else if (humanScore < computerScore) {
-            state = GameState.COMPUTER_WIN;
+            endRound(GameState.COMPUTER_WIN);
         } else {
-            state = GameState.DRAW;
+            endRound(GameState.DRAW);
+        }
+    }
+
+    /**
+     * 结束本局游戏并设置最终状态
+     * 如果本局之前仍在进行中，通知电脑策略本局结果（例如供策略选择器更新统计）
+     * 撤销越过已经结束的局再重新打完时，电脑策略不再计入，监听器仍会收到通知，
+     * 由isReplayedRound区分：记录牌局过程的监听器照常记录，统计结果的监听器应当跳过
+     * 
+     * @param result 本局的最终状态
+     */
+    private void endRound(GameState result) {
+        boolean wasPlaying = (state == GameState.PLAYING);
+        state = result;
+        if (wasPlaying) {
+            replayedRound = round <= reportedRound;
+            if (!replayedRound) {
+                reportedRound = round;
+                computer.getStrategy().roundFinished(computer, result);
+            }
+            for (GameListener listener : getListeners()) {
+                listener.roundFinished(this, result);
+            }
+        }
+    }
+
+    /**
+     * 最近结束的一局是否是撤销越过它之后重新打完的局
+     * 这样的局第一次结束时已经通知过结果，统计胜负的监听器（档案库、排行榜）应当跳过，
+     * 统计保留第一次的结果，与电脑策略和人类行为模型已经学到的统计不随撤销回退一致
+     *
+     * @return 重新打完的局返回true
+     */
+    public boolean isReplayedRound() {
+        return replayedRound;
+    }
+
+    /**
+     * 添加游戏事件监听器
+     * 
+     * @param listener 监听器
+     */
+    public void addGameListener(GameListener listener) {
+        getListeners().add(listener);
+    }
+
+    /**
+     * 移除游戏事件监听器
+     * 
+     * @param listener 监听器
+     */
+    public void removeGameListener(GameListener listener) {
+        getListeners().remove(listener);
+    }
+
+    /**
+     * 获取监听器列表；从旧版本存档反序列化后该字段为null，在此重新创建
+     * 使用写时复制列表，监听器可以在回调中移除自己
+     */
+    private List<GameListener> getListeners() {
+        if (listeners == null) {
+            listeners = new CopyOnWriteArrayList<>();
+        }
+        return listeners;
+    }
+
+    /**
+     * 指定下一次洗牌使用的种子，供回放操作日志时重现与记录时相同的牌组
+     * 可以多次调用，依次对应之后的各次洗牌
+     * 
+     * @param seed 洗牌种子
+     */
+    void replayShuffleSeed(long seed) {
+        if (replaySeeds == null) {
+            replaySeeds = new ArrayDeque<>();
+        }
+        replaySeeds.add(seed);
+    }
+
+    /**
+     * 清除尚未使用的回放洗牌种子
+     */
+    void clearReplayShuffleSeeds() {
+        if (replaySeeds != null) {
+            replaySeeds.clear();
         }
     }
 
@@ -318,6 +872,147 @@ public class BlackjackGame implements Serializable {
         return computer.getTotalScore();
     }
 
+    /**
+     * 获取最近一次操作完成后的不可变快照，可以在任意线程中调用
+     * 组合操作（playHit、playStand）进行中时返回操作开始前的快照；
+     * 直接修改玩家对象（例如测试中）的改动要到下一次操作完成后才会反映在快照中
+     *
+     * @return 当前的快照
+     */
+    public GameSnapshot getSnapshot() {
+        return snapshot;
+    }
+
+    /**
+     * @return 是否可以撤销
+     */
+    public boolean canUndo() {
+        return history != null && history.canUndo();
+    }
+
+    /**
+     * @return 是否可以重做
+     */
+    public boolean canRedo() {
+        return history != null && history.canRedo();
+    }
+
+    /**
+     * 撤销最近一次操作，恢复到上一个快照
+     * 组合操作（playHit、playStand）作为一次操作撤销；电脑策略和人类行为模型已经学到的统计不会撤销，
+     * 撤销越过已经结束的局之后重新打的同一局也不会再计入这些统计（见isReplayedRound）
+     *
+     * @return 是否撤销了操作
+     */
+    public boolean undo() {
+        if (!canUndo()) {
+            return false;
+        }
+        applySnapshot(history.move(-1));
+        return true;
+    }
+
+    /**
+     * 重做最近一次撤销的操作
+     *
+     * @return 是否重做了操作
+     */
+    public boolean redo() {
+        if (!canRedo()) {
+            return false;
+        }
+        applySnapshot(history.move(1));
+        return true;
+    }
+
+    /**
+     * 把游戏恢复到一个快照（例如前瞻搜索结束后回到搜索前的状态），作为一次新的操作记入撤销历史
+     *
+     * @param target 要恢复的快照，可以来自其他游戏
+     */
+    public void restoreSnapshot(GameSnapshot target) {
+        applySnapshot(target);
+        commit();
+    }
+
+    /**
+     * 从快照开出一个独立的游戏，用于假设推演；新游戏的操作不影响原来的游戏
+     *
+     * @param source 快照
+     * @return 处于该快照状态的新游戏
+     */
+    public static BlackjackGame fromSnapshot(GameSnapshot source) {
+        BlackjackGame game = new BlackjackGame();
+        game.applySnapshot(source);
+        game.publishSnapshot();
+        return game;
+    }
+
+    /**
+     * 一个操作完成后生成新的快照并记入撤销历史；组合操作进行中时推迟到组合操作结束
+     */
+    private void commit() {
+        if (actionDepth > 0) {
+            return;
+        }
+        GameSnapshot previous = snapshot;
+        GameSnapshot current = new GameSnapshot(state,
+                GameSnapshot.Hand.extend(previous != null ? previous.getHumanHand() : GameSnapshot.Hand.EMPTY, human.hand),
+                GameSnapshot.Hand.extend(previous != null ? previous.getComputerHand() : GameSnapshot.Hand.EMPTY,
+                        computer.hand),
+                human.isStanding(), computer.isStanding(), deck, deckPos, shuffleSeed, deckFromSeed, deckCount,
+                penetration, countingSystem, round);
+        if (history == null) {
+            history = new History();
+        }
+        history.push(current);
+        // 快照的所有字段都是final，发布之后其他线程看到的一定是完整的快照
+        snapshot = current;
+    }
+
+    /**
+     * 丢弃撤销历史，把当前状态发布为历史中唯一的快照
+     * 用于从存档恢复之后，以及直接修改了玩家对象之后
+     */
+    void publishSnapshot() {
+        history = null;
+        commit();
+    }
+
+    /**
+     * 把快照恢复到游戏中：牌组直接引用快照中的牌组，手牌按快照重新建立
+     * 快照中的牌组洗牌后不再改变，因此游戏和所有快照可以共享同一个牌组
+     */
+    private void applySnapshot(GameSnapshot target) {
+        deck = target.getDeck();
+        deckPos = target.getDeckPosition();
+        shuffleSeed = target.getShuffleSeed();
+        deckFromSeed = target.isDeckFromSeed();
+        deckCount = target.getDeckCount();
+        penetration = target.getPenetration();
+        countingSystem = target.getCountingSystem();
+        round = target.getRound();
+        state = target.getState();
+        human.reset();
+        for (Card card : target.getHumanHand()) {
+            human.addCard(card);
+        }
+        human.setStanding(target.isHumanStanding());
+        computer.reset();
+        for (Card card : target.getComputerHand()) {
+            computer.addCard(card);
+        }
+        computer.setStanding(target.isComputerStanding());
+        cardCounter = null;
+        oracle = null;
+        computer.setCardCounter(getCardCounter());
+        computer.setOpponent(human);
+        snapshot = target;
+        for (GameListener listener : getListeners()) {
+            listener.stateRestored(this);
+        }
+    }
+
     /**
      * 格式化显示卡牌列表
      * 
@@ -334,34 +1029,204 @@ public class BlackjackGame implements Serializable {
 
     /**
      * 将当前游戏状态保存到文件中
-     * 利用Java序列化机制将整个游戏对象（包括玩家状态、牌组、游戏状态）保存到文件
+     * 使用紧凑的二进制存档格式（见GameCodec），每张牌只占一个字节
      * 
      * @param filename 保存游戏状态的文件名
      * @throws IOException 如果在保存过程中发生IO错误
      */
     public void saveGame(String filename) throws IOException {
-        try (ObjectOutputStream oos = new ObjectOutputStream(
-                new FileOutputStream(filename))) {
-            oos.writeObject(this);
+        saveGame(filename, GameCodec.DeckEncoding.FULL);
+    }
+
+    /**
+     * 将当前游戏状态保存到文件中，并指定牌组的保存方式
+     * 使用DeckEncoding.SEED时只保存洗牌种子和发牌位置，牌组部分只占十几个字节
+     * 
+     * @param filename 保存游戏状态的文件名
+     * @param encoding 牌组的保存方式
+     * @throws IOException 如果在保存过程中发生IO错误
+     */
+    public void saveGame(String filename, GameCodec.DeckEncoding encoding) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            GameCodec.write(this, channel, encoding);
+        }
+    }
+
+    /**
+     * 开启后台自动存档
+     * 之后每次操作都会把游戏标记为需要保存，由后台线程最多每intervalMillis毫秒写一次存档文件，
+     * 调用线程不会因写盘而阻塞（见Autosaver）；已经开启时先关闭原来的自动存档
+     *
+     * @param filename       存档文件名
+     * @param intervalMillis 两次写盘之间的最小间隔（毫秒）
+     * @throws IOException 如果关闭原来的自动存档时写盘失败
+     */
+    public void enableAutosave(String filename, long intervalMillis) throws IOException {
+        disableAutosave();
+        autosaver = Autosaver.start(this, Paths.get(filename), intervalMillis);
+    }
+
+    /**
+     * 关闭后台自动存档，写入最后的状态并等待写盘完成
+     *
+     * @throws IOException 如果写盘失败
+     */
+    public void disableAutosave() throws IOException {
+        Autosaver current = autosaver;
+        autosaver = null;
+        if (current != null) {
+            current.close();
         }
     }
 
+    /**
+     * @return 当前的自动存档，未开启时为null
+     */
+    public Autosaver getAutosaver() {
+        return autosaver;
+    }
+
     /**
      * 从文件中加载之前保存的游戏状态
-     * 使用Java反序列化机制恢复整个游戏对象的状态
+     * 根据文件开头的魔数自动识别格式：二进制存档由GameCodec解码，
+     * 其他文件按旧版本的Java序列化格式读取
      * 
      * @param filename 包含游戏状态的文件名
      * @return 从文件中恢复的游戏对象
      * @throws IOException            如果在加载过程中发生IO错误
-     * @throws ClassNotFoundException 如果加载的对象所属的类无法找到
+     * @throws ClassNotFoundException 如果旧格式存档中的对象所属的类无法找到
      */
     public static BlackjackGame loadGame(String filename) throws IOException, ClassNotFoundException {
+        try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ)) {
+            ByteBuffer magic = ByteBuffer.allocate(4);
+            while (magic.hasRemaining() && channel.read(magic) >= 0) {
+                // 读取文件开头的魔数
+            }
+            if (magic.position() == 4 && magic.getInt(0) == GameCodec.MAGIC) {
+                channel.position(0);
+                return GameCodec.read(channel);
+            }
+        }
         try (ObjectInputStream ois = new ObjectInputStream(
                 new FileInputStream(filename))) {
+            // 旧格式的存档可能来自不可信的来源，只允许BlackjackGame实际包含的类
+            ois.setObjectInputFilter(SaveMigrator.FILTER);
             return (BlackjackGame) ois.readObject();
         }
     }
 
+    /**
+     * 反序列化之后发布恢复的状态，快照不参与序列化
+     */
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        publishSnapshot();
+    }
+
+    /**
+     * 获取完整的牌组（包括已发出的牌），供存档编码使用
+     * 
+     * @return 牌组的只读视图
+     */
+    List<Card> getDeck() {
+        return Collections.unmodifiableList(deck);
+    }
+
+    /**
+     * 获取发牌位置，供存档编码使用
+     * 
+     * @return 下一张要发出的牌在牌组中的下标
+     */
+    int getDeckPosition() {
+        return deckPos;
+    }
+
+    /**
+     * 获取当前牌组的洗牌种子
+     * 
+     * @return 洗牌种子
+     */
+    public long getShuffleSeed() {
+        return shuffleSeed;
+    }
+
+    /**
+     * 判断当前牌组是否可以由洗牌种子重建
+     * 
+     * @return true表示牌组由getShuffleSeed()生成
+     */
+    public boolean isDeckFromSeed() {
+        return deckFromSeed;
+    }
+
+    /**
+     * @return 牌靴中牌的副数
+     */
+    public int getDeckCount() {
+        return deckCount;
+    }
+
+    /**
+     * @return 牌靴的渗透率，为0表示每局都洗牌
+     */
+    public double getPenetration() {
+        return penetration;
+    }
+
+    /**
+     * @return 算牌使用的计点系统
+     */
+    public CardCounter.TagSystem getCountingSystem() {
+        return countingSystem;
+    }
+
+    /**
+     * 从存档恢复由种子生成的牌组和游戏状态（玩家手牌由调用者恢复）
+     * 按副数和种子重建与保存时完全相同的牌序
+     * 
+     * @param shuffleSeed    洗牌种子
+     * @param deckPos        发牌位置
+     * @param deckCount      牌的副数
+     * @param penetration    渗透率
+     * @param countingSystem 计点系统
+     * @param state          游戏状态
+     */
+    void restoreFromSeed(long shuffleSeed, int deckPos, int deckCount, double penetration,
+            CardCounter.TagSystem countingSystem, GameState state) {
+        restore(buildShoe(deckCount, shuffleSeed), deckPos, deckCount, penetration, countingSystem, state);
+        this.shuffleSeed = shuffleSeed;
+        this.deckFromSeed = true;
+        publishSnapshot();
+    }
+
+    /**
+     * 从存档恢复牌组和游戏状态（玩家手牌由调用者恢复）
+     * 算牌器和胜率预测器会在下次使用时按恢复后的牌组重新建立；
+     * 调用者恢复手牌之后应调用publishSnapshot()发布恢复后的状态
+     * 
+     * @param deck           完整的牌组
+     * @param deckPos        发牌位置
+     * @param deckCount      牌的副数
+     * @param penetration    渗透率
+     * @param countingSystem 计点系统
+     * @param state          游戏状态
+     */
+    void restore(List<Card> deck, int deckPos, int deckCount, double penetration,
+            CardCounter.TagSystem countingSystem, GameState state) {
+        this.deck = new ArrayList<>(deck);
+        this.deckFromSeed = false;
+        this.deckPos = deckPos;
+        this.deckCount = deckCount;
+        this.penetration = penetration;
+        this.countingSystem = countingSystem;
+        this.state = state;
+        this.cardCounter = null;
+        this.oracle = null;
+        computer.setCardCounter(getCardCounter());
+        computer.setOpponent(human);
+    }
+
     /**
      * 获取人类玩家对象的引用
      * 这个方法主要用于外部访问游戏中的人类玩家实例
@@ -10,7 +10,42 @@
  * 
  * 注意：本测试类使用手动测试方法，通过条件判断和控制台输出来验证测试结果
  */
+import java.io.File;
+import java.io.IOException;
+import java.io.InvalidClassException;
+import java.io.NotSerializableException;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.ObjectStreamConstants;
+import java.io.ObjectStreamField;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class BlackjackGameTest {
     
@@ -31,6 +66,33 @@ public class BlackjackGameTest {
         test.testComputerDecisionMaking();
         test.testAceSpecialHandling();
         test.testGameWinnerDetermination();
+        test.testWinOracle();
+        test.testBanditStrategy();
+        test.testAdaptiveStrategy();
+        test.testOpponentModelFiles();
+        test.testStartingHandTable();
+        test.testMidRoundReshuffle();
+        test.testSaveAndLoad();
+        test.testGameJournal();
+        test.testHandHistory();
+        test.testHandHistoryArchive();
+        test.testSaveCatalog();
+        test.testAutosave();
+        test.testProfileStore();
+        test.testLeaderboard();
+        test.testHandHistoryIndex();
+        test.testColumnarWriter();
+        test.testSimulatorShoeBoundary();
+        test.testHandHistoryAnalytics();
+        test.testHandHistoryImporter();
+        test.testGameReplay();
+        test.testUndoRedo();
+        test.testUndoReplayedRounds();
+        test.testSaveMigrator();
+        test.testConcurrentGame();
+        test.testPublishedSnapshot();
+        test.testGameHttpServer();
+        test.testGameNioServer();
         
         System.out.println("===== 测试运行完成 =====");
     }
@@ -241,4 +303,1887 @@ public class BlackjackGameTest {
             System.out.println("✗ 测试失败：电脑爆牌应该玩家获胜，但实际状态是：" + game.getState());
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * 测试胜率预测与操作提示
+     * 
+     * 测试场景：
+     * 1. 要牌和停牌的获胜概率、平局概率都在合理范围内
+     * 2. 20点时建议停牌
+     * 3. 一轮要牌（人类要牌、电脑决策）后再次查询可以复用缓存，耗时在1毫秒以内
+     * 4. 策略选择器换用另一个子策略后，不会复用之前子策略的缓存结果
+     * 5. 算牌策略在推演中使用计入假设发出的牌之后的真数，与逐张模拟的结果一致
+     */
+    public void testWinOracle() {
+        BlackjackGame game = new BlackjackGame();
+        game.startGame();
+
+        WinOracle.Estimate estimate = game.estimateHumanChances();
+        double hitTotal = estimate.getHitWinProbability() + estimate.getHitDrawProbability();
+        double standTotal = estimate.getStandWinProbability() + estimate.getStandDrawProbability();
+        if (hitTotal >= 0 && hitTotal <= 1.0000001 && standTotal >= 0 && standTotal <= 1.0000001) {
+            System.out.println("✓ 测试通过：胜率在0到1之间");
+        } else {
+            System.out.println("✗ 测试失败：胜率超出范围，要牌：" + hitTotal + "，停牌：" + standTotal);
+        }
+
+        HumanPlayer human = game.getHuman();
+        human.reset();
+        human.addCard(new Card("♥", 10));
+        human.addCard(new Card("♦", 10)); // 20点
+        if (!game.isHitRecommended()) {
+            System.out.println("✓ 测试通过：20点时建议停牌");
+        } else {
+            System.out.println("✗ 测试失败：20点时应该建议停牌");
+        }
+
+        human.reset();
+        human.addCard(new Card("♥", 5));
+        game.estimateHumanChances();
+        game.humanHit();
+        game.computerHit();
+        long start = System.nanoTime();
+        game.estimateHumanChances();
+        double elapsedMs = (System.nanoTime() - start) / 1_000_000.0;
+        if (elapsedMs < 1.0) {
+            System.out.println("✓ 测试通过：发牌后查询胜率耗时小于1毫秒 (实际: " + elapsedMs + "ms)");
+        } else {
+            System.out.println("✗ 测试失败：发牌后查询胜率耗时应小于1毫秒，但实际是：" + elapsedMs + "ms");
+        }
+
+        // 两个子策略：12点起停牌，和21点以下一直要牌
+        ComputerStrategy cautious = new CountingStrategy(12, 12, 12);
+        ComputerStrategy greedy = new CountingStrategy(21, 21, 21);
+        ComputerPlayer computer = game.getComputer();
+        computer.setStrategy(greedy);
+        double expected = game.estimateHumanChances().getStandWinProbability();
+        computer.setStrategy(new BanditStrategy(cautious, greedy));
+        computer.setStrategyArm(0);
+        double first = game.estimateHumanChances().getStandWinProbability();
+        computer.setStrategyArm(1);
+        double second = game.estimateHumanChances().getStandWinProbability();
+        if (second == expected && first != expected) {
+            System.out.println("✓ 测试通过：换用子策略后胜率按新的子策略重新计算");
+        } else {
+            System.out.println("✗ 测试失败：换用子策略后胜率应为" + expected + "，但实际是：" + second);
+        }
+
+        BlackjackGame counting = new BlackjackGame();
+        counting.startGame();
+        CountingStrategy strategy = new CountingStrategy(17, 12, 21);
+        counting.getComputer().setStrategy(strategy);
+        counting.getHuman().reset();
+        counting.getHuman().addCard(new Card("♥", 10));
+        counting.getHuman().addCard(new Card("♦", 10)); // 20点
+        counting.getComputer().setHand(Arrays.asList(new Card("♠", 10), new Card("♣", 2))); // 12点
+        int[] left = new int[10];
+        for (int i = counting.getDeckPosition(); i < counting.getDeck().size(); i++) {
+            left[counting.getDeck().get(i).getScore() - 1]++;
+        }
+        double simulated = standWinWithCount(strategy, counting.getCardCounter(), 20, 12, false, left, 0, 0);
+        double predicted = counting.estimateHumanChances().getStandWinProbability();
+        if (Math.abs(simulated - predicted) < 1e-9) {
+            System.out.println("✓ 测试通过：算牌策略的推演计入了假设发出的牌 (停牌胜率: " + predicted + ")");
+        } else {
+            System.out.println("✗ 测试失败：算牌策略的停牌胜率应为" + simulated + "，但实际是：" + predicted);
+        }
+    }
+
+    /**
+     * 测试策略选择器在多局并发共享时的统计
+     * 冷启动时每个策略恰好先被选中一次；没有选定策略的局不计入任何策略；
+     * 多个线程同时开局和结束时，所有局都计入并且只计入一次
+     */
+    public void testBanditStrategy() {
+        ComputerStrategy[] arms = new ComputerStrategy[3];
+        for (int i = 0; i < arms.length; i++) {
+            arms[i] = new CountingStrategy(15 + i, 15 + i, 15 + i);
+        }
+        BanditStrategy bandit = new BanditStrategy(arms);
+        // 三局同时开始，第一局结束之前每个策略各被选中一次
+        ComputerPlayer[] players = new ComputerPlayer[arms.length];
+        Set<Integer> chosen = new HashSet<>();
+        for (int i = 0; i < players.length; i++) {
+            players[i] = new ComputerPlayer();
+            bandit.roundStarted(players[i]);
+            chosen.add(players[i].getStrategyArm());
+        }
+        boolean ok = chosen.size() == arms.length;
+        for (ComputerPlayer player : players) {
+            bandit.roundFinished(player, BlackjackGame.GameState.COMPUTER_WIN);
+            // 同一局再次报告结束不会重复计入
+            bandit.roundFinished(player, BlackjackGame.GameState.COMPUTER_WIN);
+        }
+        // 没有选定策略的局不计入第0个策略
+        bandit.roundFinished(new ComputerPlayer(), BlackjackGame.GameState.HUMAN_WIN);
+        for (int i = 0; i < arms.length; i++) {
+            ok = ok && bandit.getPulls(i) == 1 && bandit.getMeanReward(i) == 1.0;
+        }
+
+        int threads = 8;
+        int rounds = 20_000;
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                futures.add(pool.submit(() -> {
+                    ComputerPlayer player = new ComputerPlayer();
+                    Random random = new Random();
+                    for (int r = 0; r < rounds; r++) {
+                        bandit.roundStarted(player);
+                        bandit.roundFinished(player, random.nextBoolean() ? BlackjackGame.GameState.COMPUTER_WIN
+                                : BlackjackGame.GameState.HUMAN_WIN);
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (Exception e) {
+            ok = false;
+        } finally {
+            pool.shutdown();
+        }
+        long total = 0;
+        for (int i = 0; i < arms.length; i++) {
+            total += bandit.getPulls(i);
+        }
+        ok = ok && total == arms.length + (long) threads * rounds;
+        if (ok) {
+            System.out.println("✓ 测试通过：策略选择器冷启动时轮流选择，并发共享时每局只计入一次 (" + total + "局)");
+        } else {
+            System.out.println("✗ 测试失败：策略选择器的选择或统计不正确：冷启动选中" + chosen + "，共计入" + total + "局");
+        }
+    }
+
+    /**
+     * 逐张模拟电脑按算牌策略要牌，人类玩家以humanScore停牌，每发出一张牌都计入真数
+     *
+     * @return 人类玩家的获胜概率
+     */
+    private static double standWinWithCount(CountingStrategy strategy, CardCounter counter, int humanScore,
+            int hard, boolean ace, int[] left, int running, int seen) {
+        int score = ace && hard + 10 <= 21 ? hard + 10 : hard;
+        int total = 0;
+        for (int n : left) {
+            total += n;
+        }
+        if (total == 0 || score >= strategy.getStandScore(counter.getTrueCount(running, seen))) {
+            return humanScore > score ? 1 : 0;
+        }
+        double win = 0;
+        for (int r = 0; r < left.length; r++) {
+            if (left[r] == 0) {
+                continue;
+            }
+            double prob = (double) left[r] / total;
+            if (hard + r + 1 > 21) {
+                win += prob; // 电脑爆牌
+                continue;
+            }
+            left[r]--;
+            win += prob * standWinWithCount(strategy, counter, humanScore, hard + r + 1, ace || r == 0, left,
+                    running + counter.getTag(r + 1), seen + 1);
+            left[r]++;
+        }
+        return win;
+    }
+
+    /**
+     * 测试自适应策略
+     * 模拟人类玩家总是在18点停牌的习惯，验证电脑据此调整要牌概率
+     * 
+     * 测试场景：
+     * 1. 电脑17点时（预计会被玩家超过）要牌概率较高
+     * 2. 电脑19点时（预计已超过玩家）要牌概率较低
+     * 3. 胜率预测推演人类停牌之后的局面时，策略按假设的停牌点数决策，而不是牌桌上的实际状态
+     * 4. 模型学习到新的记录后，胜率预测不会复用之前的缓存结果
+     */
+    public void testAdaptiveStrategy() {
+        HumanPlayer human = new HumanPlayer();
+        for (int i = 0; i < 1000; i++) {
+            human.getActionModel().recordHit(12);
+            human.getActionModel().recordStand(18);
+        }
+        ComputerPlayer computer = new ComputerPlayer();
+        computer.setOpponent(human);
+        computer.setStrategy(new AdaptiveStrategy());
+
+        double at17 = computer.getHitProbability(17);
+        double at19 = computer.getHitProbability(19);
+        if (at17 > 0.9 && at19 < 0.1) {
+            System.out.println("✓ 测试通过：电脑根据玩家习惯调整要牌概率 (17点: " + at17 + ", 19点: " + at19 + ")");
+        } else {
+            System.out.println("✗ 测试失败：电脑应根据玩家习惯调整要牌概率，但17点为：" + at17 + "，19点为：" + at19);
+        }
+
+        BlackjackGame game = new BlackjackGame();
+        game.startGame();
+        game.getHuman().reset();
+        game.getHuman().addCard(new Card("♥", 10));
+        game.getHuman().addCard(new Card("♦", 10)); // 20点，尚未停牌
+        game.getComputer().setHand(Arrays.asList(new Card("♠", 10), new Card("♣", 9))); // 19点
+        for (int i = 0; i < 1000; i++) {
+            game.getHuman().getActionModel().recordStand(18);
+        }
+        game.getComputer().setStrategy(new AdaptiveStrategy());
+        // 推演中人类以20点停牌，19点的电脑必定要牌，因此人类停牌并不是必胜
+        double standWin = game.estimateHumanChances().getStandWinProbability();
+        if (standWin < 0.99) {
+            System.out.println("✓ 测试通过：胜率预测按假设的停牌点数推演电脑的决策 (停牌胜率: " + standWin + ")");
+        } else {
+            System.out.println("✗ 测试失败：胜率预测应按假设的停牌点数推演电脑的决策，但停牌胜率是：" + standWin);
+        }
+
+        double before = game.estimateHumanChances().getHitWinProbability();
+        for (int i = 0; i < 5000; i++) {
+            game.getHuman().getActionModel().recordStand(21);
+        }
+        double learned = game.estimateHumanChances().getHitWinProbability();
+        game.getComputer().setStrategy(new AdaptiveStrategy());
+        double fresh = game.estimateHumanChances().getHitWinProbability();
+        if (learned == fresh && learned != before) {
+            System.out.println("✓ 测试通过：模型更新后胜率预测重新推演");
+        } else {
+            System.out.println("✗ 测试失败：模型更新后胜率预测应为" + fresh + "，但实际是：" + learned);
+        }
+    }
+
+    /**
+     * 测试对手模型的保存和加载
+     * 验证保存后加载的模型与原模型的统计完全相同，每名玩家的模型保存在各自的文件中，
+     * 并且保存不留下临时文件
+     */
+    public void testOpponentModelFiles() {
+        try {
+            Path dir = Files.createTempDirectory("models");
+            OpponentModel model = new OpponentModel();
+            Random random = new Random(3);
+            for (int i = 0; i < 2000; i++) {
+                int score = 4 + random.nextInt(28);
+                if (random.nextBoolean()) {
+                    model.recordHit(score);
+                } else {
+                    model.recordStand(score);
+                }
+            }
+            model.save(dir, "玩家甲");
+            OpponentModel other = new OpponentModel();
+            other.recordStand(12);
+            other.save(dir, "player/../乙");
+            String longId = "x".repeat(200);
+            model.save(dir, longId);
+
+            OpponentModel loaded = OpponentModel.load(dir, "玩家甲");
+            boolean ok = loaded.getStandCount() == model.getStandCount();
+            for (int score = 0; score <= 32; score++) {
+                ok = ok && loaded.getStandProbability(score) == model.getStandProbability(score)
+                        && loaded.getStandAboveRate(score) == model.getStandAboveRate(score);
+            }
+            ok = ok && OpponentModel.load(dir, "player/../乙").getStandCount() == 1
+                    && OpponentModel.load(dir, "玩家乙").getStandCount() == 0
+                    && OpponentModel.load(dir, longId).getStandCount() == model.getStandCount();
+            try (java.util.stream.Stream<Path> files = Files.list(dir)) {
+                ok = ok && files.allMatch(f -> f.getFileName().toString().endsWith(".bin"));
+            }
+            if (ok) {
+                System.out.println("✓ 测试通过：对手模型按玩家分别保存，加载后与原模型相同");
+            } else {
+                System.out.println("✗ 测试失败：加载的对手模型与保存的不一致或混入了其他玩家的统计");
+            }
+        } catch (IOException e) {
+            System.out.println("✗ 测试失败：保存或加载对手模型时出错：" + e);
+        }
+    }
+
+    /**
+     * 测试起手牌胜率表
+     * 生成并映射完整的表文件，验证若干起手局面查到的结果与直接用胜率预测器计算的结果相同，
+     * 防止表文件的下标顺序与查询时不一致
+     */
+    public void testStartingHandTable() {
+        try {
+            Path file = Files.createTempFile("starting_hands", ".bin");
+            long start = System.nanoTime();
+            StartingHandTable.generate(file);
+            long elapsedMs = (System.nanoTime() - start) / 1_000_000;
+            StartingHandTable table = StartingHandTable.open(file);
+            // 人类两张牌和电脑明牌，两张牌顺序不同的局面分别检查
+            Card[][] hands = {
+                    {new Card("♥", 1), new Card("♦", 7), new Card("♣", 10)},
+                    {new Card("♥", 10), new Card("♦", 6), new Card("♣", 7)},
+                    {new Card("♥", 6), new Card("♦", 13), new Card("♣", 7)},
+                    {new Card("♥", 2), new Card("♦", 3), new Card("♣", 1)},
+                    {new Card("♥", 9), new Card("♦", 5), new Card("♣", 4)},
+                    {new Card("♥", 8), new Card("♦", 8), new Card("♣", 12)}};
+            boolean ok = true;
+            for (Card[] hand : hands) {
+                List<Card> deck = new ArrayList<>();
+                for (String suit : new String[] {"♠", "♥", "♦", "♣"}) {
+                    for (int value = 1; value <= 13; value++) {
+                        Card card = new Card(suit, value);
+                        if (!card.toString().equals(hand[0].toString()) && !card.toString().equals(hand[1].toString())
+                                && !card.toString().equals(hand[2].toString())) {
+                            deck.add(card);
+                        }
+                    }
+                }
+                WinOracle oracle = new WinOracle();
+                oracle.reset(deck);
+                for (boolean standing : new boolean[] {false, true}) {
+                    WinOracle.Estimate expected = oracle.estimate(Arrays.asList(hand[0], hand[1]),
+                            Arrays.asList(hand[2]), new ComputerPlayer(), standing);
+                    WinOracle.Estimate actual = table.lookup(hand[0], hand[1], hand[2], standing);
+                    ok = ok && deck.size() == StartingHandTable.REMAINING_CARDS
+                            && Math.abs(actual.getHitWinProbability() - expected.getHitWinProbability()) < 1e-6
+                            && Math.abs(actual.getHitDrawProbability() - expected.getHitDrawProbability()) < 1e-6
+                            && Math.abs(actual.getStandWinProbability() - expected.getStandWinProbability()) < 1e-6
+                            && Math.abs(actual.getStandDrawProbability() - expected.getStandDrawProbability()) < 1e-6
+                            && table.isHitBetter(hand[0], hand[1], hand[2], standing) == expected.isHitBetter();
+                }
+            }
+            Files.deleteIfExists(file);
+            if (ok) {
+                System.out.println("✓ 测试通过：起手牌胜率表的查询结果与实时计算一致 (生成耗时" + elapsedMs + "ms)");
+            } else {
+                System.out.println("✗ 测试失败：起手牌胜率表的查询结果与实时计算不一致");
+            }
+        } catch (IOException e) {
+            System.out.println("✗ 测试失败：生成或读取起手牌胜率表时出错：" + e);
+        }
+    }
+
+    /**
+     * 测试牌局进行中牌靴发完时重新洗牌
+     * 验证手中的牌不会在同一局中再次发出，算牌器的计数包括手中的牌
+     */
+    public void testMidRoundReshuffle() {
+        BlackjackGame game = new BlackjackGame();
+        game.setShoe(1, 0.75);
+        game.startGame();
+        game.setShoe(1, 0.75); // 强制下一次发牌时重新洗牌
+        game.humanHit();
+
+        List<Card> inPlay = new ArrayList<>(game.getHumanHand());
+        inPlay.addAll(game.getComputerHand());
+        int[] copies = new int[52];
+        int running = 0;
+        CardCounter counter = game.getCardCounter();
+        for (Card card : inPlay) {
+            copies[card.getCode()]++;
+            running += counter.getTag(card.getValue());
+        }
+        for (int i = game.getDeckPosition(); i < game.getDeck().size(); i++) {
+            copies[game.getDeck().get(i).getCode()]++;
+        }
+        boolean ok = game.getDeck().size() == 52 && !game.isDeckFromSeed()
+                && counter.getCardsSeen() == inPlay.size() && counter.getRunningCount() == running;
+        for (int n : copies) {
+            ok &= n == 1;
+        }
+        if (ok) {
+            System.out.println("✓ 测试通过：牌局中重新洗牌时手中的牌不会再次发出，并计入算牌");
+        } else {
+            System.out.println("✗ 测试失败：牌局中重新洗牌后出现重复的牌或计数不正确 (计数"
+                    + counter.getRunningCount() + "，应为" + running + ")");
+        }
+    }
+
+    /**
+     * 测试游戏的保存和加载
+     * 验证二进制存档能够完整恢复手牌、牌组和游戏状态，并且存档足够小；
+     * 只保存洗牌种子时同样能够重建相同的牌组
+     */
+    public void testSaveAndLoad() {
+        BlackjackGame game = new BlackjackGame();
+        game.startGame();
+        game.humanHit();
+        try {
+            File file = File.createTempFile("blackjack", ".sav");
+            file.deleteOnExit();
+            game.saveGame(file.getPath());
+            BlackjackGame loaded = BlackjackGame.loadGame(file.getPath());
+
+            boolean same = loaded.getState() == game.getState()
+                    && BlackjackGame.formatCards(loaded.getHumanHand()).equals(BlackjackGame.formatCards(game.getHumanHand()))
+                    && BlackjackGame.formatCards(loaded.getComputerHand()).equals(BlackjackGame.formatCards(game.getComputerHand()));
+            // 继续发牌，验证剩余牌组的顺序也一致
+            game.humanHit();
+            loaded.humanHit();
+            same = same && BlackjackGame.formatCards(loaded.getHumanHand()).equals(BlackjackGame.formatCards(game.getHumanHand()));
+            if (same && file.length() < 100) {
+                System.out.println("✓ 测试通过：存档可以完整恢复游戏 (存档大小: " + file.length() + "字节)");
+            } else {
+                System.out.println("✗ 测试失败：存档恢复的游戏不一致或存档过大 (存档大小: " + file.length() + "字节)");
+            }
+
+            // 只保存洗牌种子，加载后应重建出相同的牌序
+            game.saveGame(file.getPath(), GameCodec.DeckEncoding.SEED);
+            loaded = BlackjackGame.loadGame(file.getPath());
+            game.humanHit();
+            loaded.humanHit();
+            same = BlackjackGame.formatCards(loaded.getHumanHand()).equals(BlackjackGame.formatCards(game.getHumanHand()));
+            if (same && file.length() < 44) {
+                System.out.println("✓ 测试通过：种子存档可以重建相同的牌组 (存档大小: " + file.length() + "字节)");
+            } else {
+                System.out.println("✗ 测试失败：种子存档重建的牌组不一致或存档过大 (存档大小: " + file.length() + "字节)");
+            }
+
+            // float无法精确表示的渗透率在保存和加载之后不变
+            BlackjackGame shoe = new BlackjackGame();
+            shoe.setShoe(1, 0.9);
+            shoe.startGame();
+            shoe.saveGame(file.getPath());
+            double penetration = BlackjackGame.loadGame(file.getPath()).getPenetration();
+            if (penetration == 0.9) {
+                System.out.println("✓ 测试通过：存档保存的渗透率与原值完全相同");
+            } else {
+                System.out.println("✗ 测试失败：存档加载后的渗透率是" + penetration + "，应为0.9");
+            }
+        } catch (Exception e) {
+            System.out.println("✗ 测试失败：保存或加载游戏时出错：" + e);
+        }
+    }
+
+    /**
+     * 测试操作日志的崩溃恢复
+     * 在牌靴模式下连续进行多局游戏并停在一局中间，不关闭日志直接从日志恢复，
+     * 验证恢复的游戏与原游戏的手牌、牌组位置和状态完全一致；
+     * 写盘失败之后日志不再追加记录，恢复到失败之前最后一次同步的状态
+     */
+    public void testGameJournal() {
+        BlackjackGame game = new BlackjackGame();
+        game.setShoe(6, 0.75);
+        try {
+            File file = File.createTempFile("blackjack", ".journal");
+            file.deleteOnExit();
+            GameJournal journal = GameJournal.open(file.toPath(), game, 16, 1000);
+
+            long start = System.nanoTime();
+            int actions = 0;
+            for (int round = 0; round < 500; round++) {
+                game.startGame();
+                while (game.getState() == BlackjackGame.GameState.PLAYING && !game.getHuman().isStanding()) {
+                    if (game.getHumanScore() < 17) {
+                        game.playHit();
+                    } else {
+                        game.playStand();
+                    }
+                    actions++;
+                }
+            }
+            game.startGame();
+            game.humanHit();
+            game.computerHit();
+            long elapsed = System.nanoTime() - start;
+            journal.sync();
+
+            // 模拟崩溃：不关闭日志，直接恢复
+            BlackjackGame recovered = GameJournal.recover(file.toPath());
+            boolean same = recovered.getState() == game.getState()
+                    && recovered.getDeckPosition() == game.getDeckPosition()
+                    && recovered.getShuffleSeed() == game.getShuffleSeed()
+                    && recovered.getComputer().isStanding() == game.getComputer().isStanding()
+                    && BlackjackGame.formatCards(recovered.getHumanHand()).equals(BlackjackGame.formatCards(game.getHumanHand()))
+                    && BlackjackGame.formatCards(recovered.getComputerHand()).equals(BlackjackGame.formatCards(game.getComputerHand()));
+            journal.close();
+            long journalSize = file.length();
+
+            // 写盘失败后日志停止记录，恢复到失败之前最后一次成功同步的状态，而不是跳过丢失的记录
+            BlackjackGame failing = new BlackjackGame();
+            failing.setShoe(1, 0.75);
+            GameJournal broken = GameJournal.open(file.toPath(), failing, 16, 1000);
+            failing.startGame();
+            failing.humanHit();
+            broken.sync();
+            String synced = failing.getHumanHand() + "|" + failing.getComputerHand() + "|" + failing.getDeckPosition();
+            failing.humanHit();
+            Thread.currentThread().interrupt();
+            try {
+                broken.sync();
+                same = false;
+            } catch (IOException e) {
+                // 预期：中断使文件通道关闭，写入失败
+            } finally {
+                Thread.interrupted();
+            }
+            for (int round = 0; round < 3000; round++) {
+                failing.startGame();
+                failing.playStand();
+            }
+            try {
+                broken.close();
+                same = false;
+            } catch (IOException e) {
+                // 预期：关闭时报告之前的写入失败
+            }
+            BlackjackGame prefix = GameJournal.recover(file.toPath());
+            same = same && synced.equals(prefix.getHumanHand() + "|" + prefix.getComputerHand() + "|"
+                    + prefix.getDeckPosition());
+            if (same) {
+                System.out.printf("✓ 测试通过：操作日志可以恢复未完成的牌局 (平均每次操作%.1f微秒，日志大小: %d字节)%n",
+                        elapsed / 1000.0 / actions, journalSize);
+            } else {
+                System.out.println("✗ 测试失败：从操作日志恢复的游戏与原游戏不一致");
+            }
+        } catch (Exception e) {
+            System.out.println("✗ 测试失败：记录或恢复操作日志时出错：" + e);
+        }
+    }
+
+    /**
+     * 测试牌局记录的写入和并发读取
+     * 写入跨越多个段的牌局，验证读取器能看到新建的段、按编号读到正确的记录，
+     * 并且可以由记录中的洗牌种子和开局位置重建该局的发牌顺序
+     */
+    public void testHandHistory() {
+        try {
+            Path dir = Files.createTempDirectory("hands");
+            HandHistoryWriter writer = new HandHistoryWriter(dir, 100);
+            HandHistoryReader reader = new HandHistoryReader(dir);
+            BlackjackGame game = new BlackjackGame();
+            game.setShoe(2, 0.75);
+            game.addGameListener(writer);
+
+            String lastHuman = null;
+            for (int round = 0; round < 250; round++) {
+                game.startGame();
+                game.playStand();
+                lastHuman = BlackjackGame.formatCards(game.getHumanHand());
+            }
+            reader.refresh();
+            HandRecord last = reader.read(249L);
+
+            boolean ok = reader.getSegmentCount() == 3 && reader.getRecordCount() == 250
+                    && reader.read(250L) == null
+                    && last.getRoundId() == 249
+                    && last.getResult() == game.getState()
+                    && BlackjackGame.formatCards(last.getHumanHand()).equals(lastHuman);
+            // 用种子和开局位置重建本局最先发出的牌
+            for (int i = 0; i < 250 && ok; i++) {
+                HandRecord r = reader.read(i);
+                if (r.getStartPosition() >= 0) {
+                    List<Card> shoe = BlackjackGame.buildShoe(r.getDeckCount(), r.getShuffleSeed());
+                    ok = shoe.get(r.getStartPosition()) == r.getHumanHand().get(0)
+                            && shoe.get(r.getStartPosition() + 1) == r.getComputerHand().get(0);
+                }
+            }
+            writer.close();
+            if (ok) {
+                System.out.println("✓ 测试通过：牌局记录可以跨段写入并按编号读取");
+            } else {
+                System.out.println("✗ 测试失败：读取的牌局记录与实际牌局不一致");
+            }
+        } catch (Exception e) {
+            System.out.println("✗ 测试失败：写入或读取牌局记录时出错：" + e);
+        }
+    }
+
+    /**
+     * 测试牌局记录的压缩归档
+     * 验证按编号范围读取归档得到的记录与原始记录完全一致，并且归档明显小于原始记录
+     */
+    public void testHandHistoryArchive() {
+        try {
+            Path dir = Files.createTempDirectory("hands");
+            Path archiveFile = Files.createTempFile("hands", ".bjha");
+            archiveFile.toFile().deleteOnExit();
+            HandHistoryWriter writer = new HandHistoryWriter(dir, 300);
+            BlackjackGame game = new BlackjackGame();
+            game.setShoe(6, 0.75);
+            game.addGameListener(writer);
+            for (int round = 0; round < 1000; round++) {
+                game.startGame();
+                while (game.getState() == BlackjackGame.GameState.PLAYING && game.getHumanScore() < 17) {
+                    game.playHit();
+                }
+                game.playStand();
+            }
+            writer.close();
+
+            HandHistoryReader reader = new HandHistoryReader(dir);
+            long rounds = HandHistoryArchive.compact(reader, archiveFile, 64);
+            List<HandRecord> range = new ArrayList<>();
+            try (HandHistoryArchive archive = HandHistoryArchive.open(archiveFile)) {
+                archive.read(500, 520, range::add);
+            }
+            boolean ok = rounds == 1000 && range.size() == 21;
+            for (int i = 0; i < range.size() && ok; i++) {
+                HandRecord a = range.get(i);
+                HandRecord b = reader.read(500L + i);
+                ok = a.getRoundId() == b.getRoundId() && a.getTimestamp() == b.getTimestamp()
+                        && a.getShuffleSeed() == b.getShuffleSeed() && a.getStartPosition() == b.getStartPosition()
+                        && a.getResult() == b.getResult() && a.getDeckCount() == b.getDeckCount()
+                        && a.getHumanHand().equals(b.getHumanHand()) && a.getComputerHand().equals(b.getComputerHand());
+            }
+            long size = Files.size(archiveFile);
+            if (ok && size < rounds * HandRecord.SIZE / 3) {
+                System.out.printf("✓ 测试通过：归档可以按范围读取 (每局%.2f字节)%n", (double) size / rounds);
+            } else {
+                System.out.println("✗ 测试失败：归档读取的记录不一致或压缩率不足 (大小: " + size + "字节)");
+            }
+        } catch (Exception e) {
+            System.out.println("✗ 测试失败：压缩或读取归档时出错：" + e);
+        }
+    }
+
+    /**
+     * 测试存档位目录
+     * 验证只读取索引即可列出存档摘要，删除索引后可以由存档文件头重建，并且可以加载完整的游戏
+     */
+    public void testSaveCatalog() {
+        try {
+            Path dir = Files.createTempDirectory("saves");
+            SaveCatalog catalog = SaveCatalog.open(dir);
+            BlackjackGame game = new BlackjackGame();
+            for (int i = 0; i < 100; i++) {
+                game.startGame();
+                game.humanHit();
+                catalog.save(game, "存档" + i);
+            }
+            SaveCatalog.Entry entry = catalog.getEntry(99);
+            boolean ok = catalog.list().size() == 100 && entry.getName().equals("存档99")
+                    && entry.getHumanScore() == game.getHumanScore() && entry.getState() == game.getState();
+
+            BlackjackGame loaded = catalog.load(99);
+            ok = ok && BlackjackGame.formatCards(loaded.getHumanHand()).equals(BlackjackGame.formatCards(game.getHumanHand()));
+
+            // 删除一个存档位并丢弃索引，重建后其余存档仍然可以列出
+            catalog.delete(50);
+            Files.delete(dir.resolve("catalog.idx"));
+            catalog = SaveCatalog.open(dir);
+            ok = ok && catalog.list().size() == 99 && catalog.getEntry(50) == null
+                    && catalog.getEntry(99).getHumanScore() == game.getHumanScore();
+            if (ok) {
+                System.out.println("✓ 测试通过：存档位目录可以列出、加载和重建存档");
+            } else {
+                System.out.println("✗ 测试失败：存档位目录中的摘要与存档不一致");
+            }
+        } catch (Exception e) {
+            System.out.println("✗ 测试失败：使用存档位目录时出错：" + e);
+        }
+    }
+
+    /**
+     * 测试后台自动存档
+     * 验证短时间内的大量操作被合并为少数几次写盘，关闭后存档文件与最终状态一致
+     */
+    public void testAutosave() {
+        try {
+            Path file = Files.createTempFile("autosave", ".sav");
+            BlackjackGame game = new BlackjackGame();
+            game.enableAutosave(file.toString(), 200);
+            for (int i = 0; i < 200; i++) {
+                game.startGame();
+                game.humanHit();
+                game.humanStand();
+            }
+            game.startGame();
+            game.humanHit();
+            Autosaver autosaver = game.getAutosaver();
+            game.disableAutosave();
+
+            BlackjackGame loaded = BlackjackGame.loadGame(file.toString());
+            boolean ok = autosaver.getWriteCount() <= 3 && game.getAutosaver() == null
+                    && !Files.exists(file.resolveSibling(file.getFileName() + ".tmp"))
+                    && loaded.getState() == game.getState()
+                    && BlackjackGame.formatCards(loaded.getHumanHand()).equals(BlackjackGame.formatCards(game.getHumanHand()));
+            if (ok) {
+                System.out.println("✓ 测试通过：自动存档合并了写盘，存档与最终状态一致 (写盘 "
+                        + autosaver.getWriteCount() + " 次)");
+            } else {
+                System.out.println("✗ 测试失败：自动存档写盘 " + autosaver.getWriteCount() + " 次，或存档与最终状态不一致");
+            }
+            Files.deleteIfExists(file);
+        } catch (Exception e) {
+            System.out.println("✗ 测试失败：自动存档时出错：" + e);
+        }
+    }
+
+    /**
+     * 测试玩家档案库
+     * 验证多个线程同时更新时fsync被组提交合并，更新期间反复写检查点，重新打开后档案与内存中的状态一致；
+     * 写盘失败后游戏照常进行，失败由sync()和close()报告
+     */
+    public void testProfileStore() {
+        try {
+            Path file = Files.createTempFile("profiles", ".wal");
+            Files.delete(file);
+            // 检查点阈值很小，更新进行期间会反复写检查点
+            ProfileStore store = ProfileStore.open(file, 16 * 1024);
+            int threads = 8;
+            int updates = 5000;
+            BlackjackGame.GameState[] results = {BlackjackGame.GameState.HUMAN_WIN,
+                    BlackjackGame.GameState.COMPUTER_WIN, BlackjackGame.GameState.DRAW};
+            Thread[] workers = new Thread[threads];
+            for (int t = 0; t < threads; t++) {
+                int seed = t;
+                workers[t] = new Thread(() -> {
+                    for (int i = 0; i < updates; i++) {
+                        long sequence = store.recordRound("玩家" + ((seed * 31 + i) % 100), results[i % 3]);
+                        if (i % 500 == 0) {
+                            try {
+                                store.awaitDurable(sequence);
+                            } catch (java.io.IOException e) {
+                                throw new java.io.UncheckedIOException(e);
+                            }
+                        }
+                    }
+                });
+                workers[t].start();
+            }
+            for (Thread worker : workers) {
+                worker.join();
+            }
+            store.sync();
+            long syncs = store.getSyncCount();
+
+            // 不关闭直接重新打开，相当于同步之后程序崩溃
+            ProfileStore reopened = ProfileStore.open(file);
+            boolean ok = reopened.size() == 100 && syncs < threads * updates;
+            long rounds = 0;
+            for (PlayerProfile profile : store.list()) {
+                PlayerProfile recovered = reopened.get(profile.getId());
+                ok = ok && recovered != null && recovered.getBalance() == profile.getBalance()
+                        && recovered.getWins() == profile.getWins() && recovered.getStreak() == profile.getStreak();
+                rounds += profile.getRounds();
+            }
+            ok = ok && rounds == (long) threads * updates;
+            reopened.close();
+            store.close();
+
+            // 写盘失败不抛进游戏线程：之后的监听器照常收到本局结束，失败在sync()和close()时报告
+            Files.delete(file);
+            ProfileStore failing = ProfileStore.open(file, 0);
+            // 检查点的临时文件位置被目录占用，第一次写检查点时失败
+            Path blocked = file.resolveSibling(file.getFileName() + ".tmp");
+            Files.createDirectory(blocked);
+            BlackjackGame game = new BlackjackGame();
+            int[] finished = new int[1];
+            game.addGameListener(failing);
+            game.addGameListener(new GameListener() {
+                @Override
+                public void roundFinished(BlackjackGame g, BlackjackGame.GameState result) {
+                    finished[0]++;
+                }
+            });
+            game.startGame();
+            game.playStand();
+            failing.sync();
+            for (int i = 0; i < 200; i++) {
+                game.startGame();
+                game.playStand();
+            }
+            try {
+                failing.sync();
+                ok = false;
+            } catch (IOException e) {
+                // 预期：写检查点失败
+            }
+            for (int i = 0; i < 200; i++) {
+                game.startGame();
+                game.playStand();
+            }
+            ok = ok && finished[0] == 401;
+            try {
+                failing.close();
+                ok = false;
+            } catch (IOException e) {
+                // 预期：关闭时再次报告
+            }
+            Files.delete(blocked);
+            if (ok) {
+                System.out.println("✓ 测试通过：玩家档案可以并发更新并在重新打开后恢复 ("
+                        + threads * updates + "次更新，" + syncs + "次fsync)");
+            } else {
+                System.out.println("✗ 测试失败：重新打开后的玩家档案与更新结果不一致");
+            }
+            Files.deleteIfExists(file);
+        } catch (Exception e) {
+            System.out.println("✗ 测试失败：使用玩家档案库时出错：" + e);
+        }
+    }
+
+    /**
+     * 测试排行榜
+     * 验证大量更新后名次和前K名与完整排序的结果一致，并且可以从检查点恢复；
+     * 以玩家档案库为准时战绩与档案库一致，崩溃后检查点之后的对局由档案库补上
+     */
+    public void testLeaderboard() {
+        try {
+            Path file = Files.createTempFile("leaderboard", ".bin");
+            Files.delete(file);
+            Leaderboard leaderboard = Leaderboard.open(file);
+            java.util.Random random = new java.util.Random(7);
+            BlackjackGame.GameState[] results = {BlackjackGame.GameState.HUMAN_WIN, BlackjackGame.GameState.HUMAN_BUST,
+                    BlackjackGame.GameState.COMPUTER_WIN, BlackjackGame.GameState.COMPUTER_BUST, BlackjackGame.GameState.DRAW};
+            for (int i = 0; i < 100000; i++) {
+                leaderboard.record("玩家" + random.nextInt(5000), results[random.nextInt(results.length)]);
+            }
+
+            boolean ok = true;
+            for (Leaderboard.Ranking ranking : Leaderboard.Ranking.values()) {
+                List<PlayerProfile> sorted = new ArrayList<>();
+                for (int i = 0; i < 5000; i++) {
+                    PlayerProfile profile = leaderboard.get("玩家" + i);
+                    if (profile != null) {
+                        sorted.add(profile);
+                    }
+                }
+                sorted.sort((a, b) -> leaderboard.rank(ranking, a.getId()) - leaderboard.rank(ranking, b.getId()));
+                List<PlayerProfile> top = leaderboard.top(ranking, 10);
+                for (int i = 0; i < sorted.size(); i++) {
+                    ok = ok && leaderboard.getByRank(ranking, i + 1) == sorted.get(i);
+                }
+                for (int i = 1; i < sorted.size(); i++) {
+                    ok = ok && compareMetric(ranking, sorted.get(i - 1), sorted.get(i)) >= 0;
+                }
+                ok = ok && top.equals(sorted.subList(0, 10));
+            }
+
+            leaderboard.close();
+            Leaderboard reopened = Leaderboard.open(file);
+            for (Leaderboard.Ranking ranking : Leaderboard.Ranking.values()) {
+                ok = ok && reopened.size() == leaderboard.size()
+                        && reopened.top(ranking, 10).toString().equals(leaderboard.top(ranking, 10).toString());
+            }
+            reopened.close();
+
+            // 以玩家档案库为准：排行榜只由档案库提交的档案更新，崩溃后按档案库补上检查点之后的对局
+            Path storeFile = Files.createTempFile("profiles", ".wal");
+            Files.delete(storeFile);
+            Files.delete(file);
+            ProfileStore store = ProfileStore.open(storeFile);
+            Leaderboard attached = Leaderboard.open(file, store, 50);
+            BlackjackGame game = new BlackjackGame();
+            game.addGameListener(store);
+            // 误注册到游戏也不会重复计入
+            game.addGameListener(attached);
+            for (int i = 0; i < 120; i++) {
+                game.getHuman().setId("玩家" + (i % 3));
+                game.startGame();
+                game.playStand();
+            }
+            store.sync();
+            for (int i = 0; i < 3; i++) {
+                ok = ok && attached.get("玩家" + i).getRounds() == store.get("玩家" + i).getRounds()
+                        && attached.get("玩家" + i).getBalance() == store.get("玩家" + i).getBalance();
+            }
+            attached.checkpoint();
+            for (int i = 0; i < 30; i++) {
+                game.getHuman().setId("玩家" + (i % 5));
+                game.startGame();
+                game.playStand();
+            }
+            store.sync();
+            // 模拟崩溃：排行榜不写最后的检查点，档案库的日志已经落盘
+            ProfileStore recoveredStore = ProfileStore.open(storeFile);
+            Leaderboard recovered = Leaderboard.open(file, recoveredStore);
+            ok = ok && recovered.size() == recoveredStore.size();
+            for (PlayerProfile profile : recoveredStore.list()) {
+                ok = ok && recovered.get(profile.getId()).getRounds() == profile.getRounds()
+                        && recovered.get(profile.getId()).getWins() == profile.getWins();
+            }
+            recovered.close();
+            recoveredStore.close();
+            attached.close();
+            store.close();
+            Files.deleteIfExists(storeFile);
+            if (ok) {
+                System.out.println("✓ 测试通过：排行榜的名次与排序结果一致，并可以从检查点恢复");
+            } else {
+                System.out.println("✗ 测试失败：排行榜的名次与排序结果不一致");
+            }
+            Files.deleteIfExists(file);
+        } catch (Exception e) {
+            System.out.println("✗ 测试失败：使用排行榜时出错：" + e);
+        }
+    }
+
+    /**
+     * @return a按排名方式的指标优于b时为正数，相同时为0
+     */
+    private static int compareMetric(Leaderboard.Ranking ranking, PlayerProfile a, PlayerProfile b) {
+        switch (ranking) {
+            case WINS:
+                return Integer.compare(a.getWins(), b.getWins());
+            case NET_BANKROLL:
+                return Long.compare(a.getBalance(), b.getBalance());
+            default:
+                return Double.compare(a.getWinRate(), b.getWinRate());
+        }
+    }
+
+    /**
+     * 测试牌局记录索引
+     * 验证各种查询的结果与逐条扫描一致，并且重新打开时可以直接使用写满的段的索引文件
+     */
+    public void testHandHistoryIndex() {
+        try {
+            Path dir = Files.createTempDirectory("hands");
+            HandHistoryWriter writer = new HandHistoryWriter(dir, 100);
+            BlackjackGame game = new BlackjackGame();
+            game.addGameListener(writer);
+            for (int round = 0; round < 1050; round++) {
+                game.startGame();
+                game.playStand();
+            }
+            writer.close();
+
+            HandHistoryReader reader = new HandHistoryReader(dir);
+            HandHistoryIndex index = HandHistoryIndex.open(reader, dir);
+            long[] expected = new long[3];
+            List<Long> aceLost = new ArrayList<>();
+            reader.forEach(record -> {
+                int human = handScore(record.getHumanHand());
+                boolean lost = record.getResult() == BlackjackGame.GameState.HUMAN_BUST
+                        || record.getResult() == BlackjackGame.GameState.COMPUTER_WIN;
+                if (record.getHumanHand().get(0).getValue() == 1 && lost) {
+                    expected[0]++;
+                    aceLost.add(record.getRoundId());
+                }
+                if (human >= 5 && human <= 8 && record.getComputerHand().get(0).getValue() >= 10) {
+                    expected[1]++;
+                }
+                if (human == 20 && record.getResult() == BlackjackGame.GameState.COMPUTER_WIN) {
+                    expected[2]++;
+                }
+            });
+            HandHistoryIndex.Query aceLostQuery = HandHistoryIndex.query().humanFirstCard(1)
+                    .result(BlackjackGame.GameState.HUMAN_BUST, BlackjackGame.GameState.COMPUTER_WIN);
+            HandHistoryIndex.Query lowQuery = HandHistoryIndex.query().humanScore(5, 8).computerFirstCard(10, 11, 12, 13);
+            HandHistoryIndex.Query twentyQuery = HandHistoryIndex.query().humanScore(20, 20)
+                    .result(BlackjackGame.GameState.COMPUTER_WIN);
+            boolean ok = index.count(aceLostQuery) == expected[0] && index.count(lowQuery) == expected[1]
+                    && index.count(twentyQuery) == expected[2]
+                    && index.count(HandHistoryIndex.query()) == 1050
+                    && index.count(HandHistoryIndex.query().humanFirstCard(1).humanFirstCard(2)) == 0;
+            List<HandRecord> found = index.find(aceLostQuery, 5);
+            for (int i = 0; i < found.size(); i++) {
+                ok = ok && found.get(i).getRoundId() == aceLost.get(i);
+            }
+
+            // 重新打开时写满的段直接映射索引文件
+            ok = ok && Files.exists(dir.resolve("hands-000009.idx")) && !Files.exists(dir.resolve("hands-000010.idx"));
+            HandHistoryIndex reopened = HandHistoryIndex.open(new HandHistoryReader(dir), dir);
+            ok = ok && reopened.count(aceLostQuery) == expected[0] && reopened.count(lowQuery) == expected[1];
+            if (ok) {
+                System.out.println("✓ 测试通过：牌局记录索引的查询结果与逐条扫描一致 (起手A并且输掉: " + expected[0] + "局)");
+            } else {
+                System.out.println("✗ 测试失败：牌局记录索引的查询结果与逐条扫描不一致");
+            }
+        } catch (Exception e) {
+            System.out.println("✗ 测试失败：使用牌局记录索引时出错：" + e);
+        }
+    }
+
+    /**
+     * 测试模拟器在牌靴边界上的局数
+     * 单副牌、渗透率为1时经常在一局中途发完牌靴；每个开始的局都要打完并计入结果，
+     * 洗牌次数（列中不同的洗牌种子数）等于要求的牌靴数，每个线程最多多出最后一局中途补洗的一个牌靴
+     */
+    public void testSimulatorShoeBoundary() {
+        try {
+            AtomicLong started = new AtomicLong();
+            AtomicLong finished = new AtomicLong();
+            ComputerStrategy counting = new ComputerStrategy() {
+                @Override
+                public double getHitProbability(ComputerPlayer self, int score) {
+                    return score < 17 ? 1.0 : 0.0;
+                }
+
+                @Override
+                public void roundStarted(ComputerPlayer self) {
+                    started.incrementAndGet();
+                }
+
+                @Override
+                public void roundFinished(ComputerPlayer self, BlackjackGame.GameState result) {
+                    finished.incrementAndGet();
+                }
+            };
+            Path dir = Files.createTempDirectory("columns");
+            ColumnarWriter columns = new ColumnarWriter(dir);
+            Simulator simulator = new Simulator(1, 1.0, false, counting);
+            simulator.setColumnarExport(columns);
+            long shoes = 37;
+            Simulator.Result result = simulator.run(shoes, 2);
+            columns.close();
+            ByteBuffer seeds = ColumnarWriter.map(dir, ColumnarWriter.Column.SHUFFLE_SEED);
+            Set<Long> distinct = new HashSet<>();
+            for (int i = 0; i < columns.getRowCount(); i++) {
+                distinct.add(seeds.getLong(i * 8));
+            }
+            for (ColumnarWriter.Column column : ColumnarWriter.Column.values()) {
+                Files.deleteIfExists(dir.resolve(column.getFileName()));
+            }
+            Files.delete(dir);
+            boolean ok = started.get() == result.getRounds() && finished.get() == result.getRounds()
+                    && columns.getRowCount() == result.getRounds() && distinct.size() >= shoes
+                    && distinct.size() <= shoes + 2;
+            if (ok) {
+                System.out.println("✓ 测试通过：模拟器在牌靴边界上打完每个开始的局 (" + shoes + "个牌靴，" + result.getRounds() + "局)");
+            } else {
+                System.out.println("✗ 测试失败：模拟器在牌靴边界上的局数不正确：开始" + started.get() + "局，结束" + finished.get()
+                        + "局，计入" + result.getRounds() + "局，" + distinct.size() + "个牌靴");
+            }
+        } catch (Exception e) {
+            System.out.println("✗ 测试失败：模拟牌靴边界时出错：" + e);
+        }
+    }
+
+    /**
+     * 测试列式导出
+     * 多个模拟线程共享同一个写入器，验证各列的行数一致，并且按列统计的胜负与模拟结果相同；
+     * 超过2GB的列可以按窗口映射，写入失败后各列停在最后一批完整写出的位置
+     */
+    public void testColumnarWriter() {
+        try {
+            Path dir = Files.createTempDirectory("columns");
+            ColumnarWriter columns = new ColumnarWriter(dir);
+            Simulator simulator = new Simulator(6, 0.75, false, null);
+            simulator.setColumnarExport(columns);
+            Simulator.Result result = simulator.run(500, 2);
+            columns.close();
+
+            ByteBuffer outcomes = ColumnarWriter.map(dir, ColumnarWriter.Column.OUTCOME);
+            ByteBuffer seeds = ColumnarWriter.map(dir, ColumnarWriter.Column.SHUFFLE_SEED);
+            ByteBuffer cards = ColumnarWriter.map(dir, ColumnarWriter.Column.HUMAN_CARDS);
+            long rows = columns.getRowCount();
+            boolean ok = rows == result.getRounds() && rows > ColumnarWriter.BATCH_ROWS
+                    && outcomes.capacity() == rows && cards.capacity() == rows && seeds.capacity() == rows * 8;
+            long wins = 0;
+            long draws = 0;
+            for (int i = 0; ok && i < rows; i++) {
+                BlackjackGame.GameState state = BlackjackGame.GameState.values()[outcomes.get(i)];
+                if (state == BlackjackGame.GameState.HUMAN_WIN || state == BlackjackGame.GameState.COMPUTER_BUST) {
+                    wins++;
+                } else if (state == BlackjackGame.GameState.DRAW) {
+                    draws++;
+                }
+                ok = cards.get(i) >= 2;
+            }
+            ok = ok && wins == Math.round(result.getWinRate() * rows) && draws == Math.round(result.getDrawRate() * rows);
+
+            // 超过2GB的列按窗口映射：在种子列末尾之后很远处写入一个值，形成稀疏的大文件
+            Path seedFile = dir.resolve(ColumnarWriter.Column.SHUFFLE_SEED.getFileName());
+            long far = 300_000_000L;
+            try (FileChannel channel = FileChannel.open(seedFile, StandardOpenOption.WRITE)) {
+                channel.write(ByteBuffer.allocate(8).putLong(0, 0x1234_5678_9ABCL), ColumnarWriter.HEADER_SIZE + far * 8);
+            }
+            try {
+                ColumnarWriter.map(dir, ColumnarWriter.Column.SHUFFLE_SEED);
+                ok = false;
+            } catch (IOException e) {
+                // 预期：整列超过一个窗口
+            }
+            ok = ok && ColumnarWriter.rowCount(dir, ColumnarWriter.Column.SHUFFLE_SEED) == far + 1
+                    && ColumnarWriter.map(dir, ColumnarWriter.Column.SHUFFLE_SEED, far - 9, 10).getLong(72) == 0x1234_5678_9ABCL
+                    && ColumnarWriter.map(dir, ColumnarWriter.Column.SHUFFLE_SEED, 0, 1).getLong(0) == seeds.getLong(0);
+            Files.delete(seedFile);
+
+            // 写入失败后不计入失败的一批，之后的结果不再导出，各列保持对齐，失败在close()时报告
+            Path failed = Files.createTempDirectory("columns");
+            ColumnarWriter broken = new ColumnarWriter(failed);
+            BlackjackGame game = new BlackjackGame();
+            game.addGameListener(broken);
+            for (int i = 0; i < 3 * ColumnarWriter.BATCH_ROWS; i++) {
+                if (i == ColumnarWriter.BATCH_ROWS + 100) {
+                    // 中断使列文件通道关闭，下一批写入失败
+                    Thread.currentThread().interrupt();
+                }
+                game.startGame();
+                game.playStand();
+                if (i == 2 * ColumnarWriter.BATCH_ROWS - 1) {
+                    Thread.interrupted();
+                }
+            }
+            ok = ok && broken.getRowCount() == ColumnarWriter.BATCH_ROWS;
+            try {
+                broken.close();
+                ok = false;
+            } catch (IOException e) {
+                // 预期：关闭时报告写入失败
+            }
+            for (ColumnarWriter.Column column : ColumnarWriter.Column.values()) {
+                ok = ok && ColumnarWriter.rowCount(failed, column) == ColumnarWriter.BATCH_ROWS;
+            }
+            if (ok) {
+                System.out.println("✓ 测试通过：列式导出的" + rows + "局与模拟结果一致");
+            } else {
+                System.out.println("✗ 测试失败：列式导出的结果与模拟结果不一致");
+            }
+        } catch (Exception e) {
+            System.out.println("✗ 测试失败：列式导出时出错：" + e);
+        }
+    }
+
+    /**
+     * 测试牌局记录的并行统计
+     * 验证按块并行统计的结果与逐条读取记录计算的结果一致
+     */
+    public void testHandHistoryAnalytics() {
+        try {
+            Path dir = Files.createTempDirectory("hands");
+            HandHistoryWriter writer = new HandHistoryWriter(dir, 300);
+            BlackjackGame game = new BlackjackGame();
+            game.addGameListener(writer);
+            for (int round = 0; round < 2000; round++) {
+                game.startGame();
+                int stand = 12 + round % 6;
+                while (game.getState() == BlackjackGame.GameState.PLAYING && !game.getHuman().isStanding()) {
+                    if (game.getHumanScore() < stand) {
+                        game.playHit();
+                    } else {
+                        game.playStand();
+                    }
+                }
+                game.finalizeGame();
+            }
+            writer.close();
+
+            long[] hits = new long[22];
+            long[] busts = new long[22];
+            long[] stands = new long[22];
+            long[] aceTen = new long[2];
+            HandHistoryReader reader = new HandHistoryReader(dir);
+            reader.forEach(record -> {
+                List<Card> hand = record.getHumanHand();
+                for (int i = 1; i < hand.size(); i++) {
+                    int before = handScore(hand.subList(0, i));
+                    hits[before]++;
+                    if (handScore(hand.subList(0, i + 1)) > 21) {
+                        busts[before]++;
+                    }
+                }
+                BlackjackGame.GameState result = record.getResult();
+                if (result != BlackjackGame.GameState.HUMAN_BUST && result != BlackjackGame.GameState.COMPUTER_BUST) {
+                    stands[handScore(record.getComputerHand())]++;
+                }
+                if (hand.get(0).getScore() == 1 && record.getComputerHand().get(0).getScore() == 10) {
+                    aceTen[0]++;
+                    if (result == BlackjackGame.GameState.DRAW) {
+                        aceTen[1]++;
+                    }
+                }
+            });
+
+            HandHistoryAnalytics.Report report = HandHistoryAnalytics.analyze(reader);
+            boolean ok = report.getRounds() == 2000 && report.getStartingHandCount(1, 10) == aceTen[0]
+                    && Math.abs(report.getOutcomeRate(1, 10, BlackjackGame.GameState.DRAW) * aceTen[0] - aceTen[1]) < 1e-6;
+            long totalHits = 0;
+            for (int score = 0; score <= 21; score++) {
+                ok = ok && report.getHits(score) == hits[score] && report.getBusts(score) == busts[score]
+                        && report.getComputerStands(score) == stands[score];
+                totalHits += hits[score];
+            }
+            if (ok && totalHits > 0) {
+                System.out.println("✓ 测试通过：并行统计与逐条计算一致 (人类要牌" + totalHits + "次，16点要牌爆牌率 "
+                        + String.format("%.1f%%", report.getBustRate(16) * 100) + ")");
+            } else {
+                System.out.println("✗ 测试失败：并行统计与逐条计算不一致");
+            }
+        } catch (Exception e) {
+            System.out.println("✗ 测试失败：统计牌局记录时出错：" + e);
+        }
+    }
+
+    /**
+     * 测试旧版牌局日志的批量导入
+     * 把牌局记录导出为CSV（含表头、注释、\r\n行尾和一行格式错误），用很小的块并行导入，
+     * 验证导入的记录与原记录一致，格式错误的行被跳过
+     */
+    public void testHandHistoryImporter() {
+        try {
+            Path source = Files.createTempDirectory("hands");
+            HandHistoryWriter writer = new HandHistoryWriter(source);
+            BlackjackGame game = new BlackjackGame();
+            game.addGameListener(writer);
+            for (int round = 0; round < 500; round++) {
+                game.startGame();
+                game.playHit();
+                game.playStand();
+            }
+            writer.close();
+
+            List<HandRecord> records = new ArrayList<>();
+            new HandHistoryReader(source).forEach(records::add);
+            StringBuilder csv = new StringBuilder("time,result,human,computer\n# 旧版日志\n");
+            for (int i = 0; i < records.size(); i++) {
+                HandRecord record = records.get(i);
+                csv.append(record.getTimestamp()).append(',').append(record.getResult()).append(',')
+                        .append(joinCards(record.getHumanHand())).append(',')
+                        .append(joinCards(record.getComputerHand())).append(i % 3 == 0 ? "\r\n" : "\n");
+                if (i == 250) {
+                    csv.append("1700000000000,HUMAN_WIN,♠A ♥1,♦5\n");
+                }
+            }
+            Path file = Files.createTempFile("hands", ".csv");
+            Files.write(file, csv.toString().getBytes(StandardCharsets.UTF_8));
+
+            Path target = Files.createTempDirectory("hands");
+            HandHistoryWriter importWriter = new HandHistoryWriter(target, 128);
+            HandHistoryImporter.Result result = new HandHistoryImporter(importWriter, 97, 3).importFile(file);
+            importWriter.close();
+            List<HandRecord> imported = new ArrayList<>();
+            new HandHistoryReader(target).forEach(imported::add);
+
+            boolean ok = result.getImported() == records.size() && result.getRejected() == 1
+                    && imported.size() == records.size();
+            for (int i = 0; ok && i < records.size(); i++) {
+                HandRecord expected = records.get(i);
+                HandRecord actual = imported.get(i);
+                ok = actual.getRoundId() == i && actual.getTimestamp() == expected.getTimestamp()
+                        && actual.getResult() == expected.getResult()
+                        && actual.getHumanHand().toString().equals(expected.getHumanHand().toString())
+                        && actual.getComputerHand().toString().equals(expected.getComputerHand().toString());
+            }
+            if (ok) {
+                System.out.println("✓ 测试通过：CSV日志并行导入后与原记录一致 (" + result.getImported() + "局，跳过"
+                        + result.getRejected() + "行)");
+            } else {
+                System.out.println("✗ 测试失败：CSV日志导入的结果与原记录不一致 (导入" + result.getImported() + "局，跳过"
+                        + result.getRejected() + "行)");
+            }
+        } catch (Exception e) {
+            System.out.println("✗ 测试失败：导入CSV日志时出错：" + e);
+        }
+    }
+
+    /**
+     * 测试确定性回放引擎
+     * 验证从快照跳转得到的游戏与从会话开头回放得到的游戏完全一致，并且可以由种子和操作序列重建整个会话
+     */
+    public void testGameReplay() {
+        GameReplay session = GameReplay.start(42, 2, 0.6, 32);
+        Random player = new Random(7);
+        for (int round = 0; round < 400; round++) {
+            session.apply(GameReplay.Action.START);
+            while (session.getGame().getState() == BlackjackGame.GameState.PLAYING
+                    && !session.getGame().getHuman().isStanding()) {
+                if (player.nextInt(3) > 0 && session.getGame().getHumanScore() < 18) {
+                    session.playHit();
+                } else {
+                    session.playStand();
+                }
+            }
+        }
+
+        GameReplay linear = GameReplay.replay(42, 2, 0.6, session.getActionLog(), Integer.MAX_VALUE);
+        boolean ok = sameGame(linear.getGame(), session.getGame())
+                && sameGame(session.seek(session.size()), session.getGame())
+                && session.getSnapshotCount() == session.size() / 32;
+        long snapshotNanos = 0;
+        long linearNanos = 0;
+        for (int i = 0; ok && i < 200; i++) {
+            int position = player.nextInt(session.size() + 1);
+            long start = System.nanoTime();
+            BlackjackGame fast = session.seek(position);
+            snapshotNanos += System.nanoTime() - start;
+            start = System.nanoTime();
+            BlackjackGame slow = linear.seek(position);
+            linearNanos += System.nanoTime() - start;
+            ok = sameGame(fast, slow);
+        }
+
+        // 单副牌、float无法精确表示的渗透率：牌局中途经常重新洗牌，快照中的牌组以完整方式保存
+        for (long seed = 1; ok && seed <= 10; seed++) {
+            GameReplay shoe = GameReplay.start(seed, 1, 0.9, 16);
+            for (int round = 0; round < 60; round++) {
+                shoe.apply(GameReplay.Action.START);
+                while (shoe.getGame().getState() == BlackjackGame.GameState.PLAYING
+                        && !shoe.getGame().getHuman().isStanding()) {
+                    if (shoe.getGame().getHumanScore() < 17) {
+                        shoe.playHit();
+                    } else {
+                        shoe.playStand();
+                    }
+                }
+            }
+            GameReplay from = GameReplay.replay(seed, 1, 0.9, shoe.getActionLog(), Integer.MAX_VALUE);
+            for (int position = 0; ok && position <= shoe.size(); position++) {
+                ok = sameShoe(shoe.seek(position), from.seek(position));
+            }
+        }
+        if (ok) {
+            System.out.println("✓ 测试通过：从快照跳转与从头回放的结果一致 (" + session.size() + "个操作，平均跳转"
+                    + snapshotNanos / 200 / 1000 + "微秒，从头回放" + linearNanos / 200 / 1000 + "微秒)");
+        } else {
+            System.out.println("✗ 测试失败：从快照跳转与从头回放的结果不一致");
+        }
+    }
+
+    /**
+     * 测试不可变快照的撤销、重做和假设推演
+     * 验证撤销、重做恢复的游戏与操作当时一致，从快照开出的游戏不影响原来的游戏，并且相邻快照共享手牌
+     */
+    public void testUndoRedo() {
+        BlackjackGame game = new BlackjackGame(new Random(11));
+        game.setShoe(2, 0.75);
+        game.startGame();
+        GameSnapshot started = game.getSnapshot();
+        game.humanHit();
+        GameSnapshot hit = game.getSnapshot();
+        boolean shared = hit.getHumanHand().size() == started.getHumanHand().size() + 1
+                && hit.getComputerHand() == started.getComputerHand()
+                && hit.getHumanHand().subList(0, started.getHumanHand().size()).equals(started.getHumanHand());
+
+        List<String> hands = new ArrayList<>();
+        List<GameSnapshot> snapshots = new ArrayList<>();
+        hands.add(game.getHumanHand() + "|" + game.getComputerHand());
+        snapshots.add(game.getSnapshot());
+        // 连续玩几局，撤销可以跨越牌局
+        for (int round = 0; round < 5; round++) {
+            if (round > 0) {
+                game.startGame();
+                hands.add(game.getHumanHand() + "|" + game.getComputerHand());
+                snapshots.add(game.getSnapshot());
+            }
+            while (game.getState() == BlackjackGame.GameState.PLAYING) {
+                if (game.getHumanScore() < 17) {
+                    game.playHit();
+                } else {
+                    game.playStand();
+                }
+                hands.add(game.getHumanHand() + "|" + game.getComputerHand());
+                snapshots.add(game.getSnapshot());
+            }
+        }
+        boolean ok = shared;
+        for (int i = hands.size() - 2; ok && i >= 0; i--) {
+            ok = game.undo() && hands.get(i).equals(game.getHumanHand() + "|" + game.getComputerHand())
+                    && game.getSnapshot() == snapshots.get(i) && game.getState() == snapshots.get(i).getState();
+        }
+        for (int i = 1; ok && i < hands.size(); i++) {
+            ok = game.redo() && hands.get(i).equals(game.getHumanHand() + "|" + game.getComputerHand());
+        }
+        ok = ok && !game.canRedo();
+
+        // 从开局后的快照开出一个独立的游戏，在上面停牌不影响原来的游戏
+        String original = game.getHumanHand() + "|" + game.getComputerHand() + "|" + game.getState();
+        BlackjackGame branch = BlackjackGame.fromSnapshot(snapshots.get(0));
+        branch.playStand();
+        ok = ok && branch.isGameOver() && branch.getHumanHand().toString().equals(hands.get(0).split("\\|")[0])
+                && original.equals(game.getHumanHand() + "|" + game.getComputerHand() + "|" + game.getState());
+
+        // 恢复快照作为一次新的操作，之后可以撤销回恢复之前
+        game.restoreSnapshot(snapshots.get(0));
+        ok = ok && hands.get(0).equals(game.getHumanHand() + "|" + game.getComputerHand()) && game.undo()
+                && original.equals(game.getHumanHand() + "|" + game.getComputerHand() + "|" + game.getState());
+        if (ok) {
+            System.out.println("✓ 测试通过：撤销、重做和假设推演恢复的游戏状态正确 (" + hands.size() + "个快照)");
+        } else {
+            System.out.println("✗ 测试失败：撤销、重做或假设推演恢复的游戏状态不正确");
+        }
+    }
+
+    /**
+     * 测试撤销越过已经结束的局之后重新打完，不会重复计入统计
+     * 电脑策略、人类行为模型和排行榜只计入每局第一次的结果，记录牌局过程的监听器仍然收到每次结束
+     */
+    public void testUndoReplayedRounds() {
+        try {
+            Path file = Files.createTempFile("leaderboard_undo", ".bin");
+            Files.delete(file);
+            int[] strategyFinished = new int[1];
+            int[] listenerFinished = new int[1];
+            BlackjackGame game = new BlackjackGame(new Random(5));
+            game.getComputer().setStrategy(new ComputerStrategy() {
+                @Override
+                public double getHitProbability(ComputerPlayer self, int score) {
+                    return score < 17 ? 1.0 : 0.0;
+                }
+
+                @Override
+                public void roundFinished(ComputerPlayer self, BlackjackGame.GameState result) {
+                    strategyFinished[0]++;
+                }
+            });
+            game.addGameListener(new GameListener() {
+                @Override
+                public void roundFinished(BlackjackGame g, BlackjackGame.GameState result) {
+                    listenerFinished[0]++;
+                }
+            });
+            boolean ok;
+            try (Leaderboard leaderboard = Leaderboard.open(file)) {
+                game.addGameListener(leaderboard);
+                game.startGame();
+                game.playStand();
+                game.startGame();
+                game.playHit();
+                while (!game.isGameOver()) {
+                    game.playStand();
+                }
+                int stands = game.getHuman().getActionModel().getStandCount();
+                // 撤销回第一局之前，重新打完两局
+                while (game.canUndo()) {
+                    game.undo();
+                }
+                game.startGame();
+                game.playHit();
+                while (!game.isGameOver()) {
+                    game.playStand();
+                }
+                boolean replayed = game.isReplayedRound();
+                game.startGame();
+                game.playStand();
+                replayed = replayed && game.isReplayedRound();
+                // 第三局是新的一局，照常计入
+                game.startGame();
+                game.playStand();
+                ok = replayed && !game.isReplayedRound() && strategyFinished[0] == 3 && listenerFinished[0] == 5
+                        && leaderboard.get(game.getHuman().getId()).getRounds() == 3
+                        && game.getHuman().getActionModel().getStandCount() == stands + 1;
+            }
+            Files.deleteIfExists(file);
+            if (ok) {
+                System.out.println("✓ 测试通过：撤销之后重新打完的局不会重复计入统计");
+            } else {
+                System.out.println("✗ 测试失败：撤销之后重新打完的局被重复计入统计：策略" + strategyFinished[0] + "局，监听器"
+                        + listenerFinished[0] + "局");
+            }
+        } catch (IOException e) {
+            System.out.println("✗ 测试失败：撤销重复计入测试出错：" + e);
+        }
+    }
+
+    /**
+     * 与v1、v2、v3版本的BlackjackGame相同的序列化布局：只有四个对象字段
+     */
+    @SuppressWarnings("serial")
+    private static class LegacyGame implements Serializable {
+        private static final long serialVersionUID = 1L;
+        private List<Card> deck = new ArrayList<>(52);
+        private HumanPlayer human = new HumanPlayer();
+        private ComputerPlayer computer = new ComputerPlayer();
+        private BlackjackGame.GameState state = BlackjackGame.GameState.NOT_STARTED;
+    }
+
+    /**
+     * 类名为BlackjackGame、字段中藏着其他类的对象的存档
+     */
+    @SuppressWarnings("serial")
+    private static class HostileGame implements Serializable {
+        private static final long serialVersionUID = 1L;
+        private Object payload = new HashSet<>();
+    }
+
+    /**
+     * 把测试中的类按BlackjackGame的类名写出，生成旧版本saveGame()写出的字节
+     */
+    private static class LegacyOutputStream extends ObjectOutputStream {
+        LegacyOutputStream(OutputStream out) throws IOException {
+            super(out);
+        }
+
+        @Override
+        protected void writeClassDescriptor(ObjectStreamClass desc) throws IOException {
+            if (!desc.getName().startsWith("BlackjackGameTest$")) {
+                super.writeClassDescriptor(desc);
+                return;
+            }
+            writeUTF("BlackjackGame");
+            writeLong(desc.getSerialVersionUID());
+            writeByte(ObjectStreamConstants.SC_SERIALIZABLE);
+            writeShort(desc.getFields().length);
+            for (ObjectStreamField field : desc.getFields()) {
+                writeByte(field.getTypeCode());
+                writeUTF(field.getName());
+                if (!field.isPrimitive()) {
+                    writeByte(ObjectStreamConstants.TC_STRING);
+                    writeUTF(field.getTypeString());
+                }
+            }
+        }
+    }
+
+    /**
+     * 测试旧版存档迁移
+     * 旧版本用Java序列化保存时在玩家对象处中断，文件中没有牌局数据，验证这些存档记录为失败；
+     * 新格式的存档原样复制，无法识别的文件和包含不允许的类的存档记录为失败
+     */
+    public void testSaveMigrator() {
+        try {
+            Path source = Files.createTempDirectory("legacy");
+            Path target = Files.createTempDirectory("migrated");
+            for (int i = 0; i < 20; i++) {
+                try (ObjectOutputStream out = new LegacyOutputStream(Files.newOutputStream(
+                        source.resolve("game" + i + ".sav")))) {
+                    out.writeObject(new LegacyGame());
+                } catch (NotSerializableException e) {
+                    // 与旧版本的saveGame()相同，写到玩家对象时中断
+                }
+            }
+            try (ObjectOutputStream out = new LegacyOutputStream(Files.newOutputStream(
+                    source.resolve("hostile.sav")))) {
+                out.writeObject(new HostileGame());
+            }
+            BlackjackGame game = new BlackjackGame();
+            game.setShoe(6, 0.75);
+            game.startGame();
+            game.saveGame(source.resolve("current.sav").toString());
+            Files.write(source.resolve("notes.txt"), "不是存档".getBytes(StandardCharsets.UTF_8));
+
+            SaveMigrator.Result result = new SaveMigrator(2).migrate(source, target, target.resolve("failures.log"));
+            List<String> failures = Files.readAllLines(target.resolve("failures.log"), StandardCharsets.UTF_8);
+            boolean ok = result.getMigrated() == 0 && result.getCopied() == 1 && result.getFailed() == 22
+                    && failures.size() == 22 && !Files.exists(target.resolve("notes.txt"))
+                    && !Files.exists(target.resolve("game0.sav")) && !Files.exists(target.resolve("hostile.sav"));
+            ok = ok && failures.stream().filter(line -> line.contains("没有牌局数据")).count() == 20
+                    && failures.stream().anyMatch(line -> line.startsWith("hostile.sav") && line.contains("REJECTED"));
+            BlackjackGame copied = BlackjackGame.loadGame(target.resolve("current.sav").toString());
+            ok = ok && copied.getState() == game.getState()
+                    && copied.getHumanHand().toString().equals(game.getHumanHand().toString());
+            // 直接加载旧格式的存档同样经过过滤
+            try {
+                BlackjackGame.loadGame(source.resolve("hostile.sav").toString());
+                ok = false;
+            } catch (InvalidClassException e) {
+                // 预期：HashSet不在允许的类中
+            }
+            if (ok) {
+                System.out.println("✓ 测试通过：旧版存档迁移记录了无法恢复的文件并拒绝了不允许的类");
+            } else {
+                System.out.println("✗ 测试失败：旧版存档迁移的结果不正确 (转换" + result.getMigrated() + "个，复制"
+                        + result.getCopied() + "个，失败" + result.getFailed() + "个)");
+            }
+        } catch (Exception e) {
+            System.out.println("✗ 测试失败：迁移旧版存档时出错：" + e);
+        }
+    }
+
+    /**
+     * 测试线程安全的游戏包装
+     * 多个线程同时向共享线程池上的多个游戏提交命令，验证每个游戏的命令没有交错执行并且全部完成
+     */
+    public void testConcurrentGame() {
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        ExecutorService clients = Executors.newFixedThreadPool(8);
+        try {
+            ConcurrentGame[] games = new ConcurrentGame[4];
+            int[] counters = new int[games.length];
+            boolean[] overlapped = new boolean[1];
+            for (int i = 0; i < games.length; i++) {
+                games[i] = new ConcurrentGame(new BlackjackGame(), pool);
+            }
+            List<Future<Boolean>> results = new ArrayList<>();
+            for (int c = 0; c < 8; c++) {
+                int client = c;
+                results.add(clients.submit(() -> {
+                    boolean ok = true;
+                    for (int round = 0; round < 200; round++) {
+                        int index = (client + round) % games.length;
+                        ConcurrentGame game = games[index];
+                        GameSnapshot started = game.startGame().join();
+                        // 不加同步的读改写，命令交错执行时计数会丢失
+                        game.submit(g -> {
+                            int before = counters[index];
+                            Thread.yield();
+                            overlapped[0] |= counters[index] != before;
+                            return counters[index] = before + 1;
+                        });
+                        GameSnapshot hit = game.playHit().join();
+                        ok &= started.getHumanHand().size() >= 1 && hit.getState() != null;
+                    }
+                    return ok;
+                }));
+            }
+            boolean ok = true;
+            for (Future<Boolean> result : results) {
+                ok &= result.get();
+            }
+            int total = 0;
+            for (int i = 0; i < games.length; i++) {
+                games[i].submit(g -> null).join();
+                total += counters[i];
+                games[i].close();
+            }
+            ok = ok && total == 8 * 200 && !overlapped[0] && games[0].startGame().isCompletedExceptionally();
+
+            ConcurrentGame owned = new ConcurrentGame(new BlackjackGame());
+            owned.startGame();
+            GameSnapshot stood = owned.playStand().join();
+            owned.close();
+            ok = ok && stood.getState() != BlackjackGame.GameState.PLAYING;
+            if (ok) {
+                System.out.println("✓ 测试通过：并发提交的命令按游戏串行执行并全部完成");
+            } else {
+                System.out.println("✗ 测试失败：并发提交的命令交错执行或没有全部完成 (计数" + total + ")");
+            }
+        } catch (Exception e) {
+            System.out.println("✗ 测试失败：并发操作游戏时出错：" + e);
+        } finally {
+            pool.shutdown();
+            clients.shutdown();
+        }
+    }
+
+    /**
+     * 测试无锁发布的快照
+     * 一个线程不停地操作游戏，其他线程同时读取快照，验证读到的每个快照都是某次操作完成后的一致状态
+     */
+    public void testPublishedSnapshot() {
+        BlackjackGame game = new BlackjackGame();
+        game.setShoe(6, 0.75);
+        ConcurrentGame owner = new ConcurrentGame(game);
+        ExecutorService readers = Executors.newFixedThreadPool(3);
+        AtomicBoolean done = new AtomicBoolean();
+        try {
+            List<Future<long[]>> results = new ArrayList<>();
+            for (int r = 0; r < 3; r++) {
+                results.add(readers.submit(() -> {
+                    long reads = 0;
+                    long inconsistent = 0;
+                    while (!done.get()) {
+                        GameSnapshot snapshot = owner.getSnapshot();
+                        BlackjackGame.GameState state = snapshot.getState();
+                        boolean consistent = state == BlackjackGame.GameState.NOT_STARTED
+                                || snapshot.getHumanHand().size() >= 1 && snapshot.getComputerHand().size() >= 1;
+                        consistent &= (state == BlackjackGame.GameState.HUMAN_BUST) == snapshot.getHumanScore() > 21;
+                        consistent &= state != BlackjackGame.GameState.COMPUTER_BUST || snapshot.getComputerScore() > 21;
+                        consistent &= snapshot.getHumanScore() == handScore(snapshot.getHumanHand());
+                        if (!consistent) {
+                            inconsistent++;
+                        }
+                        reads++;
+                    }
+                    return new long[] { reads, inconsistent };
+                }));
+            }
+            CompletableFuture<GameSnapshot> last = null;
+            for (int round = 0; round < 5000; round++) {
+                owner.startGame();
+                owner.playHit();
+                last = owner.playStand();
+            }
+            last.join();
+            done.set(true);
+            long reads = 0;
+            long inconsistent = 0;
+            for (Future<long[]> result : results) {
+                reads += result.get()[0];
+                inconsistent += result.get()[1];
+            }
+            boolean ok = inconsistent == 0 && reads > 0 && owner.getSnapshot() == last.join()
+                    && game.getSnapshot().getState() == game.getState();
+            if (ok) {
+                System.out.println("✓ 测试通过：其他线程读到的快照都是一致的 (" + reads + "次读取)");
+            } else {
+                System.out.println("✗ 测试失败：其他线程读到了不一致的快照 (" + inconsistent + "/" + reads + ")");
+            }
+        } catch (Exception e) {
+            System.out.println("✗ 测试失败：读取发布的快照时出错：" + e);
+        } finally {
+            done.set(true);
+            owner.close();
+            readers.shutdown();
+        }
+    }
+
+    /**
+     * 测试HTTP JSON游戏服务
+     * 验证创建会话、要牌、停牌、读取状态和结束会话的响应，以及JSON写入器的输出与快照一致
+     */
+    public void testGameHttpServer() {
+        try (GameHttpServer server = new GameHttpServer(0)) {
+            server.start();
+            HttpClient client = HttpClient.newHttpClient();
+            String base = "http://127.0.0.1:" + server.getPort() + "/sessions";
+            HttpResponse<String> created = request(client, "POST", base);
+            String id = created.body().substring("{\"session\":\"".length(), created.body().indexOf("\",\"state\""));
+            HttpResponse<String> hit = request(client, "POST", base + "/" + id + "/hit");
+            HttpResponse<String> stood = request(client, "POST", base + "/" + id + "/stand");
+            HttpResponse<String> state = request(client, "GET", base + "/" + id);
+            boolean ok = created.statusCode() == 201 && created.body().contains("\"state\":\"PLAYING\"")
+                    && created.body().indexOf("\"score\":", created.body().indexOf("\"computer\"")) < 0
+                    && hit.statusCode() == 200 && stood.statusCode() == 200 && stood.body().equals(state.body())
+                    && !state.body().contains("PLAYING") && state.body().contains("\"computer\":{\"cardCount\"")
+                    && server.getSessionCount() == 1;
+
+            ok = ok && request(client, "POST", base + "/" + id + "/fold").statusCode() == 404
+                    && request(client, "GET", base + "/unknown").statusCode() == 404
+                    && request(client, "DELETE", base + "/" + id).statusCode() == 204
+                    && request(client, "GET", base + "/" + id).statusCode() == 404 && server.getSessionCount() == 0;
+
+            // 只有会话确实结束时命令失败才回答410，其他失败按原因给出409/503/500
+            IllegalStateException shutDown = new IllegalStateException("处理线程已关闭",
+                    new RejectedExecutionException());
+            ok = ok && GameHttpServer.failureStatus(new CompletionException(new IllegalStateException()), true) == 410
+                    && GameHttpServer.failureStatus(new CompletionException(new IllegalStateException()), false) == 409
+                    && GameHttpServer.failureStatus(new IllegalStateException(), false) == 409
+                    && GameHttpServer.failureStatus(new CompletionException(shutDown), false) == 503
+                    && GameHttpServer.failureStatus(new CompletionException(new NullPointerException()), false) == 500;
+
+            // JSON写入器的输出与快照一致
+            BlackjackGame game = new BlackjackGame();
+            game.startGame();
+            game.playStand();
+            GameSnapshot snapshot = game.getSnapshot();
+            String json = new GameHttpServer.JsonWriter(16).writeGame("s", snapshot).toString();
+            StringBuilder cards = new StringBuilder();
+            for (Card card : snapshot.getHumanHand()) {
+                cards.append(cards.length() > 0 ? "," : "").append('"').append(card).append('"');
+            }
+            ok = ok && json.startsWith("{\"session\":\"s\",\"state\":\"" + snapshot.getState() + "\"")
+                    && json.contains("\"human\":{\"cards\":[" + cards + "],\"score\":" + snapshot.getHumanScore() + ",")
+                    && json.endsWith("\"score\":" + snapshot.getComputerScore() + "}}");
+
+            // 会话数不超过上限，空闲超时的会话被结束并归还名额
+            try (GameHttpServer limited = new GameHttpServer(0, 4, 300)) {
+                limited.start();
+                String small = "http://127.0.0.1:" + limited.getPort() + "/sessions";
+                List<CompletableFuture<HttpResponse<String>>> creates = new ArrayList<>();
+                for (int i = 0; i < 16; i++) {
+                    creates.add(client.sendAsync(HttpRequest.newBuilder(URI.create(small))
+                            .POST(HttpRequest.BodyPublishers.noBody()).build(), HttpResponse.BodyHandlers.ofString()));
+                }
+                int accepted = 0;
+                int rejected = 0;
+                String kept = null;
+                for (CompletableFuture<HttpResponse<String>> create : creates) {
+                    HttpResponse<String> response = create.join();
+                    if (response.statusCode() == 201) {
+                        accepted++;
+                        kept = response.body().substring("{\"session\":\"".length(), response.body().indexOf("\",\"state\""));
+                    } else if (response.statusCode() == 503) {
+                        rejected++;
+                    }
+                }
+                ok = ok && accepted == 4 && rejected == 12 && limited.getSessionCount() == 4;
+                long deadline = System.currentTimeMillis() + 5000;
+                while (limited.getSessionCount() > 0 && System.currentTimeMillis() < deadline) {
+                    Thread.sleep(50);
+                }
+                ok = ok && limited.getSessionCount() == 0
+                        && request(client, "GET", small + "/" + kept).statusCode() == 404
+                        && request(client, "POST", small).statusCode() == 201;
+            }
+            if (ok) {
+                System.out.println("✓ 测试通过：HTTP游戏服务的会话、会话上限、空闲超时和JSON响应正确");
+            } else {
+                System.out.println("✗ 测试失败：HTTP游戏服务的响应不正确：" + state.body());
+            }
+        } catch (Exception e) {
+            System.out.println("✗ 测试失败：访问HTTP游戏服务时出错：" + e);
+        }
+    }
+
+    /**
+     * 发送一个没有请求体的HTTP请求
+     */
+    private static HttpResponse<String> request(HttpClient client, String method, String uri) throws Exception {
+        return client.send(HttpRequest.newBuilder(URI.create(uri)).method(method, HttpRequest.BodyPublishers.noBody())
+                .build(), HttpResponse.BodyHandlers.ofString(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * 测试二进制协议的TCP游戏服务
+     * 验证连续发送的请求按顺序得到响应，分几次到达的请求帧可以正确拼接，魔数不正确时关闭连接
+     */
+    public void testGameNioServer() {
+        try (GameNioServer server = new GameNioServer(0, 2);
+                SocketChannel client = SocketChannel.open()) {
+            server.start();
+            client.connect(new InetSocketAddress("127.0.0.1", server.getPort()));
+            ByteBuffer requests = ByteBuffer.allocate(5 * GameNioServer.REQUEST_SIZE);
+            byte[] actions = { GameNioServer.START, GameNioServer.HIT, GameNioServer.STAND, GameNioServer.STATE, 9 };
+            for (int i = 0; i < actions.length; i++) {
+                requests.put(GameNioServer.MAGIC).put(actions[i]).putShort((short) (1000 + i));
+            }
+            // 最后一帧分两次发送
+            requests.flip().limit(requests.capacity() - 2);
+            client.write(requests);
+            Thread.sleep(50);
+            requests.limit(requests.capacity());
+            client.write(requests);
+
+            ByteBuffer responses = ByteBuffer.allocate(actions.length * GameNioServer.RESPONSE_SIZE);
+            while (responses.hasRemaining() && client.read(responses) >= 0) {
+                // 读取全部响应
+            }
+            responses.flip();
+            boolean ok = responses.remaining() == actions.length * GameNioServer.RESPONSE_SIZE;
+            byte[][] frames = new byte[actions.length][GameNioServer.RESPONSE_SIZE];
+            for (int i = 0; ok && i < actions.length; i++) {
+                responses.get(frames[i]);
+                ByteBuffer frame = ByteBuffer.wrap(frames[i]);
+                byte expected = i < 4 ? actions[i] : GameNioServer.ERROR;
+                ok = frame.get(0) == GameNioServer.MAGIC && frame.get(1) == expected
+                        && frame.getShort(2) == 1000 + i;
+                List<Card> hand = new ArrayList<>();
+                for (int c = 0; c < Math.min(frame.get(10), GameNioServer.MAX_CARDS); c++) {
+                    hand.add(Card.fromCode(frame.get(12 + c)));
+                }
+                ok = ok && handScore(hand) == frame.get(6);
+            }
+            BlackjackGame.GameState started = BlackjackGame.GameState.values()[frames[0][4]];
+            BlackjackGame.GameState stood = BlackjackGame.GameState.values()[frames[2][4]];
+            ok = ok && started == BlackjackGame.GameState.PLAYING && (frames[0][7] & 0xFF) == GameNioServer.HIDDEN
+                    && stood != BlackjackGame.GameState.PLAYING && (frames[2][7] & 0xFF) != GameNioServer.HIDDEN
+                    && Arrays.equals(frames[2], 4, frames[2].length, frames[3], 4, frames[3].length)
+                    && server.getConnectionCount() == 1;
+
+            // 魔数不正确时服务关闭连接
+            client.write(ByteBuffer.wrap(new byte[] { 0, GameNioServer.STATE, 0, 0 }));
+            ok = ok && client.read(ByteBuffer.allocate(1)) < 0;
+            if (ok) {
+                System.out.println("✓ 测试通过：TCP游戏服务按顺序响应了二进制请求");
+            } else {
+                System.out.println("✗ 测试失败：TCP游戏服务的响应不正确");
+            }
+        } catch (Exception e) {
+            System.out.println("✗ 测试失败：访问TCP游戏服务时出错：" + e);
+        }
+    }
+
+    /**
+     * @return 两个游戏的状态、手牌、停牌标志和牌组位置是否完全相同
+     */
+    /**
+     * 比较两个游戏的状态、手牌和牌组中的每张牌
+     * 牌局中途重新洗牌后牌组不再由种子生成，从完整牌组恢复的游戏不知道洗牌种子，因此不比较种子
+     */
+    private static boolean sameShoe(BlackjackGame a, BlackjackGame b) {
+        return a.getState() == b.getState() && a.getHumanHand().toString().equals(b.getHumanHand().toString())
+                && a.getComputerHand().toString().equals(b.getComputerHand().toString())
+                && a.getHuman().isStanding() == b.getHuman().isStanding()
+                && a.getComputer().isStanding() == b.getComputer().isStanding()
+                && a.getDeck().toString().equals(b.getDeck().toString()) && a.getDeckPosition() == b.getDeckPosition();
+    }
+
+    private static boolean sameGame(BlackjackGame a, BlackjackGame b) {
+        return a.getState() == b.getState() && a.getHumanHand().toString().equals(b.getHumanHand().toString())
+                && a.getComputerHand().toString().equals(b.getComputerHand().toString())
+                && a.getHuman().isStanding() == b.getHuman().isStanding()
+                && a.getComputer().isStanding() == b.getComputer().isStanding()
+                && a.getShuffleSeed() == b.getShuffleSeed() && a.getDeckPosition() == b.getDeckPosition();
+    }
+
+    /**
+     * @return 用空格分隔的一手牌
+     */
+    private static String joinCards(List<Card> hand) {
+        StringBuilder text = new StringBuilder();
+        for (Card card : hand) {
+            if (text.length() > 0) {
+                text.append(' ');
+            }
+            text.append(card);
+        }
+        return text.toString();
+    }
+
+    /**
+     * @return 一手牌的点数（A在不爆牌时计为11点）
+     */
+    private static int handScore(List<Card> hand) {
+        int hard = 0;
+        boolean ace = false;
+        for (Card card : hand) {
+            hard += card.getScore();
+            ace |= card.getValue() == 1;
+        }
+        return ace && hard + 10 <= 21 ? hard + 10 : hard;
+    }
+}
@@ -4,6 +4,23 @@
  * 在21点游戏中，J、Q、K的分值均为10点，A可以为1点或11点（由游戏逻辑决定）
  */
 public class Card {
+    /**
+     * 花色顺序，用于计算牌的编码
+     */
+    private static final String[] SUITS = { "\u2660", "\u2665", "\u2666", "\u2663" };
+
+    /**
+     * 52张牌的共享实例，下标为牌的编码
+     * Card是不可变对象，按编码解码时直接复用这些实例，不再创建新对象
+     */
+    private static final Card[] BY_CODE = new Card[52];
+
+    static {
+        for (int code = 0; code < 52; code++) {
+            BY_CODE[code] = new Card(SUITS[code / 13], code % 13 + 1);
+        }
+    }
+
     /**
      * 扑克牌的花色
      * 支持的花色包括：♠（黑桃）、♥（红桃）、♦（方块）、♣（梅花）
@@ -56,6 +73,38 @@ public class Card {
         return suit;
     }
 
+    /**
+     * 获取牌的紧凑编码
+     * 编码 = 花色序号 * 13 + (数值 - 1)，花色序号依次为♠=0、♥=1、♦=2、♣=3，取值范围0~51
+     * 用于二进制存档等需要一个字节表示一张牌的场合
+     * 
+     * @return 牌的编码
+     * @throws IllegalArgumentException 如果花色不是四种标准花色之一
+     */
+    public int getCode() {
+        for (int i = 0; i < SUITS.length; i++) {
+            if (SUITS[i].equals(suit)) {
+                return i * 13 + value - 1;
+            }
+        }
+        throw new IllegalArgumentException("未知的花色: " + suit);
+    }
+
+    /**
+     * 根据紧凑编码获取对应的牌
+     * 返回共享的不可变实例，不创建新对象
+     * 
+     * @param code 牌的编码（0~51）
+     * @return 对应的牌
+     * @throws IllegalArgumentException 如果编码超出范围
+     */
+    public static Card fromCode(int code) {
+        if (code < 0 || code >= BY_CODE.length) {
+            throw new IllegalArgumentException("无效的牌编码: " + code);
+        }
+        return BY_CODE[code];
+    }
+
     /**
      * 重写toString方法，返回格式化的牌面信息字符串
      * 例如：♠A、♥10、♦J、♣K
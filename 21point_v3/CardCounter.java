@@ -0,0 +1,168 @@
+/**
+ * 算牌器类
+ * 按指定的计点系统跟踪已发出的牌，维护流水计数（running count）和真数（true count）
+ *
+ * 每发出一张牌只需查表并累加一次，时间复杂度O(1)；洗牌时重置
+ * 策略可以直接读取当前计数来调整决策，无需重新扫描已发出的牌
+ */
+public class CardCounter {
+    /**
+     * 常用的计点系统
+     * 每种系统为A~K（牌面数值1~13）各指定一个计点值
+     */
+    public enum TagSystem {
+        /**
+         * Hi-Lo：2~6计+1，7~9计0，10/J/Q/K/A计-1
+         */
+        HI_LO(-1, 1, 1, 1, 1, 1, 0, 0, 0, -1, -1, -1, -1),
+
+        /**
+         * KO（Knock-Out）：2~7计+1，8~9计0，10/J/Q/K/A计-1，为不平衡系统
+         */
+        KO(-1, 1, 1, 1, 1, 1, 1, 0, 0, -1, -1, -1, -1),
+
+        /**
+         * Omega II：2、3、7计+1，4~6计+2，8和A计0，9计-1，10/J/Q/K计-2
+         */
+        OMEGA_II(0, 1, 1, 2, 2, 2, 1, 0, -1, -2, -2, -2, -2),
+
+        /**
+         * Zen Count：2、3、7计+1，4~6计+2，8~9计0，A计-1，10/J/Q/K计-2
+         */
+        ZEN(-1, 1, 1, 2, 2, 2, 1, 0, 0, -2, -2, -2, -2);
+
+        private final int[] tags;
+
+        TagSystem(int... tags) {
+            this.tags = tags;
+        }
+
+        /**
+         * @return 以牌面数值减1为下标的计点值数组副本
+         */
+        public int[] getTags() {
+            return tags.clone();
+        }
+    }
+
+    /**
+     * 计点值表，下标为牌面数值（1~13），下标0不使用
+     */
+    private final int[] tags = new int[14];
+
+    /**
+     * 流水计数：已发出的牌的计点值之和
+     */
+    private int runningCount;
+
+    /**
+     * 本次洗牌后已发出的牌数
+     */
+    private int cardsSeen;
+
+    /**
+     * 本次洗牌后牌靴的总牌数
+     */
+    private int shoeSize = 52;
+
+    /**
+     * 使用预定义的计点系统创建算牌器
+     *
+     * @param system 计点系统
+     */
+    public CardCounter(TagSystem system) {
+        this(system.getTags());
+    }
+
+    /**
+     * 使用自定义的计点值创建算牌器
+     *
+     * @param tagsByValue 13个计点值，依次对应A、2、3……K
+     */
+    public CardCounter(int[] tagsByValue) {
+        if (tagsByValue.length != 13) {
+            throw new IllegalArgumentException("计点值必须为13个，依次对应A~K");
+        }
+        System.arraycopy(tagsByValue, 0, tags, 1, 13);
+    }
+
+    /**
+     * 洗牌后重置计数
+     *
+     * @param shoeSize 新牌靴的总牌数
+     */
+    public void reset(int shoeSize) {
+        this.shoeSize = shoeSize;
+        runningCount = 0;
+        cardsSeen = 0;
+    }
+
+    /**
+     * 记录一张已发出的牌
+     *
+     * @param card 已发出的牌
+     */
+    public void cardDealt(Card card) {
+        runningCount += tags[card.getValue()];
+        cardsSeen++;
+    }
+
+    /**
+     * @return 流水计数
+     */
+    public int getRunningCount() {
+        return runningCount;
+    }
+
+    /**
+     * 获取真数：流水计数除以剩余牌的副数
+     * 剩余不足半副牌时按半副计算，避免牌靴末尾数值剧烈放大
+     *
+     * @return 真数
+     */
+    public double getTrueCount() {
+        return getTrueCount(0, 0);
+    }
+
+    /**
+     * 获取假设再发出若干张牌之后的真数，不修改计数
+     * 供胜率预测推演使用
+     *
+     * @param extraRunning 假设发出的牌的计点值之和
+     * @param extraSeen    假设发出的牌数
+     * @return 真数
+     */
+    public double getTrueCount(int extraRunning, int extraSeen) {
+        double decksRemaining = Math.max(0.5, (getCardsRemaining() - extraSeen) / 52.0);
+        return (runningCount + extraRunning) / decksRemaining;
+    }
+
+    /**
+     * @param value 牌面数值（1~13）
+     * @return 该牌的计点值
+     */
+    public int getTag(int value) {
+        return tags[value];
+    }
+
+    /**
+     * @return 本次洗牌后已发出的牌数
+     */
+    public int getCardsSeen() {
+        return cardsSeen;
+    }
+
+    /**
+     * @return 本次洗牌后牌靴的总牌数
+     */
+    public int getShoeSize() {
+        return shoeSize;
+    }
+
+    /**
+     * @return 牌靴中剩余的牌数
+     */
+    public int getCardsRemaining() {
+        return shoeSize - cardsSeen;
+    }
+}
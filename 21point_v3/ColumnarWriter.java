@@ -0,0 +1,375 @@
+/**
+ * 列式导出的模拟结果
+ * 作为游戏监听器，把每局的结果按列写入一个目录：每一列是一个单独的文件，
+ * 同一局在各列文件中的位置相同。外部分析程序只需映射需要的那一列，按内存带宽顺序扫描，
+ * 不会读入无关的字段
+ *
+ * 列（见Column）：最终状态、双方的最终点数、双方的手牌张数（各1字节）、开局时的洗牌种子（8字节）
+ *
+ * 列文件格式（大端序）：int魔数"BJCL"、int版本号、int每个值的字节数、int列序号，
+ * 随后从第16字节开始是紧密排列的值，第i局的值位于 16 + i * 字节数
+ *
+ * 性能设计：
+ * - 每个线程把结果先写入自己的固定大小的批次（BATCH_ROWS局），写满后一次把各列追加到各自的文件，
+ *   游戏线程之间只在整批写出时同步一次
+ * - 内存占用只与线程数和批次大小有关，导出数十亿局也不会增加
+ * - 读取时按不超过MAX_WINDOW_BYTES的窗口映射（见map(Path, Column, long, int)），
+ *   列文件超过2GB（例如8字节的种子列超过约2.68亿局）时分段扫描
+ *
+ * 写入列文件失败后写入器停止导出：失败的这批不计入行数，各列截断回最后一批完整写出的位置，
+ * 之后结束的牌局不再导出，失败在close()时抛出，不会抛进游戏线程
+ *
+ * 同一个写入器可以注册到多个游戏（例如模拟器的多个工作线程）；
+ * 应在所有游戏结束后调用close()，写出各线程剩余的不满一批的结果
+ *
+ * 用法：java ColumnarWriter [列文件目录]，统计已导出的结果
+ */
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+public class ColumnarWriter implements GameListener, Closeable {
+    private static final int MAGIC = 0x424A434C;
+    private static final int VERSION = 1;
+
+    /**
+     * 列文件头的字节数，值从这里开始
+     */
+    public static final int HEADER_SIZE = 16;
+
+    /**
+     * 每批的局数
+     */
+    public static final int BATCH_ROWS = 16384;
+
+    /**
+     * 一次映射的最大字节数；单个MappedByteBuffer最多只能映射2GB
+     */
+    public static final int MAX_WINDOW_BYTES = 1 << 30;
+
+    /**
+     * 导出的列
+     */
+    public enum Column {
+        OUTCOME(1),
+        HUMAN_SCORE(1),
+        COMPUTER_SCORE(1),
+        HUMAN_CARDS(1),
+        COMPUTER_CARDS(1),
+        SHUFFLE_SEED(8);
+
+        private final int width;
+
+        Column(int width) {
+            this.width = width;
+        }
+
+        /**
+         * @return 每个值的字节数
+         */
+        public int getWidth() {
+            return width;
+        }
+
+        /**
+         * @return 列文件名，例如 outcome.col
+         */
+        public String getFileName() {
+            return name().toLowerCase(Locale.ROOT) + ".col";
+        }
+    }
+
+    /**
+     * 一个线程正在填充的批次，每列一个缓冲区
+     */
+    private static final class Batch {
+        final ByteBuffer[] columns = new ByteBuffer[Column.values().length];
+
+        Batch() {
+            for (Column column : Column.values()) {
+                columns[column.ordinal()] = ByteBuffer.allocateDirect(BATCH_ROWS * column.width);
+            }
+        }
+
+        boolean isFull() {
+            return !columns[0].hasRemaining();
+        }
+
+        boolean isEmpty() {
+            return columns[0].position() == 0;
+        }
+    }
+
+    private final FileChannel[] channels = new FileChannel[Column.values().length];
+    private final ThreadLocal<Batch> batches = ThreadLocal.withInitial(this::newBatch);
+
+    /**
+     * 所有线程的批次，关闭时写出其中剩余的结果，由this保护
+     */
+    private final List<Batch> allBatches = new ArrayList<>();
+    private long rows;
+    private boolean closed;
+
+    /**
+     * 第一次写入失败的异常，设置之后不再导出任何结果，在close()时抛出
+     */
+    private volatile IOException failure;
+
+    /**
+     * 创建列文件目录，已有的列文件会被替换
+     *
+     * @param directory 列文件目录，不存在时自动创建
+     * @throws IOException 如果无法创建列文件
+     */
+    public ColumnarWriter(Path directory) throws IOException {
+        Files.createDirectories(directory);
+        for (Column column : Column.values()) {
+            FileChannel channel = FileChannel.open(directory.resolve(column.getFileName()), StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC).putInt(VERSION).putInt(column.width).putInt(column.ordinal());
+            header.flip();
+            while (header.hasRemaining()) {
+                channel.write(header);
+            }
+            channels[column.ordinal()] = channel;
+        }
+    }
+
+    /**
+     * 一局结束时把结果写入当前线程的批次，批次写满时追加到列文件
+     */
+    @Override
+    public void roundFinished(BlackjackGame game, BlackjackGame.GameState result) {
+        if (failure != null) {
+            return;
+        }
+        Batch batch = batches.get();
+        ByteBuffer[] columns = batch.columns;
+        columns[Column.OUTCOME.ordinal()].put((byte) result.ordinal());
+        columns[Column.HUMAN_SCORE.ordinal()].put((byte) game.getHumanScore());
+        columns[Column.COMPUTER_SCORE.ordinal()].put((byte) game.getComputerScore());
+        columns[Column.HUMAN_CARDS.ordinal()].put((byte) game.getHuman().hand.size());
+        columns[Column.COMPUTER_CARDS.ordinal()].put((byte) game.getComputer().hand.size());
+        columns[Column.SHUFFLE_SEED.ordinal()].putLong(game.getShuffleSeed());
+        if (batch.isFull()) {
+            flush(batch);
+        }
+    }
+
+    /**
+     * @return 已写入列文件的局数（不含各线程批次中尚未写出的结果）
+     */
+    public synchronized long getRowCount() {
+        return rows;
+    }
+
+    /**
+     * 写出所有线程剩余的结果，强制写回磁盘并关闭列文件
+     *
+     * @throws IOException 如果这次或之前的写入失败
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        for (Batch batch : allBatches) {
+            if (!batch.isEmpty()) {
+                flush(batch);
+            }
+        }
+        closed = true;
+        IOException error = failure;
+        for (FileChannel channel : channels) {
+            try {
+                if (error == null) {
+                    channel.force(true);
+                }
+                channel.close();
+            } catch (IOException e) {
+                if (error == null) {
+                    error = e;
+                } else {
+                    error.addSuppressed(e);
+                }
+            }
+        }
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    private synchronized Batch newBatch() {
+        Batch batch = new Batch();
+        allBatches.add(batch);
+        return batch;
+    }
+
+    /**
+     * 把一批结果的各列追加到各自的文件并清空批次
+     * 整批在同一把锁内写出，各列文件中同一局的位置保持一致；
+     * 写入失败时记录失败，不计入这一批，并把已经写出的列截断回这一批之前的长度
+     */
+    private synchronized void flush(Batch batch) {
+        if (closed || failure != null) {
+            // 关闭或失败后结束的牌局不再导出，写入器可以安全地保留在游戏的监听器列表中
+            for (ByteBuffer buffer : batch.columns) {
+                buffer.clear();
+            }
+            return;
+        }
+        int count = batch.columns[0].position();
+        try {
+            for (Column column : Column.values()) {
+                ByteBuffer buffer = batch.columns[column.ordinal()];
+                buffer.flip();
+                FileChannel channel = channels[column.ordinal()];
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            }
+            rows += count;
+        } catch (IOException e) {
+            failure = e;
+            truncateColumns();
+        } finally {
+            for (ByteBuffer buffer : batch.columns) {
+                buffer.clear();
+            }
+        }
+    }
+
+    /**
+     * 尽量把各列截断回已计入的行数，使失败后的列文件仍然对齐
+     */
+    private void truncateColumns() {
+        for (Column column : Column.values()) {
+            try {
+                channels[column.ordinal()].truncate(HEADER_SIZE + rows * column.width);
+            } catch (IOException e) {
+                failure.addSuppressed(e);
+            }
+        }
+    }
+
+    /**
+     * 以只读方式映射一列的全部值
+     * 只适用于不超过MAX_WINDOW_BYTES的列，更大的列应使用map(Path, Column, long, int)分段映射
+     *
+     * @param directory 列文件目录
+     * @param column    列
+     * @return 该列所有值的映射，第i局的值位于 i * column.getWidth()
+     * @throws IOException 如果列文件无法读取、格式不正确或超过一个窗口
+     */
+    public static MappedByteBuffer map(Path directory, Column column) throws IOException {
+        long count = rowCount(directory, column);
+        if (count > getWindowRows(column)) {
+            throw new IOException("列超过" + MAX_WINDOW_BYTES + "字节，应分段映射: " + column.getFileName());
+        }
+        return map(directory, column, 0, (int) count);
+    }
+
+    /**
+     * 以只读方式映射一列中连续的一段值
+     *
+     * @param directory 列文件目录
+     * @param column    列
+     * @param firstRow  第一局的序号
+     * @param rowCount  局数，不超过getWindowRows(column)
+     * @return 这一段值的映射，第firstRow + i局的值位于 i * column.getWidth()
+     * @throws IOException 如果列文件无法读取、格式不正确或这一段超出已导出的局数
+     */
+    public static MappedByteBuffer map(Path directory, Column column, long firstRow, int rowCount) throws IOException {
+        if (rowCount < 0 || rowCount > getWindowRows(column)) {
+            throw new IllegalArgumentException("每段最多" + getWindowRows(column) + "局: " + rowCount);
+        }
+        try (FileChannel channel = openColumn(directory, column)) {
+            long total = (channel.size() - HEADER_SIZE) / column.width;
+            if (firstRow < 0 || firstRow + rowCount > total) {
+                throw new IOException("超出已导出的局数" + total + ": " + firstRow + "+" + rowCount);
+            }
+            return channel.map(FileChannel.MapMode.READ_ONLY, HEADER_SIZE + firstRow * column.width,
+                    (long) rowCount * column.width);
+        }
+    }
+
+    /**
+     * 读取一列中已导出的局数
+     *
+     * @param directory 列文件目录
+     * @param column    列
+     * @return 局数
+     * @throws IOException 如果列文件无法读取或格式不正确
+     */
+    public static long rowCount(Path directory, Column column) throws IOException {
+        try (FileChannel channel = openColumn(directory, column)) {
+            return (channel.size() - HEADER_SIZE) / column.width;
+        }
+    }
+
+    /**
+     * @param column 列
+     * @return 一次映射最多包含的局数
+     */
+    public static int getWindowRows(Column column) {
+        return MAX_WINDOW_BYTES / column.width;
+    }
+
+    /**
+     * 打开列文件并校验文件头
+     */
+    private static FileChannel openColumn(Path directory, Column column) throws IOException {
+        Path path = directory.resolve(column.getFileName());
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            while (header.hasRemaining() && channel.read(header, header.position()) >= 0) {
+                // 读取文件头
+            }
+            if (header.hasRemaining() || header.getInt(0) != MAGIC || header.getInt(8) != column.width) {
+                throw new IOException("不是有效的列文件: " + path);
+            }
+            return channel;
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * 统计已导出的结果：只映射最终状态和人类点数两列，按窗口分段扫描
+     */
+    public static void main(String[] args) throws IOException {
+        Path directory = Paths.get(args.length > 0 ? args[0] : "columns");
+        long start = System.currentTimeMillis();
+        long rows = Math.min(rowCount(directory, Column.OUTCOME), rowCount(directory, Column.HUMAN_SCORE));
+        long[] byOutcome = new long[BlackjackGame.GameState.values().length];
+        long scoreSum = 0;
+        for (long first = 0; first < rows; first += getWindowRows(Column.OUTCOME)) {
+            int count = (int) Math.min(rows - first, getWindowRows(Column.OUTCOME));
+            ByteBuffer outcomes = map(directory, Column.OUTCOME, first, count);
+            ByteBuffer scores = map(directory, Column.HUMAN_SCORE, first, count);
+            for (int i = 0; i < count; i++) {
+                byOutcome[outcomes.get(i)]++;
+                scoreSum += scores.get(i);
+            }
+        }
+        long elapsed = Math.max(1, System.currentTimeMillis() - start);
+        System.out.printf("共%d局，人类平均点数 %.3f，耗时%d毫秒%n", rows, rows == 0 ? 0.0 : (double) scoreSum / rows, elapsed);
+        for (BlackjackGame.GameState state : BlackjackGame.GameState.values()) {
+            if (byOutcome[state.ordinal()] > 0) {
+                System.out.printf("  %s：%.4f%%%n", state, byOutcome[state.ordinal()] * 100.0 / rows);
+            }
+        }
+    }
+}
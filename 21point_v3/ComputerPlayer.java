@@ -2,39 +2,143 @@
  * 电脑玩家类
  * 继承自Player基类，表示21点游戏中由计算机控制的玩家
  * 包含AI决策逻辑，用于自动决定何时要牌（hit）或停牌（stand）
- * 该AI基于智能概率算法，根据当前手牌点数动态调整要牌概率
+ * 具体的决策算法由可替换的策略（ComputerStrategy）提供，默认使用基于点数的动态概率策略
  */
 public class ComputerPlayer extends Player {
     /**
-     * AI决策逻辑 - 基于点数的动态概率算法
-     * 根据当前手牌点数动态决定是否要牌（hit）
-     * 
-     * 算法策略：
-     * 根据公式计算决策值k：
-     * k = (100 * (21 - 电脑得分) / 21) + (随机数 * 100)
-     * 
-     * 决策规则：
-     * - 如果k > 50，则要牌（hit）
-     * - 如果k <= 50，则不要牌（stand）
+     * 电脑玩家当前使用的决策策略
+     * 默认为基于点数的动态概率策略（ProbabilisticStrategy）
+     */
+    private ComputerStrategy strategy = new ProbabilisticStrategy();
+
+    /**
+     * 牌桌上的算牌器，由游戏引擎设置，供算牌策略读取当前计数
+     */
+    private CardCounter cardCounter;
+
+    /**
+     * 对手（人类玩家），由游戏引擎设置，供自适应策略读取其点数和行为模型
+     */
+    private HumanPlayer opponent;
+
+    /**
+     * 本局由策略选择器（BanditStrategy）选定的子策略编号
+     * 保存在玩家对象上而不是选择器中，使同一个选择器可以被多局并发的游戏共享
+     */
+    private int strategyArm = -1;
+
+    /**
+     * AI决策逻辑
+     * 按当前策略给出的要牌概率随机决定是否要牌（hit）
      * 
-     * 算法特点：
-     * - 点数越小，要牌的概率越大
-     * - 点数越接近21，不要牌的概率越大
-     * - 加入随机因子，增加决策的不可预测性
+     * 默认策略下与原有公式等价：
+     * k = (100 * (21 - 电脑得分) / 21) + (随机数 * 100)，k > 50则要牌
      * 
      * @return true表示AI决定要牌，false表示AI决定停牌
      */
     public boolean shouldHit() {
-        int score = getTotalScore();
-        
-        // 根据公式计算决策值k
-        // k = (100 * (21 - 电脑得分) / 21) + (随机数 * 100)
-        double k = (100.0 * (21 - score) / 21.0) + (Math.random() * 100.0);
-        
-        // 如果k > 50，要牌；否则不要牌
-        return k > 50;
+        return Math.random() < getHitProbability(getTotalScore());
     }
     
+    /**
+     * 计算AI在指定点数下选择要牌的概率
+     * 委托给当前策略计算
+     * 
+     * 主要供胜率预测（WinOracle）使用，以便在不实际抽牌的情况下推演电脑的行为
+     * 
+     * @param score 电脑玩家的手牌点数
+     * @return 要牌的概率，取值范围[0, 1]
+     */
+    public double getHitProbability(int score) {
+        return strategy.getHitProbability(this, score);
+    }
+
+    /**
+     * 计算AI在胜率预测推演的假设局面下选择要牌的概率
+     * 委托给当前策略计算
+     * 
+     * @param score     电脑玩家的手牌点数
+     * @param situation 假设局面（人类玩家的点数和停牌状态等）
+     * @return 要牌的概率，取值范围[0, 1]
+     */
+    public double getHitProbability(int score, ComputerStrategy.Situation situation) {
+        return strategy.getHitProbability(this, score, situation);
+    }
+
+    /**
+     * 获取当前使用的决策策略
+     * 
+     * @return 决策策略
+     */
+    public ComputerStrategy getStrategy() {
+        return strategy;
+    }
+
+    /**
+     * 设置决策策略
+     * 
+     * @param strategy 新的决策策略
+     */
+    public void setStrategy(ComputerStrategy strategy) {
+        this.strategy = strategy;
+    }
+
+    /**
+     * 获取牌桌上的算牌器
+     * 
+     * @return 算牌器；未设置时为null
+     */
+    public CardCounter getCardCounter() {
+        return cardCounter;
+    }
+
+    /**
+     * 设置牌桌上的算牌器
+     * 由游戏引擎在开始游戏时调用
+     * 
+     * @param cardCounter 算牌器
+     */
+    public void setCardCounter(CardCounter cardCounter) {
+        this.cardCounter = cardCounter;
+    }
+
+    /**
+     * 获取对手（人类玩家）
+     * 
+     * @return 对手；未设置时为null
+     */
+    public HumanPlayer getOpponent() {
+        return opponent;
+    }
+
+    /**
+     * 设置对手（人类玩家）
+     * 由游戏引擎在开始游戏时调用
+     * 
+     * @param opponent 对手
+     */
+    public void setOpponent(HumanPlayer opponent) {
+        this.opponent = opponent;
+    }
+
+    /**
+     * 获取本局选定的子策略编号
+     * 
+     * @return 子策略编号；未选定时为-1
+     */
+    public int getStrategyArm() {
+        return strategyArm;
+    }
+
+    /**
+     * 设置本局选定的子策略编号
+     * 
+     * @param strategyArm 子策略编号
+     */
+    public void setStrategyArm(int strategyArm) {
+        this.strategyArm = strategyArm;
+    }
+
     /**
      * 用于测试的方法：手动设置电脑玩家的手牌
      * 主要用于单元测试，可以直接设置特定的手牌组合来测试AI决策逻辑
@@ -0,0 +1,82 @@
+/**
+ * 电脑玩家的决策策略接口
+ * 策略根据电脑玩家当前的点数和可见的牌桌信息（如算牌器）给出要牌概率，
+ * 电脑玩家按该概率随机决定是否要牌
+ *
+ * 以概率而不是布尔值作为结果，是为了让胜率预测（WinOracle）可以直接推演策略的行为；
+ * 确定性的策略只需返回0或1
+ */
+public interface ComputerStrategy {
+    /**
+     * 胜率预测（WinOracle）推演中的假设局面
+     * 推演时人类玩家的点数和停牌状态与真实牌桌不同，依赖这些信息的策略应从这里读取
+     */
+    interface Situation {
+        /**
+         * @return 假设局面中人类玩家的点数
+         */
+        int getHumanScore();
+
+        /**
+         * @return 假设局面中人类玩家是否已停牌
+         */
+        boolean isHumanStanding();
+
+        /**
+         * @return 假设局面中的真数：查询时刻的计数加上推演中假设发出的牌；没有算牌器时为0
+         */
+        double getTrueCount();
+    }
+
+    /**
+     * 计算电脑玩家在指定点数下选择要牌的概率
+     *
+     * @param self  使用该策略的电脑玩家，可从中获取算牌器等牌桌信息
+     * @param score 需要决策的手牌点数（不一定是当前点数，胜率预测会推演假设的点数）
+     * @return 要牌的概率，取值范围[0, 1]
+     */
+    double getHitProbability(ComputerPlayer self, int score);
+
+    /**
+     * 计算电脑玩家在胜率预测推演的假设局面下选择要牌的概率
+     * 默认忽略假设局面，与getHitProbability(self, score)相同；读取人类玩家状态或算牌计数的策略应覆盖此方法
+     *
+     * @param self      使用该策略的电脑玩家
+     * @param score     需要决策的手牌点数
+     * @param situation 假设局面
+     * @return 要牌的概率，取值范围[0, 1]
+     */
+    default double getHitProbability(ComputerPlayer self, int score, Situation situation) {
+        return getHitProbability(self, score);
+    }
+
+    /**
+     * 判断策略的决策是否依赖在对局中不断学习的数据（例如对手行为模型）
+     * 这类策略的推演结果在下一次查询时可能已经过期，胜率预测只在一次查询之内缓存它们
+     *
+     * @param self 使用该策略的电脑玩家
+     * @return 默认false
+     */
+    default boolean isLearning(ComputerPlayer self) {
+        return false;
+    }
+
+    /**
+     * 新的一局开始时调用
+     * 默认不做任何处理；组合多个策略的选择器可以在这里为本局选定具体策略
+     *
+     * @param self 使用该策略的电脑玩家
+     */
+    default void roundStarted(ComputerPlayer self) {
+    }
+
+    /**
+     * 一局结束时调用
+     * 默认不做任何处理；需要从结果中学习的策略可以在这里更新统计
+     *
+     * @param self   使用该策略的电脑玩家
+     * @param result 本局的最终状态
+     */
+    default void roundFinished(ComputerPlayer self, BlackjackGame.GameState result) {
+    }
+}
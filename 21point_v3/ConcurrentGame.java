@@ -0,0 +1,270 @@
+/**
+ * 线程安全的游戏包装
+ * BlackjackGame没有任何同步，多个线程（界面定时器、网络连接等）同时操作同一个游戏会交错执行。
+ * 本类把每个操作变成一个命令放入该游戏自己的队列，由同一时刻只有一个的处理线程按顺序执行，
+ * 调用者立即得到一个CompletableFuture，操作完成后以操作后的快照（GameSnapshot）完成
+ *
+ * 设计要点：
+ * - 单写者：游戏只在处理线程中被访问，游戏本身不需要加锁，提交命令只是一次无锁的入队
+ * - 处理线程可以是本类独占的线程，也可以由多个游戏共享一个线程池：
+ *   队列不为空时只有一个排空任务在线程池中运行，每次最多执行BATCH个命令后让出线程，
+ *   因此成千上万个游戏可以共用几个线程，并且任何时候每个游戏只在一个线程中被操作
+ * - 返回的快照不可变，可以交给任意线程读取；只需要最新状态的读者直接调用getSnapshot()，不经过队列
+ * - 命令抛出的异常使对应的future异常完成，不影响之后的命令
+ */
+import java.io.Closeable;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+
+public class ConcurrentGame implements Closeable {
+    /**
+     * 排空任务每次最多执行的命令数，超过后重新提交，让共享线程池中的其他游戏有机会执行
+     */
+    private static final int BATCH = 64;
+
+    private final BlackjackGame game;
+    private final Executor executor;
+
+    /**
+     * 本类独占的处理线程，使用共享线程池时为null
+     */
+    private final ExecutorService owned;
+
+    private final Queue<Command<?>> queue = new ConcurrentLinkedQueue<>();
+
+    /**
+     * 是否已经有一个排空任务在运行或等待运行
+     */
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+
+    private volatile boolean closed;
+
+    /**
+     * 队列中的一个命令和等待它结果的future
+     */
+    private static final class Command<T> {
+        private final Function<BlackjackGame, T> action;
+        private final CompletableFuture<T> result = new CompletableFuture<>();
+
+        Command(Function<BlackjackGame, T> action) {
+            this.action = action;
+        }
+
+        void run(BlackjackGame game) {
+            try {
+                result.complete(action.apply(game));
+            } catch (Throwable e) {
+                result.completeExceptionally(e);
+            }
+        }
+    }
+
+    /**
+     * 包装一个游戏，使用本类独占的处理线程
+     * 包装之后不应再从其他线程直接操作这个游戏
+     *
+     * @param game 游戏对象
+     */
+    public ConcurrentGame(BlackjackGame game) {
+        this.game = game;
+        this.owned = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "game-owner");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.executor = owned;
+    }
+
+    /**
+     * 包装一个游戏，由共享的线程池处理命令
+     * 包装之后不应再从其他线程直接操作这个游戏
+     *
+     * @param game     游戏对象
+     * @param executor 处理命令的线程池，可以由多个游戏共享
+     */
+    public ConcurrentGame(BlackjackGame game, Executor executor) {
+        this.game = game;
+        this.executor = executor;
+        this.owned = null;
+    }
+
+    /**
+     * 提交一个命令，命令在处理线程中以游戏为参数执行
+     *
+     * @param command 命令，不应把游戏对象泄露到其他线程
+     * @return 以命令的返回值完成的future
+     */
+    public <T> CompletableFuture<T> submit(Function<BlackjackGame, T> command) {
+        Command<T> queued = new Command<>(command);
+        if (closed) {
+            queued.result.completeExceptionally(new IllegalStateException("游戏已关闭"));
+            return queued.result;
+        }
+        queue.add(queued);
+        schedule();
+        return queued.result;
+    }
+
+    /**
+     * 开始新一局
+     *
+     * @return 以开局后的快照完成的future
+     */
+    public CompletableFuture<GameSnapshot> startGame() {
+        return submit(g -> {
+            g.startGame();
+            return g.getSnapshot();
+        });
+    }
+
+    /**
+     * 人类玩家要牌，电脑随后行动（见BlackjackGame.playHit()）
+     *
+     * @return 以操作后的快照完成的future
+     */
+    public CompletableFuture<GameSnapshot> playHit() {
+        return submit(g -> {
+            g.playHit();
+            return g.getSnapshot();
+        });
+    }
+
+    /**
+     * 人类玩家停牌，电脑行动到结束（见BlackjackGame.playStand()）
+     *
+     * @return 以操作后的快照完成的future
+     */
+    public CompletableFuture<GameSnapshot> playStand() {
+        return submit(g -> {
+            g.playStand();
+            return g.getSnapshot();
+        });
+    }
+
+    /**
+     * 只执行人类玩家要牌，电脑的行动由调用者另行提交（例如界面定时器中的computerHit()）
+     *
+     * @return 以操作后的快照完成的future
+     */
+    public CompletableFuture<GameSnapshot> humanHit() {
+        return submit(g -> {
+            g.humanHit();
+            return g.getSnapshot();
+        });
+    }
+
+    /**
+     * 只执行人类玩家停牌
+     *
+     * @return 以操作后的快照完成的future
+     */
+    public CompletableFuture<GameSnapshot> humanStand() {
+        return submit(g -> {
+            g.humanStand();
+            return g.getSnapshot();
+        });
+    }
+
+    /**
+     * 电脑玩家做一次决策
+     *
+     * @return 以操作后的快照完成的future
+     */
+    public CompletableFuture<GameSnapshot> computerHit() {
+        return submit(g -> {
+            g.computerHit();
+            return g.getSnapshot();
+        });
+    }
+
+    /**
+     * 双方都停牌后判定胜负
+     *
+     * @return 以操作后的快照完成的future
+     */
+    public CompletableFuture<GameSnapshot> finalizeGame() {
+        return submit(g -> {
+            g.finalizeGame();
+            return g.getSnapshot();
+        });
+    }
+
+    /**
+     * 读取游戏最近发布的快照，不进入队列也不加锁，可以在任意线程中调用
+     * 需要看到之前提交的命令的结果时，应使用这些命令返回的future
+     *
+     * @return 最近一次操作完成后的快照
+     */
+    public GameSnapshot getSnapshot() {
+        return game.getSnapshot();
+    }
+
+    /**
+     * 是否已经调用过close，之后提交的命令都会异常完成
+     *
+     * @return 已关闭返回true
+     */
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * 停止接受新的命令；已经提交的命令仍会执行，独占的处理线程在执行完之后结束
+     */
+    @Override
+    public void close() {
+        closed = true;
+        if (owned != null) {
+            owned.shutdown();
+        }
+    }
+
+    /**
+     * 没有排空任务时提交一个
+     */
+    private void schedule() {
+        if (!queue.isEmpty() && scheduled.compareAndSet(false, true)) {
+            try {
+                executor.execute(this::drain);
+            } catch (RejectedExecutionException e) {
+                scheduled.set(false);
+                failPending(e);
+            }
+        }
+    }
+
+    /**
+     * 在处理线程中按顺序执行队列中的命令
+     */
+    private void drain() {
+        // 独占的线程一直执行到队列为空，关闭之后不能再重新提交
+        int limit = owned != null ? Integer.MAX_VALUE : BATCH;
+        for (int i = 0; i < limit; i++) {
+            Command<?> command = queue.poll();
+            if (command == null) {
+                break;
+            }
+            command.run(game);
+        }
+        scheduled.set(false);
+        // 清除标志之后入队的命令由提交者自己安排；清除之前入队的命令在这里重新安排
+        schedule();
+    }
+
+    /**
+     * 线程池已经关闭时，队列中的命令不会再执行，使它们的future异常完成
+     */
+    private void failPending(RejectedExecutionException e) {
+        IllegalStateException failure = new IllegalStateException("处理线程已关闭", e);
+        for (Command<?> command = queue.poll(); command != null; command = queue.poll()) {
+            command.result.completeExceptionally(failure);
+        }
+    }
+}
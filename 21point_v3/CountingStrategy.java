@@ -0,0 +1,66 @@
+/**
+ * 算牌策略
+ * 以固定的停牌点数为基础，根据算牌器的真数调整停牌点数：
+ * - 真数为正，说明剩余牌中大牌较多，要牌更容易爆牌，因此提前停牌
+ * - 真数为负，说明剩余牌中小牌较多，可以更积极地要牌
+ * 
+ * 停牌点数 = 基础停牌点数 - round(真数 / 2)，并限制在[minStand, maxStand]范围内
+ * 该策略是确定性的：低于停牌点数必定要牌，否则必定停牌
+ */
+public class CountingStrategy implements ComputerStrategy {
+    private final int baseStand;
+    private final int minStand;
+    private final int maxStand;
+
+    /**
+     * 使用默认参数创建算牌策略：基础停牌点数17，调整范围[15, 19]
+     */
+    public CountingStrategy() {
+        this(17, 15, 19);
+    }
+
+    /**
+     * @param baseStand 真数为0时的停牌点数
+     * @param minStand  调整后停牌点数的下限
+     * @param maxStand  调整后停牌点数的上限
+     */
+    public CountingStrategy(int baseStand, int minStand, int maxStand) {
+        this.baseStand = baseStand;
+        this.minStand = minStand;
+        this.maxStand = maxStand;
+    }
+
+    @Override
+    public double getHitProbability(ComputerPlayer self, int score) {
+        return score < getStandScore(self.getCardCounter()) ? 1.0 : 0.0;
+    }
+
+    /**
+     * 推演时使用计入假设发出的牌之后的真数
+     */
+    @Override
+    public double getHitProbability(ComputerPlayer self, int score, Situation situation) {
+        return score < getStandScore(situation.getTrueCount()) ? 1.0 : 0.0;
+    }
+
+    /**
+     * 根据当前真数计算停牌点数
+     * 
+     * @param counter 算牌器；为null时使用基础停牌点数
+     * @return 停牌点数
+     */
+    public int getStandScore(CardCounter counter) {
+        return counter == null ? baseStand : getStandScore(counter.getTrueCount());
+    }
+
+    /**
+     * 根据指定的真数计算停牌点数
+     *
+     * @param trueCount 真数
+     * @return 停牌点数
+     */
+    public int getStandScore(double trueCount) {
+        int stand = baseStand - (int) Math.round(trueCount / 2.0);
+        return Math.max(minStand, Math.min(maxStand, stand));
+    }
+}
@@ -0,0 +1,378 @@
+/**
+ * 游戏存档的二进制编解码类
+ * 以紧凑的版本化二进制格式保存BlackjackGame，取代Java对象序列化
+ *
+ * 与Java序列化相比：
+ * - 每张牌只占一个字节（见Card.getCode()），单副牌的完整存档不到100字节
+ * - 不写入类描述信息，编解码只是顺序读写基本类型，速度快一个数量级以上
+ * - 格式由版本号控制，类的内部字段调整不会导致旧存档无法读取
+ *
+ * 格式（大端序，版本4）：
+ * <pre>
+ * int   魔数 "BJ21"
+ * byte  版本号
+ * byte  游戏状态（GameState序号）
+ * byte  标志位：bit0 人类玩家已停牌，bit1 电脑玩家已停牌，bit2 牌组以种子保存
+ * byte  人类玩家点数
+ * byte  电脑玩家点数
+ * long  保存时间（毫秒时间戳）
+ * byte  牌的副数
+ * double 渗透率
+ * byte  计点系统（CardCounter.TagSystem序号）
+ * byte  人类手牌张数，随后每张牌一个字节
+ * byte  电脑手牌张数，随后每张牌一个字节
+ * 牌组以完整方式保存时：
+ *   short 牌组总张数
+ *   short 发牌位置
+ *   byte[] 牌组中的每张牌
+ * 牌组以种子保存时：
+ *   long  洗牌种子
+ *   short 发牌位置
+ * </pre>
+ *
+ * 前HEADER_SIZE个字节是固定的文件头，列出存档时只需读取文件头（见readHeader()），不必解码整个游戏
+ *
+ * 版本3的渗透率是float，读回时不再等于保存前的值（例如0.9变成0.8999999761…），因此版本4改为double；
+ * 版本2没有点数和保存时间；版本1也没有种子方式，其余与版本2的完整方式相同。这些版本仍然可以读取
+ *
+ * 支持直接读写ByteBuffer，也支持读写FileChannel
+ */
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+public class GameCodec {
+    /**
+     * 存档魔数："BJ21"
+     */
+    public static final int MAGIC = 0x424A3231;
+
+    /**
+     * 当前的格式版本号
+     */
+    public static final int VERSION = 4;
+
+    /**
+     * 固定文件头的长度：魔数4 + 版本1 + 状态1 + 标志1 + 两个点数2 + 保存时间8
+     */
+    public static final int HEADER_SIZE = 17;
+
+    private static final int FLAG_HUMAN_STANDING = 1;
+    private static final int FLAG_COMPUTER_STANDING = 2;
+    private static final int FLAG_SEED_DECK = 4;
+
+    /**
+     * 固定部分的长度：文件头 + 副数1 + 渗透率8 + 计点系统1 + 两个手牌张数2 + 发牌位置2
+     */
+    private static final int FIXED_SIZE = HEADER_SIZE + 14;
+
+    /**
+     * 牌组的保存方式
+     */
+    public enum DeckEncoding {
+        /**
+         * 保存完整牌组，每张牌一个字节
+         */
+        FULL,
+
+        /**
+         * 只保存洗牌种子，加载时按种子重建牌组
+         * 如果牌组不是由种子生成的（例如从完整牌组的存档恢复），自动退回完整方式
+         */
+        SEED
+    }
+
+    /**
+     * 存档文件头：不解码整个游戏即可得到的摘要信息
+     */
+    public static final class Header {
+        private final int version;
+        private final BlackjackGame.GameState state;
+        private final int humanScore;
+        private final int computerScore;
+        private final long savedAt;
+
+        Header(int version, BlackjackGame.GameState state, int humanScore, int computerScore, long savedAt) {
+            this.version = version;
+            this.state = state;
+            this.humanScore = humanScore;
+            this.computerScore = computerScore;
+            this.savedAt = savedAt;
+        }
+
+        public int getVersion() {
+            return version;
+        }
+
+        public BlackjackGame.GameState getState() {
+            return state;
+        }
+
+        public int getHumanScore() {
+            return humanScore;
+        }
+
+        public int getComputerScore() {
+            return computerScore;
+        }
+
+        /**
+         * @return 保存时间（毫秒时间戳）；旧版本存档没有保存时间，返回-1
+         */
+        public long getSavedAt() {
+            return savedAt;
+        }
+    }
+
+    private GameCodec() {
+    }
+
+    /**
+     * 计算游戏编码后的字节数
+     *
+     * @param game 游戏对象
+     * @return 编码后的字节数
+     */
+    public static int encodedSize(BlackjackGame game) {
+        return encodedSize(game, DeckEncoding.FULL);
+    }
+
+    /**
+     * 计算游戏以指定牌组保存方式编码后的字节数
+     *
+     * @param game     游戏对象
+     * @param encoding 牌组的保存方式
+     * @return 编码后的字节数
+     */
+    public static int encodedSize(BlackjackGame game, DeckEncoding encoding) {
+        int deckSize = usesSeed(game, encoding) ? 8 : 2 + game.getDeck().size();
+        return FIXED_SIZE + game.getHuman().hand.size() + game.getComputer().hand.size() + deckSize;
+    }
+
+    /**
+     * 将游戏编码写入缓冲区
+     * 从缓冲区的当前位置开始写入，写入后位置移动到编码末尾
+     *
+     * @param game 游戏对象
+     * @param out  目标缓冲区，剩余空间至少为encodedSize(game)
+     */
+    public static void encode(BlackjackGame game, ByteBuffer out) {
+        encode(game, out, DeckEncoding.FULL);
+    }
+
+    /**
+     * 将游戏以指定的牌组保存方式编码写入缓冲区
+     *
+     * @param game     游戏对象
+     * @param out      目标缓冲区，剩余空间至少为encodedSize(game, encoding)
+     * @param encoding 牌组的保存方式
+     */
+    public static void encode(BlackjackGame game, ByteBuffer out, DeckEncoding encoding) {
+        boolean seed = usesSeed(game, encoding);
+        out.putInt(MAGIC);
+        out.put((byte) VERSION);
+        out.put((byte) game.getState().ordinal());
+        int flags = (game.getHuman().isStanding() ? FLAG_HUMAN_STANDING : 0)
+                | (game.getComputer().isStanding() ? FLAG_COMPUTER_STANDING : 0)
+                | (seed ? FLAG_SEED_DECK : 0);
+        out.put((byte) flags);
+        out.put((byte) game.getHumanScore());
+        out.put((byte) game.getComputerScore());
+        out.putLong(System.currentTimeMillis());
+        out.put((byte) game.getDeckCount());
+        out.putDouble(game.getPenetration());
+        out.put((byte) game.getCountingSystem().ordinal());
+        putCards(out, game.getHuman().hand);
+        putCards(out, game.getComputer().hand);
+        if (seed) {
+            out.putLong(game.getShuffleSeed());
+            out.putShort((short) game.getDeckPosition());
+        } else {
+            List<Card> deck = game.getDeck();
+            out.putShort((short) deck.size());
+            out.putShort((short) game.getDeckPosition());
+            for (int i = 0; i < deck.size(); i++) {
+                out.put((byte) deck.get(i).getCode());
+            }
+        }
+    }
+
+    /**
+     * 从缓冲区解码游戏
+     * 从缓冲区的当前位置开始读取，读取后位置移动到编码末尾
+     *
+     * @param in 源缓冲区
+     * @return 恢复的游戏对象
+     * @throws IOException 如果数据不是有效的存档或版本不受支持
+     */
+    public static BlackjackGame decode(ByteBuffer in) throws IOException {
+        try {
+            if (in.getInt() != MAGIC) {
+                throw new IOException("不是有效的游戏存档");
+            }
+            int version = in.get();
+            if (version < 1 || version > VERSION) {
+                throw new IOException("不支持的存档版本: " + version);
+            }
+            BlackjackGame.GameState state = BlackjackGame.GameState.values()[in.get()];
+            int flags = in.get();
+            if (version >= 3) {
+                // 点数和保存时间只用于列出存档，解码时由手牌重新计算
+                in.position(in.position() + 2 + 8);
+            }
+            int deckCount = in.get();
+            double penetration = version >= 4 ? in.getDouble() : in.getFloat();
+            CardCounter.TagSystem system = CardCounter.TagSystem.values()[in.get()];
+            List<Card> humanHand = getCards(in, in.get());
+            List<Card> computerHand = getCards(in, in.get());
+
+            BlackjackGame game = new BlackjackGame();
+            if ((flags & FLAG_SEED_DECK) != 0) {
+                long shuffleSeed = in.getLong();
+                int deckPos = in.getShort();
+                if (deckCount < 1 || deckPos < 0 || deckPos > 52 * deckCount) {
+                    throw new IOException("存档中的牌组信息无效");
+                }
+                game.restoreFromSeed(shuffleSeed, deckPos, deckCount, penetration, system, state);
+            } else {
+                int deckSize = in.getShort();
+                int deckPos = in.getShort();
+                List<Card> deck = getCards(in, deckSize);
+                if (deckPos < 0 || deckPos > deckSize) {
+                    throw new IOException("存档中的发牌位置无效: " + deckPos);
+                }
+                game.restore(deck, deckPos, deckCount, penetration, system, state);
+            }
+            HumanPlayer human = game.getHuman();
+            human.reset();
+            human.hand.addAll(humanHand);
+            human.setStanding((flags & FLAG_HUMAN_STANDING) != 0);
+            ComputerPlayer computer = game.getComputer();
+            computer.reset();
+            computer.hand.addAll(computerHand);
+            computer.setStanding((flags & FLAG_COMPUTER_STANDING) != 0);
+            game.publishSnapshot();
+            return game;
+        } catch (BufferUnderflowException | ArrayIndexOutOfBoundsException | IllegalArgumentException e) {
+            throw new IOException("游戏存档已损坏", e);
+        }
+    }
+
+    /**
+     * 只读取存档的文件头
+     * 版本3及以后的存档只读取前HEADER_SIZE个字节；旧版本存档没有文件头，需要解码整个游戏来计算点数
+     *
+     * @param in 源缓冲区，从当前位置开始读取；版本3及以后的存档只需包含文件头
+     * @return 存档文件头
+     * @throws IOException 如果数据不是有效的存档或版本不受支持
+     */
+    public static Header readHeader(ByteBuffer in) throws IOException {
+        int start = in.position();
+        try {
+            if (in.getInt() != MAGIC) {
+                throw new IOException("不是有效的游戏存档");
+            }
+            int version = in.get();
+            if (version < 3) {
+                in.position(start);
+                BlackjackGame game = decode(in);
+                return new Header(version, game.getState(), game.getHumanScore(), game.getComputerScore(), -1);
+            }
+            if (version > VERSION) {
+                throw new IOException("不支持的存档版本: " + version);
+            }
+            BlackjackGame.GameState state = BlackjackGame.GameState.values()[in.get()];
+            in.get();
+            int humanScore = in.get();
+            int computerScore = in.get();
+            long savedAt = in.getLong();
+            return new Header(version, state, humanScore, computerScore, savedAt);
+        } catch (BufferUnderflowException | ArrayIndexOutOfBoundsException e) {
+            throw new IOException("游戏存档已损坏", e);
+        }
+    }
+
+    /**
+     * 将游戏写入文件通道
+     *
+     * @param game    游戏对象
+     * @param channel 目标文件通道，从其当前位置开始写入
+     * @throws IOException 如果写入失败
+     */
+    public static void write(BlackjackGame game, FileChannel channel) throws IOException {
+        write(game, channel, DeckEncoding.FULL);
+    }
+
+    /**
+     * 将游戏以指定的牌组保存方式写入文件通道
+     *
+     * @param game     游戏对象
+     * @param channel  目标文件通道，从其当前位置开始写入
+     * @param encoding 牌组的保存方式
+     * @throws IOException 如果写入失败
+     */
+    public static void write(BlackjackGame game, FileChannel channel, DeckEncoding encoding) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(encodedSize(game, encoding));
+        encode(game, buffer, encoding);
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    /**
+     * 从文件通道读取游戏
+     *
+     * @param channel 源文件通道，从其当前位置读取到文件末尾
+     * @return 恢复的游戏对象
+     * @throws IOException 如果读取失败或数据无效
+     */
+    public static BlackjackGame read(FileChannel channel) throws IOException {
+        long size = channel.size() - channel.position();
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("游戏存档过大: " + size);
+        }
+        ByteBuffer buffer = ByteBuffer.allocate((int) size);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                break;
+            }
+        }
+        buffer.flip();
+        return decode(buffer);
+    }
+
+    /**
+     * 判断是否可以只保存洗牌种子
+     */
+    private static boolean usesSeed(BlackjackGame game, DeckEncoding encoding) {
+        return encoding == DeckEncoding.SEED && game.isDeckFromSeed();
+    }
+
+    /**
+     * 写入一组牌：张数后跟每张牌的编码
+     */
+    private static void putCards(ByteBuffer out, List<Card> cards) {
+        out.put((byte) cards.size());
+        for (int i = 0; i < cards.size(); i++) {
+            out.put((byte) cards.get(i).getCode());
+        }
+    }
+
+    /**
+     * 读取指定张数的牌
+     */
+    private static List<Card> getCards(ByteBuffer in, int count) throws IOException {
+        if (count < 0) {
+            throw new IOException("存档中的牌数无效: " + count);
+        }
+        List<Card> cards = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            cards.add(Card.fromCode(in.get()));
+        }
+        return cards;
+    }
+}
@@ -0,0 +1,499 @@
+/**
+ * 多会话的HTTP JSON游戏服务
+ * 基于JDK自带的com.sun.net.httpserver.HttpServer，每个请求由一个虚拟线程处理（需要JDK 21）
+ *
+ * 接口（会话编号由创建会话时返回）：
+ * <pre>
+ * POST   /sessions              创建会话并开始第一局，返回会话编号和游戏状态
+ * POST   /sessions/{id}/start   开始新一局
+ * POST   /sessions/{id}/hit     人类玩家要牌，电脑随后行动
+ * POST   /sessions/{id}/stand   人类玩家停牌，电脑行动到结束
+ * GET    /sessions/{id}         读取游戏状态
+ * DELETE /sessions/{id}         结束会话
+ * </pre>
+ * 超过空闲超时没有任何请求的会话被自动结束，之后访问该会话返回404
+ * 游戏状态的格式：
+ * <pre>
+ * {"session":"…","state":"PLAYING","cardsRemaining":301,
+ *  "human":{"cards":["♠A","♥10"],"score":21,"standing":false},
+ *  "computer":{"cardCount":2,"standing":false}}
+ * </pre>
+ * 与控制台版本一样，牌局进行中不公开电脑的手牌和点数，牌局结束后computer中增加cards和score
+ *
+ * 性能设计：
+ * - 每个会话是一个ConcurrentGame，同一会话的并发请求按顺序执行，不同会话之间没有锁；
+ *   处理请求的虚拟线程等待命令完成时不占用平台线程
+ * - 读取状态直接读取游戏发布的快照，不进入会话的命令队列
+ * - 会话数由一个原子计数器限制：创建会话先占用一个名额，超过上限时立即归还并返回503；
+ *   后台线程定期扫描会话，结束空闲超时的会话并归还名额
+ * - JSON由JsonWriter直接写成UTF-8字节，牌和状态名的字节预先生成，
+ *   每个响应只分配一个字节数组
+ *
+ * 用法：java GameHttpServer [端口]
+ */
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class GameHttpServer implements Closeable {
+    /**
+     * 默认的会话数上限
+     */
+    public static final int DEFAULT_MAX_SESSIONS = 100_000;
+
+    /**
+     * 默认的空闲超时（毫秒）
+     */
+    public static final long DEFAULT_IDLE_TIMEOUT_MILLIS = 10 * 60 * 1000;
+
+    private static final String PREFIX = "/sessions";
+
+    static {
+        // 响应头和响应体分两次写出，不关闭Nagle算法时会与客户端的延迟确认叠加，每个请求等待几十毫秒；
+        // 这个属性在第一次创建HttpServer时读取，命令行上已经指定时不覆盖
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+    }
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final ScheduledExecutorService sweeper;
+    private final int maxSessions;
+    private final long idleTimeoutNanos;
+    private final Map<String, Session> sessions = new ConcurrentHashMap<>();
+
+    /**
+     * 已占用的会话名额，包括正在创建的会话
+     */
+    private final AtomicInteger reserved = new AtomicInteger();
+    private final SecureRandom random = new SecureRandom();
+
+    /**
+     * 一个会话：游戏和最近一次请求的时间
+     */
+    private static final class Session {
+        final ConcurrentGame game;
+        volatile long lastAccess = System.nanoTime();
+
+        Session(ConcurrentGame game) {
+            this.game = game;
+        }
+    }
+
+    /**
+     * 手写的JSON写入器，直接输出UTF-8字节
+     * 只支持游戏状态用到的结构：对象、字符串数组、整数、布尔值和不需要转义的ASCII字符串
+     */
+    static final class JsonWriter {
+        /**
+         * 每张牌（按编码）的JSON字符串，包括引号
+         */
+        private static final byte[][] CARDS = new byte[52][];
+
+        /**
+         * 每种游戏状态的JSON字符串，包括引号
+         */
+        private static final byte[][] STATES = new byte[BlackjackGame.GameState.values().length][];
+
+        static {
+            for (int code = 0; code < CARDS.length; code++) {
+                CARDS[code] = ("\"" + Card.fromCode(code) + "\"").getBytes(StandardCharsets.UTF_8);
+            }
+            for (BlackjackGame.GameState state : BlackjackGame.GameState.values()) {
+                STATES[state.ordinal()] = ("\"" + state.name() + "\"").getBytes(StandardCharsets.US_ASCII);
+            }
+        }
+
+        private byte[] buffer;
+        private int length;
+
+        JsonWriter(int capacity) {
+            buffer = new byte[capacity];
+        }
+
+        /**
+         * 写入游戏状态
+         *
+         * @param session  会话编号
+         * @param snapshot 游戏快照
+         * @return 本写入器
+         */
+        JsonWriter writeGame(String session, GameSnapshot snapshot) {
+            boolean over = snapshot.getState() != BlackjackGame.GameState.PLAYING;
+            ascii("{\"session\":\"").ascii(session).ascii("\",\"state\":").raw(STATES[snapshot.getState().ordinal()]);
+            ascii(",\"cardsRemaining\":").number(snapshot.getCardsRemaining());
+            ascii(",\"human\":{\"cards\":").cards(snapshot.getHumanHand());
+            ascii(",\"score\":").number(snapshot.getHumanScore());
+            ascii(",\"standing\":").bool(snapshot.isHumanStanding());
+            ascii("},\"computer\":{\"cardCount\":").number(snapshot.getComputerHand().size());
+            ascii(",\"standing\":").bool(snapshot.isComputerStanding());
+            if (over) {
+                ascii(",\"cards\":").cards(snapshot.getComputerHand());
+                ascii(",\"score\":").number(snapshot.getComputerScore());
+            }
+            return ascii("}}");
+        }
+
+        /**
+         * 写入错误信息：{"error":"…"}
+         */
+        JsonWriter writeError(String message) {
+            return ascii("{\"error\":\"").ascii(message).ascii("\"}");
+        }
+
+        /**
+         * 写入不需要转义的ASCII字符串，不创建中间对象
+         */
+        JsonWriter ascii(String text) {
+            ensure(text.length());
+            for (int i = 0; i < text.length(); i++) {
+                buffer[length++] = (byte) text.charAt(i);
+            }
+            return this;
+        }
+
+        JsonWriter number(int value) {
+            ensure(11);
+            if (value < 0) {
+                buffer[length++] = '-';
+                value = -value;
+            }
+            int digits = 1;
+            for (int v = value; v >= 10; v /= 10) {
+                digits++;
+            }
+            for (int i = length + digits - 1; i >= length; i--) {
+                buffer[i] = (byte) ('0' + value % 10);
+                value /= 10;
+            }
+            length += digits;
+            return this;
+        }
+
+        JsonWriter bool(boolean value) {
+            return ascii(value ? "true" : "false");
+        }
+
+        private JsonWriter cards(GameSnapshot.Hand hand) {
+            ascii("[");
+            for (int i = 0; i < hand.size(); i++) {
+                if (i > 0) {
+                    ascii(",");
+                }
+                raw(CARDS[hand.get(i).getCode()]);
+            }
+            return ascii("]");
+        }
+
+        private JsonWriter raw(byte[] bytes) {
+            ensure(bytes.length);
+            System.arraycopy(bytes, 0, buffer, length, bytes.length);
+            length += bytes.length;
+            return this;
+        }
+
+        private void ensure(int extra) {
+            if (length + extra > buffer.length) {
+                buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, length + extra));
+            }
+        }
+
+        byte[] getBuffer() {
+            return buffer;
+        }
+
+        int getLength() {
+            return length;
+        }
+
+        @Override
+        public String toString() {
+            return new String(buffer, 0, length, StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * 在指定端口创建服务，使用默认的会话数上限；调用start()后开始接受请求
+     *
+     * @param port 端口，为0时由系统分配（见getPort()）
+     * @throws IOException 如果无法绑定端口
+     */
+    public GameHttpServer(int port) throws IOException {
+        this(port, DEFAULT_MAX_SESSIONS, DEFAULT_IDLE_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * 在指定端口创建服务；调用start()后开始接受请求
+     *
+     * @param port        端口，为0时由系统分配（见getPort()）
+     * @param maxSessions 会话数上限，达到上限后创建会话返回503
+     * @throws IOException 如果无法绑定端口
+     */
+    public GameHttpServer(int port, int maxSessions) throws IOException {
+        this(port, maxSessions, DEFAULT_IDLE_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * 在指定端口创建服务；调用start()后开始接受请求
+     *
+     * @param port              端口，为0时由系统分配（见getPort()）
+     * @param maxSessions       会话数上限，达到上限后创建会话返回503
+     * @param idleTimeoutMillis 空闲超时（毫秒），会话超过这一时间没有请求时被结束
+     * @throws IOException 如果无法绑定端口
+     */
+    public GameHttpServer(int port, int maxSessions, long idleTimeoutMillis) throws IOException {
+        if (idleTimeoutMillis <= 0) {
+            throw new IllegalArgumentException("空闲超时必须为正数: " + idleTimeoutMillis);
+        }
+        this.maxSessions = maxSessions;
+        this.idleTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(idleTimeoutMillis);
+        this.server = HttpServer.create(new InetSocketAddress(port), 1024);
+        this.executor = Executors.newVirtualThreadPerTaskExecutor();
+        server.setExecutor(executor);
+        server.createContext(PREFIX, this::handle);
+        this.sweeper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "game-http-sweeper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // 每四分之一个超时扫描一次，会话最多在超时之后再保留四分之一个超时
+        long period = Math.max(1, idleTimeoutMillis / 4);
+        sweeper.scheduleAtFixedRate(this::evictIdle, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 开始接受请求
+     */
+    public void start() {
+        server.start();
+    }
+
+    /**
+     * @return 服务监听的端口
+     */
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * @return 当前的会话数
+     */
+    public int getSessionCount() {
+        return sessions.size();
+    }
+
+    /**
+     * 停止服务并结束所有会话
+     */
+    @Override
+    public void close() {
+        server.stop(0);
+        sweeper.shutdownNow();
+        for (String id : sessions.keySet()) {
+            end(id);
+        }
+        executor.shutdown();
+    }
+
+    /**
+     * 处理一个请求
+     */
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            exchange.getRequestBody().close();
+            String path = exchange.getRequestURI().getPath();
+            String method = exchange.getRequestMethod();
+            if (path.equals(PREFIX) || path.equals(PREFIX + "/")) {
+                if (!method.equals("POST")) {
+                    error(exchange, 405, "method not allowed");
+                } else {
+                    create(exchange);
+                }
+                return;
+            }
+            if (!path.startsWith(PREFIX + "/")) {
+                error(exchange, 404, "not found");
+                return;
+            }
+            int slash = path.indexOf('/', PREFIX.length() + 1);
+            String id = slash < 0 ? path.substring(PREFIX.length() + 1) : path.substring(PREFIX.length() + 1, slash);
+            String action = slash < 0 ? "" : path.substring(slash + 1);
+            Session session = sessions.get(id);
+            if (session == null) {
+                error(exchange, 404, "unknown session");
+                return;
+            }
+            session.lastAccess = System.nanoTime();
+            ConcurrentGame game = session.game;
+            if (action.isEmpty()) {
+                if (method.equals("GET")) {
+                    send(exchange, 200, new JsonWriter(256).writeGame(id, game.getSnapshot()));
+                } else if (method.equals("DELETE")) {
+                    end(id);
+                    exchange.sendResponseHeaders(204, -1);
+                } else {
+                    error(exchange, 405, "method not allowed");
+                }
+                return;
+            }
+            if (!method.equals("POST")) {
+                error(exchange, 405, "method not allowed");
+                return;
+            }
+            GameSnapshot snapshot;
+            try {
+                switch (action) {
+                    case "start":
+                        snapshot = game.startGame().join();
+                        break;
+                    case "hit":
+                        snapshot = game.playHit().join();
+                        break;
+                    case "stand":
+                        snapshot = game.playStand().join();
+                        break;
+                    default:
+                        error(exchange, 404, "unknown action");
+                        return;
+                }
+            } catch (CompletionException | IllegalStateException e) {
+                // 只有会话确实已经结束（被删除或空闲超时）才回答410，其他失败按原因区分
+                boolean closed = sessions.get(id) != session || game.isClosed();
+                int status = failureStatus(e, closed);
+                error(exchange, status, failureMessage(e, status));
+                return;
+            }
+            send(exchange, 200, new JsonWriter(256).writeGame(id, snapshot));
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * 创建会话并开始第一局
+     */
+    private void create(HttpExchange exchange) throws IOException {
+        if (reserved.incrementAndGet() > maxSessions) {
+            reserved.decrementAndGet();
+            error(exchange, 503, "too many sessions");
+            return;
+        }
+        Session session = new Session(new ConcurrentGame(new BlackjackGame(), executor));
+        String id;
+        do {
+            id = HexFormat.of().toHexDigits(random.nextLong());
+        } while (sessions.putIfAbsent(id, session) != null);
+        GameSnapshot snapshot;
+        try {
+            snapshot = session.game.startGame().join();
+        } catch (CompletionException | IllegalStateException e) {
+            end(id);
+            int status = failureStatus(e, false);
+            error(exchange, status, failureMessage(e, status));
+            return;
+        }
+        send(exchange, 201, new JsonWriter(256).writeGame(id, snapshot));
+    }
+
+    /**
+     * 根据命令失败的原因选择状态码：
+     * 会话已经结束为410；线程池已关闭（服务正在停止）为503；
+     * 游戏逻辑拒绝当前状态下的操作为409；其他异常为500
+     *
+     * @param e 等待命令结果时抛出的异常
+     * @param closed 会话是否已经结束
+     * @return HTTP状态码
+     */
+    static int failureStatus(RuntimeException e, boolean closed) {
+        if (closed) {
+            return 410;
+        }
+        Throwable cause = unwrap(e);
+        if (cause instanceof IllegalStateException) {
+            return cause.getCause() instanceof RejectedExecutionException ? 503 : 409;
+        }
+        return 500;
+    }
+
+    private static String failureMessage(RuntimeException e, int status) {
+        switch (status) {
+            case 410:
+                return "session closed";
+            case 503:
+                return "server shutting down";
+            case 409:
+                String message = unwrap(e).getMessage();
+                return message != null ? message : "invalid state";
+            default:
+                return "internal error";
+        }
+    }
+
+    private static Throwable unwrap(Throwable e) {
+        return e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+    }
+
+    /**
+     * 结束一个会话并归还名额；会话已经结束时不做任何处理
+     */
+    private void end(String id) {
+        Session session = sessions.remove(id);
+        if (session != null) {
+            session.game.close();
+            reserved.decrementAndGet();
+        }
+    }
+
+    /**
+     * 结束所有空闲超时的会话，由后台线程定期调用
+     */
+    private void evictIdle() {
+        long now = System.nanoTime();
+        for (Map.Entry<String, Session> entry : sessions.entrySet()) {
+            if (now - entry.getValue().lastAccess > idleTimeoutNanos) {
+                end(entry.getKey());
+            }
+        }
+    }
+
+    private static void error(HttpExchange exchange, int status, String message) throws IOException {
+        send(exchange, status, new JsonWriter(64).writeError(message));
+    }
+
+    private static void send(HttpExchange exchange, int status, JsonWriter json) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, json.getLength());
+        OutputStream out = exchange.getResponseBody();
+        out.write(json.getBuffer(), 0, json.getLength());
+        out.close();
+    }
+
+    /**
+     * 启动服务，直到进程结束
+     */
+    public static void main(String[] args) throws IOException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 8080;
+        GameHttpServer server = new GameHttpServer(port);
+        Runtime.getRuntime().addShutdownHook(new Thread(server::close));
+        server.start();
+        System.out.println("21点HTTP服务已启动，端口" + server.getPort());
+    }
+}
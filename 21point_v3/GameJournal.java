@@ -0,0 +1,581 @@
+/**
+ * 游戏操作日志（预写日志）
+ * 以追加方式记录游戏中的每个操作，程序崩溃后可以从日志恢复到最后一次同步时的游戏状态，
+ * 而不需要在每次点击后重写整个存档文件
+ *
+ * 记录的内容：
+ * - 开局、人类要牌和停牌、电脑的每次决策、本局结果
+ * - 洗牌种子和每张发出的牌（回放时用于重建牌组并校验回放结果）
+ * - 定期的游戏快照（GameCodec编码，牌组只保存种子），每snapshotInterval条记录或设置改变时写入一次
+ *
+ * 恢复时加载最后一个完整的快照，再按顺序回放其后的操作
+ *
+ * 性能设计：
+ * - 监听器回调只把一两个字节写入内存缓冲区，每个操作的开销在微秒以内
+ * - 后台线程每隔syncIntervalMillis把缓冲区中的所有记录一次写入文件并统一fsync（组提交）；
+ *   两个缓冲区交替使用，写盘期间游戏线程可以继续记录
+ * - 日志超过COMPACT_THRESHOLD后，下一个快照会作为新文件的起点（临时文件 + fsync + 原子替换），
+ *   日志大小因此保持有界
+ *
+ * 崩溃时最多丢失最近一个同步周期内的操作；需要立即持久化时可以调用sync()
+ * 写盘失败后日志停止记录：失败的这批记录和之后的操作都不再写入，文件保持为失败之前的完整前缀，
+ * 恢复时不会跳过丢失的记录去回放之后的操作；失败在下次sync()或close()时抛出
+ * dealSecondInitialCard()等界面未使用的发牌方法不会被记录
+ *
+ * 文件格式：魔数"BJWL"、版本号，随后是一条条记录，每条记录以类型字节开头：
+ * <pre>
+ * SNAPSHOT       int长度、int CRC32、GameCodec编码的游戏
+ * SHUFFLE        long洗牌种子
+ * CARD           byte牌的编码
+ * START / HIT / STAND / COMPUTER_HIT / COMPUTER_STAND   无附加数据
+ * END            byte本局最终状态（GameState序号）
+ * </pre>
+ *
+ * 游戏对象不是线程安全的，日志的记录、快照和close()都应在操作游戏的线程中调用
+ */
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+public class GameJournal implements GameListener, Closeable {
+    private static final int MAGIC = 0x424A574C;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 8;
+
+    private static final byte SNAPSHOT = 1;
+    private static final byte SHUFFLE = 2;
+    private static final byte CARD = 3;
+    private static final byte START = 4;
+    private static final byte HIT = 5;
+    private static final byte STAND = 6;
+    private static final byte COMPUTER_HIT = 7;
+    private static final byte COMPUTER_STAND = 8;
+    private static final byte END = 9;
+
+    /**
+     * 默认每隔多少条操作记录写入一次快照
+     */
+    public static final int DEFAULT_SNAPSHOT_INTERVAL = 256;
+
+    /**
+     * 默认的同步周期（毫秒）
+     */
+    public static final long DEFAULT_SYNC_INTERVAL_MILLIS = 20;
+
+    /**
+     * 日志文件超过这一大小后，在下一个快照处重新开始
+     */
+    private static final long COMPACT_THRESHOLD = 1 << 20;
+
+    /**
+     * 每个内存缓冲区的大小，足以容纳一个同步周期内的大量记录和8副牌的完整快照
+     */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final Path path;
+    private final BlackjackGame game;
+    private final int snapshotInterval;
+    private final ScheduledExecutorService flusher;
+
+    /**
+     * 正在接收记录的缓冲区和等待下次使用的空缓冲区，由this保护
+     */
+    private ByteBuffer pending = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private ByteBuffer spare = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+    /**
+     * pending中最后一个快照记录的起始位置，没有快照时为-1，由this保护
+     */
+    private int snapshotOffset = -1;
+
+    /**
+     * 日志文件通道，由ioLock保护
+     */
+    private FileChannel channel;
+    private final Object ioLock = new Object();
+
+    /**
+     * 上次快照以来的操作记录数，只在游戏线程中访问
+     */
+    private int recordsSinceSnapshot;
+
+    /**
+     * 编码快照使用的缓冲区，只在游戏线程中访问
+     */
+    private ByteBuffer snapshotBuffer = ByteBuffer.allocate(512);
+    private final CRC32 crc = new CRC32();
+
+    /**
+     * 写盘失败时保存的异常，在sync()或close()时抛出；设置之后日志不再接收和写入任何记录
+     */
+    private volatile IOException failure;
+
+    private boolean closed;
+
+    private GameJournal(Path path, BlackjackGame game, int snapshotInterval) {
+        this.path = path;
+        this.game = game;
+        this.snapshotInterval = snapshotInterval;
+        this.flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "game-journal");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * 为游戏打开操作日志，使用默认的快照间隔和同步周期
+     *
+     * @param path 日志文件路径，已有的日志会被替换为当前游戏的快照
+     * @param game 要记录的游戏
+     * @return 操作日志，已注册为游戏的监听器
+     * @throws IOException 如果无法创建日志文件
+     */
+    public static GameJournal open(Path path, BlackjackGame game) throws IOException {
+        return open(path, game, DEFAULT_SNAPSHOT_INTERVAL, DEFAULT_SYNC_INTERVAL_MILLIS);
+    }
+
+    /**
+     * 为游戏打开操作日志
+     * 日志以当前游戏的快照开始，之后游戏的每个操作都被追加记录
+     *
+     * @param path               日志文件路径，已有的日志会被替换为当前游戏的快照
+     * @param game               要记录的游戏
+     * @param snapshotInterval   每隔多少条操作记录写入一次快照
+     * @param syncIntervalMillis 后台同步的周期（毫秒）
+     * @return 操作日志，已注册为游戏的监听器
+     * @throws IOException 如果无法创建日志文件
+     */
+    public static GameJournal open(Path path, BlackjackGame game, int snapshotInterval,
+            long syncIntervalMillis) throws IOException {
+        if (snapshotInterval < 1 || syncIntervalMillis < 1) {
+            throw new IllegalArgumentException("快照间隔和同步周期必须为正数");
+        }
+        GameJournal journal = new GameJournal(path, game, snapshotInterval);
+        journal.appendSnapshot();
+        synchronized (journal) {
+            journal.pending.flip();
+            journal.channel = journal.startFile(journal.pending);
+            journal.pending.clear();
+            journal.snapshotOffset = -1;
+        }
+        game.addGameListener(journal);
+        journal.flusher.scheduleWithFixedDelay(journal::flushInBackground,
+                syncIntervalMillis, syncIntervalMillis, TimeUnit.MILLISECONDS);
+        return journal;
+    }
+
+    @Override
+    public void shuffled(BlackjackGame game, long seed) {
+        if (!ensureRoom(9)) {
+            return;
+        }
+        synchronized (this) {
+            pending.put(SHUFFLE).putLong(seed);
+        }
+    }
+
+    @Override
+    public void cardDrawn(BlackjackGame game, Card card) {
+        append(CARD, card.getCode());
+    }
+
+    @Override
+    public void roundStarted(BlackjackGame game) {
+        append(START);
+    }
+
+    @Override
+    public void humanHit(BlackjackGame game) {
+        append(HIT);
+    }
+
+    @Override
+    public void humanStood(BlackjackGame game) {
+        append(STAND);
+    }
+
+    @Override
+    public void computerDecided(BlackjackGame game, boolean hit) {
+        append(hit ? COMPUTER_HIT : COMPUTER_STAND);
+    }
+
+    @Override
+    public void roundFinished(BlackjackGame game, BlackjackGame.GameState result) {
+        append(END, result.ordinal());
+        if (recordsSinceSnapshot >= snapshotInterval) {
+            appendSnapshot();
+        }
+    }
+
+    @Override
+    public void settingsChanged(BlackjackGame game) {
+        // 设置不单独记录，直接以快照保存
+        appendSnapshot();
+    }
+
+    /**
+     * 立即把已记录的操作写入文件并fsync
+     *
+     * @throws IOException 如果写入失败，或之前的后台写入失败
+     */
+    public void sync() throws IOException {
+        flush();
+        checkFailure();
+    }
+
+    /**
+     * 写入最后一个快照，停止记录并关闭日志文件
+     * 正常关闭后，恢复时不需要回放任何操作
+     *
+     * @throws IOException 如果写入失败，或之前的后台写入失败
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        game.removeGameListener(this);
+        appendSnapshot();
+        flusher.shutdown();
+        try {
+            flusher.awaitTermination(1, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            flush();
+        } finally {
+            synchronized (ioLock) {
+                channel.close();
+            }
+        }
+        checkFailure();
+    }
+
+    /**
+     * 从操作日志恢复游戏
+     * 加载最后一个完整的快照，再回放其后记录的操作；
+     * 文件末尾因崩溃而不完整的记录会被忽略
+     *
+     * 回放时电脑策略和人类玩家行为模型会照常收到这些操作，
+     * 恢复的游戏使用新的行为模型，调用者可以在恢复后再设置已保存的模型
+     *
+     * @param path 日志文件路径
+     * @return 恢复的游戏对象
+     * @throws IOException 如果日志无法读取、没有完整的快照，或回放结果与记录不一致
+     */
+    public static BlackjackGame recover(Path path) throws IOException {
+        ByteBuffer in = ByteBuffer.wrap(Files.readAllBytes(path));
+        if (in.remaining() < HEADER_SIZE || in.getInt() != MAGIC || in.getInt() != VERSION) {
+            throw new IOException("不是有效的操作日志: " + path);
+        }
+
+        // 第一遍：找到最后一个完整的快照和日志中最后一条完整记录的位置
+        int snapshotStart = -1;
+        int snapshotLength = 0;
+        int tailStart = -1;
+        int end = in.position();
+        CRC32 checksum = new CRC32();
+        try {
+            while (in.hasRemaining()) {
+                byte type = in.get();
+                if (type == SNAPSHOT) {
+                    int length = in.getInt();
+                    int expected = in.getInt();
+                    if (length < 0 || length > in.remaining()) {
+                        break;
+                    }
+                    checksum.reset();
+                    checksum.update(in.array(), in.position(), length);
+                    if ((int) checksum.getValue() != expected) {
+                        break;
+                    }
+                    snapshotStart = in.position();
+                    snapshotLength = length;
+                    in.position(in.position() + length);
+                    tailStart = in.position();
+                } else if (!skipRecord(in, type)) {
+                    break;
+                }
+                end = in.position();
+            }
+        } catch (BufferUnderflowException e) {
+            // 最后一条记录没有写完整
+        }
+        if (snapshotStart < 0) {
+            throw new IOException("操作日志中没有完整的快照: " + path);
+        }
+
+        BlackjackGame game = GameCodec.decode(ByteBuffer.wrap(in.array(), snapshotStart, snapshotLength));
+
+        // 第二遍：收集快照之后的洗牌种子和发出的牌，供回放时重建牌组和校验
+        ByteBuffer tail = ByteBuffer.wrap(in.array(), tailStart, end - tailStart).slice();
+        byte[] cards = new byte[tail.remaining()];
+        int cardCount = 0;
+        while (tail.hasRemaining()) {
+            byte type = tail.get();
+            if (type == SHUFFLE) {
+                game.replayShuffleSeed(tail.getLong());
+            } else if (type == CARD) {
+                cards[cardCount++] = tail.get();
+            } else if (type == END) {
+                tail.get();
+            }
+        }
+
+        // 第三遍：按顺序回放操作，并校验每张发出的牌与记录一致
+        int recordedCards = cardCount;
+        GameListener verifier = new GameListener() {
+            private int next;
+
+            @Override
+            public void cardDrawn(BlackjackGame game, Card card) {
+                if (next >= recordedCards || cards[next++] != card.getCode()) {
+                    throw new IllegalStateException("回放发出的牌与日志记录不一致");
+                }
+            }
+        };
+        game.addGameListener(verifier);
+        try {
+            tail.position(0);
+            while (tail.hasRemaining()) {
+                byte type = tail.get();
+                switch (type) {
+                    case SHUFFLE:
+                        tail.getLong();
+                        break;
+                    case CARD:
+                        tail.get();
+                        break;
+                    case START:
+                        game.startGame();
+                        break;
+                    case HIT:
+                        game.humanHit();
+                        break;
+                    case STAND:
+                        game.humanStand();
+                        break;
+                    case COMPUTER_HIT:
+                        game.applyComputerDecision(true);
+                        break;
+                    case COMPUTER_STAND:
+                        game.applyComputerDecision(false);
+                        break;
+                    case END:
+                        BlackjackGame.GameState result = BlackjackGame.GameState.values()[tail.get()];
+                        game.finalizeGame();
+                        if (game.getState() != result) {
+                            throw new IllegalStateException("回放的牌局结果与日志记录不一致");
+                        }
+                        break;
+                    default:
+                        throw new IllegalStateException("未知的日志记录类型: " + type);
+                }
+            }
+        } catch (IllegalStateException | ArrayIndexOutOfBoundsException e) {
+            throw new IOException("无法回放操作日志: " + path, e);
+        } finally {
+            game.removeGameListener(verifier);
+            game.clearReplayShuffleSeeds();
+        }
+        return game;
+    }
+
+    /**
+     * 跳过一条操作记录
+     *
+     * @return false表示遇到未知的记录类型（文件末尾的残缺数据）
+     */
+    private static boolean skipRecord(ByteBuffer in, byte type) {
+        switch (type) {
+            case SHUFFLE:
+                in.getLong();
+                return true;
+            case CARD:
+            case END:
+                in.get();
+                return true;
+            case START:
+            case HIT:
+            case STAND:
+            case COMPUTER_HIT:
+            case COMPUTER_STAND:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * 追加一条没有附加数据的操作记录
+     */
+    private void append(byte type) {
+        if (!ensureRoom(1)) {
+            return;
+        }
+        synchronized (this) {
+            pending.put(type);
+        }
+        recordsSinceSnapshot++;
+    }
+
+    /**
+     * 追加一条带一个字节附加数据的记录
+     */
+    private void append(byte type, int arg) {
+        if (!ensureRoom(2)) {
+            return;
+        }
+        synchronized (this) {
+            pending.put(type).put((byte) arg);
+        }
+        recordsSinceSnapshot++;
+    }
+
+    /**
+     * 在游戏线程中编码当前游戏并追加快照记录
+     */
+    private void appendSnapshot() {
+        int size = GameCodec.encodedSize(game, GameCodec.DeckEncoding.SEED);
+        if (snapshotBuffer.capacity() < size) {
+            snapshotBuffer = ByteBuffer.allocate(size);
+        }
+        snapshotBuffer.clear();
+        GameCodec.encode(game, snapshotBuffer, GameCodec.DeckEncoding.SEED);
+        crc.reset();
+        crc.update(snapshotBuffer.array(), 0, size);
+        snapshotBuffer.flip();
+
+        if (!ensureRoom(9 + size)) {
+            return;
+        }
+        synchronized (this) {
+            snapshotOffset = pending.position();
+            pending.put(SNAPSHOT).putInt(size).putInt((int) crc.getValue()).put(snapshotBuffer);
+        }
+        recordsSinceSnapshot = 0;
+    }
+
+    /**
+     * 确保当前缓冲区至少有指定的剩余空间，不足时在调用线程中立即写盘
+     * 只有游戏线程会追加记录，后台线程只会清空缓冲区，因此检查之后空间不会再减少
+     *
+     * @return false表示日志已经写盘失败，这条记录不应再追加
+     */
+    private boolean ensureRoom(int bytes) {
+        if (failure != null) {
+            return false;
+        }
+        synchronized (this) {
+            if (pending.remaining() >= bytes) {
+                return true;
+            }
+        }
+        try {
+            flush();
+            return true;
+        } catch (IOException e) {
+            // 已保存在failure中，在sync()或close()时抛出
+            return false;
+        }
+    }
+
+    /**
+     * 后台同步任务，异常保存在failure中，在下次sync()或close()时抛出
+     */
+    private void flushInBackground() {
+        try {
+            flush();
+        } catch (IOException e) {
+            // 已保存在failure中
+        }
+    }
+
+    /**
+     * 把当前缓冲区中的所有记录一次写入文件并fsync
+     * 如果其中有快照且日志已经过大，则以该快照开始一个新的日志文件
+     * 写入失败时保存异常，此后不再写入任何记录，避免在丢失的记录之后继续追加
+     *
+     * @throws IOException 如果这次或之前的写入失败
+     */
+    private void flush() throws IOException {
+        synchronized (ioLock) {
+            checkFailure();
+            ByteBuffer batch;
+            int compactFrom;
+            synchronized (this) {
+                if (pending.position() == 0) {
+                    return;
+                }
+                batch = pending;
+                pending = spare;
+                spare = batch;
+                compactFrom = snapshotOffset;
+                snapshotOffset = -1;
+            }
+            batch.flip();
+            try {
+                if (compactFrom >= 0 && channel.size() >= COMPACT_THRESHOLD) {
+                    batch.position(compactFrom);
+                    FileChannel old = channel;
+                    channel = startFile(batch);
+                    old.close();
+                } else {
+                    while (batch.hasRemaining()) {
+                        channel.write(batch);
+                    }
+                    channel.force(false);
+                }
+            } catch (IOException e) {
+                failure = e;
+                throw e;
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    /**
+     * 以给定的记录开始一个新的日志文件：写入临时文件并fsync后原子替换旧日志
+     *
+     * @param records 新文件的第一批记录，必须以快照开头
+     * @return 新日志文件的追加通道
+     */
+    private FileChannel startFile(ByteBuffer records) throws IOException {
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).putInt(MAGIC).putInt(VERSION);
+            header.flip();
+            while (header.hasRemaining()) {
+                out.write(header);
+            }
+            while (records.hasRemaining()) {
+                out.write(records);
+            }
+            out.force(true);
+        }
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return FileChannel.open(path, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    private void checkFailure() throws IOException {
+        IOException e = failure;
+        if (e != null) {
+            throw e;
+        }
+    }
+}
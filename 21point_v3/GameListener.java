@@ -0,0 +1,89 @@
+/**
+ * 游戏事件监听器接口
+ * 在游戏的每个状态变化点被回调，供操作日志、牌局记录等功能跟踪游戏过程，
+ * 而不需要修改游戏引擎或界面代码
+ *
+ * 所有回调都在调用游戏方法的线程中同步执行，应当尽快返回；
+ * 默认实现不做任何处理，监听器只需覆盖关心的事件
+ */
+public interface GameListener {
+    /**
+     * 新的一局开始，初始牌已经发完时调用
+     *
+     * @param game 游戏对象
+     */
+    default void roundStarted(BlackjackGame game) {
+    }
+
+    /**
+     * 牌靴重新洗牌后调用
+     *
+     * @param game 游戏对象
+     * @param seed 新牌组的洗牌种子
+     */
+    default void shuffled(BlackjackGame game, long seed) {
+    }
+
+    /**
+     * 从牌组发出一张牌后调用
+     *
+     * @param game 游戏对象
+     * @param card 发出的牌
+     */
+    default void cardDrawn(BlackjackGame game, Card card) {
+    }
+
+    /**
+     * 人类玩家要牌、拿到新牌之后调用（在判定爆牌之前）
+     *
+     * @param game 游戏对象
+     */
+    default void humanHit(BlackjackGame game) {
+    }
+
+    /**
+     * 人类玩家停牌后调用
+     *
+     * @param game 游戏对象
+     */
+    default void humanStood(BlackjackGame game) {
+    }
+
+    /**
+     * 电脑玩家做出一次决策后调用（要牌时在拿到新牌之后、判定爆牌之前）
+     *
+     * @param game 游戏对象
+     * @param hit  true表示要牌，false表示停牌
+     */
+    default void computerDecided(BlackjackGame game, boolean hit) {
+    }
+
+    /**
+     * 一局结束、最终状态确定后调用
+     * 撤销越过已经结束的局之后重新打完同一局时会再次调用，此时game.isReplayedRound()为true，
+     * 统计胜负的监听器应当跳过，只记录牌局过程的监听器照常处理
+     *
+     * @param game   游戏对象
+     * @param result 本局的最终状态
+     */
+    default void roundFinished(BlackjackGame game, BlackjackGame.GameState result) {
+    }
+
+    /**
+     * 牌靴或计点系统等设置改变后调用
+     *
+     * @param game 游戏对象
+     */
+    default void settingsChanged(BlackjackGame game) {
+    }
+
+    /**
+     * 撤销、重做或恢复快照之后调用，此时游戏的状态整体替换成了快照中的状态
+     * 默认按设置改变处理，需要完整记录游戏的监听器（操作日志、自动存档）因此会重新保存整个游戏
+     *
+     * @param game 游戏对象
+     */
+    default void stateRestored(BlackjackGame game) {
+        settingsChanged(game);
+    }
+}
@@ -0,0 +1,444 @@
+/**
+ * 非阻塞的TCP游戏服务，使用紧凑的二进制协议，面向大量机器人客户端
+ * 每个连接对应一个游戏会话，连接关闭时会话结束
+ *
+ * 协议（大端序，定长帧，同一连接上可以连续发送多个请求，响应按请求顺序返回）：
+ * <pre>
+ * 请求帧，REQUEST_SIZE字节：
+ *   byte  魔数 MAGIC
+ *   byte  操作：START、HIT、STAND、STATE
+ *   short 请求编号，原样返回，供客户端对应请求和响应
+ * 响应帧，RESPONSE_SIZE字节：
+ *   byte  魔数 MAGIC
+ *   byte  请求的操作；操作未知或执行失败时为ERROR
+ *   short 请求编号
+ *   byte  游戏状态（GameState序号）
+ *   byte  标志：1 人类玩家已停牌，2 电脑玩家已停牌
+ *   byte  人类玩家点数
+ *   byte  电脑玩家点数，牌局进行中为HIDDEN
+ *   short 牌组中剩余的牌数
+ *   byte  人类玩家的手牌张数
+ *   byte  电脑玩家的手牌张数
+ *   byte[MAX_CARDS] 人类玩家的手牌（牌的编码，见Card.getCode()），不足的部分为HIDDEN
+ *   byte[MAX_CARDS] 电脑玩家的手牌，牌局进行中全部为HIDDEN
+ * </pre>
+ * 与控制台版本一样，牌局进行中不公开电脑的手牌和点数；手牌超过MAX_CARDS张时只发送前MAX_CARDS张，张数始终是实际张数。
+ * 魔数不正确时关闭连接
+ *
+ * 性能设计：
+ * - 每个CPU核一个事件循环线程，各自有一个Selector；第一个事件循环接受连接，轮流分给所有事件循环
+ * - 连接和它的游戏只在所属的事件循环中被访问，游戏不需要加锁
+ * - 每个事件循环有一对直接缓冲区用于读取请求和拼装响应；每次最多读取能在一个缓冲区中放下全部响应的请求，
+ *   只有客户端来不及接收响应时，才从事件循环的缓冲池中借一个直接缓冲区保存未发出的响应，发完后归还；
+ *   这期间暂停读取该连接的请求，客户端不读取响应时不会无限占用内存
+ * - 不完整的请求帧（不足REQUEST_SIZE字节）保存在连接对象的一个int中，不需要缓冲区
+ *
+ * 用法：java GameNioServer [端口]
+ */
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class GameNioServer implements Closeable {
+    public static final byte MAGIC = 0x21;
+
+    public static final byte START = 1;
+    public static final byte HIT = 2;
+    public static final byte STAND = 3;
+    public static final byte STATE = 4;
+    public static final byte ERROR = (byte) 0xFF;
+
+    /**
+     * 隐藏的点数和牌，以及手牌中没有牌的位置
+     */
+    public static final int HIDDEN = 0xFF;
+
+    /**
+     * 响应中每手牌的最大张数
+     */
+    public static final int MAX_CARDS = HandRecord.MAX_CARDS;
+
+    public static final int REQUEST_SIZE = 4;
+    public static final int RESPONSE_SIZE = 12 + 2 * MAX_CARDS;
+
+    /**
+     * 缓冲池中每个直接缓冲区的字节数
+     */
+    static final int BUFFER_SIZE = 4096;
+
+    /**
+     * 每次读取最多处理的请求数，保证全部响应可以放进一个缓冲区
+     */
+    private static final int MAX_REQUESTS_PER_READ = BUFFER_SIZE / RESPONSE_SIZE;
+
+    /**
+     * 每个事件循环的缓冲池最多保留的空闲缓冲区数
+     */
+    private static final int MAX_POOLED = 1024;
+
+    private final ServerSocketChannel server;
+    private final EventLoop[] loops;
+    private final AtomicInteger connections = new AtomicInteger();
+    private volatile boolean closed;
+
+    /**
+     * 一个连接和它的游戏会话
+     */
+    private static final class Connection {
+        final SocketChannel channel;
+        final BlackjackGame game = new BlackjackGame();
+
+        /**
+         * 不完整的请求帧：已收到的字节按大端序放在低位
+         */
+        int partial;
+        int partialLength;
+
+        /**
+         * 尚未发出的响应，没有时为null；不为null时暂停读取请求
+         */
+        ByteBuffer backlog;
+
+        Connection(SocketChannel channel) {
+            this.channel = channel;
+        }
+    }
+
+    /**
+     * 一个事件循环：一个线程、一个Selector和该线程专用的缓冲区
+     */
+    private final class EventLoop implements Runnable {
+        private final Selector selector;
+        private final Thread thread;
+        private final Queue<SocketChannel> incoming = new ConcurrentLinkedQueue<>();
+        private final ArrayDeque<ByteBuffer> pool = new ArrayDeque<>();
+        private final ByteBuffer in = ByteBuffer.allocateDirect(MAX_REQUESTS_PER_READ * REQUEST_SIZE);
+        private final ByteBuffer out = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        private int nextLoop;
+
+        EventLoop(int index) throws IOException {
+            selector = Selector.open();
+            thread = new Thread(this, "game-nio-" + index);
+            thread.setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (!closed) {
+                    selector.select();
+                    for (SocketChannel channel = incoming.poll(); channel != null; channel = incoming.poll()) {
+                        register(channel);
+                    }
+                    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+                        if (!key.isValid()) {
+                            continue;
+                        }
+                        if (key.isAcceptable()) {
+                            try {
+                                accept();
+                            } catch (IOException e) {
+                                // 例如文件描述符用尽，已经建立的连接不受影响，之后继续接受
+                            }
+                        } else {
+                            Connection connection = (Connection) key.attachment();
+                            try {
+                                if (key.isWritable()) {
+                                    flush(key, connection);
+                                }
+                                if (key.isValid() && key.isReadable()) {
+                                    read(key, connection);
+                                }
+                            } catch (IOException e) {
+                                close(key, connection);
+                            }
+                        }
+                    }
+                }
+            } catch (IOException | ClosedSelectorException e) {
+                // 服务关闭或Selector失效，结束事件循环
+            } finally {
+                for (SelectionKey key : selector.keys()) {
+                    if (key.attachment() instanceof Connection) {
+                        close(key, (Connection) key.attachment());
+                    }
+                }
+                for (SocketChannel channel = incoming.poll(); channel != null; channel = incoming.poll()) {
+                    closeQuietly(channel);
+                }
+                closeQuietly(selector);
+            }
+        }
+
+        /**
+         * 接受所有等待的连接，轮流交给各个事件循环
+         */
+        private void accept() throws IOException {
+            for (SocketChannel channel = server.accept(); channel != null; channel = server.accept()) {
+                EventLoop target = loops[nextLoop];
+                nextLoop = (nextLoop + 1) % loops.length;
+                if (target == this) {
+                    register(channel);
+                } else {
+                    target.incoming.add(channel);
+                    target.selector.wakeup();
+                }
+            }
+        }
+
+        private void register(SocketChannel channel) {
+            try {
+                channel.configureBlocking(false);
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                channel.register(selector, SelectionKey.OP_READ, new Connection(channel));
+                connections.incrementAndGet();
+            } catch (IOException e) {
+                closeQuietly(channel);
+            }
+        }
+
+        /**
+         * 读取请求，执行并发送响应
+         */
+        private void read(SelectionKey key, Connection connection) throws IOException {
+            in.clear();
+            if (connection.channel.read(in) < 0) {
+                close(key, connection);
+                return;
+            }
+            in.flip();
+            out.clear();
+            while (in.hasRemaining()) {
+                connection.partial = connection.partial << 8 | in.get() & 0xFF;
+                if (++connection.partialLength < REQUEST_SIZE) {
+                    continue;
+                }
+                int frame = connection.partial;
+                connection.partial = 0;
+                connection.partialLength = 0;
+                if (frame >>> 24 != MAGIC) {
+                    close(key, connection);
+                    return;
+                }
+                respond(connection.game, (byte) (frame >>> 16), (short) frame);
+            }
+            out.flip();
+            send(key, connection);
+        }
+
+        /**
+         * 执行一个请求并把响应帧写入out
+         */
+        private void respond(BlackjackGame game, byte action, short requestId) {
+            try {
+                switch (action) {
+                    case START:
+                        game.startGame();
+                        break;
+                    case HIT:
+                        game.playHit();
+                        break;
+                    case STAND:
+                        game.playStand();
+                        break;
+                    case STATE:
+                        break;
+                    default:
+                        action = ERROR;
+                }
+            } catch (RuntimeException e) {
+                action = ERROR;
+            }
+            writeState(out, action, requestId, game.getSnapshot());
+        }
+
+        /**
+         * 发送out中的响应，发不完的部分借一个缓冲区保存，并暂停读取等待可写
+         */
+        private void send(SelectionKey key, Connection connection) throws IOException {
+            connection.channel.write(out);
+            if (out.hasRemaining()) {
+                ByteBuffer backlog = pool.isEmpty() ? ByteBuffer.allocateDirect(BUFFER_SIZE) : pool.poll();
+                backlog.put(out);
+                connection.backlog = backlog;
+                key.interestOps(SelectionKey.OP_WRITE);
+            }
+        }
+
+        /**
+         * 继续发送未发出的响应，发完后归还缓冲区并恢复读取
+         */
+        private void flush(SelectionKey key, Connection connection) throws IOException {
+            ByteBuffer backlog = connection.backlog;
+            backlog.flip();
+            connection.channel.write(backlog);
+            if (backlog.hasRemaining()) {
+                backlog.compact();
+                return;
+            }
+            release(backlog);
+            connection.backlog = null;
+            key.interestOps(SelectionKey.OP_READ);
+        }
+
+        private void release(ByteBuffer buffer) {
+            buffer.clear();
+            if (pool.size() < MAX_POOLED) {
+                pool.push(buffer);
+            }
+        }
+
+        private void close(SelectionKey key, Connection connection) {
+            key.cancel();
+            if (connection.backlog != null) {
+                release(connection.backlog);
+                connection.backlog = null;
+            }
+            if (connection.channel.isOpen()) {
+                closeQuietly(connection.channel);
+                connections.decrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * 在指定端口创建服务，每个CPU核一个事件循环；调用start()后开始接受连接
+     *
+     * @param port 端口，为0时由系统分配（见getPort()）
+     * @throws IOException 如果无法绑定端口
+     */
+    public GameNioServer(int port) throws IOException {
+        this(port, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * 在指定端口创建服务；调用start()后开始接受连接
+     *
+     * @param port    端口，为0时由系统分配（见getPort()）
+     * @param threads 事件循环线程数
+     * @throws IOException 如果无法绑定端口
+     */
+    public GameNioServer(int port, int threads) throws IOException {
+        if (threads < 1) {
+            throw new IllegalArgumentException("事件循环线程数必须为正数: " + threads);
+        }
+        server = ServerSocketChannel.open();
+        server.bind(new InetSocketAddress(port), 4096);
+        server.configureBlocking(false);
+        loops = new EventLoop[threads];
+        for (int i = 0; i < threads; i++) {
+            loops[i] = new EventLoop(i);
+        }
+        server.register(loops[0].selector, SelectionKey.OP_ACCEPT);
+    }
+
+    /**
+     * 开始接受连接
+     */
+    public void start() {
+        for (EventLoop loop : loops) {
+            loop.thread.start();
+        }
+    }
+
+    /**
+     * @return 服务监听的端口
+     */
+    public int getPort() throws IOException {
+        return ((InetSocketAddress) server.getLocalAddress()).getPort();
+    }
+
+    /**
+     * @return 当前的连接数
+     */
+    public int getConnectionCount() {
+        return connections.get();
+    }
+
+    /**
+     * 停止服务，关闭所有连接并等待事件循环结束
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        for (EventLoop loop : loops) {
+            loop.selector.wakeup();
+        }
+        for (EventLoop loop : loops) {
+            if (loop.thread.isAlive()) {
+                try {
+                    loop.thread.join();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            } else {
+                closeQuietly(loop.selector);
+            }
+        }
+        server.close();
+    }
+
+    /**
+     * 按响应帧的格式写入游戏状态
+     *
+     * @param out       目标缓冲区，至少有RESPONSE_SIZE字节的空间
+     * @param action    请求的操作，或ERROR
+     * @param requestId 请求编号
+     * @param snapshot  游戏快照
+     */
+    static void writeState(ByteBuffer out, byte action, short requestId, GameSnapshot snapshot) {
+        boolean hidden = snapshot.getState() == BlackjackGame.GameState.PLAYING;
+        out.put(MAGIC).put(action).putShort(requestId);
+        out.put((byte) snapshot.getState().ordinal());
+        out.put((byte) ((snapshot.isHumanStanding() ? 1 : 0) | (snapshot.isComputerStanding() ? 2 : 0)));
+        out.put((byte) snapshot.getHumanScore());
+        out.put((byte) (hidden ? HIDDEN : snapshot.getComputerScore()));
+        out.putShort((short) snapshot.getCardsRemaining());
+        out.put((byte) snapshot.getHumanHand().size());
+        out.put((byte) snapshot.getComputerHand().size());
+        putCards(out, snapshot.getHumanHand(), false);
+        putCards(out, snapshot.getComputerHand(), hidden);
+    }
+
+    private static void putCards(ByteBuffer out, GameSnapshot.Hand hand, boolean hidden) {
+        int count = hidden ? 0 : Math.min(hand.size(), MAX_CARDS);
+        for (int i = 0; i < MAX_CARDS; i++) {
+            out.put((byte) (i < count ? hand.get(i).getCode() : HIDDEN));
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            // 关闭时的错误不影响其他连接
+        }
+    }
+
+    /**
+     * 启动服务，直到进程结束
+     */
+    public static void main(String[] args) throws IOException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 9021;
+        GameNioServer server = new GameNioServer(port);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> closeQuietly(server)));
+        server.start();
+        System.out.println("21点TCP服务已启动，端口" + server.getPort() + "，" + server.loops.length + "个事件循环");
+    }
+}
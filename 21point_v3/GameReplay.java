@@ -0,0 +1,320 @@
+/**
+ * 确定性回放引擎
+ * 由初始随机种子和操作序列可以精确重建一个会话中任意时刻的游戏状态，用于核对争议牌局和排查线上会话
+ *
+ * 会话通过本类的apply()、playHit()、playStand()进行，每个操作记录为一个字节（见Action）：
+ * - 游戏使用 new Random(seed) 产生洗牌种子，因此相同的种子和操作序列总是得到相同的牌序
+ * - 电脑的每次决策作为操作记录下来，回放时通过applyComputerDecision()执行，
+ *   不依赖电脑策略和人类行为模型的内部状态
+ *
+ * 性能设计：
+ * - 每snapshotInterval个操作在内存中保存一个快照（GameCodec编码，牌组只保存种子，几十个字节）
+ * - 跳转到任意位置时，从不超过该位置的最近快照解码，再回放不超过snapshotInterval个操作，
+ *   不需要从会话开头回放
+ * - 快照之后的洗牌种子通过replayShuffleSeed()预先交给恢复的游戏，回放时重现相同的牌序
+ *
+ * 本类不是线程安全的
+ */
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+public class GameReplay implements GameListener {
+    /**
+     * 默认每隔多少个操作保存一个快照
+     */
+    public static final int DEFAULT_SNAPSHOT_INTERVAL = 256;
+
+    /**
+     * 会话中的操作，字节值为序号
+     */
+    public enum Action {
+        START, HIT, STAND, COMPUTER_HIT, COMPUTER_STAND, FINALIZE
+    }
+
+    private static final Action[] ACTIONS = Action.values();
+
+    private final long seed;
+    private final int deckCount;
+    private final double penetration;
+    private final int snapshotInterval;
+    private final BlackjackGame game;
+
+    private byte[] actions = new byte[1024];
+    private int size;
+
+    /**
+     * 第i个快照是执行完前 i * snapshotInterval 个操作后的游戏，第0个为null（即新游戏）
+     */
+    private final List<byte[]> snapshots = new ArrayList<>();
+
+    /**
+     * 第i个快照之前已经发生的洗牌次数
+     */
+    private int[] snapshotShuffles = new int[16];
+
+    /**
+     * 会话中每次洗牌的种子和发生洗牌的操作位置
+     */
+    private long[] shuffleSeeds = new long[16];
+    private int[] shufflePositions = new int[16];
+    private int shuffleCount;
+
+    /**
+     * 开始一个新的会话，使用默认的快照间隔
+     *
+     * @param seed        初始随机种子
+     * @param deckCount   牌的副数
+     * @param penetration 渗透率，为0时每局都洗牌
+     * @return 新的会话
+     */
+    public static GameReplay start(long seed, int deckCount, double penetration) {
+        return start(seed, deckCount, penetration, DEFAULT_SNAPSHOT_INTERVAL);
+    }
+
+    /**
+     * 开始一个新的会话
+     *
+     * @param seed             初始随机种子
+     * @param deckCount        牌的副数
+     * @param penetration      渗透率，为0时每局都洗牌
+     * @param snapshotInterval 每隔多少个操作保存一个快照
+     * @return 新的会话
+     */
+    public static GameReplay start(long seed, int deckCount, double penetration, int snapshotInterval) {
+        GameReplay replay = new GameReplay(seed, deckCount, penetration, snapshotInterval);
+        // 构造完成之后再注册为游戏的监听器，记录之后的洗牌
+        replay.game.addGameListener(replay);
+        return replay;
+    }
+
+    private GameReplay(long seed, int deckCount, double penetration, int snapshotInterval) {
+        if (snapshotInterval < 1) {
+            throw new IllegalArgumentException("快照间隔必须为正数: " + snapshotInterval);
+        }
+        this.seed = seed;
+        this.deckCount = deckCount;
+        this.penetration = penetration;
+        this.snapshotInterval = snapshotInterval;
+        this.game = newGame(seed);
+        snapshots.add(null);
+    }
+
+    /**
+     * 由初始随机种子和操作序列重建会话
+     *
+     * @param seed             初始随机种子
+     * @param deckCount        牌的副数
+     * @param penetration      渗透率
+     * @param log              操作序列（见getActionLog()）
+     * @param snapshotInterval 每隔多少个操作保存一个快照
+     * @return 执行完所有操作的会话
+     * @throws IllegalArgumentException 如果操作序列中有未知的操作
+     */
+    public static GameReplay replay(long seed, int deckCount, double penetration, byte[] log, int snapshotInterval) {
+        GameReplay replay = start(seed, deckCount, penetration, snapshotInterval);
+        for (byte action : log) {
+            replay.apply(toAction(action));
+        }
+        return replay;
+    }
+
+    /**
+     * 执行并记录一个操作
+     *
+     * @param action 操作
+     */
+    public void apply(Action action) {
+        perform(game, action);
+        ensureCapacity();
+        actions[size++] = (byte) action.ordinal();
+        if (size % snapshotInterval == 0) {
+            takeSnapshot();
+        }
+    }
+
+    /**
+     * 按BlackjackGame.playHit()相同的回合顺序处理一次人类玩家要牌，电脑的决策由电脑策略做出并记录
+     */
+    public void playHit() {
+        apply(Action.HIT);
+        if (game.getState() == BlackjackGame.GameState.PLAYING && !game.getComputer().isStanding()) {
+            decideForComputer();
+        }
+        if (game.isGameOver()) {
+            apply(Action.FINALIZE);
+        }
+    }
+
+    /**
+     * 按BlackjackGame.playStand()相同的回合顺序处理人类玩家停牌，电脑的决策由电脑策略做出并记录
+     */
+    public void playStand() {
+        apply(Action.STAND);
+        while (!game.isGameOver()) {
+            decideForComputer();
+        }
+        apply(Action.FINALIZE);
+    }
+
+    /**
+     * 记录洗牌种子，跳转时交给恢复的游戏
+     */
+    @Override
+    public void shuffled(BlackjackGame game, long seed) {
+        if (shuffleCount == shuffleSeeds.length) {
+            shuffleSeeds = Arrays.copyOf(shuffleSeeds, shuffleCount * 2);
+            shufflePositions = Arrays.copyOf(shufflePositions, shuffleCount * 2);
+        }
+        shuffleSeeds[shuffleCount] = seed;
+        shufflePositions[shuffleCount] = size;
+        shuffleCount++;
+    }
+
+    /**
+     * 重建执行完前position个操作时的游戏
+     * 返回的是一个新的游戏对象，修改它不影响会话；继续在它上面游戏时，之后的洗牌不再与会话一致
+     *
+     * @param position 操作位置，0到size()
+     * @return 该位置的游戏
+     */
+    public BlackjackGame seek(int position) {
+        if (position < 0 || position > size) {
+            throw new IndexOutOfBoundsException("操作位置超出范围: " + position);
+        }
+        int snapshot = position / snapshotInterval;
+        byte[] encoded = snapshots.get(snapshot);
+        BlackjackGame restored;
+        if (encoded == null) {
+            restored = newGame(seed);
+        } else {
+            try {
+                restored = GameCodec.decode(ByteBuffer.wrap(encoded));
+            } catch (IOException e) {
+                throw new IllegalStateException("无法解码快照", e);
+            }
+        }
+
+        int from = snapshot * snapshotInterval;
+        for (int i = snapshotShuffles[snapshot]; i < shuffleCount
+                && shufflePositions[i] < position; i++) {
+            restored.replayShuffleSeed(shuffleSeeds[i]);
+        }
+        for (int i = from; i < position; i++) {
+            perform(restored, ACTIONS[actions[i]]);
+        }
+        restored.clearReplayShuffleSeeds();
+        return restored;
+    }
+
+    /**
+     * 获取会话的游戏，即执行完所有操作后的游戏
+     * 会话中的操作应通过本类进行，直接操作这个游戏不会被记录
+     *
+     * @return 会话的游戏
+     */
+    public BlackjackGame getGame() {
+        return game;
+    }
+
+    /**
+     * @return 已记录的操作数
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @param position 操作位置
+     * @return 第position个操作
+     */
+    public Action getAction(int position) {
+        if (position < 0 || position >= size) {
+            throw new IndexOutOfBoundsException("操作位置超出范围: " + position);
+        }
+        return ACTIONS[actions[position]];
+    }
+
+    /**
+     * @return 操作序列的副本，每个操作一个字节，可以交给replay()重建会话
+     */
+    public byte[] getActionLog() {
+        return Arrays.copyOf(actions, size);
+    }
+
+    /**
+     * @return 初始随机种子
+     */
+    public long getSeed() {
+        return seed;
+    }
+
+    /**
+     * @return 内存中保存的快照数（不含会话开始时的新游戏）
+     */
+    public int getSnapshotCount() {
+        return snapshots.size() - 1;
+    }
+
+    private BlackjackGame newGame(long seed) {
+        BlackjackGame created = new BlackjackGame(new Random(seed));
+        created.setShoe(deckCount, penetration);
+        return created;
+    }
+
+    private void decideForComputer() {
+        apply(game.checkComputerWantsToHit() ? Action.COMPUTER_HIT : Action.COMPUTER_STAND);
+    }
+
+    private void takeSnapshot() {
+        ByteBuffer out = ByteBuffer.allocate(GameCodec.encodedSize(game, GameCodec.DeckEncoding.SEED));
+        GameCodec.encode(game, out, GameCodec.DeckEncoding.SEED);
+        int index = snapshots.size();
+        if (index == snapshotShuffles.length) {
+            snapshotShuffles = Arrays.copyOf(snapshotShuffles, index * 2);
+        }
+        snapshotShuffles[index] = shuffleCount;
+        snapshots.add(out.array());
+    }
+
+    private void ensureCapacity() {
+        if (size == actions.length) {
+            actions = Arrays.copyOf(actions, size * 2);
+        }
+    }
+
+    private static Action toAction(byte value) {
+        if (value < 0 || value >= ACTIONS.length) {
+            throw new IllegalArgumentException("未知的操作: " + value);
+        }
+        return ACTIONS[value];
+    }
+
+    /**
+     * 在游戏上执行一个操作
+     */
+    private static void perform(BlackjackGame game, Action action) {
+        switch (action) {
+            case START:
+                game.startGame();
+                break;
+            case HIT:
+                game.humanHit();
+                break;
+            case STAND:
+                game.humanStand();
+                break;
+            case COMPUTER_HIT:
+                game.applyComputerDecision(true);
+                break;
+            case COMPUTER_STAND:
+                game.applyComputerDecision(false);
+                break;
+            default:
+                game.finalizeGame();
+        }
+    }
+}
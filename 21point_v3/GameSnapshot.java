@@ -0,0 +1,218 @@
+/**
+ * 游戏状态的不可变快照
+ * BlackjackGame在每个操作完成后生成一个新的快照，撤销、重做、假设推演（what-if）和电脑的前瞻搜索
+ * 只需保存和切换快照的引用，不必复制整个游戏
+ *
+ * 结构共享：
+ * - 手牌是持久化的单向链表（见Hand），要一张牌只新建一个节点，新旧快照共享之前的所有节点
+ * - 牌组在洗牌后不再改变，快照直接引用游戏的牌组并只保存发牌位置（游标），不复制任何一张牌
+ * - 因此生成一个快照只需分配一两个小对象，与牌的副数和手牌张数无关
+ *
+ * 快照一经创建就不再改变，可以在任意线程中读取
+ */
+import java.util.AbstractList;
+import java.util.List;
+
+public final class GameSnapshot {
+    /**
+     * 持久化的手牌：每个节点是一张牌和它之前的手牌
+     * 实现只读的List接口，按下标读取需要从最后一张向前查找，手牌通常只有几张牌
+     * 点数随节点增量计算，读取点数为O(1)
+     */
+    public static final class Hand extends AbstractList<Card> {
+        /**
+         * 空手牌，所有手牌链表的起点
+         */
+        public static final Hand EMPTY = new Hand(null, null);
+
+        private final Card card;
+        private final Hand previous;
+        private final int size;
+        private final int hardScore;
+        private final boolean hasAce;
+
+        private Hand(Card card, Hand previous) {
+            this.card = card;
+            this.previous = previous;
+            if (previous == null) {
+                size = 0;
+                hardScore = 0;
+                hasAce = false;
+            } else {
+                size = previous.size + 1;
+                hardScore = previous.hardScore + card.getScore();
+                hasAce = previous.hasAce || card.getValue() == 1;
+            }
+        }
+
+        /**
+         * @param card 新的一张牌
+         * @return 多了这张牌的新手牌，与当前手牌共享之前的所有节点
+         */
+        public Hand plus(Card card) {
+            return new Hand(card, this);
+        }
+
+        /**
+         * @return 手牌的最佳点数（A在不爆牌时计为11点），与Player.getTotalScore()相同
+         */
+        public int getScore() {
+            return hasAce && hardScore + 10 <= 21 ? hardScore + 10 : hardScore;
+        }
+
+        @Override
+        public Card get(int index) {
+            if (index < 0 || index >= size) {
+                throw new IndexOutOfBoundsException("下标超出范围: " + index);
+            }
+            Hand node = this;
+            for (int i = size - 1; i > index; i--) {
+                node = node.previous;
+            }
+            return node.card;
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        /**
+         * 在上一个快照的手牌基础上得到当前手牌：上一个快照的手牌是当前手牌的前缀时只追加新的牌，
+         * 否则（例如开始了新的一局）从空手牌重新建立
+         *
+         * @param base  上一个快照的手牌
+         * @param cards 玩家当前的手牌
+         * @return 与cards内容相同的手牌
+         */
+        static Hand extend(Hand base, List<Card> cards) {
+            if (base.size > cards.size() || !base.isPrefixOf(cards)) {
+                base = EMPTY;
+            }
+            for (int i = base.size; i < cards.size(); i++) {
+                base = base.plus(cards.get(i));
+            }
+            return base;
+        }
+
+        private boolean isPrefixOf(List<Card> cards) {
+            for (Hand node = this; node.size > 0; node = node.previous) {
+                if (cards.get(node.size - 1) != node.card) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    private final BlackjackGame.GameState state;
+    private final Hand humanHand;
+    private final Hand computerHand;
+    private final boolean humanStanding;
+    private final boolean computerStanding;
+    private final List<Card> deck;
+    private final int deckPosition;
+    private final long shuffleSeed;
+    private final boolean deckFromSeed;
+    private final int deckCount;
+    private final double penetration;
+    private final CardCounter.TagSystem countingSystem;
+    private final int round;
+
+    GameSnapshot(BlackjackGame.GameState state, Hand humanHand, Hand computerHand, boolean humanStanding,
+            boolean computerStanding, List<Card> deck, int deckPosition, long shuffleSeed, boolean deckFromSeed,
+            int deckCount, double penetration, CardCounter.TagSystem countingSystem, int round) {
+        this.state = state;
+        this.humanHand = humanHand;
+        this.computerHand = computerHand;
+        this.humanStanding = humanStanding;
+        this.computerStanding = computerStanding;
+        this.deck = deck;
+        this.deckPosition = deckPosition;
+        this.shuffleSeed = shuffleSeed;
+        this.deckFromSeed = deckFromSeed;
+        this.deckCount = deckCount;
+        this.penetration = penetration;
+        this.countingSystem = countingSystem;
+        this.round = round;
+    }
+
+    public BlackjackGame.GameState getState() {
+        return state;
+    }
+
+    /**
+     * @return 人类玩家的手牌（只读）
+     */
+    public Hand getHumanHand() {
+        return humanHand;
+    }
+
+    /**
+     * @return 电脑玩家的手牌（只读）
+     */
+    public Hand getComputerHand() {
+        return computerHand;
+    }
+
+    public int getHumanScore() {
+        return humanHand.getScore();
+    }
+
+    public int getComputerScore() {
+        return computerHand.getScore();
+    }
+
+    public boolean isHumanStanding() {
+        return humanStanding;
+    }
+
+    public boolean isComputerStanding() {
+        return computerStanding;
+    }
+
+    /**
+     * @return 牌组中尚未发出的牌数
+     */
+    public int getCardsRemaining() {
+        return deck.size() - deckPosition;
+    }
+
+    public long getShuffleSeed() {
+        return shuffleSeed;
+    }
+
+    public int getDeckCount() {
+        return deckCount;
+    }
+
+    public double getPenetration() {
+        return penetration;
+    }
+
+    public CardCounter.TagSystem getCountingSystem() {
+        return countingSystem;
+    }
+
+    /**
+     * @return 完整的牌组，与游戏共享，调用者不得修改
+     */
+    List<Card> getDeck() {
+        return deck;
+    }
+
+    int getDeckPosition() {
+        return deckPosition;
+    }
+
+    boolean isDeckFromSeed() {
+        return deckFromSeed;
+    }
+
+    /**
+     * 快照所在的局号，用于撤销之后识别重新打的局
+     */
+    int getRound() {
+        return round;
+    }
+}
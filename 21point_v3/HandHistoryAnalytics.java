@@ -0,0 +1,287 @@
+/**
+ * 牌局记录的并行统计分析
+ * 按块扫描HandHistoryWriter写入的所有段，一次扫描得到以下统计：
+ * - 每种起手牌（开局时人类和电脑各发到的一张牌的点数）的各种最终状态的比例
+ * - 各点数下要牌的爆牌率：人类在该点数要牌的次数以及要牌后爆牌的次数
+ * - 电脑玩家（ComputerPlayer）的停牌分布：电脑在各点数停牌和要牌的次数
+ *
+ * 开局时每位玩家只发一张牌，之后的每张牌都是一次要牌；
+ * 人类爆牌的牌局中无法从记录判断电脑是否已经停牌，这些牌局只统计电脑的要牌，不统计停牌
+ *
+ * 性能设计：
+ * - 段文件由HandHistoryReader映射，数据经页缓存按需读入，不占用堆，
+ *   可以处理远大于堆的牌局记录；扫描顺序读取，操作系统的预读使速度接近磁盘带宽
+ * - 直接按HandRecord的字段偏移读取牌的编码，不创建HandRecord和Card对象
+ * - 每段按CHUNK_RECORDS条记录切成多个块，由并行流分给所有CPU核，
+ *   每个块累加到各自的Report中，最后合并，线程之间不共享可变状态
+ *
+ * 用法：java HandHistoryAnalytics [牌局记录目录]
+ */
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+public class HandHistoryAnalytics {
+    /**
+     * 每个并行块的记录数
+     */
+    public static final int CHUNK_RECORDS = 1 << 16;
+
+    private static final int STATES = BlackjackGame.GameState.values().length;
+
+    /**
+     * 统计的最大点数，超过即为爆牌
+     */
+    private static final int MAX_SCORE = 21;
+
+    /**
+     * 统计结果
+     */
+    public static final class Report {
+        private long rounds;
+
+        /**
+         * 按起手牌和最终状态计数，下标为 startingHand(人类的牌, 电脑的牌) * STATES + 状态序号
+         */
+        private final long[] startingHands = new long[10 * 10 * STATES];
+        private final long[] hits = new long[MAX_SCORE + 1];
+        private final long[] busts = new long[MAX_SCORE + 1];
+        private final long[] computerHits = new long[MAX_SCORE + 1];
+        private final long[] computerStands = new long[MAX_SCORE + 1];
+
+        /**
+         * 累加一段中 [from, to) 范围内的记录
+         */
+        private void scan(ByteBuffer records, int from, int to) {
+            for (int i = from; i < to; i++) {
+                int offset = HandHistoryReader.recordOffset(i);
+                int result = records.get(offset + HandRecord.RESULT);
+                rounds++;
+
+                int humanCount = Math.min(records.get(offset + HandRecord.HUMAN_COUNT), HandRecord.MAX_CARDS);
+                int computerCount = Math.min(records.get(offset + HandRecord.COMPUTER_COUNT), HandRecord.MAX_CARDS);
+                if (humanCount > 0 && computerCount > 0) {
+                    int human = cardScore(records.get(offset + HandRecord.HUMAN_CARDS));
+                    int computer = cardScore(records.get(offset + HandRecord.COMPUTER_CARDS));
+                    startingHands[startingHand(human, computer) * STATES + result]++;
+                }
+                scanHits(records, offset + HandRecord.HUMAN_CARDS, humanCount, hits, busts);
+
+                int computerScore = scanHits(records, offset + HandRecord.COMPUTER_CARDS, computerCount,
+                        computerHits, null);
+                if (result != BlackjackGame.GameState.HUMAN_BUST.ordinal()
+                        && result != BlackjackGame.GameState.COMPUTER_BUST.ordinal() && computerScore <= MAX_SCORE) {
+                    computerStands[computerScore]++;
+                }
+            }
+        }
+
+        /**
+         * 按发牌顺序重放一手牌，第一张之后的每张牌都是一次要牌，记录要牌时的点数
+         *
+         * @param busts 不为null时记录要牌后爆牌的次数
+         * @return 这手牌的最终点数
+         */
+        private static int scanHits(ByteBuffer records, int cardsOffset, int count, long[] hits, long[] busts) {
+            int hard = 0;
+            boolean ace = false;
+            for (int i = 0; i < count; i++) {
+                int score = ace && hard + 10 <= MAX_SCORE ? hard + 10 : hard;
+                int value = records.get(cardsOffset + i) % 13 + 1;
+                hard += Math.min(value, 10);
+                ace |= value == 1;
+                if (i >= 1 && score <= MAX_SCORE) {
+                    hits[score]++;
+                    if (busts != null && hard > MAX_SCORE) {
+                        busts[score]++;
+                    }
+                }
+            }
+            return ace && hard + 10 <= MAX_SCORE ? hard + 10 : hard;
+        }
+
+        private void merge(Report other) {
+            rounds += other.rounds;
+            add(startingHands, other.startingHands);
+            add(hits, other.hits);
+            add(busts, other.busts);
+            add(computerHits, other.computerHits);
+            add(computerStands, other.computerStands);
+        }
+
+        private static void add(long[] target, long[] source) {
+            for (int i = 0; i < target.length; i++) {
+                target[i] += source[i];
+            }
+        }
+
+        /**
+         * @return 统计的牌局数
+         */
+        public long getRounds() {
+            return rounds;
+        }
+
+        /**
+         * @param human    人类起手牌的点数（A为1，J、Q、K为10）
+         * @param computer 电脑起手牌的点数
+         * @return 以这两张牌起手的牌局数
+         */
+        public long getStartingHandCount(int human, int computer) {
+            int base = startingHand(human, computer) * STATES;
+            long total = 0;
+            for (int state = 0; state < STATES; state++) {
+                total += startingHands[base + state];
+            }
+            return total;
+        }
+
+        /**
+         * @param human    人类起手牌的点数（A为1，J、Q、K为10）
+         * @param computer 电脑起手牌的点数
+         * @param result   最终状态
+         * @return 以这两张牌起手的牌局中以该状态结束的比例，没有这种起手牌时为0
+         */
+        public double getOutcomeRate(int human, int computer, BlackjackGame.GameState result) {
+            long total = getStartingHandCount(human, computer);
+            return total == 0 ? 0 : (double) startingHands[startingHand(human, computer) * STATES + result.ordinal()]
+                    / total;
+        }
+
+        /**
+         * @param score 要牌时的点数
+         * @return 人类在该点数要牌的次数
+         */
+        public long getHits(int score) {
+            return score >= 0 && score <= MAX_SCORE ? hits[score] : 0;
+        }
+
+        /**
+         * @param score 要牌时的点数
+         * @return 人类在该点数要牌后爆牌的次数
+         */
+        public long getBusts(int score) {
+            return score >= 0 && score <= MAX_SCORE ? busts[score] : 0;
+        }
+
+        /**
+         * @param score 要牌时的点数
+         * @return 人类在该点数要牌后爆牌的比例，没有要过牌时为0
+         */
+        public double getBustRate(int score) {
+            long n = getHits(score);
+            return n == 0 ? 0 : (double) getBusts(score) / n;
+        }
+
+        /**
+         * @param score 点数
+         * @return 电脑在该点数要牌的次数
+         */
+        public long getComputerHits(int score) {
+            return score >= 0 && score <= MAX_SCORE ? computerHits[score] : 0;
+        }
+
+        /**
+         * @param score 点数
+         * @return 电脑在该点数停牌的次数
+         */
+        public long getComputerStands(int score) {
+            return score >= 0 && score <= MAX_SCORE ? computerStands[score] : 0;
+        }
+
+        /**
+         * @param score 点数
+         * @return 电脑在该点数做决策时选择停牌的比例，没有在该点数做过决策时为0
+         */
+        public double getComputerStandRate(int score) {
+            long n = getComputerHits(score) + getComputerStands(score);
+            return n == 0 ? 0 : (double) getComputerStands(score) / n;
+        }
+    }
+
+    /**
+     * 按块扫描读取器当前已提交的所有记录，各块并行统计
+     *
+     * @param reader 牌局记录读取器
+     * @return 统计结果
+     */
+    public static Report analyze(HandHistoryReader reader) {
+        List<int[]> chunks = new ArrayList<>();
+        int segments = reader.getSegmentCount();
+        for (int segment = 0; segment < segments; segment++) {
+            int count = reader.getRecordCount(segment);
+            for (int from = 0; from < count; from += CHUNK_RECORDS) {
+                chunks.add(new int[] { segment, from, Math.min(count, from + CHUNK_RECORDS) });
+            }
+        }
+        return chunks.parallelStream().collect(Report::new,
+                (report, chunk) -> report.scan(reader.getSegmentBuffer(chunk[0]), chunk[1], chunk[2]),
+                Report::merge);
+    }
+
+    /**
+     * @return 牌的编码对应的点数（A为1，J、Q、K为10）
+     */
+    private static int cardScore(int code) {
+        return Math.min(code % 13 + 1, 10);
+    }
+
+    /**
+     * @return 起手牌的序号
+     */
+    private static int startingHand(int human, int computer) {
+        if (human < 1 || human > 10 || computer < 1 || computer > 10) {
+            throw new IllegalArgumentException("牌的点数应在1到10之间: " + human + ", " + computer);
+        }
+        return (human - 1) * 10 + computer - 1;
+    }
+
+    /**
+     * 统计牌局记录目录并输出结果
+     */
+    public static void main(String[] args) throws IOException {
+        Path directory = Paths.get(args.length > 0 ? args[0] : "hand_history");
+        HandHistoryReader reader = new HandHistoryReader(directory);
+        long start = System.nanoTime();
+        Report report = analyze(reader);
+        double seconds = Math.max(1e-9, (System.nanoTime() - start) / 1e9);
+        System.out.printf("共%d局（%d段），耗时%.0f毫秒，%.0f MB/秒%n", report.getRounds(), reader.getSegmentCount(),
+                seconds * 1000, report.getRounds() * HandRecord.SIZE / seconds / (1 << 20));
+
+        System.out.println("起手牌的胜率（人类获胜或电脑爆牌，行为人类的牌，列为电脑的牌）：");
+        StringBuilder header = new StringBuilder("    ");
+        for (int computer = 1; computer <= 10; computer++) {
+            header.append(String.format("%7d", computer));
+        }
+        System.out.println(header);
+        for (int human = 1; human <= 10; human++) {
+            StringBuilder line = new StringBuilder(String.format("  %2d", human));
+            for (int computer = 1; computer <= 10; computer++) {
+                double win = report.getOutcomeRate(human, computer, BlackjackGame.GameState.HUMAN_WIN)
+                        + report.getOutcomeRate(human, computer, BlackjackGame.GameState.COMPUTER_BUST);
+                line.append(String.format(" %5.1f%%", win * 100));
+            }
+            System.out.println(line);
+        }
+
+        System.out.println("各点数要牌的爆牌率：");
+        for (int score = 1; score <= MAX_SCORE; score++) {
+            if (report.getHits(score) > 0) {
+                System.out.printf("  %2d点：要牌%d次，爆牌 %.2f%%%n", score, report.getHits(score),
+                        report.getBustRate(score) * 100);
+            }
+        }
+
+        System.out.println("电脑的停牌分布：");
+        for (int score = 1; score <= MAX_SCORE; score++) {
+            long decisions = report.getComputerHits(score) + report.getComputerStands(score);
+            if (decisions > 0) {
+                System.out.printf("  %2d点：停牌%d次，要牌%d次，停牌率 %.2f%%%n", score, report.getComputerStands(score),
+                        report.getComputerHits(score), report.getComputerStandRate(score) * 100);
+            }
+        }
+    }
+}
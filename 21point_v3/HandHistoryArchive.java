@@ -0,0 +1,491 @@
+/**
+ * 压缩的牌局记录归档
+ * 把HandHistoryWriter写入的牌局记录压缩成一个归档文件，体积通常只有原始记录的几分之一，
+ * 并且可以只解压需要的部分读取指定编号范围的牌局
+ *
+ * 每条记录的紧凑编码：
+ * - 一个字节打包最终状态（3位）、牌的副数减1（3位）和"洗牌种子与上一局相同"标志（1位）
+ * - 牌局编号、时间戳与上一条记录的差值用zigzag变长整数编码（连续的牌局通常各只占1~2个字节）
+ * - 开局位置加1后用变长整数编码；同一牌靴中的连续牌局不再重复保存洗牌种子
+ * - 双方手牌张数各一个字节，随后所有牌按6位编码紧密排列
+ *
+ * 记录按固定局数分块，每块使用Deflater独立压缩，块内的差值编码从块首重新开始，
+ * 因此任何一块都可以单独解压。文件末尾的稀疏索引为每块保存一项（第一局的编号、位置和长度），
+ * 读取编号范围时二分查找起始块，只解压范围覆盖的块
+ *
+ * 文件格式（大端序）：
+ * <pre>
+ * int   魔数 "BJHA"
+ * int   版本号
+ * int   每块的局数
+ * int   保留
+ * 块    ...（Deflater压缩数据）
+ * 索引  每块一项：long第一局编号、long块位置、int压缩后长度、int原始长度、int局数
+ * long  索引位置
+ * int   块数
+ * int   魔数 "BJHA"
+ * </pre>
+ *
+ * 用法：java HandHistoryArchive 牌局记录目录 归档文件 [每块局数]
+ */
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+public class HandHistoryArchive implements Closeable {
+    private static final int MAGIC = 0x424A4841;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 16;
+    private static final int INDEX_ENTRY_SIZE = 28;
+    private static final int FOOTER_SIZE = 16;
+
+    /**
+     * 默认每块的局数
+     */
+    public static final int DEFAULT_ROUNDS_PER_BLOCK = 4096;
+
+    /**
+     * 一条记录编码后的最大字节数：标志1 + 两个变长差值20 + 开局位置3 + 种子8 + 张数2 + 牌26
+     */
+    private static final int MAX_ENCODED_RECORD = 60;
+
+    private static final int SAME_SEED = 0x40;
+
+    private final FileChannel channel;
+
+    /**
+     * 稀疏块索引
+     */
+    private final long[] blockFirstRound;
+    private final long[] blockOffset;
+    private final int[] blockCompressedLength;
+    private final int[] blockRawLength;
+    private final int[] blockRounds;
+
+    private HandHistoryArchive(FileChannel channel, int blocks) {
+        this.channel = channel;
+        this.blockFirstRound = new long[blocks];
+        this.blockOffset = new long[blocks];
+        this.blockCompressedLength = new int[blocks];
+        this.blockRawLength = new int[blocks];
+        this.blockRounds = new int[blocks];
+    }
+
+    /**
+     * 把牌局记录目录中当前已提交的所有记录压缩成归档文件
+     *
+     * @param reader         牌局记录读取器
+     * @param archive        归档文件路径，已存在时覆盖
+     * @param roundsPerBlock 每块的局数
+     * @return 写入的局数
+     * @throws IOException 如果写入失败
+     */
+    public static long compact(HandHistoryReader reader, Path archive, int roundsPerBlock) throws IOException {
+        if (roundsPerBlock < 1 || roundsPerBlock > Integer.MAX_VALUE / MAX_ENCODED_RECORD) {
+            throw new IllegalArgumentException("每块局数超出范围: " + roundsPerBlock);
+        }
+        try (FileChannel out = FileChannel.open(archive, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            BlockWriter writer = new BlockWriter(out, roundsPerBlock);
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).putInt(MAGIC).putInt(VERSION).putInt(roundsPerBlock);
+            header.clear();
+            writeFully(out, header);
+
+            for (int segment = 0; segment < reader.getSegmentCount(); segment++) {
+                int count = reader.getRecordCount(segment);
+                for (int i = 0; i < count; i++) {
+                    writer.add(reader.read(segment, i));
+                }
+            }
+            writer.finish();
+            return writer.totalRounds;
+        }
+    }
+
+    /**
+     * 打开归档文件，读取其块索引
+     *
+     * @param archive 归档文件路径
+     * @return 归档，使用完后应调用close()
+     * @throws IOException 如果文件无法读取或格式不正确
+     */
+    public static HandHistoryArchive open(Path archive) throws IOException {
+        FileChannel channel = FileChannel.open(archive, StandardOpenOption.READ);
+        try {
+            long size = channel.size();
+            if (size < HEADER_SIZE + FOOTER_SIZE) {
+                throw new IOException("不是有效的牌局记录归档: " + archive);
+            }
+            ByteBuffer header = readAt(channel, 0, HEADER_SIZE);
+            ByteBuffer footer = readAt(channel, size - FOOTER_SIZE, FOOTER_SIZE);
+            if (header.getInt() != MAGIC || header.getInt() != VERSION || footer.getInt(12) != MAGIC) {
+                throw new IOException("不是有效的牌局记录归档: " + archive);
+            }
+            long indexOffset = footer.getLong();
+            int blocks = footer.getInt();
+            if (blocks < 0 || indexOffset + (long) blocks * INDEX_ENTRY_SIZE != size - FOOTER_SIZE) {
+                throw new IOException("牌局记录归档的索引已损坏: " + archive);
+            }
+            HandHistoryArchive result = new HandHistoryArchive(channel, blocks);
+            ByteBuffer index = readAt(channel, indexOffset, blocks * INDEX_ENTRY_SIZE);
+            for (int i = 0; i < blocks; i++) {
+                result.blockFirstRound[i] = index.getLong();
+                result.blockOffset[i] = index.getLong();
+                result.blockCompressedLength[i] = index.getInt();
+                result.blockRawLength[i] = index.getInt();
+                result.blockRounds[i] = index.getInt();
+            }
+            return result;
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @return 归档中的块数
+     */
+    public int getBlockCount() {
+        return blockFirstRound.length;
+    }
+
+    /**
+     * @return 归档中的总局数
+     */
+    public long getRoundCount() {
+        long total = 0;
+        for (int rounds : blockRounds) {
+            total += rounds;
+        }
+        return total;
+    }
+
+    /**
+     * 按编号顺序处理编号在[fromRound, toRound]范围内的所有牌局
+     * 只解压与该范围重叠的块
+     *
+     * @param fromRound 起始牌局编号（包含）
+     * @param toRound   结束牌局编号（包含）
+     * @param action    对每条记录执行的操作
+     * @throws IOException 如果读取失败或数据已损坏
+     */
+    public void read(long fromRound, long toRound, Consumer<HandRecord> action) throws IOException {
+        int blocks = blockFirstRound.length;
+        // 二分查找第一局编号不大于fromRound的最后一块
+        int lo = 0;
+        int hi = blocks - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            if (blockFirstRound[mid] <= fromRound) {
+                lo = mid + 1;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        Inflater inflater = new Inflater();
+        try {
+            for (int b = Math.max(0, hi); b < blocks && blockFirstRound[b] <= toRound; b++) {
+                ByteBuffer raw = inflateBlock(b, inflater);
+                BlockDecoder decoder = new BlockDecoder(raw);
+                for (int i = 0; i < blockRounds[b]; i++) {
+                    HandRecord record = decoder.next();
+                    if (record.getRoundId() > toRound) {
+                        return;
+                    }
+                    if (record.getRoundId() >= fromRound) {
+                        action.accept(record);
+                    }
+                }
+            }
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * 按编号顺序处理归档中的所有牌局
+     *
+     * @param action 对每条记录执行的操作
+     * @throws IOException 如果读取失败或数据已损坏
+     */
+    public void forEach(Consumer<HandRecord> action) throws IOException {
+        read(Long.MIN_VALUE, Long.MAX_VALUE, action);
+    }
+
+    /**
+     * 关闭归档文件
+     */
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * 读取并解压一块
+     */
+    private ByteBuffer inflateBlock(int block, Inflater inflater) throws IOException {
+        ByteBuffer compressed = readAt(channel, blockOffset[block], blockCompressedLength[block]);
+        byte[] raw = new byte[blockRawLength[block]];
+        inflater.reset();
+        inflater.setInput(compressed.array(), 0, compressed.limit());
+        try {
+            int n = 0;
+            while (n < raw.length && !inflater.finished()) {
+                int got = inflater.inflate(raw, n, raw.length - n);
+                if (got == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                n += got;
+            }
+            if (n != raw.length) {
+                throw new IOException("牌局记录归档的第" + block + "块已损坏");
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("牌局记录归档的第" + block + "块已损坏", e);
+        }
+        return ByteBuffer.wrap(raw);
+    }
+
+    /**
+     * 分块编码和压缩记录，并在结束时写入索引
+     */
+    private static final class BlockWriter {
+        private final FileChannel out;
+        private final int roundsPerBlock;
+        private final ByteBuffer raw;
+        private final Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+        private byte[] compressed;
+
+        private ByteBuffer index = ByteBuffer.allocate(INDEX_ENTRY_SIZE * 64);
+        private int blocks;
+        private long totalRounds;
+
+        /**
+         * 当前块的状态，每块开始时重置，使各块可以独立解码
+         */
+        private int rounds;
+        private long firstRound;
+        private long prevRound;
+        private long prevTimestamp;
+        private long prevSeed;
+
+        BlockWriter(FileChannel out, int roundsPerBlock) {
+            this.out = out;
+            this.roundsPerBlock = roundsPerBlock;
+            this.raw = ByteBuffer.allocate(roundsPerBlock * MAX_ENCODED_RECORD);
+            this.compressed = new byte[raw.capacity() / 2 + 64];
+        }
+
+        void add(HandRecord record) throws IOException {
+            if (rounds == 0) {
+                firstRound = record.getRoundId();
+                prevRound = 0;
+                prevTimestamp = 0;
+            }
+            boolean sameSeed = rounds > 0 && record.getShuffleSeed() == prevSeed;
+            raw.put((byte) (record.getResult().ordinal() | (record.getDeckCount() - 1) << 3
+                    | (sameSeed ? SAME_SEED : 0)));
+            putVarLong(raw, zigzag(record.getRoundId() - prevRound));
+            putVarLong(raw, zigzag(record.getTimestamp() - prevTimestamp));
+            putVarLong(raw, record.getStartPosition() + 1);
+            if (!sameSeed) {
+                raw.putLong(record.getShuffleSeed());
+            }
+            List<Card> human = record.getHumanHand();
+            List<Card> computer = record.getComputerHand();
+            raw.put((byte) human.size());
+            raw.put((byte) computer.size());
+
+            // 双方的牌按6位编码连续排列
+            long bits = 0;
+            int bitCount = 0;
+            for (int i = 0; i < human.size() + computer.size(); i++) {
+                Card card = i < human.size() ? human.get(i) : computer.get(i - human.size());
+                bits = (bits << 6) | card.getCode();
+                bitCount += 6;
+                if (bitCount >= 8) {
+                    bitCount -= 8;
+                    raw.put((byte) (bits >>> bitCount));
+                    bits &= (1L << bitCount) - 1;
+                }
+            }
+            if (bitCount > 0) {
+                raw.put((byte) (bits << (8 - bitCount)));
+            }
+
+            prevRound = record.getRoundId();
+            prevTimestamp = record.getTimestamp();
+            prevSeed = record.getShuffleSeed();
+            totalRounds++;
+            if (++rounds == roundsPerBlock) {
+                flushBlock();
+            }
+        }
+
+        void finish() throws IOException {
+            if (rounds > 0) {
+                flushBlock();
+            }
+            long indexOffset = out.position();
+            index.flip();
+            writeFully(out, index);
+            ByteBuffer footer = ByteBuffer.allocate(FOOTER_SIZE).putLong(indexOffset).putInt(blocks).putInt(MAGIC);
+            footer.flip();
+            writeFully(out, footer);
+            deflater.end();
+        }
+
+        private void flushBlock() throws IOException {
+            raw.flip();
+            int rawLength = raw.limit();
+            deflater.reset();
+            deflater.setInput(raw.array(), 0, rawLength);
+            deflater.finish();
+            int length = 0;
+            while (!deflater.finished()) {
+                if (length == compressed.length) {
+                    byte[] larger = new byte[compressed.length * 2];
+                    System.arraycopy(compressed, 0, larger, 0, length);
+                    compressed = larger;
+                }
+                length += deflater.deflate(compressed, length, compressed.length - length);
+            }
+            long offset = out.position();
+            writeFully(out, ByteBuffer.wrap(compressed, 0, length));
+
+            if (index.remaining() < INDEX_ENTRY_SIZE) {
+                ByteBuffer larger = ByteBuffer.allocate(index.capacity() * 2);
+                index.flip();
+                larger.put(index);
+                index = larger;
+            }
+            index.putLong(firstRound).putLong(offset).putInt(length).putInt(rawLength).putInt(rounds);
+            blocks++;
+            rounds = 0;
+            raw.clear();
+        }
+    }
+
+    /**
+     * 顺序解码一块中的记录
+     */
+    private static final class BlockDecoder {
+        private final ByteBuffer raw;
+        private long prevRound;
+        private long prevTimestamp;
+        private long prevSeed;
+
+        BlockDecoder(ByteBuffer raw) {
+            this.raw = raw;
+        }
+
+        HandRecord next() throws IOException {
+            try {
+                int flags = raw.get();
+                long roundId = prevRound + unzigzag(getVarLong(raw));
+                long timestamp = prevTimestamp + unzigzag(getVarLong(raw));
+                int startPosition = (int) getVarLong(raw) - 1;
+                long seed = (flags & SAME_SEED) != 0 ? prevSeed : raw.getLong();
+                int humanCount = raw.get();
+                int computerCount = raw.get();
+                Card[] cards = new Card[humanCount + computerCount];
+                long bits = 0;
+                int bitCount = 0;
+                for (int i = 0; i < cards.length; i++) {
+                    while (bitCount < 6) {
+                        bits = (bits << 8) | (raw.get() & 0xFF);
+                        bitCount += 8;
+                    }
+                    bitCount -= 6;
+                    cards[i] = Card.fromCode((int) (bits >>> bitCount) & 0x3F);
+                    bits &= (1L << bitCount) - 1;
+                }
+                prevRound = roundId;
+                prevTimestamp = timestamp;
+                prevSeed = seed;
+                List<Card> all = List.of(cards);
+                return new HandRecord(roundId, timestamp, seed, startPosition,
+                        BlackjackGame.GameState.values()[flags & 0x07], ((flags >> 3) & 0x07) + 1,
+                        all.subList(0, humanCount), all.subList(humanCount, cards.length));
+            } catch (RuntimeException e) {
+                throw new IOException("牌局记录归档中的记录已损坏", e);
+            }
+        }
+    }
+
+    private static void putVarLong(ByteBuffer out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.put((byte) value);
+    }
+
+    private static long getVarLong(ByteBuffer in) {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = in.get();
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IllegalStateException("变长整数过长");
+    }
+
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static ByteBuffer readAt(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("牌局记录归档被截断");
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private static void writeFully(FileChannel out, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+    }
+
+    /**
+     * 压缩牌局记录目录并输出压缩率
+     *
+     * @param args 牌局记录目录、归档文件、可选的每块局数（默认4096）
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.out.println("用法：java HandHistoryArchive 牌局记录目录 归档文件 [每块局数]");
+            return;
+        }
+        int roundsPerBlock = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_ROUNDS_PER_BLOCK;
+        Path archive = Paths.get(args[1]);
+        long start = System.currentTimeMillis();
+        long rounds = compact(new HandHistoryReader(Paths.get(args[0])), archive, roundsPerBlock);
+        long elapsed = Math.max(1, System.currentTimeMillis() - start);
+        long size = Files.size(archive);
+        System.out.printf("已归档%d局：%d字节（每局%.2f字节，原始记录的%.1f%%），耗时%d毫秒%n", rounds, size,
+                rounds == 0 ? 0.0 : (double) size / rounds,
+                rounds == 0 ? 0.0 : size * 100.0 / (rounds * HandRecord.SIZE), elapsed);
+    }
+}
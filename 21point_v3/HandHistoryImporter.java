@@ -0,0 +1,444 @@
+/**
+ * 旧版牌局日志的批量导入
+ * 把旧版程序留下的CSV牌局日志解析成HandRecord格式的记录，追加到牌局记录目录（见HandHistoryWriter）
+ *
+ * CSV格式（UTF-8）：每行一局，依次为结束时间（毫秒时间戳）、最终状态（GameState的名称）、
+ * 人类手牌、电脑手牌，手牌中的牌按发牌顺序用空格分隔，牌的写法与Card.toString()相同，例如：
+ * <pre>
+ * 1700000000000,HUMAN_WIN,♠A ♥10,♦5 ♣K ♥3
+ * </pre>
+ * 文件开头不以数字开头的一行视为表头，空行和以#开头的行被忽略，行尾可以是\n或\r\n。
+ * 格式不正确的行被跳过并计入Result.getRejected()，不会中断导入。
+ * 旧版日志没有洗牌种子、发牌位置和牌的副数，导入的记录中这几个字段分别为0、-1和0
+ *
+ * 性能设计：
+ * - 文件按固定字节数切成块，用FileChannel的绝对位置读取到直接缓冲区，
+ *   每个块由线程池中的一个线程解析，所有CPU核同时工作；块的边界落在行中间时，
+ *   该行属于行首所在的块（后一个块跳过第一个换行符之前的内容，前一个块多读到行尾）
+ * - 直接在字节上解析：花色按UTF-8编码（♠=E2 99 A0、♥=E2 99 A5、♦=E2 99 A6、♣=E2 99 A3）、
+ *   点数按ASCII字符直接换算成牌的编码写入记录，不创建String和Card对象
+ * - 解析结果按文件顺序交给HandHistoryWriter批量追加，牌局编号与日志的行顺序一致；
+ *   同时在解析中的块数有上限，块的缓冲区循环使用，导入任意大小的文件内存占用都不变
+ *
+ * 用法：java HandHistoryImporter CSV文件 [牌局记录目录]
+ */
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class HandHistoryImporter {
+    /**
+     * 默认每块的字节数
+     */
+    public static final int DEFAULT_CHUNK_BYTES = 1 << 20;
+
+    /**
+     * 一行的最大字节数，更长的行被跳过
+     */
+    static final int MAX_LINE = 4096;
+
+    /**
+     * 一手牌的最大张数（记录中的张数字段是一个有符号字节）
+     */
+    private static final int MAX_HAND = Byte.MAX_VALUE;
+
+    /**
+     * 各个GameState名称的ASCII字节，按序号排列
+     */
+    private static final byte[][] STATE_NAMES;
+
+    static {
+        BlackjackGame.GameState[] states = BlackjackGame.GameState.values();
+        STATE_NAMES = new byte[states.length][];
+        for (BlackjackGame.GameState state : states) {
+            STATE_NAMES[state.ordinal()] = state.name().getBytes(StandardCharsets.US_ASCII);
+        }
+    }
+
+    /**
+     * 导入结果
+     */
+    public static final class Result {
+        private long imported;
+        private long rejected;
+        private long firstRejectedOffset = -1;
+        private long bytes;
+        private long millis;
+
+        private void add(Chunk chunk) {
+            imported += chunk.output.limit() / HandRecord.SIZE;
+            rejected += chunk.rejected;
+            if (firstRejectedOffset < 0) {
+                firstRejectedOffset = chunk.firstRejectedOffset;
+            }
+        }
+
+        /**
+         * @return 导入的局数
+         */
+        public long getImported() {
+            return imported;
+        }
+
+        /**
+         * @return 格式不正确而被跳过的行数
+         */
+        public long getRejected() {
+            return rejected;
+        }
+
+        /**
+         * @return 第一个被跳过的行在文件中的字节位置，没有时为-1
+         */
+        public long getFirstRejectedOffset() {
+            return firstRejectedOffset;
+        }
+
+        /**
+         * @return 文件的字节数
+         */
+        public long getBytes() {
+            return bytes;
+        }
+
+        /**
+         * @return 导入耗时（毫秒）
+         */
+        public long getMillis() {
+            return millis;
+        }
+    }
+
+    /**
+     * 一个块的缓冲区和解析结果，解析完成并追加后循环使用
+     */
+    private static final class Chunk {
+        final ByteBuffer input;
+        ByteBuffer output;
+        int rejected;
+        long firstRejectedOffset;
+
+        Chunk(int chunkBytes) {
+            input = ByteBuffer.allocateDirect(chunkBytes + MAX_LINE + 1);
+            output = ByteBuffer.allocateDirect(Math.max(chunkBytes / 32, 1) * HandRecord.SIZE);
+        }
+    }
+
+    private final HandHistoryWriter writer;
+    private final int chunkBytes;
+    private final int threads;
+
+    /**
+     * @param writer 导入的记录追加到这个写入器
+     */
+    public HandHistoryImporter(HandHistoryWriter writer) {
+        this(writer, DEFAULT_CHUNK_BYTES, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param writer     导入的记录追加到这个写入器
+     * @param chunkBytes 每块的字节数
+     * @param threads    解析线程数
+     */
+    HandHistoryImporter(HandHistoryWriter writer, int chunkBytes, int threads) {
+        if (chunkBytes < 1 || threads < 1) {
+            throw new IllegalArgumentException("块大小和线程数必须为正数");
+        }
+        this.writer = writer;
+        this.chunkBytes = chunkBytes;
+        this.threads = threads;
+    }
+
+    /**
+     * 导入一个CSV文件
+     *
+     * @param csv CSV文件
+     * @return 导入结果
+     * @throws IOException 如果文件无法读取或记录无法写入
+     */
+    public Result importFile(Path csv) throws IOException, InterruptedException {
+        long begin = System.nanoTime();
+        Result result = new Result();
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try (FileChannel channel = FileChannel.open(csv, StandardOpenOption.READ)) {
+            long size = channel.size();
+            int window = threads * 2;
+            ArrayDeque<Future<Chunk>> pending = new ArrayDeque<>();
+            ArrayDeque<Chunk> free = new ArrayDeque<>();
+            long next = 0;
+            while (next < size || !pending.isEmpty()) {
+                while (next < size && pending.size() < window) {
+                    Chunk chunk = free.isEmpty() ? new Chunk(chunkBytes) : free.poll();
+                    long start = next;
+                    long end = Math.min(size, start + chunkBytes);
+                    pending.add(pool.submit(() -> parse(channel, size, start, end, chunk)));
+                    next = end;
+                }
+                // 按文件顺序追加，牌局编号与行顺序一致
+                Chunk done = pending.poll().get();
+                writer.append(done.output);
+                result.add(done);
+                free.add(done);
+            }
+            result.bytes = size;
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IllegalStateException("导入失败", e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+        result.millis = (System.nanoTime() - begin) / 1_000_000;
+        return result;
+    }
+
+    /**
+     * 解析行首位于 [start, end) 的所有行
+     *
+     * @return 解析完成的块，output从0到limit是解析出的记录
+     */
+    private static Chunk parse(FileChannel channel, long size, long start, long end, Chunk chunk) throws IOException {
+        // 多读前一个字节判断start是否正好是行首，多读MAX_LINE字节读完最后一行
+        long from = start == 0 ? 0 : start - 1;
+        long to = Math.min(size, end + MAX_LINE);
+        ByteBuffer in = chunk.input;
+        in.clear().limit((int) (to - from));
+        while (in.hasRemaining()) {
+            if (channel.read(in, from + in.position()) < 0) {
+                break;
+            }
+        }
+        in.flip();
+        chunk.output.clear();
+        chunk.rejected = 0;
+        chunk.firstRejectedOffset = -1;
+
+        int length = in.limit();
+        int pos = 0;
+        if (start > 0) {
+            // 跳过属于前一个块的行的剩余部分
+            while (pos < length && in.get(pos) != '\n') {
+                pos++;
+            }
+            pos++;
+        }
+        int stop = (int) (end - from);
+        while (pos < stop && pos < length) {
+            int eol = pos;
+            while (eol < length && in.get(eol) != '\n') {
+                eol++;
+            }
+            if (eol == length && to < size) {
+                // 行超过MAX_LINE，剩余部分由后面的块跳过
+                reject(chunk, from + pos);
+                break;
+            }
+            int lineEnd = eol > pos && in.get(eol - 1) == '\r' ? eol - 1 : eol;
+            boolean header = from + pos == 0 && lineEnd > pos && !isDigit(in.get(pos));
+            if (lineEnd > pos && in.get(pos) != '#' && !header && !parseLine(in, pos, lineEnd, chunk)) {
+                reject(chunk, from + pos);
+            }
+            pos = eol + 1;
+        }
+        chunk.output.flip();
+        return chunk;
+    }
+
+    private static void reject(Chunk chunk, long offset) {
+        if (chunk.rejected++ == 0) {
+            chunk.firstRejectedOffset = offset;
+        }
+    }
+
+    /**
+     * 解析一行并把记录写入块的输出缓冲区
+     *
+     * @return 格式正确时返回true；格式不正确时返回false，输出缓冲区不变
+     */
+    private static boolean parseLine(ByteBuffer in, int pos, int end, Chunk chunk) {
+        if (chunk.output.remaining() < HandRecord.SIZE) {
+            chunk.output = grow(chunk.output);
+        }
+        ByteBuffer out = chunk.output;
+        int record = out.position();
+
+        long timestamp = 0;
+        int digits = 0;
+        while (pos < end && isDigit(in.get(pos))) {
+            timestamp = timestamp * 10 + (in.get(pos++) - '0');
+            if (++digits > 18) {
+                return false;
+            }
+        }
+        if (digits == 0 || pos == end || in.get(pos++) != ',') {
+            return false;
+        }
+
+        int comma = pos;
+        while (comma < end && in.get(comma) != ',') {
+            comma++;
+        }
+        int state = matchState(in, pos, comma);
+        if (state <= BlackjackGame.GameState.PLAYING.ordinal() || comma == end) {
+            return false;
+        }
+
+        pos = parseHand(in, comma + 1, end, true, out, record + HandRecord.HUMAN_COUNT, record + HandRecord.HUMAN_CARDS);
+        if (pos < 0 || pos == end) {
+            return false;
+        }
+        pos = parseHand(in, pos + 1, end, false, out, record + HandRecord.COMPUTER_COUNT,
+                record + HandRecord.COMPUTER_CARDS);
+        if (pos != end) {
+            return false;
+        }
+
+        out.putLong(record + HandRecord.ROUND_ID, 0);
+        out.putLong(record + HandRecord.TIMESTAMP, timestamp);
+        out.putLong(record + HandRecord.SHUFFLE_SEED, 0);
+        out.putShort(record + HandRecord.START_POSITION, (short) -1);
+        out.put(record + HandRecord.RESULT, (byte) state);
+        out.put(record + HandRecord.DECK_COUNT, (byte) 0);
+        for (int i = HandRecord.COMPUTER_CARDS + HandRecord.MAX_CARDS; i < HandRecord.SIZE; i++) {
+            out.put(record + i, (byte) 0);
+        }
+        out.position(record + HandRecord.SIZE);
+        return true;
+    }
+
+    /**
+     * 解析一手牌，写入张数和前MAX_CARDS张牌的编码（不足的位置填0）
+     *
+     * @param stopAtComma 为true时解析到逗号为止，否则解析到行尾
+     * @return 这手牌之后的位置（逗号或行尾）；格式不正确或没有牌时返回-1
+     */
+    private static int parseHand(ByteBuffer in, int pos, int end, boolean stopAtComma, ByteBuffer out,
+            int countOffset, int cardsOffset) {
+        int count = 0;
+        while (true) {
+            while (pos < end && in.get(pos) == ' ') {
+                pos++;
+            }
+            if (pos == end || in.get(pos) == ',') {
+                break;
+            }
+            if (end - pos < 4 || in.get(pos) != (byte) 0xE2 || in.get(pos + 1) != (byte) 0x99) {
+                return -1;
+            }
+            int suit;
+            switch (in.get(pos + 2)) {
+                case (byte) 0xA0:
+                    suit = 0;
+                    break;
+                case (byte) 0xA5:
+                    suit = 1;
+                    break;
+                case (byte) 0xA6:
+                    suit = 2;
+                    break;
+                case (byte) 0xA3:
+                    suit = 3;
+                    break;
+                default:
+                    return -1;
+            }
+            pos += 3;
+            int value;
+            byte c = in.get(pos++);
+            if (c == 'A') {
+                value = 1;
+            } else if (c == 'J') {
+                value = 11;
+            } else if (c == 'Q') {
+                value = 12;
+            } else if (c == 'K') {
+                value = 13;
+            } else if (c == '1' && pos < end && in.get(pos) == '0') {
+                value = 10;
+                pos++;
+            } else if (c >= '2' && c <= '9') {
+                value = c - '0';
+            } else {
+                return -1;
+            }
+            if (pos < end && in.get(pos) != ' ' && in.get(pos) != ',') {
+                return -1;
+            }
+            if (count < HandRecord.MAX_CARDS) {
+                out.put(cardsOffset + count, (byte) (suit * 13 + value - 1));
+            }
+            if (++count > MAX_HAND) {
+                return -1;
+            }
+        }
+        if (count == 0 || (pos < end && !stopAtComma)) {
+            return -1;
+        }
+        for (int i = count; i < HandRecord.MAX_CARDS; i++) {
+            out.put(cardsOffset + i, (byte) 0);
+        }
+        out.put(countOffset, (byte) count);
+        return pos;
+    }
+
+    /**
+     * @return [from, to) 的字节对应的GameState序号，不是任何状态的名称时返回-1
+     */
+    private static int matchState(ByteBuffer in, int from, int to) {
+        for (int state = 0; state < STATE_NAMES.length; state++) {
+            byte[] name = STATE_NAMES[state];
+            if (name.length != to - from) {
+                continue;
+            }
+            int i = 0;
+            while (i < name.length && in.get(from + i) == name[i]) {
+                i++;
+            }
+            if (i == name.length) {
+                return state;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean isDigit(byte c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static ByteBuffer grow(ByteBuffer output) {
+        ByteBuffer larger = ByteBuffer.allocateDirect(output.capacity() * 2);
+        output.flip();
+        larger.put(output);
+        return larger;
+    }
+
+    /**
+     * 导入一个CSV文件并输出导入速度
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length < 1) {
+            System.out.println("用法：java HandHistoryImporter CSV文件 [牌局记录目录]");
+            return;
+        }
+        Path directory = Paths.get(args.length > 1 ? args[1] : "hand_history");
+        try (HandHistoryWriter writer = new HandHistoryWriter(directory)) {
+            Result result = new HandHistoryImporter(writer).importFile(Paths.get(args[0]));
+            System.out.printf("导入%d局，跳过%d行，耗时%d毫秒，%.0f MB/秒%n", result.getImported(), result.getRejected(),
+                    result.getMillis(), result.getBytes() * 1000.0 / (1 << 20) / Math.max(1, result.getMillis()));
+            if (result.getRejected() > 0) {
+                System.out.println("第一个格式不正确的行位于第" + result.getFirstRejectedOffset() + "字节");
+            }
+            System.out.println("牌局记录共" + writer.getRoundCount() + "局，保存在" + directory);
+        }
+    }
+}
@@ -0,0 +1,534 @@
+/**
+ * 牌局记录的二级索引与查询
+ * 为HandHistoryWriter写入的每一段建立位图索引，回答"人类起手拿到A并且输掉的所有牌局"这类问题时
+ * 只需对几个位图做按位运算，不需要逐条扫描记录
+ *
+ * 索引的字段（见Field）：
+ * - 双方的起手牌（每位玩家发到的第一张牌）的点数，A到K共13个取值
+ * - 最终状态，GameState的7个取值
+ * - 双方的最终点数，分为12个区间：11点及以下、12~21点各一个区间、爆牌
+ *
+ * 字段的每个取值对应一个位图，第i位表示段内第i条记录是否取该值。
+ * 查询时同一字段内的多个取值取并集，不同字段之间取交集，逐个64位字进行，结果直接用bitCount计数；
+ * 点数范围只覆盖区间一部分时（例如5~8点），先用位图缩小范围，再检查候选记录的实际点数
+ *
+ * 性能设计：
+ * - 写满的段不再变化，其索引写入段文件旁的 hands-000000.idx（临时文件 + 原子替换），
+ *   之后打开时直接映射到内存，不占用堆，也不需要重新扫描；只有仍在写入的最后一段在内存中建立索引
+ * - 建立索引和查询都按段并行，各段互不依赖
+ *
+ * 索引文件格式（大端序）：int魔数"BJHI"、int版本号、int记录数、int每个位图的字数、int位图数、
+ * 12字节保留，随后是按Field顺序排列的所有位图
+ *
+ * 用法：java HandHistoryIndex [牌局记录目录]
+ */
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.IntStream;
+
+public class HandHistoryIndex {
+    private static final int MAGIC = 0x424A4849;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 32;
+
+    /**
+     * 点数区间数：11点及以下、12~21点、爆牌
+     */
+    public static final int SCORE_BUCKETS = 12;
+
+    /**
+     * 建立索引的字段
+     */
+    public enum Field {
+        HUMAN_FIRST_CARD(13),
+        COMPUTER_FIRST_CARD(13),
+        RESULT(BlackjackGame.GameState.values().length),
+        HUMAN_SCORE(SCORE_BUCKETS),
+        COMPUTER_SCORE(SCORE_BUCKETS);
+
+        private final int values;
+
+        Field(int values) {
+            this.values = values;
+        }
+
+        /**
+         * @return 该字段第一个位图在所有位图中的序号
+         */
+        private int firstBitmap() {
+            int first = 0;
+            for (Field field : values()) {
+                if (field == this) {
+                    return first;
+                }
+                first += field.values;
+            }
+            throw new AssertionError();
+        }
+    }
+
+    private static final int[] FIRST_BITMAP = new int[Field.values().length];
+    private static final int BITMAP_COUNT;
+
+    static {
+        int total = 0;
+        for (Field field : Field.values()) {
+            FIRST_BITMAP[field.ordinal()] = field.firstBitmap();
+            total += field.values;
+        }
+        BITMAP_COUNT = total;
+    }
+
+    /**
+     * 查询条件
+     * 同一字段内允许的取值取并集，不同字段之间取交集；没有设置的字段不限制
+     */
+    public static final class Query {
+        private static final int NO_VALUES = 1 << 31;
+
+        /**
+         * 每个字段允许的取值，第v位表示允许取值v（点数字段为区间序号），0表示不限制，NO_VALUES表示不允许任何取值
+         */
+        private final int[] masks = new int[Field.values().length];
+        private int humanMin = Integer.MIN_VALUE;
+        private int humanMax = Integer.MAX_VALUE;
+        private int computerMin = Integer.MIN_VALUE;
+        private int computerMax = Integer.MAX_VALUE;
+
+        /**
+         * 限制人类起手牌的点数
+         *
+         * @param values 允许的牌面数值（1代表A，11~13代表J、Q、K）
+         * @return 本查询
+         */
+        public Query humanFirstCard(int... values) {
+            return restrict(Field.HUMAN_FIRST_CARD, valueMask(values));
+        }
+
+        /**
+         * 限制电脑起手牌的点数
+         *
+         * @param values 允许的牌面数值（1代表A，11~13代表J、Q、K）
+         * @return 本查询
+         */
+        public Query computerFirstCard(int... values) {
+            return restrict(Field.COMPUTER_FIRST_CARD, valueMask(values));
+        }
+
+        /**
+         * 限制最终状态
+         *
+         * @param states 允许的最终状态
+         * @return 本查询
+         */
+        public Query result(BlackjackGame.GameState... states) {
+            int mask = 0;
+            for (BlackjackGame.GameState state : states) {
+                mask |= 1 << state.ordinal();
+            }
+            return restrict(Field.RESULT, mask);
+        }
+
+        /**
+         * 限制人类的最终点数
+         *
+         * @param min 最小点数（含）
+         * @param max 最大点数（含），爆牌时的点数大于21
+         * @return 本查询
+         */
+        public Query humanScore(int min, int max) {
+            humanMin = Math.max(humanMin, min);
+            humanMax = Math.min(humanMax, max);
+            return restrict(Field.HUMAN_SCORE, bucketMask(min, max));
+        }
+
+        /**
+         * 限制电脑的最终点数
+         *
+         * @param min 最小点数（含）
+         * @param max 最大点数（含），爆牌时的点数大于21
+         * @return 本查询
+         */
+        public Query computerScore(int min, int max) {
+            computerMin = Math.max(computerMin, min);
+            computerMax = Math.min(computerMax, max);
+            return restrict(Field.COMPUTER_SCORE, bucketMask(min, max));
+        }
+
+        private Query restrict(Field field, int mask) {
+            int current = masks[field.ordinal()];
+            // 同一字段多次限制时取交集；交集为空时用最高位标记，这样的查询不匹配任何记录
+            int combined = current == 0 ? mask : current & mask;
+            masks[field.ordinal()] = combined == 0 ? NO_VALUES : combined;
+            return this;
+        }
+
+        /**
+         * @return 是否需要逐条检查候选记录的实际点数
+         */
+        private boolean needsScoreCheck() {
+            return !coversBuckets(humanMin, humanMax) || !coversBuckets(computerMin, computerMax);
+        }
+
+        private boolean matchesScores(ByteBuffer segment, int offset) {
+            int human = score(segment, offset + HandRecord.HUMAN_COUNT, offset + HandRecord.HUMAN_CARDS);
+            int computer = score(segment, offset + HandRecord.COMPUTER_COUNT, offset + HandRecord.COMPUTER_CARDS);
+            return human >= humanMin && human <= humanMax && computer >= computerMin && computer <= computerMax;
+        }
+
+        private static int valueMask(int[] values) {
+            int mask = 0;
+            for (int value : values) {
+                if (value < 1 || value > 13) {
+                    throw new IllegalArgumentException("牌面数值超出范围: " + value);
+                }
+                mask |= 1 << (value - 1);
+            }
+            return mask;
+        }
+
+        private static int bucketMask(int min, int max) {
+            int mask = 0;
+            for (int bucket = 0; bucket < SCORE_BUCKETS; bucket++) {
+                if (bucketMax(bucket) >= min && bucketMin(bucket) <= max) {
+                    mask |= 1 << bucket;
+                }
+            }
+            return mask;
+        }
+
+        /**
+         * @return 点数范围是否恰好由若干完整的区间组成
+         */
+        private static boolean coversBuckets(int min, int max) {
+            if (min > max) {
+                return true;
+            }
+            for (int bucket = 0; bucket < SCORE_BUCKETS; bucket++) {
+                boolean overlaps = bucketMax(bucket) >= min && bucketMin(bucket) <= max;
+                boolean inside = bucketMin(bucket) >= min && bucketMax(bucket) <= max;
+                if (overlaps && !inside) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * 一段的索引：所有位图依次排列，第b个位图的第w个字位于 b * words + w
+     */
+    private static final class SegmentIndex {
+        final LongBuffer bitmaps;
+        final int records;
+        final int words;
+
+        SegmentIndex(LongBuffer bitmaps, int records) {
+            this.bitmaps = bitmaps;
+            this.records = records;
+            this.words = wordCount(records);
+        }
+    }
+
+    private final HandHistoryReader reader;
+    private final Path directory;
+    private volatile SegmentIndex[] indexes = new SegmentIndex[0];
+
+    private HandHistoryIndex(HandHistoryReader reader, Path directory) {
+        this.reader = reader;
+        this.directory = directory;
+    }
+
+    /**
+     * 打开牌局记录目录的索引，需要时并行地为各段建立索引
+     *
+     * @param reader    牌局记录读取器
+     * @param directory 牌局记录目录，写满的段的索引文件保存在这里
+     * @return 索引
+     * @throws IOException 如果索引文件无法读写
+     */
+    public static HandHistoryIndex open(HandHistoryReader reader, Path directory) throws IOException {
+        HandHistoryIndex index = new HandHistoryIndex(reader, directory);
+        index.refresh();
+        return index;
+    }
+
+    /**
+     * 创建一个新的查询条件
+     *
+     * @return 不限制任何字段的查询条件
+     */
+    public static Query query() {
+        return new Query();
+    }
+
+    /**
+     * 为读取器新发现的段和新写入的记录更新索引
+     * 已经建立索引的写满的段保持不变，只重新建立仍在写入的段的索引
+     *
+     * @throws IOException 如果索引文件无法读写
+     */
+    public synchronized void refresh() throws IOException {
+        reader.refresh();
+        SegmentIndex[] current = indexes;
+        int segments = reader.getSegmentCount();
+        SegmentIndex[] updated = Arrays.copyOf(current, segments);
+        IOException[] failure = new IOException[1];
+        IntStream.range(0, segments).parallel().forEach(segment -> {
+            SegmentIndex existing = segment < current.length ? current[segment] : null;
+            if (existing != null && existing.records == reader.getRecordCount(segment)) {
+                return;
+            }
+            try {
+                updated[segment] = load(segment);
+            } catch (IOException e) {
+                synchronized (failure) {
+                    failure[0] = e;
+                }
+            }
+        });
+        if (failure[0] != null) {
+            throw failure[0];
+        }
+        indexes = updated;
+    }
+
+    /**
+     * 统计满足条件的牌局数，各段并行计算
+     *
+     * @param query 查询条件
+     * @return 满足条件的牌局数
+     */
+    public long count(Query query) {
+        SegmentIndex[] current = indexes;
+        return IntStream.range(0, current.length).parallel()
+                .mapToLong(segment -> evaluate(segment, current[segment], query, null, Integer.MAX_VALUE))
+                .sum();
+    }
+
+    /**
+     * 按牌局编号顺序查找满足条件的牌局，各段并行计算
+     *
+     * @param query 查询条件
+     * @param limit 最多返回的牌局数
+     * @return 满足条件的牌局记录
+     */
+    public List<HandRecord> find(Query query, int limit) {
+        SegmentIndex[] current = indexes;
+        List<List<HandRecord>> parts = new ArrayList<>();
+        for (int i = 0; i < current.length; i++) {
+            parts.add(new ArrayList<>());
+        }
+        IntStream.range(0, current.length).parallel()
+                .forEach(segment -> evaluate(segment, current[segment], query, parts.get(segment), limit));
+        List<HandRecord> result = new ArrayList<>();
+        for (List<HandRecord> part : parts) {
+            for (HandRecord record : part) {
+                if (result.size() == limit) {
+                    return result;
+                }
+                result.add(record);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 在一段中求值查询条件
+     *
+     * @param out   不为null时收集满足条件的记录，最多limit条
+     * @return 满足条件的记录数（收集记录时为收集的条数）
+     */
+    private long evaluate(int segment, SegmentIndex index, Query query, List<HandRecord> out, int limit) {
+        ByteBuffer records = reader.getSegmentBuffer(segment);
+        boolean check = query.needsScoreCheck();
+        Field[] fields = Field.values();
+        long count = 0;
+        for (int w = 0; w < index.words; w++) {
+            long word = -1L;
+            for (Field field : fields) {
+                int mask = query.masks[field.ordinal()];
+                if (mask == 0) {
+                    continue;
+                }
+                long any = 0;
+                int first = FIRST_BITMAP[field.ordinal()];
+                for (int value = 0; value < field.values; value++) {
+                    if ((mask & (1 << value)) != 0) {
+                        any |= index.bitmaps.get((first + value) * index.words + w);
+                    }
+                }
+                word &= any;
+                if (word == 0) {
+                    break;
+                }
+            }
+            if (w == index.words - 1 && (index.records & 63) != 0) {
+                word &= (1L << (index.records & 63)) - 1;
+            }
+            if (!check && out == null) {
+                count += Long.bitCount(word);
+                continue;
+            }
+            while (word != 0) {
+                int i = w * 64 + Long.numberOfTrailingZeros(word);
+                word &= word - 1;
+                int offset = HandHistoryReader.recordOffset(i);
+                if (check && !query.matchesScores(records, offset)) {
+                    continue;
+                }
+                count++;
+                if (out != null) {
+                    out.add(HandRecord.read(records, offset));
+                    if (out.size() == limit) {
+                        return count;
+                    }
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * 获取一段的索引：写满的段读取或建立索引文件，仍在写入的段在内存中建立索引
+     */
+    private SegmentIndex load(int segment) throws IOException {
+        ByteBuffer records = reader.getSegmentBuffer(segment);
+        int count = reader.getRecordCount(segment);
+        boolean sealed = count == records.getInt(HandHistoryWriter.CAPACITY_OFFSET);
+        if (!sealed) {
+            return new SegmentIndex(LongBuffer.wrap(build(records, count)), count);
+        }
+        Path path = indexPath(directory, segment);
+        if (Files.exists(path)) {
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                long expected = HEADER_SIZE + (long) BITMAP_COUNT * wordCount(count) * 8;
+                if (channel.size() == expected) {
+                    MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, expected);
+                    if (mapped.getInt(0) == MAGIC && mapped.getInt(4) == VERSION && mapped.getInt(8) == count
+                            && mapped.getInt(16) == BITMAP_COUNT) {
+                        return new SegmentIndex(mapped.position(HEADER_SIZE).slice().asLongBuffer(), count);
+                    }
+                }
+            }
+        }
+        // 索引文件不存在或与段不一致，重新建立
+        long[] bitmaps = build(records, count);
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            MappedByteBuffer mapped = out.map(FileChannel.MapMode.READ_WRITE, 0,
+                    HEADER_SIZE + (long) bitmaps.length * 8);
+            mapped.putInt(MAGIC).putInt(VERSION).putInt(count).putInt(wordCount(count)).putInt(BITMAP_COUNT);
+            mapped.position(HEADER_SIZE);
+            mapped.asLongBuffer().put(bitmaps);
+            mapped.force();
+        }
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return new SegmentIndex(LongBuffer.wrap(bitmaps), count);
+    }
+
+    /**
+     * 扫描一段中的记录，建立所有位图
+     */
+    private static long[] build(ByteBuffer records, int count) {
+        int words = wordCount(count);
+        long[] bitmaps = new long[BITMAP_COUNT * words];
+        for (int i = 0; i < count; i++) {
+            int offset = HandHistoryReader.recordOffset(i);
+            int w = i >>> 6;
+            long bit = 1L << (i & 63);
+            int humanCount = records.get(offset + HandRecord.HUMAN_COUNT);
+            int computerCount = records.get(offset + HandRecord.COMPUTER_COUNT);
+            if (humanCount > 0) {
+                int value = records.get(offset + HandRecord.HUMAN_CARDS) % 13;
+                bitmaps[(FIRST_BITMAP[Field.HUMAN_FIRST_CARD.ordinal()] + value) * words + w] |= bit;
+            }
+            if (computerCount > 0) {
+                int value = records.get(offset + HandRecord.COMPUTER_CARDS) % 13;
+                bitmaps[(FIRST_BITMAP[Field.COMPUTER_FIRST_CARD.ordinal()] + value) * words + w] |= bit;
+            }
+            int result = records.get(offset + HandRecord.RESULT);
+            bitmaps[(FIRST_BITMAP[Field.RESULT.ordinal()] + result) * words + w] |= bit;
+            int human = bucket(score(records, offset + HandRecord.HUMAN_COUNT, offset + HandRecord.HUMAN_CARDS));
+            bitmaps[(FIRST_BITMAP[Field.HUMAN_SCORE.ordinal()] + human) * words + w] |= bit;
+            int computer = bucket(score(records, offset + HandRecord.COMPUTER_COUNT,
+                    offset + HandRecord.COMPUTER_CARDS));
+            bitmaps[(FIRST_BITMAP[Field.COMPUTER_SCORE.ordinal()] + computer) * words + w] |= bit;
+        }
+        return bitmaps;
+    }
+
+    /**
+     * 直接从记录中的牌的编码计算一手牌的点数（A在不爆牌时计为11点）
+     */
+    private static int score(ByteBuffer records, int countOffset, int cardsOffset) {
+        int n = Math.min(records.get(countOffset), HandRecord.MAX_CARDS);
+        int hard = 0;
+        boolean ace = false;
+        for (int i = 0; i < n; i++) {
+            int value = records.get(cardsOffset + i) % 13 + 1;
+            hard += Math.min(value, 10);
+            ace |= value == 1;
+        }
+        return ace && hard + 10 <= 21 ? hard + 10 : hard;
+    }
+
+    /**
+     * @return 点数所在的区间：0为11点及以下，1~10为12~21点，11为爆牌
+     */
+    static int bucket(int score) {
+        return score <= 11 ? 0 : score > 21 ? SCORE_BUCKETS - 1 : score - 11;
+    }
+
+    private static int bucketMin(int bucket) {
+        return bucket == 0 ? Integer.MIN_VALUE : bucket + 11;
+    }
+
+    private static int bucketMax(int bucket) {
+        return bucket == 0 ? 11 : bucket == SCORE_BUCKETS - 1 ? Integer.MAX_VALUE : bucket + 11;
+    }
+
+    private static int wordCount(int records) {
+        return (records + 63) >>> 6;
+    }
+
+    /**
+     * @return 第index段的索引文件路径
+     */
+    static Path indexPath(Path directory, int index) {
+        return directory.resolve(String.format("hands-%06d.idx", index));
+    }
+
+    /**
+     * 建立或打开索引，并统计几个常见的问题
+     */
+    public static void main(String[] args) throws IOException {
+        Path directory = Paths.get(args.length > 0 ? args[0] : "hand_history");
+        HandHistoryReader reader = new HandHistoryReader(directory);
+        long start = System.currentTimeMillis();
+        HandHistoryIndex index = open(reader, directory);
+        System.out.printf("已为%d段共%d局建立索引，耗时%d毫秒%n", reader.getSegmentCount(),
+                reader.getRecordCount(), System.currentTimeMillis() - start);
+
+        start = System.nanoTime();
+        long aceLost = index.count(query().humanFirstCard(1)
+                .result(BlackjackGame.GameState.HUMAN_BUST, BlackjackGame.GameState.COMPUTER_WIN));
+        System.out.printf("人类起手拿到A并且输掉：%d局（%.2f毫秒）%n", aceLost, (System.nanoTime() - start) / 1e6);
+
+        start = System.nanoTime();
+        long twenty = index.count(query().humanScore(20, 20).result(BlackjackGame.GameState.COMPUTER_WIN));
+        System.out.printf("人类20点仍然输给电脑：%d局（%.2f毫秒）%n", twenty, (System.nanoTime() - start) / 1e6);
+    }
+}
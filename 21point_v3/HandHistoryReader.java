@@ -0,0 +1,204 @@
+/**
+ * 牌局记录读取器
+ * 以只读方式映射HandHistoryWriter写入的段文件，可以在游戏仍在写入时并发读取
+ *
+ * 每段的已提交记录数以acquire语义读取，读到的记录一定是完整的；
+ * 调用refresh()可以发现写入器新建的段
+ *
+ * 读取器在refresh()之外不修改任何状态，所有读取都使用绝对位置，
+ * 多个分析线程可以共享同一个读取器，例如每个线程处理一段
+ */
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.function.Consumer;
+
+public class HandHistoryReader {
+    private final Path directory;
+
+    /**
+     * 已映射的段，refresh()时整体替换
+     */
+    private volatile MappedByteBuffer[] segments = new MappedByteBuffer[0];
+
+    /**
+     * 打开牌局记录目录
+     *
+     * @param directory 记录目录
+     * @throws IOException 如果段文件无法读取或格式不正确
+     */
+    public HandHistoryReader(Path directory) throws IOException {
+        this.directory = directory;
+        mapNewSegments();
+    }
+
+    /**
+     * 映射写入器新建的段
+     * 已映射的段保持不变（段文件创建时就已是完整大小，新记录无需重新映射即可读到）
+     *
+     * @throws IOException 如果段文件无法读取或格式不正确
+     */
+    public synchronized void refresh() throws IOException {
+        mapNewSegments();
+    }
+
+    /**
+     * 映射还没有映射的段，构造时和refresh()共用
+     */
+    private void mapNewSegments() throws IOException {
+        MappedByteBuffer[] current = segments;
+        List<Path> paths = HandHistoryWriter.listSegments(directory);
+        if (paths.size() == current.length) {
+            return;
+        }
+        MappedByteBuffer[] updated = new MappedByteBuffer[paths.size()];
+        System.arraycopy(current, 0, updated, 0, current.length);
+        int ready = current.length;
+        for (int i = current.length; i < paths.size(); i++) {
+            MappedByteBuffer segment;
+            try (FileChannel channel = FileChannel.open(paths.get(i), StandardOpenOption.READ)) {
+                if (channel.size() < HandHistoryWriter.HEADER_SIZE) {
+                    // 写入器刚刚创建文件，还没有完成映射
+                    break;
+                }
+                segment = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            }
+            if ((int) HandHistoryWriter.INT_VIEW.getAcquire(segment, 0) != HandHistoryWriter.MAGIC) {
+                // 段头还没有写完，下次refresh()时再映射
+                break;
+            }
+            if (segment.getInt(HandHistoryWriter.RECORD_SIZE_OFFSET) != HandRecord.SIZE) {
+                throw new IOException("不支持的牌局记录格式: " + paths.get(i));
+            }
+            updated[ready++] = segment;
+        }
+        if (ready < updated.length) {
+            MappedByteBuffer[] trimmed = new MappedByteBuffer[ready];
+            System.arraycopy(updated, 0, trimmed, 0, ready);
+            updated = trimmed;
+        }
+        segments = updated;
+    }
+
+    /**
+     * @return 已映射的段数
+     */
+    public int getSegmentCount() {
+        return segments.length;
+    }
+
+    /**
+     * @param segment 段序号
+     * @return 该段当前已提交的记录数
+     */
+    public int getRecordCount(int segment) {
+        return (int) (long) HandHistoryWriter.LONG_VIEW.getAcquire(segments[segment], HandHistoryWriter.COUNT_OFFSET);
+    }
+
+    /**
+     * @return 所有段当前已提交的记录总数
+     */
+    public long getRecordCount() {
+        MappedByteBuffer[] current = segments;
+        long total = 0;
+        for (int i = 0; i < current.length; i++) {
+            total += getRecordCount(i);
+        }
+        return total;
+    }
+
+    /**
+     * @param segment 段序号
+     * @return 该段第一条记录的牌局编号
+     */
+    public long getFirstRoundId(int segment) {
+        return segments[segment].getLong(HandHistoryWriter.FIRST_ROUND_OFFSET);
+    }
+
+    /**
+     * 读取一条记录
+     *
+     * @param segment 段序号
+     * @param index   段内的记录序号，必须小于getRecordCount(segment)
+     * @return 牌局记录
+     */
+    public HandRecord read(int segment, int index) {
+        if (index < 0 || index >= getRecordCount(segment)) {
+            throw new IndexOutOfBoundsException("记录序号超出范围: " + index);
+        }
+        return HandRecord.read(segments[segment], recordOffset(index));
+    }
+
+    /**
+     * 按牌局编号读取一条记录
+     *
+     * @param roundId 牌局编号
+     * @return 牌局记录；该局尚未写入时返回null
+     */
+    public HandRecord read(long roundId) {
+        MappedByteBuffer[] current = segments;
+        // 各段的起始编号递增，二分查找所在的段
+        int lo = 0;
+        int hi = current.length - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            if (getFirstRoundId(mid) <= roundId) {
+                lo = mid + 1;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        if (hi < 0) {
+            return null;
+        }
+        long index = roundId - getFirstRoundId(hi);
+        return index < getRecordCount(hi) ? HandRecord.read(current[hi], recordOffset((int) index)) : null;
+    }
+
+    /**
+     * 依次处理一段中当前已提交的所有记录
+     *
+     * @param segment 段序号
+     * @param action  对每条记录执行的操作
+     */
+    public void forEach(int segment, Consumer<HandRecord> action) {
+        MappedByteBuffer buffer = segments[segment];
+        int count = getRecordCount(segment);
+        for (int i = 0; i < count; i++) {
+            action.accept(HandRecord.read(buffer, recordOffset(i)));
+        }
+    }
+
+    /**
+     * 按牌局编号顺序处理当前已提交的所有记录
+     *
+     * @param action 对每条记录执行的操作
+     */
+    public void forEach(Consumer<HandRecord> action) {
+        int n = segments.length;
+        for (int i = 0; i < n; i++) {
+            forEach(i, action);
+        }
+    }
+
+    /**
+     * 获取一段的只读映射，供需要直接按HandRecord的字段偏移读取的分析程序使用
+     *
+     * @param segment 段序号
+     * @return 该段的映射（调用者应使用绝对位置读取，不要修改其位置）
+     */
+    MappedByteBuffer getSegmentBuffer(int segment) {
+        return segments[segment];
+    }
+
+    /**
+     * @param index 段内的记录序号
+     * @return 该记录在段文件中的起始位置
+     */
+    static int recordOffset(int index) {
+        return HandHistoryWriter.HEADER_SIZE + index * HandRecord.SIZE;
+    }
+}
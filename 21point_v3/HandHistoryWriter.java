@@ -0,0 +1,245 @@
+/**
+ * 牌局记录写入器
+ * 作为游戏监听器，在每局结束时把该局追加到内存映射的牌局记录文件中（记录格式见HandRecord）
+ *
+ * 记录按段存放在一个目录中，每段是一个固定容量的文件 hands-000000.seg、hands-000001.seg……
+ * 写满后自动开始下一段。段文件的格式（大端序）：
+ * <pre>
+ * 偏移  长度  内容
+ *  0     4   魔数 "BJHH"
+ *  4     4   版本号
+ *  8     8   已提交的记录数
+ * 16     4   每条记录的字节数
+ * 20     4   本段的容量（记录数）
+ * 24     8   本段第一条记录的牌局编号
+ * 32    32   保留
+ * 64         记录区，第i条记录位于 64 + i * HandRecord.SIZE
+ * </pre>
+ *
+ * 性能设计：
+ * - 整段文件一次映射到内存，追加一条记录只是几次内存写入，不经过系统调用，不影响游戏速度
+ * - 记录写完后才以release语义更新段头中的记录数，读取方以acquire语义读取记录数，
+ *   因此分析程序可以在游戏仍在写入时并发读取（见HandHistoryReader），永远不会读到写了一半的记录
+ * - 数据由操作系统在后台写回磁盘；换段和关闭时调用force()确保落盘
+ *
+ * 同一个写入器可以注册到多个游戏（例如模拟器的多个工作线程），追加操作是同步的
+ */
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+public class HandHistoryWriter implements GameListener, Closeable {
+    static final int MAGIC = 0x424A4848;
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 64;
+    static final int COUNT_OFFSET = 8;
+    static final int RECORD_SIZE_OFFSET = 16;
+    static final int CAPACITY_OFFSET = 20;
+    static final int FIRST_ROUND_OFFSET = 24;
+
+    /**
+     * 以release/acquire语义读写段头中的魔数和记录数
+     */
+    static final VarHandle INT_VIEW = MethodHandles.byteBufferViewVarHandle(int[].class, ByteOrder.BIG_ENDIAN);
+    static final VarHandle LONG_VIEW = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.BIG_ENDIAN);
+
+    /**
+     * 默认每段的容量：约一百万局，每段64MB
+     */
+    public static final int DEFAULT_SEGMENT_CAPACITY = 1 << 20;
+
+    private final Path directory;
+    private final int segmentCapacity;
+
+    private int segmentIndex;
+    private MappedByteBuffer segment;
+    private int capacity;
+    private int count;
+    private long firstRoundId;
+    private boolean closed;
+
+    /**
+     * 打开牌局记录目录，使用默认的段容量
+     *
+     * @param directory 记录目录，不存在时自动创建；已有记录时接着最后一段继续追加
+     * @throws IOException 如果无法创建或打开段文件
+     */
+    public HandHistoryWriter(Path directory) throws IOException {
+        this(directory, DEFAULT_SEGMENT_CAPACITY);
+    }
+
+    /**
+     * 打开牌局记录目录
+     *
+     * @param directory       记录目录，不存在时自动创建；已有记录时接着最后一段继续追加
+     * @param segmentCapacity 新建段的容量（记录数）
+     * @throws IOException 如果无法创建或打开段文件
+     */
+    public HandHistoryWriter(Path directory, int segmentCapacity) throws IOException {
+        if (segmentCapacity < 1 || segmentCapacity > (Integer.MAX_VALUE - HEADER_SIZE) / HandRecord.SIZE) {
+            throw new IllegalArgumentException("段容量超出范围: " + segmentCapacity);
+        }
+        this.directory = directory;
+        this.segmentCapacity = segmentCapacity;
+        Files.createDirectories(directory);
+
+        List<Path> existing = listSegments(directory);
+        if (existing.isEmpty()) {
+            createSegment(0, 0);
+        } else {
+            segmentIndex = existing.size() - 1;
+            try (FileChannel channel = FileChannel.open(existing.get(segmentIndex),
+                    StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                segment = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+            }
+            if (segment.capacity() < HEADER_SIZE || segment.getInt(0) != MAGIC
+                    || segment.getInt(RECORD_SIZE_OFFSET) != HandRecord.SIZE) {
+                throw new IOException("不是有效的牌局记录文件: " + existing.get(segmentIndex));
+            }
+            capacity = segment.getInt(CAPACITY_OFFSET);
+            firstRoundId = segment.getLong(FIRST_ROUND_OFFSET);
+            count = (int) (long) LONG_VIEW.getAcquire(segment, COUNT_OFFSET);
+        }
+    }
+
+    /**
+     * 一局结束时追加该局的记录
+     */
+    @Override
+    public synchronized void roundFinished(BlackjackGame game, BlackjackGame.GameState result) {
+        if (closed) {
+            return;
+        }
+        try {
+            ensureCapacity();
+        } catch (IOException e) {
+            throw new UncheckedIOException("无法创建新的牌局记录段", e);
+        }
+
+        // 开局位置 = 结束时的发牌位置 - 本局发出的牌数；本局中途重新洗过牌时结果为负，记为未知
+        int dealt = game.getHuman().hand.size() + game.getComputer().hand.size();
+        int startPosition = game.isDeckFromSeed() ? game.getDeckPosition() - dealt : -1;
+        HandRecord.write(segment, HEADER_SIZE + count * HandRecord.SIZE, firstRoundId + count,
+                System.currentTimeMillis(), game.getShuffleSeed(), Math.max(-1, startPosition), game);
+        count++;
+        LONG_VIEW.setRelease(segment, COUNT_OFFSET, (long) count);
+    }
+
+    /**
+     * 批量追加已按HandRecord格式编码的记录，供导入程序使用
+     * 记录中的牌局编号字段会被替换为连续分配的编号，写满的段自动换段
+     *
+     * @param records 从position到limit的若干条完整记录，返回时position等于limit
+     * @throws IOException 如果无法创建新的段
+     */
+    synchronized void append(ByteBuffer records) throws IOException {
+        if (closed) {
+            throw new IllegalStateException("牌局记录已关闭");
+        }
+        if (records.remaining() % HandRecord.SIZE != 0) {
+            throw new IllegalArgumentException("记录不完整: " + records.remaining() + "字节");
+        }
+        while (records.hasRemaining()) {
+            ensureCapacity();
+            int n = Math.min(capacity - count, records.remaining() / HandRecord.SIZE);
+            int offset = HEADER_SIZE + count * HandRecord.SIZE;
+            segment.put(offset, records, records.position(), n * HandRecord.SIZE);
+            for (int i = 0; i < n; i++) {
+                segment.putLong(offset + i * HandRecord.SIZE + HandRecord.ROUND_ID, firstRoundId + count + i);
+            }
+            records.position(records.position() + n * HandRecord.SIZE);
+            count += n;
+            LONG_VIEW.setRelease(segment, COUNT_OFFSET, (long) count);
+        }
+    }
+
+    /**
+     * @return 已写入的总局数（即下一局的牌局编号）
+     */
+    public synchronized long getRoundCount() {
+        return firstRoundId + count;
+    }
+
+    /**
+     * 把当前段中已写入的记录强制写回磁盘
+     */
+    public synchronized void flush() {
+        segment.force();
+    }
+
+    /**
+     * 把已写入的记录写回磁盘并停止记录
+     * 此后结束的牌局不再被记录，写入器可以安全地保留在游戏的监听器列表中
+     */
+    @Override
+    public synchronized void close() {
+        if (!closed) {
+            closed = true;
+            segment.force();
+        }
+    }
+
+    /**
+     * 当前段已写满时换到下一段
+     */
+    private void ensureCapacity() throws IOException {
+        if (count == capacity) {
+            segment.force();
+            createSegment(segmentIndex + 1, firstRoundId + count);
+        }
+    }
+
+    /**
+     * 创建并映射一个新的段文件
+     */
+    private void createSegment(int index, long firstRound) throws IOException {
+        try (FileChannel channel = FileChannel.open(segmentPath(directory, index), StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            segment = channel.map(FileChannel.MapMode.READ_WRITE, 0,
+                    HEADER_SIZE + (long) segmentCapacity * HandRecord.SIZE);
+        }
+        segment.putInt(RECORD_SIZE_OFFSET, HandRecord.SIZE);
+        segment.putInt(CAPACITY_OFFSET, segmentCapacity);
+        segment.putLong(FIRST_ROUND_OFFSET, firstRound);
+        segment.putInt(4, VERSION);
+        LONG_VIEW.setRelease(segment, COUNT_OFFSET, 0L);
+        // 魔数最后写入，读取方看到魔数时段头的其他字段已经就绪
+        INT_VIEW.setRelease(segment, 0, MAGIC);
+        segmentIndex = index;
+        capacity = segmentCapacity;
+        firstRoundId = firstRound;
+        count = 0;
+    }
+
+    /**
+     * @return 第index段的文件路径
+     */
+    static Path segmentPath(Path directory, int index) {
+        return directory.resolve(String.format("hands-%06d.seg", index));
+    }
+
+    /**
+     * 列出目录中从0开始连续编号的所有段文件
+     */
+    static List<Path> listSegments(Path directory) {
+        List<Path> segments = new ArrayList<>();
+        for (int i = 0;; i++) {
+            Path path = segmentPath(directory, i);
+            if (!Files.exists(path)) {
+                return segments;
+            }
+            segments.add(path);
+        }
+    }
+}
@@ -0,0 +1,180 @@
+/**
+ * 牌局记录类
+ * 表示一局已经结束的游戏：双方的手牌、最终状态、开局时的洗牌种子和发牌位置以及结束时间
+ *
+ * 每条记录在文件中占固定的SIZE字节（大端序），因此第n条记录的位置可以直接计算，
+ * 不需要任何索引：
+ * <pre>
+ * 偏移  长度  内容
+ *  0     8   牌局编号（从0开始连续递增）
+ *  8     8   结束时间（毫秒时间戳）
+ * 16     8   开局时的洗牌种子
+ * 24     2   开局时的发牌位置，本局中途重新洗过牌时为-1
+ * 26     1   最终状态（GameState序号）
+ * 27     1   牌的副数
+ * 28     1   人类手牌张数
+ * 29     1   电脑手牌张数
+ * 30    17   人类手牌（牌的编码）
+ * 47    17   电脑手牌（牌的编码）
+ * </pre>
+ *
+ * 一手牌最多保存MAX_CARDS张，张数字段始终是实际张数；
+ * 超过17张的手牌（只可能出现在多副牌中连续拿到大量A和小牌时）只保存前17张
+ */
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+public final class HandRecord {
+    /**
+     * 每条记录的字节数
+     */
+    public static final int SIZE = 64;
+
+    /**
+     * 每手牌最多保存的张数
+     */
+    public static final int MAX_CARDS = 17;
+
+    static final int ROUND_ID = 0;
+    static final int TIMESTAMP = 8;
+    static final int SHUFFLE_SEED = 16;
+    static final int START_POSITION = 24;
+    static final int RESULT = 26;
+    static final int DECK_COUNT = 27;
+    static final int HUMAN_COUNT = 28;
+    static final int COMPUTER_COUNT = 29;
+    static final int HUMAN_CARDS = 30;
+    static final int COMPUTER_CARDS = HUMAN_CARDS + MAX_CARDS;
+
+    private final long roundId;
+    private final long timestamp;
+    private final long shuffleSeed;
+    private final int startPosition;
+    private final BlackjackGame.GameState result;
+    private final int deckCount;
+    private final List<Card> humanHand;
+    private final List<Card> computerHand;
+
+    /**
+     * @param roundId       牌局编号
+     * @param timestamp     结束时间（毫秒时间戳）
+     * @param shuffleSeed   开局时的洗牌种子
+     * @param startPosition 开局时的发牌位置，未知时为-1
+     * @param result        最终状态
+     * @param deckCount     牌的副数
+     * @param humanHand     人类手牌
+     * @param computerHand  电脑手牌
+     */
+    public HandRecord(long roundId, long timestamp, long shuffleSeed, int startPosition,
+            BlackjackGame.GameState result, int deckCount, List<Card> humanHand, List<Card> computerHand) {
+        this.roundId = roundId;
+        this.timestamp = timestamp;
+        this.shuffleSeed = shuffleSeed;
+        this.startPosition = startPosition;
+        this.result = result;
+        this.deckCount = deckCount;
+        this.humanHand = Collections.unmodifiableList(new ArrayList<>(humanHand));
+        this.computerHand = Collections.unmodifiableList(new ArrayList<>(computerHand));
+    }
+
+    /**
+     * 把一局刚结束的游戏直接写入缓冲区的指定位置，不创建中间对象
+     *
+     * @param out           目标缓冲区，使用绝对位置写入，不改变缓冲区的位置
+     * @param offset        记录的起始位置
+     * @param roundId       牌局编号
+     * @param timestamp     结束时间（毫秒时间戳）
+     * @param shuffleSeed   开局时的洗牌种子
+     * @param startPosition 开局时的发牌位置，未知时为-1
+     * @param game          已结束的游戏
+     */
+    static void write(ByteBuffer out, int offset, long roundId, long timestamp, long shuffleSeed,
+            int startPosition, BlackjackGame game) {
+        out.putLong(offset + ROUND_ID, roundId);
+        out.putLong(offset + TIMESTAMP, timestamp);
+        out.putLong(offset + SHUFFLE_SEED, shuffleSeed);
+        out.putShort(offset + START_POSITION, (short) startPosition);
+        out.put(offset + RESULT, (byte) game.getState().ordinal());
+        out.put(offset + DECK_COUNT, (byte) game.getDeckCount());
+        putCards(out, offset + HUMAN_COUNT, offset + HUMAN_CARDS, game.getHuman().hand);
+        putCards(out, offset + COMPUTER_COUNT, offset + COMPUTER_CARDS, game.getComputer().hand);
+    }
+
+    /**
+     * 从缓冲区的指定位置读取一条记录
+     *
+     * @param in     源缓冲区，使用绝对位置读取，多个线程可以同时读取同一个缓冲区
+     * @param offset 记录的起始位置
+     * @return 牌局记录
+     */
+    public static HandRecord read(ByteBuffer in, int offset) {
+        return new HandRecord(in.getLong(offset + ROUND_ID), in.getLong(offset + TIMESTAMP),
+                in.getLong(offset + SHUFFLE_SEED), in.getShort(offset + START_POSITION),
+                BlackjackGame.GameState.values()[in.get(offset + RESULT)], in.get(offset + DECK_COUNT),
+                getCards(in, in.get(offset + HUMAN_COUNT), offset + HUMAN_CARDS),
+                getCards(in, in.get(offset + COMPUTER_COUNT), offset + COMPUTER_CARDS));
+    }
+
+    private static void putCards(ByteBuffer out, int countOffset, int cardsOffset, List<Card> cards) {
+        out.put(countOffset, (byte) cards.size());
+        int n = Math.min(cards.size(), MAX_CARDS);
+        for (int i = 0; i < n; i++) {
+            out.put(cardsOffset + i, (byte) cards.get(i).getCode());
+        }
+        for (int i = n; i < MAX_CARDS; i++) {
+            out.put(cardsOffset + i, (byte) 0);
+        }
+    }
+
+    private static List<Card> getCards(ByteBuffer in, int count, int cardsOffset) {
+        int n = Math.min(count, MAX_CARDS);
+        List<Card> cards = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            cards.add(Card.fromCode(in.get(cardsOffset + i)));
+        }
+        return cards;
+    }
+
+    public long getRoundId() {
+        return roundId;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public long getShuffleSeed() {
+        return shuffleSeed;
+    }
+
+    /**
+     * @return 开局时的发牌位置，本局中途重新洗过牌时为-1
+     */
+    public int getStartPosition() {
+        return startPosition;
+    }
+
+    public BlackjackGame.GameState getResult() {
+        return result;
+    }
+
+    public int getDeckCount() {
+        return deckCount;
+    }
+
+    /**
+     * @return 人类手牌的只读列表（超过MAX_CARDS张时只有前MAX_CARDS张）
+     */
+    public List<Card> getHumanHand() {
+        return humanHand;
+    }
+
+    /**
+     * @return 电脑手牌的只读列表（超过MAX_CARDS张时只有前MAX_CARDS张）
+     */
+    public List<Card> getComputerHand() {
+        return computerHand;
+    }
+}
@@ -2,12 +2,85 @@
  * 人类玩家类
  * 继承自Player基类，表示21点游戏中由人类控制的玩家
  * 
- * 当前实现中，人类玩家没有特殊的属性或方法，主要通过游戏引擎（BlackjackGame类）提供的接口
- * 与用户交互，如要牌（hit）、停牌（stand）等操作
+ * 人类玩家主要通过游戏引擎（BlackjackGame类）提供的接口与用户交互，如要牌（hit）、停牌（stand）等操作
  * 
- * 此类可以根据需要扩展，例如添加玩家名称、游戏统计数据、下注金额等功能
+ * 每位玩家有一个标识，用于在ProfileStore中查找该玩家的余额和胜负统计
  */
 public class HumanPlayer extends Player {
-    // 人类玩家特有的属性或方法可以在这里添加
-    // 目前版本中，人类玩家主要通过游戏引擎的接口进行操作
+    /**
+     * 未指定标识时使用的默认玩家标识
+     */
+    public static final String DEFAULT_ID = "player";
+
+    /**
+     * 玩家标识
+     */
+    private String id;
+
+    /**
+     * 该玩家的行为模型
+     * 由游戏引擎在玩家每次要牌或停牌时更新，供电脑的自适应策略使用
+     */
+    private OpponentModel actionModel = new OpponentModel();
+
+    /**
+     * 创建使用默认标识的人类玩家
+     */
+    public HumanPlayer() {
+        this(DEFAULT_ID);
+    }
+
+    /**
+     * 创建人类玩家
+     * 
+     * @param id 玩家标识
+     */
+    public HumanPlayer(String id) {
+        this.id = checkId(id);
+    }
+
+    /**
+     * 获取玩家标识
+     * 从旧版本存档反序列化的玩家没有标识，此时返回默认标识
+     * 
+     * @return 玩家标识
+     */
+    public String getId() {
+        return id != null ? id : DEFAULT_ID;
+    }
+
+    /**
+     * 设置玩家标识
+     * 
+     * @param id 玩家标识，不能为空
+     */
+    public void setId(String id) {
+        this.id = checkId(id);
+    }
+
+    private static String checkId(String id) {
+        if (id == null || id.isEmpty()) {
+            throw new IllegalArgumentException("玩家标识不能为空");
+        }
+        return id;
+    }
+
+    /**
+     * 获取该玩家的行为模型
+     * 
+     * @return 行为模型
+     */
+    public OpponentModel getActionModel() {
+        return actionModel;
+    }
+
+    /**
+     * 设置该玩家的行为模型
+     * 通常用于加载之前保存的模型，使学习结果在多次游戏之间延续
+     * 
+     * @param actionModel 行为模型
+     */
+    public void setActionModel(OpponentModel actionModel) {
+        this.actionModel = actionModel;
+    }
 }
\ No newline at end of file
@@ -0,0 +1,707 @@
+/**
+ * 排行榜
+ * 按获胜局数、净盈利或胜率为每位玩家的战绩（PlayerProfile）排名
+ *
+ * 战绩的来源：
+ * - 由open(Path, ProfileStore)打开时，战绩以玩家档案库为准：打开时按档案库校正检查点，
+ *   之后通过提交监听器接收档案库已经落盘的档案，两者不会不一致；这时排行榜不是游戏监听器，不应注册到游戏
+ * - 由open(Path)打开时，排行榜独立统计，作为游戏监听器按人类玩家的标识计入每局结果
+ *
+ * 性能设计：
+ * - 每种排名方式各维护一棵按名次排序的树堆（treap），每个节点记录子树的大小，
+ *   一局结束时只需在每棵树中删除并重新插入该玩家（排序键不变时直接替换节点中的战绩），期望O(log n)
+ * - 查询某位玩家的名次、前K名都只需从根向下走一条路径，分别为O(log n)和O(log n + K)，
+ *   即使有数百万名玩家也不需要排序
+ * - 节点中直接保存排序用的整数键，指标相同时按玩家加入排行榜的先后排列，
+ *   比较时不需要访问战绩对象和玩家标识字符串，沿路径向下只触及节点本身
+ * - 统计数据定期以检查点的形式保存（临时文件 + fsync + 原子替换），重启时直接读取检查点，
+ *   不需要从牌局记录重新统计；检查点在后台线程中写入，不阻塞游戏线程
+ *
+ * 独立统计时，程序崩溃后最多丢失最近一个检查点周期内的对局；以档案库为准时，检查点只用于保留
+ * 指标相同的玩家的先后，崩溃后丢失的对局在打开时由档案库补上。正常关闭时写入最后的检查点
+ *
+ * 检查点格式：魔数"BJLB"、版本号、玩家数，随后按加入排行榜的先后是编码后的各玩家战绩，
+ * 最后是之前所有字节的CRC32
+ *
+ * 所有方法都是同步的，同一个排行榜可以注册到多个游戏
+ */
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+public class Leaderboard implements GameListener, Closeable {
+    private static final int MAGIC = 0x424A4C42;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 12;
+
+    /**
+     * 默认每隔多少局写一次检查点
+     */
+    public static final int DEFAULT_CHECKPOINT_INTERVAL = 1000;
+
+    /**
+     * 排名方式，指标相同时先加入排行榜的玩家在前
+     */
+    public enum Ranking {
+        /**
+         * 按获胜局数从多到少
+         */
+        WINS,
+
+        /**
+         * 按净盈利（余额减去初始余额）从多到少，所有玩家的初始余额相同，因此按余额排序
+         */
+        NET_BANKROLL,
+
+        /**
+         * 按胜率从高到低，胜率相同时局数多的在前，还没有对局的玩家排在最后
+         */
+        WIN_RATE
+    }
+
+    /**
+     * 排行榜中的一位玩家：战绩和加入排行榜的序号
+     */
+    private static final class Entry {
+        final PlayerProfile profile;
+        final int ordinal;
+
+        Entry(PlayerProfile profile, int ordinal) {
+            this.profile = profile;
+            this.ordinal = ordinal;
+        }
+    }
+
+    private final Path path;
+    private final int checkpointInterval;
+    private final Map<String, Entry> entries = new HashMap<>();
+    private final Map<Ranking, Treap> indexes = new EnumMap<>(Ranking.class);
+    private final ExecutorService writer;
+    private long stake = ProfileStore.DEFAULT_STAKE;
+    private int nextOrdinal;
+    private int roundsSinceCheckpoint;
+
+    /**
+     * 检查点的编号：每次复制战绩时加一，由this保护；已写入的最新编号，由ioLock保护
+     * 后台写入和checkpoint()可能交错，较旧的复制不会覆盖已经写入的较新检查点
+     */
+    private long generation;
+    private long writtenGeneration;
+    private final Object ioLock = new Object();
+    private volatile IOException failure;
+    private boolean closed;
+
+    /**
+     * 战绩所依据的玩家档案库，独立统计时为null
+     */
+    private ProfileStore source;
+    private final Consumer<PlayerProfile> commitListener = this::committed;
+
+    private Leaderboard(Path path, int checkpointInterval) {
+        this.path = path;
+        this.checkpointInterval = checkpointInterval;
+        for (Ranking ranking : Ranking.values()) {
+            indexes.put(ranking, new Treap(ranking));
+        }
+        this.writer = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "leaderboard");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * 打开排行榜，使用默认的检查点周期
+     *
+     * @param path 检查点文件路径，不存在时创建空的排行榜
+     * @return 排行榜
+     * @throws IOException 如果检查点无法读取或已损坏
+     */
+    public static Leaderboard open(Path path) throws IOException {
+        return open(path, DEFAULT_CHECKPOINT_INTERVAL);
+    }
+
+    /**
+     * 打开排行榜
+     *
+     * @param path               检查点文件路径，不存在时创建空的排行榜
+     * @param checkpointInterval 每隔多少局写一次检查点
+     * @return 排行榜
+     * @throws IOException 如果检查点无法读取或已损坏
+     */
+    public static Leaderboard open(Path path, int checkpointInterval) throws IOException {
+        if (checkpointInterval < 1) {
+            throw new IllegalArgumentException("检查点周期必须为正数: " + checkpointInterval);
+        }
+        Leaderboard leaderboard = new Leaderboard(path, checkpointInterval);
+        if (Files.exists(path)) {
+            ByteBuffer in = ByteBuffer.wrap(Files.readAllBytes(path));
+            if (in.remaining() < HEADER_SIZE + 4 || in.getInt() != MAGIC || in.getInt() != VERSION) {
+                throw new IOException("不是有效的排行榜检查点: " + path);
+            }
+            CRC32 checksum = new CRC32();
+            checksum.update(in.array(), 0, in.limit() - 4);
+            if ((int) checksum.getValue() != in.getInt(in.limit() - 4)) {
+                throw new IOException("排行榜检查点已损坏: " + path);
+            }
+            int count = in.getInt();
+            in.limit(in.limit() - 4);
+            // 按检查点中的顺序加入，指标相同的玩家保持原来的先后
+            for (int i = 0; i < count; i++) {
+                leaderboard.put(PlayerProfile.decode(in));
+            }
+        }
+        return leaderboard;
+    }
+
+    /**
+     * 打开以玩家档案库为准的排行榜，使用默认的检查点周期
+     *
+     * @param path  检查点文件路径，不存在时从档案库建立排行榜
+     * @param store 玩家档案库，应在排行榜关闭之后再关闭
+     * @return 排行榜
+     * @throws IOException 如果检查点无法读取或已损坏
+     */
+    public static Leaderboard open(Path path, ProfileStore store) throws IOException {
+        return open(path, store, DEFAULT_CHECKPOINT_INTERVAL);
+    }
+
+    /**
+     * 打开以玩家档案库为准的排行榜
+     * 检查点中的战绩按档案库的当前档案校正，档案库中没有的玩家被移除，
+     * 之后只由档案库提交的档案更新
+     *
+     * @param path               检查点文件路径，不存在时从档案库建立排行榜
+     * @param store              玩家档案库，应在排行榜关闭之后再关闭
+     * @param checkpointInterval 每收到多少个提交的档案写一次检查点
+     * @return 排行榜
+     * @throws IOException 如果检查点无法读取或已损坏
+     */
+    public static Leaderboard open(Path path, ProfileStore store, int checkpointInterval) throws IOException {
+        Leaderboard leaderboard = open(path, checkpointInterval);
+        synchronized (leaderboard) {
+            leaderboard.source = store;
+        }
+        // 先注册再读取档案，两者之间提交的档案不会遗漏
+        store.addCommitListener(leaderboard.commitListener);
+        leaderboard.reconcile(store.list());
+        return leaderboard;
+    }
+
+    /**
+     * 独立统计时，一局结束时按人类玩家的标识计入本局结果；以档案库为准或者是撤销之后重新打完的局时不做任何处理
+     */
+    @Override
+    public void roundFinished(BlackjackGame game, BlackjackGame.GameState result) {
+        synchronized (this) {
+            if (source != null || game.isReplayedRound()) {
+                return;
+            }
+        }
+        record(game.getHuman().getId(), result);
+    }
+
+    /**
+     * 设置每局的赌注，用于计算净盈利
+     *
+     * @param stake 每局的赌注
+     */
+    public synchronized void setStake(long stake) {
+        this.stake = stake;
+    }
+
+    /**
+     * 以当前赌注计入一局的结果，没有该玩家时先加入排行榜
+     *
+     * @param id     玩家标识
+     * @param result 本局的最终状态
+     * @throws IllegalStateException 如果排行榜以玩家档案库为准
+     */
+    public synchronized void record(String id, BlackjackGame.GameState result) {
+        if (source != null) {
+            throw new IllegalStateException("排行榜以玩家档案库为准，对局应计入档案库");
+        }
+        if (closed) {
+            return;
+        }
+        Entry old = entries.get(id);
+        put((old != null ? old.profile : PlayerProfile.newProfile(id)).withResult(result, stake));
+        if (++roundsSinceCheckpoint >= checkpointInterval) {
+            scheduleCheckpoint();
+        }
+    }
+
+    /**
+     * 加入或替换一位玩家的战绩，例如从ProfileStore导入
+     *
+     * @param profile 玩家战绩
+     */
+    public synchronized void put(PlayerProfile profile) {
+        Entry old = entries.get(profile.getId());
+        Entry entry = new Entry(profile, old != null ? old.ordinal : nextOrdinal++);
+        entries.put(profile.getId(), entry);
+        for (Treap index : indexes.values()) {
+            if (old == null) {
+                index.insert(entry);
+            } else if (!index.replace(old, entry)) {
+                index.remove(old);
+                index.insert(entry);
+            }
+        }
+    }
+
+    /**
+     * 接收档案库已经落盘的档案，在档案库的写盘线程中调用
+     */
+    private synchronized void committed(PlayerProfile profile) {
+        if (closed) {
+            return;
+        }
+        put(profile);
+        if (++roundsSinceCheckpoint >= checkpointInterval) {
+            scheduleCheckpoint();
+        }
+    }
+
+    /**
+     * 以档案库的当前档案校正排行榜：更新或加入每个档案，移除档案库中没有的玩家
+     */
+    private synchronized void reconcile(List<PlayerProfile> current) {
+        Set<String> ids = new HashSet<>();
+        for (PlayerProfile profile : current) {
+            ids.add(profile.getId());
+            put(profile);
+        }
+        for (Entry entry : entries.values().toArray(new Entry[0])) {
+            if (!ids.contains(entry.profile.getId())) {
+                entries.remove(entry.profile.getId());
+                for (Treap index : indexes.values()) {
+                    index.remove(entry);
+                }
+            }
+        }
+    }
+
+    /**
+     * @param id 玩家标识
+     * @return 该玩家的战绩，没有该玩家时返回null
+     */
+    public synchronized PlayerProfile get(String id) {
+        Entry entry = entries.get(id);
+        return entry == null ? null : entry.profile;
+    }
+
+    /**
+     * @return 排行榜中的玩家数
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * 查询玩家的名次
+     *
+     * @param ranking 排名方式
+     * @param id      玩家标识
+     * @return 从1开始的名次，没有该玩家时返回-1
+     */
+    public synchronized int rank(Ranking ranking, String id) {
+        Entry entry = entries.get(id);
+        return entry == null ? -1 : indexes.get(ranking).rank(entry) + 1;
+    }
+
+    /**
+     * 获取指定名次的玩家
+     *
+     * @param ranking 排名方式
+     * @param rank    从1开始的名次
+     * @return 该名次的玩家战绩
+     */
+    public synchronized PlayerProfile getByRank(Ranking ranking, int rank) {
+        if (rank < 1 || rank > entries.size()) {
+            throw new IndexOutOfBoundsException("名次超出范围: " + rank);
+        }
+        return indexes.get(ranking).select(rank - 1);
+    }
+
+    /**
+     * 获取前K名玩家
+     *
+     * @param ranking 排名方式
+     * @param k       最多返回的玩家数
+     * @return 按名次排列的玩家战绩
+     */
+    public synchronized List<PlayerProfile> top(Ranking ranking, int k) {
+        List<PlayerProfile> result = new ArrayList<>(Math.min(k, entries.size()));
+        indexes.get(ranking).collect(k, result);
+        return result;
+    }
+
+    /**
+     * 立即写入检查点并等待写盘完成
+     *
+     * @throws IOException 如果写盘失败
+     */
+    public void checkpoint() throws IOException {
+        Entry[] snapshot;
+        long current;
+        synchronized (this) {
+            snapshot = entries.values().toArray(new Entry[0]);
+            roundsSinceCheckpoint = 0;
+            current = ++generation;
+        }
+        write(snapshot, current);
+    }
+
+    /**
+     * 写入最后的检查点并停止统计
+     * 此后结束的牌局不再被计入，排行榜可以安全地保留在游戏的监听器列表中
+     *
+     * @throws IOException 如果写盘失败，或之前的后台检查点写入失败
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            if (source != null) {
+                source.removeCommitListener(commitListener);
+            }
+        }
+        writer.shutdown();
+        try {
+            writer.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        checkpoint();
+        IOException e = failure;
+        if (e != null) {
+            throw e;
+        }
+    }
+
+    /**
+     * 在调用线程中复制当前战绩，在后台线程中写入检查点
+     */
+    private void scheduleCheckpoint() {
+        Entry[] snapshot = entries.values().toArray(new Entry[0]);
+        roundsSinceCheckpoint = 0;
+        long current = ++generation;
+        writer.execute(() -> {
+            try {
+                write(snapshot, current);
+            } catch (IOException e) {
+                failure = e;
+            }
+        });
+    }
+
+    /**
+     * 按加入排行榜的先后写入临时文件并fsync，再原子地替换检查点文件
+     */
+    private void write(Entry[] snapshot, long snapshotGeneration) throws IOException {
+        synchronized (ioLock) {
+            if (snapshotGeneration <= writtenGeneration) {
+                return;
+            }
+            Arrays.sort(snapshot, Comparator.comparingInt(entry -> entry.ordinal));
+            Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+            CRC32 checksum = new CRC32();
+            try (FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+                buffer.putInt(MAGIC).putInt(VERSION).putInt(snapshot.length);
+                for (Entry entry : snapshot) {
+                    if (buffer.remaining() < entry.profile.encodedSize()) {
+                        drain(buffer, out, checksum);
+                    }
+                    entry.profile.encode(buffer);
+                }
+                drain(buffer, out, checksum);
+                buffer.putInt((int) checksum.getValue());
+                buffer.flip();
+                while (buffer.hasRemaining()) {
+                    out.write(buffer);
+                }
+                out.force(true);
+            }
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            writtenGeneration = snapshotGeneration;
+        }
+    }
+
+    /**
+     * 把缓冲区中的数据计入校验和并写入文件，然后清空缓冲区
+     */
+    private static void drain(ByteBuffer buffer, FileChannel out, CRC32 checksum) throws IOException {
+        checksum.update(buffer.array(), 0, buffer.position());
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * 按名次排序的树堆
+     * 节点按名次排成二叉搜索树，同时按随机优先级满足堆性质，期望深度为O(log n)；
+     * 每个节点记录子树大小，用于按名次查找和计算名次
+     */
+    private static final class Treap {
+        private static final class Node {
+            PlayerProfile profile;
+            final long primary;
+            final int secondary;
+            final int ordinal;
+            final int priority;
+            int size = 1;
+            Node left;
+            Node right;
+
+            Node(PlayerProfile profile, long primary, int secondary, int ordinal, int priority) {
+                this.profile = profile;
+                this.primary = primary;
+                this.secondary = secondary;
+                this.ordinal = ordinal;
+                this.priority = priority;
+            }
+        }
+
+        private final Ranking ranking;
+        private final Random random = new Random();
+        private Node root;
+
+        Treap(Ranking ranking) {
+            this.ranking = ranking;
+        }
+
+        void insert(Entry entry) {
+            root = insert(root, new Node(entry.profile, primary(entry.profile), secondary(entry.profile),
+                    entry.ordinal, random.nextInt()));
+        }
+
+        /**
+         * 排序键没有变化时（例如输掉一局时的获胜局数）直接替换节点中的战绩
+         *
+         * @return false表示排序键已经变化，需要删除后重新插入
+         */
+        boolean replace(Entry old, Entry updated) {
+            long primary = primary(old.profile);
+            int secondary = secondary(old.profile);
+            if (primary != primary(updated.profile) || secondary != secondary(updated.profile)) {
+                return false;
+            }
+            Node node = root;
+            while (true) {
+                int c = compare(primary, secondary, old.ordinal, node);
+                if (c == 0) {
+                    node.profile = updated.profile;
+                    return true;
+                }
+                node = c < 0 ? node.left : node.right;
+            }
+        }
+
+        void remove(Entry entry) {
+            root = remove(root, primary(entry.profile), secondary(entry.profile), entry.ordinal);
+        }
+
+        /**
+         * @return 排在entry之前的节点数
+         */
+        int rank(Entry entry) {
+            long primary = primary(entry.profile);
+            int secondary = secondary(entry.profile);
+            int rank = 0;
+            Node node = root;
+            while (node != null) {
+                int c = compare(primary, secondary, entry.ordinal, node);
+                if (c == 0) {
+                    return rank + size(node.left);
+                }
+                if (c < 0) {
+                    node = node.left;
+                } else {
+                    rank += size(node.left) + 1;
+                    node = node.right;
+                }
+            }
+            return rank;
+        }
+
+        /**
+         * @return 从0开始第index个节点的战绩
+         */
+        PlayerProfile select(int index) {
+            Node node = root;
+            while (true) {
+                int leftSize = size(node.left);
+                if (index < leftSize) {
+                    node = node.left;
+                } else if (index == leftSize) {
+                    return node.profile;
+                } else {
+                    index -= leftSize + 1;
+                    node = node.right;
+                }
+            }
+        }
+
+        /**
+         * 按顺序收集前k个节点的战绩
+         */
+        void collect(int k, List<PlayerProfile> out) {
+            // 显式栈的中序遍历，到第k个节点即停止
+            List<Node> stack = new ArrayList<>();
+            Node node = root;
+            while ((node != null || !stack.isEmpty()) && out.size() < k) {
+                while (node != null) {
+                    stack.add(node);
+                    node = node.left;
+                }
+                node = stack.remove(stack.size() - 1);
+                out.add(node.profile);
+                node = node.right;
+            }
+        }
+
+        /**
+         * @return 排序的主键：获胜局数或余额
+         */
+        private long primary(PlayerProfile profile) {
+            return ranking == Ranking.NET_BANKROLL ? profile.getBalance() : profile.getWins();
+        }
+
+        /**
+         * @return 排序的次键：按胜率排名时为总局数
+         */
+        private int secondary(PlayerProfile profile) {
+            return ranking == Ranking.WIN_RATE ? profile.getRounds() : 0;
+        }
+
+        /**
+         * 比较给定的键和节点的名次先后
+         * 胜率用整数交叉相乘比较，避免浮点误差造成顺序不一致
+         *
+         * @return 负数表示给定的键排在节点之前
+         */
+        private int compare(long primary, int secondary, int ordinal, Node node) {
+            int c;
+            if (ranking == Ranking.WIN_RATE) {
+                c = Long.compare(node.primary * secondary, primary * node.secondary);
+                if (c == 0) {
+                    c = Integer.compare(node.secondary, secondary);
+                }
+            } else {
+                c = Long.compare(node.primary, primary);
+            }
+            return c != 0 ? c : Integer.compare(ordinal, node.ordinal);
+        }
+
+        private Node insert(Node node, Node added) {
+            if (node == null) {
+                return added;
+            }
+            node.size++;
+            if (compare(added.primary, added.secondary, added.ordinal, node) < 0) {
+                node.left = insert(node.left, added);
+                if (node.left.priority > node.priority) {
+                    node = rotateRight(node);
+                }
+            } else {
+                node.right = insert(node.right, added);
+                if (node.right.priority > node.priority) {
+                    node = rotateLeft(node);
+                }
+            }
+            return node;
+        }
+
+        private Node remove(Node node, long primary, int secondary, int ordinal) {
+            if (node == null) {
+                return null;
+            }
+            int c = compare(primary, secondary, ordinal, node);
+            if (c == 0) {
+                return merge(node.left, node.right);
+            }
+            if (c < 0) {
+                node.left = remove(node.left, primary, secondary, ordinal);
+            } else {
+                node.right = remove(node.right, primary, secondary, ordinal);
+            }
+            update(node);
+            return node;
+        }
+
+        /**
+         * 合并两棵树，left中的所有节点都排在right之前
+         */
+        private Node merge(Node left, Node right) {
+            if (left == null) {
+                return right;
+            }
+            if (right == null) {
+                return left;
+            }
+            if (left.priority > right.priority) {
+                left.right = merge(left.right, right);
+                update(left);
+                return left;
+            } else {
+                right.left = merge(left, right.left);
+                update(right);
+                return right;
+            }
+        }
+
+        private static Node rotateRight(Node node) {
+            Node left = node.left;
+            node.left = left.right;
+            left.right = node;
+            update(node);
+            update(left);
+            return left;
+        }
+
+        private static Node rotateLeft(Node node) {
+            Node right = node.right;
+            node.right = right.left;
+            right.left = node;
+            update(node);
+            update(right);
+            return right;
+        }
+
+        private static int size(Node node) {
+            return node == null ? 0 : node.size;
+        }
+
+        private static void update(Node node) {
+            node.size = size(node.left) + size(node.right) + 1;
+        }
+    }
+}
@@ -8,9 +8,42 @@
  * - 处理玩家的输入和决策（要牌或停牌）
  * - 显示游戏状态和结果
  */
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.Scanner;
 
 public class Main {
+    /**
+     * 保存人类玩家行为模型的目录，每名玩家一个文件，使电脑在多次游戏之间延续对该玩家的学习结果
+     */
+    private static final Path MODEL_DIR = Paths.get("opponent_models");
+
+    /**
+     * 保存牌局记录的目录
+     */
+    private static final Path HISTORY_DIR = Paths.get("hand_history");
+
+    /**
+     * 自动存档文件，可以用BlackjackGame.loadGame()加载
+     */
+    private static final String AUTOSAVE_FILE = "autosave.sav";
+
+    /**
+     * 两次自动存档之间的最小间隔（毫秒）
+     */
+    private static final long AUTOSAVE_INTERVAL = 1000;
+
+    /**
+     * 玩家档案日志，保存玩家的余额和胜负统计
+     */
+    private static final Path PROFILE_FILE = Paths.get("profiles.wal");
+
+    /**
+     * 排行榜检查点文件
+     */
+    private static final Path LEADERBOARD_FILE = Paths.get("leaderboard.bin");
+
     /**
      * 主方法，程序的入口点
      * 负责初始化游戏对象、设置用户输入处理、实现游戏的主循环
@@ -20,6 +53,48 @@ public class Main {
     public static void main(String[] args) {
         BlackjackGame game = new BlackjackGame();
         Scanner scanner = new Scanner(System.in);
+
+        // 加载之前保存的玩家行为模型
+        try {
+            game.getHuman().setActionModel(OpponentModel.load(MODEL_DIR, game.getHuman().getId()));
+        } catch (IOException e) {
+            System.out.println("无法加载玩家行为模型: " + e.getMessage());
+        }
+
+        // 记录每一局的结果
+        HandHistoryWriter history = null;
+        try {
+            history = new HandHistoryWriter(HISTORY_DIR);
+            game.addGameListener(history);
+        } catch (IOException e) {
+            System.out.println("无法打开牌局记录: " + e.getMessage());
+        }
+
+        // 玩家的余额和胜负统计
+        ProfileStore profiles = null;
+        try {
+            profiles = ProfileStore.open(PROFILE_FILE);
+            game.addGameListener(profiles);
+        } catch (IOException e) {
+            System.out.println("无法打开玩家档案: " + e.getMessage());
+        }
+
+        // 排行榜，以玩家档案库为准，不单独统计对局
+        Leaderboard leaderboard = null;
+        if (profiles != null) {
+            try {
+                leaderboard = Leaderboard.open(LEADERBOARD_FILE, profiles);
+            } catch (IOException e) {
+                System.out.println("无法打开排行榜: " + e.getMessage());
+            }
+        }
+
+        // 后台自动存档，写盘不会阻塞输入循环
+        try {
+            game.enableAutosave(AUTOSAVE_FILE, AUTOSAVE_INTERVAL);
+        } catch (IOException e) {
+            System.out.println("无法开启自动存档: " + e.getMessage());
+        }
         
         System.out.println("===== 欢迎来到21点游戏 =====");
         
@@ -122,6 +197,20 @@ public class Main {
             
             // 游戏结束后，显示最终结果
             printGameResult(game);
+            if (profiles != null) {
+                System.out.println("你的档案: " + profiles.get(game.getHuman().getId()));
+            }
+            if (leaderboard != null) {
+                try {
+                    // 排行榜在本局落盘之后才更新
+                    profiles.sync();
+                } catch (IOException e) {
+                    System.out.println("无法保存玩家档案: " + e.getMessage());
+                }
+                System.out.println("排行榜名次（按获胜局数）: "
+                        + leaderboard.rank(Leaderboard.Ranking.WINS, game.getHuman().getId())
+                        + " / " + leaderboard.size());
+            }
             
             // 询问玩家是否想再玩一次
             System.out.print("再玩一次？(1)是 (0)否 > ");
@@ -132,6 +221,35 @@ public class Main {
             }
         }
         
+        // 保存玩家行为模型，供下次游戏使用
+        try {
+            game.getHuman().getActionModel().save(MODEL_DIR, game.getHuman().getId());
+        } catch (IOException e) {
+            System.out.println("无法保存玩家行为模型: " + e.getMessage());
+        }
+        if (history != null) {
+            history.close();
+        }
+        try {
+            game.disableAutosave();
+        } catch (IOException e) {
+            System.out.println("自动存档失败: " + e.getMessage());
+        }
+        if (leaderboard != null) {
+            try {
+                leaderboard.close();
+            } catch (IOException e) {
+                System.out.println("无法保存排行榜: " + e.getMessage());
+            }
+        }
+        if (profiles != null) {
+            try {
+                profiles.close();
+            } catch (IOException e) {
+                System.out.println("无法保存玩家档案: " + e.getMessage());
+            }
+        }
+
         System.out.println("谢谢游玩，再见！");
         scanner.close();
     }
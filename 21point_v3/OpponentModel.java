@@ -0,0 +1,223 @@
+/**
+ * 对手行为模型类
+ * 统计一名人类玩家在各个点数下选择要牌和停牌的次数，用于预测其习惯（例如通常在多少点停牌）
+ *
+ * 所有统计都保存在基本类型的计数数组中，每次决策只需一次数组自增，时间复杂度O(1)
+ * 模型可以保存到文件并在下次游戏时加载，使学习结果在多次游戏之间延续；
+ * 每名玩家的模型保存在模型目录中以玩家标识命名的单独文件里（见fileFor()），不同玩家的统计不会混在一起。
+ * 保存时先写临时文件并fsync，再原子地替换旧文件，写到一半崩溃不会损坏已有的模型
+ *
+ * 文件格式（大端序）：魔数"BJOM"、版本号、点数上限，随后依次为各点数的要牌次数和停牌次数
+ */
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+
+public class OpponentModel {
+    private static final int MAGIC = 0x424A4F4D;
+    private static final int VERSION = 1;
+
+    /**
+     * 统计的点数范围为0~MAX_SCORE，更高的点数（只可能是爆牌后）不再区分
+     */
+    private static final int MAX_SCORE = 31;
+
+    /**
+     * 以转义后的玩家标识作为文件名的最大长度，更长的标识改用其SHA-256摘要
+     */
+    private static final int MAX_NAME_LENGTH = 128;
+
+    /**
+     * hits[点数]：在该点数下选择要牌的次数
+     */
+    private final int[] hits = new int[MAX_SCORE + 1];
+
+    /**
+     * stands[点数]：在该点数下选择停牌的次数
+     */
+    private final int[] stands = new int[MAX_SCORE + 1];
+
+    /**
+     * 停牌的总次数
+     */
+    private int standCount;
+
+    /**
+     * 记录一次要牌决策
+     *
+     * @param score 做出决策时的点数
+     */
+    public void recordHit(int score) {
+        hits[clamp(score)]++;
+    }
+
+    /**
+     * 记录一次停牌决策
+     *
+     * @param score 做出决策时的点数
+     */
+    public void recordStand(int score) {
+        stands[clamp(score)]++;
+        standCount++;
+    }
+
+    /**
+     * 获取玩家在指定点数下选择停牌的概率
+     * 使用拉普拉斯平滑，没有记录时返回0.5
+     *
+     * @param score 点数
+     * @return 停牌概率
+     */
+    public double getStandProbability(int score) {
+        int s = clamp(score);
+        return (stands[s] + 1.0) / (stands[s] + hits[s] + 2.0);
+    }
+
+    /**
+     * 获取玩家停牌时点数高于指定点数的比例
+     * 即电脑在该点数停牌时，预计会被玩家超过的概率
+     *
+     * @param score 点数
+     * @return 比例；没有停牌记录时返回0.5
+     */
+    public double getStandAboveRate(int score) {
+        if (standCount == 0) {
+            return 0.5;
+        }
+        int above = 0;
+        for (int s = clamp(score) + 1; s <= MAX_SCORE; s++) {
+            above += stands[s];
+        }
+        return (double) above / standCount;
+    }
+
+    /**
+     * @return 记录的停牌总次数
+     */
+    public int getStandCount() {
+        return standCount;
+    }
+
+    /**
+     * 获取一名玩家的模型文件
+     * 文件名由玩家标识得到：字母、数字、下划线和连字符原样保留，其他字节写成%XX；
+     * 转义后过长的标识改用其SHA-256摘要
+     *
+     * @param directory 模型目录
+     * @param playerId  玩家标识
+     * @return 该玩家的模型文件路径
+     */
+    public static Path fileFor(Path directory, String playerId) {
+        StringBuilder name = new StringBuilder("model-");
+        for (byte b : playerId.getBytes(StandardCharsets.UTF_8)) {
+            char c = (char) (b & 0xFF);
+            if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_' || c == '-') {
+                name.append(c);
+            } else {
+                name.append('%').append(HexFormat.of().toHexDigits(b));
+            }
+        }
+        if (name.length() > MAX_NAME_LENGTH) {
+            try {
+                byte[] digest = MessageDigest.getInstance("SHA-256").digest(playerId.getBytes(StandardCharsets.UTF_8));
+                name.setLength(0);
+                name.append("model-").append(HexFormat.of().formatHex(digest));
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException("缺少SHA-256算法", e);
+            }
+        }
+        return directory.resolve(name.append(".bin").toString());
+    }
+
+    /**
+     * 从模型目录加载一名玩家的模型
+     *
+     * @param directory 模型目录
+     * @param playerId  玩家标识
+     * @return 加载的模型；如果该玩家还没有模型，返回一个空模型
+     * @throws IOException 如果模型文件存在但读取失败或格式不正确
+     */
+    public static OpponentModel load(Path directory, String playerId) throws IOException {
+        return load(fileFor(directory, playerId));
+    }
+
+    /**
+     * 把模型保存为模型目录中一名玩家的模型，目录不存在时自动创建
+     *
+     * @param directory 模型目录
+     * @param playerId  玩家标识
+     * @throws IOException 如果写入失败
+     */
+    public void save(Path directory, String playerId) throws IOException {
+        Files.createDirectories(directory);
+        save(fileFor(directory, playerId));
+    }
+
+    /**
+     * 将模型保存到文件：写入临时文件并fsync后原子地替换目标文件
+     *
+     * @param path 文件路径
+     * @throws IOException 如果写入失败；此时原有的文件保持不变
+     */
+    public void save(Path path) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(12 + (MAX_SCORE + 1) * 8);
+        buffer.putInt(MAGIC).putInt(VERSION).putInt(MAX_SCORE);
+        for (int s = 0; s <= MAX_SCORE; s++) {
+            buffer.putInt(hits[s]).putInt(stands[s]);
+        }
+        buffer.flip();
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (buffer.hasRemaining()) {
+                out.write(buffer);
+            }
+            out.force(true);
+        }
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * 从文件加载模型
+     *
+     * @param path 文件路径
+     * @return 加载的模型；如果文件不存在，返回一个空模型
+     * @throws IOException 如果文件存在但读取失败或格式不正确
+     */
+    public static OpponentModel load(Path path) throws IOException {
+        OpponentModel model = new OpponentModel();
+        if (!Files.exists(path)) {
+            return model;
+        }
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(Files.newInputStream(path)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("不是有效的对手模型文件: " + path);
+            }
+            int maxScore = in.readInt();
+            for (int s = 0; s <= maxScore; s++) {
+                int h = in.readInt();
+                int st = in.readInt();
+                int t = Math.min(s, MAX_SCORE);
+                model.hits[t] += h;
+                model.stands[t] += st;
+                model.standCount += st;
+            }
+        }
+        return model;
+    }
+
+    private static int clamp(int score) {
+        return Math.max(0, Math.min(MAX_SCORE, score));
+    }
+}
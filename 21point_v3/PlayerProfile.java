@@ -0,0 +1,175 @@
+/**
+ * 玩家档案
+ * 保存一位玩家的余额和胜负统计，由ProfileStore按玩家标识管理
+ *
+ * 档案是不可变的，每次更新都产生一个新的档案对象，
+ * 因此读取方拿到的档案总是某一时刻的完整状态，可以在线程之间自由传递
+ */
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+public final class PlayerProfile {
+    /**
+     * 新玩家的初始余额
+     */
+    public static final long INITIAL_BALANCE = 1000;
+
+    /**
+     * 玩家标识的最大长度（UTF-8字节数）
+     */
+    static final int MAX_ID_BYTES = 255;
+
+    private final String id;
+    private final long balance;
+    private final int wins;
+    private final int losses;
+    private final int draws;
+    private final int streak;
+    private final int bestStreak;
+
+    /**
+     * 创建玩家档案
+     *
+     * @param id         玩家标识
+     * @param balance    余额
+     * @param wins       获胜局数
+     * @param losses     失败局数
+     * @param draws      平局局数
+     * @param streak     当前连胜（正数）或连败（负数）的局数
+     * @param bestStreak 最长连胜局数
+     */
+    public PlayerProfile(String id, long balance, int wins, int losses, int draws, int streak, int bestStreak) {
+        if (id.getBytes(StandardCharsets.UTF_8).length > MAX_ID_BYTES) {
+            throw new IllegalArgumentException("玩家标识过长: " + id);
+        }
+        this.id = id;
+        this.balance = balance;
+        this.wins = wins;
+        this.losses = losses;
+        this.draws = draws;
+        this.streak = streak;
+        this.bestStreak = bestStreak;
+    }
+
+    /**
+     * 创建新玩家的档案
+     *
+     * @param id 玩家标识
+     * @return 余额为INITIAL_BALANCE、没有任何对局的档案
+     */
+    public static PlayerProfile newProfile(String id) {
+        return new PlayerProfile(id, INITIAL_BALANCE, 0, 0, 0, 0, 0);
+    }
+
+    /**
+     * 计入一局的结果
+     *
+     * @param result 本局的最终状态
+     * @param stake  本局的赌注，赢得时加到余额，输掉时从余额扣除
+     * @return 更新后的档案；result不是结束状态时返回原档案
+     */
+    public PlayerProfile withResult(BlackjackGame.GameState result, long stake) {
+        switch (result) {
+            case HUMAN_WIN:
+            case COMPUTER_BUST:
+                int won = streak > 0 ? streak + 1 : 1;
+                return new PlayerProfile(id, balance + stake, wins + 1, losses, draws, won, Math.max(bestStreak, won));
+            case COMPUTER_WIN:
+            case HUMAN_BUST:
+                int lost = streak < 0 ? streak - 1 : -1;
+                return new PlayerProfile(id, balance - stake, wins, losses + 1, draws, lost, bestStreak);
+            case DRAW:
+                return new PlayerProfile(id, balance, wins, losses, draws + 1, streak, bestStreak);
+            default:
+                return this;
+        }
+    }
+
+    /**
+     * 调整余额，例如存入或取出筹码
+     *
+     * @param delta 余额的变化量
+     * @return 更新后的档案
+     */
+    public PlayerProfile withBalanceChange(long delta) {
+        return new PlayerProfile(id, balance + delta, wins, losses, draws, streak, bestStreak);
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public long getBalance() {
+        return balance;
+    }
+
+    public int getWins() {
+        return wins;
+    }
+
+    public int getLosses() {
+        return losses;
+    }
+
+    public int getDraws() {
+        return draws;
+    }
+
+    /**
+     * @return 当前连胜（正数）或连败（负数）的局数，平局不中断连胜或连败
+     */
+    public int getStreak() {
+        return streak;
+    }
+
+    public int getBestStreak() {
+        return bestStreak;
+    }
+
+    /**
+     * @return 已结束的总局数
+     */
+    public int getRounds() {
+        return wins + losses + draws;
+    }
+
+    /**
+     * @return 胜率，没有对局时为0
+     */
+    public double getWinRate() {
+        int rounds = getRounds();
+        return rounds == 0 ? 0 : (double) wins / rounds;
+    }
+
+    /**
+     * @return 编码后的字节数
+     */
+    int encodedSize() {
+        return 1 + id.getBytes(StandardCharsets.UTF_8).length + 8 + 5 * 4;
+    }
+
+    /**
+     * 编码档案：byte标识长度、UTF-8标识、long余额、int获胜/失败/平局/当前连胜/最长连胜
+     */
+    void encode(ByteBuffer out) {
+        byte[] idBytes = id.getBytes(StandardCharsets.UTF_8);
+        out.put((byte) idBytes.length).put(idBytes);
+        out.putLong(balance).putInt(wins).putInt(losses).putInt(draws).putInt(streak).putInt(bestStreak);
+    }
+
+    /**
+     * 解码encode()写入的档案
+     */
+    static PlayerProfile decode(ByteBuffer in) {
+        byte[] idBytes = new byte[in.get() & 0xFF];
+        in.get(idBytes);
+        return new PlayerProfile(new String(idBytes, StandardCharsets.UTF_8),
+                in.getLong(), in.getInt(), in.getInt(), in.getInt(), in.getInt(), in.getInt());
+    }
+
+    @Override
+    public String toString() {
+        return id + " 余额: " + balance + " 胜/负/平: " + wins + "/" + losses + "/" + draws
+                + " 最长连胜: " + bestStreak;
+    }
+}
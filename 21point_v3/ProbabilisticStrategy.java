@@ -0,0 +1,23 @@
+/**
+ * 基于点数的动态概率策略（电脑玩家的默认策略）
+ * 
+ * 算法策略：
+ * 根据公式计算决策值k：
+ * k = (100 * (21 - 电脑得分) / 21) + (随机数 * 100)
+ * 如果k > 50则要牌，否则停牌
+ * 
+ * k > 50 等价于 随机数 > 0.5 - (21 - 点数) / 21，
+ * 因此要牌概率为 0.5 + (21 - 点数) / 21，并限制在[0, 1]范围内
+ * 
+ * 算法特点：
+ * - 点数越小，要牌的概率越大
+ * - 点数越接近21，不要牌的概率越大
+ * - 加入随机因子，增加决策的不可预测性
+ */
+public class ProbabilisticStrategy implements ComputerStrategy {
+    @Override
+    public double getHitProbability(ComputerPlayer self, int score) {
+        double p = 0.5 + (21 - score) / 21.0;
+        return Math.max(0.0, Math.min(1.0, p));
+    }
+}
@@ -0,0 +1,508 @@
+/**
+ * 玩家档案库
+ * 按玩家标识保存每位玩家的档案（余额、胜负局数和连胜，见PlayerProfile），程序重启后仍然保留
+ *
+ * 所有档案都保存在内存中的索引里，读取不涉及磁盘；每次更新把更新后的完整档案追加到预写日志，
+ * 恢复时按顺序读取日志，同一玩家以最后一条记录为准
+ *
+ * 性能设计：
+ * - 更新只在内存中修改索引并把记录追加到内存缓冲区，不等待磁盘，多个会话可以在不同线程中同时更新
+ * - 后台写盘线程把上次fsync期间积累的所有记录一次写入并统一fsync（组提交），
+ *   同一时刻最多只有一次fsync，更新越频繁每次fsync分摊的记录越多，fsync的次数不随更新次数增长
+ * - 需要确认更新已经落盘时，调用awaitDurable()等待包含该更新的那次fsync完成
+ * - 其他统计（例如Leaderboard）通过addCommitListener()接收已经落盘的档案，
+ *   与档案库以同一份日志为准，崩溃后不会比档案库多计或少计对局
+ * - 日志超过COMPACT_THRESHOLD且远大于上次检查点时，以所有档案的当前状态写一个新的日志文件
+ *   （临时文件 + fsync + 原子替换），再把当前这批记录追加在检查点之后，日志大小因此保持有界
+ *
+ * 日志格式：魔数"BJPS"、版本号，随后是一条条记录：int长度、int CRC32、编码后的档案；
+ * 文件末尾因崩溃而不完整的记录在打开时被截掉
+ *
+ * 写盘失败后档案仍在内存中更新，但不再追加到日志；失败在awaitDurable()、sync()或close()时抛出，
+ * 不会在游戏线程的监听器回调中抛出
+ *
+ * 作为游戏监听器时，每局结束后按人类玩家的标识以当前赌注计入本局结果
+ */
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+import java.util.function.UnaryOperator;
+import java.util.zip.CRC32;
+
+public class ProfileStore implements GameListener, Closeable {
+    private static final int MAGIC = 0x424A5053;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 8;
+    private static final int RECORD_HEADER_SIZE = 8;
+
+    /**
+     * 默认每局的赌注
+     */
+    public static final long DEFAULT_STAKE = 10;
+
+    /**
+     * 日志文件超过这一大小后才考虑写检查点
+     */
+    static final long COMPACT_THRESHOLD = 4 << 20;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final Path path;
+    private final long compactThreshold;
+    private final ConcurrentHashMap<String, PlayerProfile> profiles;
+    private final Thread flusher;
+    private volatile long stake = DEFAULT_STAKE;
+
+    /**
+     * 正在接收记录的缓冲区和等待下次使用的缓冲区，由this保护
+     */
+    private ByteBuffer pending = ByteBuffer.allocate(BUFFER_SIZE);
+    private ByteBuffer spare = ByteBuffer.allocate(BUFFER_SIZE);
+    private final CRC32 crc = new CRC32();
+
+    /**
+     * pending中的记录对应的档案，按追加顺序排列，与缓冲区一起交换，由this保护
+     */
+    private List<PlayerProfile> pendingProfiles = new ArrayList<>();
+    private List<PlayerProfile> spareProfiles = new ArrayList<>();
+
+    private final List<Consumer<PlayerProfile>> commitListeners = new CopyOnWriteArrayList<>();
+
+    /**
+     * 已追加的记录数和已落盘的记录数，由this保护
+     */
+    private long appended;
+    private long durable;
+    private long syncCount;
+    private boolean closed;
+    private IOException failure;
+
+    /**
+     * 日志文件通道和上次检查点的大小，只在写盘线程中访问
+     */
+    private FileChannel channel;
+    private long checkpointSize;
+
+    private ProfileStore(Path path, long compactThreshold, ConcurrentHashMap<String, PlayerProfile> profiles,
+            FileChannel channel) {
+        this.path = path;
+        this.compactThreshold = compactThreshold;
+        this.profiles = profiles;
+        this.channel = channel;
+        this.flusher = new Thread(this::runFlusher, "profile-store");
+        this.flusher.setDaemon(true);
+    }
+
+    /**
+     * 打开档案库，读取日志中的所有档案
+     *
+     * @param path 日志文件路径，不存在时创建新的档案库
+     * @return 档案库
+     * @throws IOException 如果日志无法读取或不是档案库日志
+     */
+    public static ProfileStore open(Path path) throws IOException {
+        return open(path, COMPACT_THRESHOLD);
+    }
+
+    /**
+     * 打开档案库，日志超过指定大小后才考虑写检查点
+     *
+     * @param path             日志文件路径，不存在时创建新的档案库
+     * @param compactThreshold 写检查点的日志大小下限
+     * @return 档案库
+     * @throws IOException 如果日志无法读取或不是档案库日志
+     */
+    static ProfileStore open(Path path, long compactThreshold) throws IOException {
+        ConcurrentHashMap<String, PlayerProfile> profiles = new ConcurrentHashMap<>();
+        FileChannel channel;
+        if (Files.exists(path)) {
+            ByteBuffer in = ByteBuffer.wrap(Files.readAllBytes(path));
+            if (in.remaining() < HEADER_SIZE || in.getInt() != MAGIC || in.getInt() != VERSION) {
+                throw new IOException("不是有效的玩家档案日志: " + path);
+            }
+            CRC32 checksum = new CRC32();
+            while (in.remaining() >= RECORD_HEADER_SIZE) {
+                int start = in.position();
+                int length = in.getInt();
+                int expected = in.getInt();
+                if (length < 0 || length > in.remaining()) {
+                    in.position(start);
+                    break;
+                }
+                checksum.reset();
+                checksum.update(in.array(), in.position(), length);
+                if ((int) checksum.getValue() != expected) {
+                    in.position(start);
+                    break;
+                }
+                PlayerProfile profile = PlayerProfile.decode(in.slice(in.position(), length));
+                profiles.put(profile.getId(), profile);
+                in.position(in.position() + length);
+            }
+            channel = FileChannel.open(path, StandardOpenOption.WRITE);
+            // 截掉崩溃时没有写完整的记录，之后的追加从最后一条完整记录之后开始
+            channel.truncate(in.position());
+            channel.position(in.position());
+        } else {
+            channel = startFile(path, profiles);
+        }
+        ProfileStore store = new ProfileStore(path, compactThreshold, profiles, channel);
+        store.checkpointSize = channel.size();
+        store.flusher.start();
+        return store;
+    }
+
+    /**
+     * 一局结束时按人类玩家的标识计入本局结果，不等待落盘；撤销之后重新打完的局已经计入过，跳过
+     */
+    @Override
+    public void roundFinished(BlackjackGame game, BlackjackGame.GameState result) {
+        if (game.isReplayedRound()) {
+            return;
+        }
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+        }
+        recordRound(game.getHuman().getId(), result);
+    }
+
+    /**
+     * 设置作为游戏监听器时每局的赌注
+     *
+     * @param stake 每局的赌注
+     */
+    public void setStake(long stake) {
+        this.stake = stake;
+    }
+
+    /**
+     * @return 作为游戏监听器时每局的赌注
+     */
+    public long getStake() {
+        return stake;
+    }
+
+    /**
+     * @param id 玩家标识
+     * @return 该玩家的档案，没有该玩家时返回null
+     */
+    public PlayerProfile get(String id) {
+        return profiles.get(id);
+    }
+
+    /**
+     * 获取玩家的档案，没有该玩家时创建新档案
+     *
+     * @param id 玩家标识
+     * @return 该玩家的档案
+     */
+    public PlayerProfile getOrCreate(String id) {
+        PlayerProfile profile = profiles.get(id);
+        if (profile == null) {
+            update(id, UnaryOperator.identity());
+            profile = profiles.get(id);
+        }
+        return profile;
+    }
+
+    /**
+     * @return 档案数
+     */
+    public int size() {
+        return profiles.size();
+    }
+
+    /**
+     * @return 所有档案当前状态的副本
+     */
+    public List<PlayerProfile> list() {
+        return new ArrayList<>(profiles.values());
+    }
+
+    /**
+     * 以当前赌注计入一局的结果，没有该玩家时先创建新档案
+     *
+     * @param id     玩家标识
+     * @param result 本局的最终状态
+     * @return 本次更新的提交序号，可以传给awaitDurable()
+     */
+    public long recordRound(String id, BlackjackGame.GameState result) {
+        return recordRound(id, result, stake);
+    }
+
+    /**
+     * 计入一局的结果，没有该玩家时先创建新档案
+     *
+     * @param id     玩家标识
+     * @param result 本局的最终状态
+     * @param stake  本局的赌注
+     * @return 本次更新的提交序号，可以传给awaitDurable()
+     */
+    public long recordRound(String id, BlackjackGame.GameState result, long stake) {
+        return update(id, profile -> profile.withResult(result, stake));
+    }
+
+    /**
+     * 调整玩家的余额，没有该玩家时先创建新档案
+     *
+     * @param id    玩家标识
+     * @param delta 余额的变化量
+     * @return 本次更新的提交序号，可以传给awaitDurable()
+     */
+    public long adjustBalance(String id, long delta) {
+        return update(id, profile -> profile.withBalanceChange(delta));
+    }
+
+    /**
+     * 等待指定的更新落盘
+     *
+     * @param sequence 更新方法返回的提交序号
+     * @throws IOException 如果写盘失败
+     */
+    public void awaitDurable(long sequence) throws IOException {
+        boolean interrupted = false;
+        synchronized (this) {
+            while (durable < sequence && failure == null) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        checkFailure();
+    }
+
+    /**
+     * 等待目前为止的所有更新落盘
+     *
+     * @throws IOException 如果写盘失败
+     */
+    public void sync() throws IOException {
+        long sequence;
+        synchronized (this) {
+            sequence = appended;
+        }
+        awaitDurable(sequence);
+    }
+
+    /**
+     * 注册提交监听器：每次fsync之后，在写盘线程中按追加顺序收到这一批落盘的每个档案
+     * 同一玩家的多条记录按更新顺序到达，以最后一条为准；sync()返回时，之前的更新都已交给监听器
+     *
+     * @param listener 提交监听器，应尽快返回，不应再更新档案库
+     */
+    public void addCommitListener(Consumer<PlayerProfile> listener) {
+        commitListeners.add(listener);
+    }
+
+    /**
+     * @param listener 要移除的提交监听器
+     */
+    public void removeCommitListener(Consumer<PlayerProfile> listener) {
+        commitListeners.remove(listener);
+    }
+
+    /**
+     * @return 目前为止执行的fsync次数（组提交的批数）
+     */
+    public synchronized long getSyncCount() {
+        return syncCount;
+    }
+
+    /**
+     * 把所有更新写盘并关闭档案库
+     * 关闭后不能再更新档案，档案库可以安全地保留在游戏的监听器列表中
+     *
+     * @throws IOException 如果写盘失败
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            notifyAll();
+        }
+        try {
+            flusher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        channel.close();
+        checkFailure();
+    }
+
+    /**
+     * 在索引中原子地更新一位玩家的档案，并追加更新后的档案
+     * 追加在索引的更新锁内进行，同一玩家的记录在日志中的顺序与更新顺序一致
+     */
+    private long update(String id, UnaryOperator<PlayerProfile> change) {
+        long[] sequence = new long[1];
+        profiles.compute(id, (key, old) -> {
+            PlayerProfile updated = change.apply(old != null ? old : PlayerProfile.newProfile(key));
+            sequence[0] = append(updated);
+            return updated;
+        });
+        return sequence[0];
+    }
+
+    /**
+     * 把一条档案记录追加到内存缓冲区
+     * 写盘已经失败时不再追加，写盘线程已经结束，追加的记录永远不会落盘
+     *
+     * @return 该记录的提交序号，写盘失败后等待它会抛出写盘失败的异常
+     */
+    private synchronized long append(PlayerProfile profile) {
+        if (closed) {
+            throw new IllegalStateException("玩家档案库已关闭");
+        }
+        if (failure != null) {
+            return ++appended;
+        }
+        int size = profile.encodedSize();
+        if (pending.remaining() < RECORD_HEADER_SIZE + size) {
+            // 写盘线程跟不上时扩大缓冲区，更新方从不等待磁盘
+            ByteBuffer larger = ByteBuffer.allocate(Math.max(pending.capacity() * 2,
+                    pending.position() + RECORD_HEADER_SIZE + size));
+            pending.flip();
+            larger.put(pending);
+            pending = larger;
+        }
+        int start = pending.position();
+        if (start == 0) {
+            notifyAll();
+        }
+        pending.position(start + RECORD_HEADER_SIZE);
+        profile.encode(pending);
+        crc.reset();
+        crc.update(pending.array(), start + RECORD_HEADER_SIZE, size);
+        pending.putInt(start, size).putInt(start + 4, (int) crc.getValue());
+        pendingProfiles.add(profile);
+        return ++appended;
+    }
+
+    /**
+     * 写盘线程：取走上次fsync期间积累的所有记录，一次写入并fsync
+     */
+    private void runFlusher() {
+        while (true) {
+            ByteBuffer batch;
+            List<PlayerProfile> committed;
+            long sequence;
+            synchronized (this) {
+                while (pending.position() == 0 && !closed) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        // 只有close()会结束写盘线程
+                    }
+                }
+                if (pending.position() == 0) {
+                    return;
+                }
+                batch = pending;
+                pending = spare;
+                spare = batch;
+                committed = pendingProfiles;
+                pendingProfiles = spareProfiles;
+                spareProfiles = committed;
+                sequence = appended;
+            }
+            batch.flip();
+            try {
+                if (channel.size() >= Math.max(compactThreshold, 4 * checkpointSize)) {
+                    // 记录在update()的compute返回之前追加，本批的更新在索引中可能还不可见，
+                    // 因此检查点之后仍要写入本批记录；检查点中比本批更新的档案会由下一批记录再次写入
+                    channel.close();
+                    channel = startFile(path, profiles);
+                    checkpointSize = channel.size();
+                }
+                while (batch.hasRemaining()) {
+                    channel.write(batch);
+                }
+                channel.force(false);
+            } catch (IOException e) {
+                synchronized (this) {
+                    failure = e;
+                    notifyAll();
+                }
+                return;
+            } finally {
+                batch.clear();
+            }
+            for (PlayerProfile profile : committed) {
+                for (Consumer<PlayerProfile> listener : commitListeners) {
+                    listener.accept(profile);
+                }
+            }
+            committed.clear();
+            synchronized (this) {
+                durable = sequence;
+                syncCount++;
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * 以所有档案的当前状态开始一个新的日志文件：写入临时文件并fsync后原子替换旧日志
+     *
+     * @return 新日志文件的追加通道
+     */
+    private static FileChannel startFile(Path path, ConcurrentHashMap<String, PlayerProfile> profiles)
+            throws IOException {
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+            buffer.putInt(MAGIC).putInt(VERSION);
+            CRC32 checksum = new CRC32();
+            for (PlayerProfile profile : profiles.values()) {
+                int size = profile.encodedSize();
+                if (buffer.remaining() < RECORD_HEADER_SIZE + size) {
+                    buffer.flip();
+                    while (buffer.hasRemaining()) {
+                        out.write(buffer);
+                    }
+                    buffer.clear();
+                }
+                int start = buffer.position();
+                buffer.position(start + RECORD_HEADER_SIZE);
+                profile.encode(buffer);
+                checksum.reset();
+                checksum.update(buffer.array(), start + RECORD_HEADER_SIZE, size);
+                buffer.putInt(start, size).putInt(start + 4, (int) checksum.getValue());
+            }
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                out.write(buffer);
+            }
+            out.force(true);
+        }
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return FileChannel.open(path, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    private synchronized void checkFailure() throws IOException {
+        if (failure != null) {
+            throw failure;
+        }
+    }
+}
@@ -0,0 +1,398 @@
+/**
+ * 存档位目录
+ * 把多个存档统一保存在一个目录中（slot-000000.sav、slot-000001.sav……），
+ * 并用一个内存映射的索引文件catalog.idx记录每个存档位的摘要（名称、状态、双方点数、保存时间），
+ * 列出成千上万个存档时只需读取索引，选中某个存档后才加载完整的游戏
+ *
+ * 索引文件格式（大端序）：
+ * <pre>
+ * int   魔数 "BJSC"
+ * int   版本号
+ * int   存档位数（最大编号加1）
+ * int   保留
+ * 每个存档位一项，每项ENTRY_SIZE字节，第i项位于 16 + i * ENTRY_SIZE：
+ *   long  保存时间（毫秒时间戳）
+ *   byte  状态（GameState序号），空存档位为-1
+ *   byte  人类玩家点数
+ *   byte  电脑玩家点数
+ *   byte  名称的字节数
+ *   byte[56] 名称（UTF-8）
+ * </pre>
+ *
+ * 索引中的摘要与存档文件开头的固定文件头（见GameCodec.readHeader()）一致；
+ * 索引丢失或损坏时，rebuild()只读取每个存档的文件头即可重建
+ *
+ * 该类不是线程安全的，保存和删除应在同一个线程中进行
+ */
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+public class SaveCatalog {
+    private static final int MAGIC = 0x424A5343;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 16;
+    private static final int SLOT_COUNT_OFFSET = 8;
+
+    /**
+     * 每个存档位在索引中占的字节数
+     */
+    private static final int ENTRY_SIZE = 64;
+    private static final int MAX_NAME_BYTES = 56;
+
+    private static final String INDEX_FILE = "catalog.idx";
+
+    private final Path directory;
+    private MappedByteBuffer index;
+    private int slotCount;
+
+    /**
+     * 一个存档位的摘要
+     */
+    public static final class Entry {
+        private final int slot;
+        private final String name;
+        private final GameCodec.Header header;
+
+        Entry(int slot, String name, GameCodec.Header header) {
+            this.slot = slot;
+            this.name = name;
+            this.header = header;
+        }
+
+        public int getSlot() {
+            return slot;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public BlackjackGame.GameState getState() {
+            return header.getState();
+        }
+
+        public int getHumanScore() {
+            return header.getHumanScore();
+        }
+
+        public int getComputerScore() {
+            return header.getComputerScore();
+        }
+
+        /**
+         * @return 保存时间（毫秒时间戳）
+         */
+        public long getSavedAt() {
+            return header.getSavedAt();
+        }
+    }
+
+    private SaveCatalog(Path directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * 打开存档目录，目录或索引不存在时自动创建
+     * 索引无效时按存档文件的文件头重建
+     *
+     * @param directory 存档目录
+     * @return 存档位目录
+     * @throws IOException 如果无法读写目录或索引
+     */
+    public static SaveCatalog open(Path directory) throws IOException {
+        Files.createDirectories(directory);
+        SaveCatalog catalog = new SaveCatalog(directory);
+        Path indexFile = directory.resolve(INDEX_FILE);
+        if (Files.exists(indexFile)) {
+            catalog.mapIndex(Math.max(0, (int) ((Files.size(indexFile) - HEADER_SIZE) / ENTRY_SIZE)));
+            if (catalog.index.getInt(0) == MAGIC && catalog.index.getInt(4) == VERSION) {
+                catalog.slotCount = catalog.index.getInt(SLOT_COUNT_OFFSET);
+                if (catalog.slotCount >= 0 && catalog.slotCount <= catalog.capacity()) {
+                    return catalog;
+                }
+            }
+        }
+        catalog.rebuild();
+        return catalog;
+    }
+
+    /**
+     * 把游戏保存到一个新的存档位
+     *
+     * @param game 游戏对象
+     * @param name 存档名称，超过56个字节（UTF-8）的部分会被截断
+     * @return 新存档位的编号
+     * @throws IOException 如果保存失败
+     */
+    public int save(BlackjackGame game, String name) throws IOException {
+        int slot = slotCount;
+        save(slot, game, name);
+        return slot;
+    }
+
+    /**
+     * 把游戏保存到指定的存档位，覆盖原有的存档
+     * 先写入存档文件，再更新索引
+     *
+     * @param slot 存档位编号
+     * @param game 游戏对象
+     * @param name 存档名称，超过56个字节（UTF-8）的部分会被截断
+     * @throws IOException 如果保存失败
+     */
+    public void save(int slot, BlackjackGame game, String name) throws IOException {
+        if (slot < 0) {
+            throw new IllegalArgumentException("存档位编号不能为负数: " + slot);
+        }
+        Path file = slotPath(slot);
+        ByteBuffer encoded = ByteBuffer.allocate(GameCodec.encodedSize(game, GameCodec.DeckEncoding.SEED));
+        GameCodec.encode(game, encoded, GameCodec.DeckEncoding.SEED);
+        encoded.flip();
+        GameCodec.Header header = GameCodec.readHeader(encoded.duplicate());
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (encoded.hasRemaining()) {
+                channel.write(encoded);
+            }
+        }
+        putEntry(slot, name, header);
+    }
+
+    /**
+     * 删除一个存档位
+     *
+     * @param slot 存档位编号
+     * @throws IOException 如果无法删除存档文件
+     */
+    public void delete(int slot) throws IOException {
+        if (slot < 0 || slot >= slotCount) {
+            return;
+        }
+        index.put(entryOffset(slot) + 8, (byte) -1);
+        Files.deleteIfExists(slotPath(slot));
+    }
+
+    /**
+     * @return 存档位数（最大编号加1，其中可能有空存档位）
+     */
+    public int getSlotCount() {
+        return slotCount;
+    }
+
+    /**
+     * 读取一个存档位的摘要，只访问索引，不读取存档文件
+     *
+     * @param slot 存档位编号
+     * @return 摘要；空存档位返回null
+     */
+    public Entry getEntry(int slot) {
+        if (slot < 0 || slot >= slotCount) {
+            return null;
+        }
+        int offset = entryOffset(slot);
+        int state = index.get(offset + 8);
+        if (state < 0) {
+            return null;
+        }
+        byte[] name = new byte[Math.min(index.get(offset + 11) & 0xFF, MAX_NAME_BYTES)];
+        index.get(offset + 12, name);
+        GameCodec.Header header = new GameCodec.Header(GameCodec.VERSION, BlackjackGame.GameState.values()[state],
+                index.get(offset + 9), index.get(offset + 10), index.getLong(offset));
+        return new Entry(slot, new String(name, StandardCharsets.UTF_8), header);
+    }
+
+    /**
+     * 列出所有非空存档位的摘要
+     *
+     * @return 按编号排列的摘要列表
+     */
+    public List<Entry> list() {
+        List<Entry> entries = new ArrayList<>();
+        for (int slot = 0; slot < slotCount; slot++) {
+            Entry entry = getEntry(slot);
+            if (entry != null) {
+                entries.add(entry);
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * 加载一个存档位中的完整游戏
+     *
+     * @param slot 存档位编号
+     * @return 恢复的游戏对象
+     * @throws IOException 如果存档位为空或存档无法读取
+     */
+    public BlackjackGame load(int slot) throws IOException {
+        if (getEntry(slot) == null) {
+            throw new IOException("存档位为空: " + slot);
+        }
+        try (FileChannel channel = FileChannel.open(slotPath(slot), StandardOpenOption.READ)) {
+            return GameCodec.read(channel);
+        }
+    }
+
+    /**
+     * 按目录中的存档文件重建索引
+     * 每个存档只读取文件头；无法识别的文件被忽略。重建后存档名称为空
+     *
+     * @throws IOException 如果无法读取目录或写入索引
+     */
+    public void rebuild() throws IOException {
+        List<Integer> slots = new ArrayList<>();
+        List<GameCodec.Header> headers = new ArrayList<>();
+        int maxSlot = -1;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "slot-*.sav")) {
+            for (Path file : files) {
+                String fileName = file.getFileName().toString();
+                int slot;
+                try {
+                    slot = Integer.parseInt(fileName.substring(5, fileName.length() - 4));
+                } catch (NumberFormatException e) {
+                    continue;
+                }
+                ByteBuffer head;
+                try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                    head = readFully(channel, GameCodec.HEADER_SIZE);
+                    if (head.limit() > 4 && head.get(4) < 3) {
+                        // 旧版本存档没有文件头，需要读取整个文件
+                        channel.position(0);
+                        head = readFully(channel, (int) Math.min(channel.size(), 64 * 1024));
+                    }
+                }
+                try {
+                    headers.add(GameCodec.readHeader(head));
+                } catch (IOException e) {
+                    continue;
+                }
+                slots.add(slot);
+                maxSlot = Math.max(maxSlot, slot);
+            }
+        }
+
+        mapIndex(maxSlot + 1);
+        for (int slot = 0; slot < capacity(); slot++) {
+            index.put(entryOffset(slot) + 8, (byte) -1);
+        }
+        index.putInt(0, MAGIC);
+        index.putInt(4, VERSION);
+        slotCount = 0;
+        index.putInt(SLOT_COUNT_OFFSET, 0);
+        for (int i = 0; i < slots.size(); i++) {
+            putEntry(slots.get(i), "", headers.get(i));
+        }
+        index.force();
+    }
+
+    /**
+     * 从文件通道的当前位置读取最多length个字节
+     */
+    private static ByteBuffer readFully(FileChannel channel, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+            // 直到读满或到达文件末尾
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * 在索引中写入一个存档位的摘要，必要时扩大索引文件
+     */
+    private void putEntry(int slot, String name, GameCodec.Header header) throws IOException {
+        if (slot >= capacity()) {
+            mapIndex(Math.max(slot + 1, capacity() * 2));
+        }
+        byte[] nameBytes = truncateName(name);
+        int offset = entryOffset(slot);
+        index.putLong(offset, header.getSavedAt());
+        index.put(offset + 9, (byte) header.getHumanScore());
+        index.put(offset + 10, (byte) header.getComputerScore());
+        index.put(offset + 11, (byte) nameBytes.length);
+        index.put(offset + 12, nameBytes);
+        // 状态最后写入，它同时标志该存档位非空
+        index.put(offset + 8, (byte) header.getState().ordinal());
+        if (slot >= slotCount) {
+            slotCount = slot + 1;
+            index.putInt(SLOT_COUNT_OFFSET, slotCount);
+        }
+    }
+
+    /**
+     * 映射索引文件，使其至少能容纳指定数量的存档位
+     */
+    private void mapIndex(int slots) throws IOException {
+        int capacity = Math.max(64, slots);
+        try (FileChannel channel = FileChannel.open(directory.resolve(INDEX_FILE), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long oldSize = channel.size();
+            long size = Math.max(oldSize, HEADER_SIZE + (long) capacity * ENTRY_SIZE);
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            // 新扩出的存档位标记为空
+            long oldSlots = Math.max(0, (oldSize - HEADER_SIZE) / ENTRY_SIZE);
+            for (long slot = oldSlots; slot < (size - HEADER_SIZE) / ENTRY_SIZE; slot++) {
+                mapped.put(entryOffset((int) slot) + 8, (byte) -1);
+            }
+            index = mapped;
+        }
+    }
+
+    /**
+     * @return 索引当前能容纳的存档位数
+     */
+    private int capacity() {
+        return (index.capacity() - HEADER_SIZE) / ENTRY_SIZE;
+    }
+
+    private Path slotPath(int slot) {
+        return directory.resolve(String.format("slot-%06d.sav", slot));
+    }
+
+    private static int entryOffset(int slot) {
+        return HEADER_SIZE + slot * ENTRY_SIZE;
+    }
+
+    /**
+     * 把名称编码为UTF-8，超长时按字符截断，不截断多字节字符
+     */
+    private static byte[] truncateName(String name) {
+        byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+        int end = name.length();
+        while (bytes.length > MAX_NAME_BYTES) {
+            end = name.offsetByCodePoints(end, -1);
+            bytes = name.substring(0, end).getBytes(StandardCharsets.UTF_8);
+        }
+        return bytes;
+    }
+
+    /**
+     * 列出存档目录中的所有存档
+     *
+     * @param args 存档目录（默认saves）
+     */
+    public static void main(String[] args) throws IOException {
+        SaveCatalog catalog = open(Paths.get(args.length > 0 ? args[0] : "saves"));
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+        long start = System.nanoTime();
+        List<Entry> entries = catalog.list();
+        long elapsed = System.nanoTime() - start;
+        for (Entry entry : entries) {
+            System.out.printf("%6d  %-20s  %-14s  你%2d : 电脑%2d  %s%n", entry.getSlot(), entry.getName(),
+                    entry.getState(), entry.getHumanScore(), entry.getComputerScore(),
+                    entry.getSavedAt() < 0 ? "-" : format.format(new Date(entry.getSavedAt())));
+        }
+        System.out.printf("共%d个存档，列出耗时%.2f毫秒%n", entries.size(), elapsed / 1e6);
+    }
+}
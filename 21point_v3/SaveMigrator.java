@@ -0,0 +1,389 @@
+/**
+ * 旧版存档迁移工具
+ * 把v1、v2、v3版本的saveGame()用Java序列化写出的存档并行转换为GameCodec格式，
+ * 转换失败的文件记录到日志中，最后输出吞吐量
+ *
+ * 旧版存档的实际情况：
+ * - Card和Player从未实现Serializable，旧版本的saveGame()在写到玩家对象时抛出NotSerializableException，
+ *   文件中只留下BlackjackGame的类描述和一个异常记录，读取时得到WriteAbortedException
+ * - v1、v2、v3的BlackjackGame都只有deck、human、computer、state四个对象字段，没有基本类型字段，
+ *   中断的存档中没有任何牌局数据，无法恢复，只能记录为失败
+ * - 能够完整反序列化的存档按原样转换，反序列化时只允许BlackjackGame实际包含的类（见FILTER）；
+ *   已经是GameCodec格式的文件原样复制
+ *
+ * 性能设计：
+ * - 存档文件只有几百字节，每个文件一次读入，识别中断的流时只解析类描述，不创建ObjectInputStream，
+ *   只有在文件不是中断的流时才尝试完整的反序列化
+ * - 工作线程从同一个计数器领取文件，各自累加统计，结束时合并，线程之间只共享失败日志
+ *
+ * 用法：java SaveMigrator 旧存档目录 输出目录 [失败日志文件]
+ */
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InvalidClassException;
+import java.io.ObjectInputFilter;
+import java.io.ObjectInputStream;
+import java.io.ObjectStreamConstants;
+import java.io.WriteAbortedException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+public class SaveMigrator {
+    /**
+     * 单个存档文件的最大字节数，超过的文件不是存档
+     */
+    private static final int MAX_SAVE_BYTES = 1 << 20;
+
+    /**
+     * 完整反序列化时允许的类：BlackjackGame及其可序列化字段中实际出现的类
+     */
+    private static final Set<Class<?>> ALLOWED_CLASSES = Set.of(BlackjackGame.class, BlackjackGame.GameState.class,
+            CardCounter.TagSystem.class, Enum.class, ArrayList.class, Random.class, Card.class, Player.class,
+            HumanPlayer.class, ComputerPlayer.class);
+
+    /**
+     * 反序列化过滤器：只允许ALLOWED_CLASSES中的类，限制嵌套深度、对象数和数组长度；
+     * 唯一允许的数组是ArrayList读取时检查的Object[]，长度不超过最大牌靴（8副牌）的张数
+     */
+    static final ObjectInputFilter FILTER = info -> {
+        if (info.depth() > 8 || info.references() > 4096 || info.streamBytes() > MAX_SAVE_BYTES
+                || info.arrayLength() > 8 * 52) {
+            return ObjectInputFilter.Status.REJECTED;
+        }
+        Class<?> type = info.serialClass();
+        if (type == null) {
+            return ObjectInputFilter.Status.ALLOWED;
+        }
+        if (type.isArray()) {
+            return type == Object[].class ? ObjectInputFilter.Status.ALLOWED : ObjectInputFilter.Status.REJECTED;
+        }
+        return ALLOWED_CLASSES.contains(type) ? ObjectInputFilter.Status.ALLOWED : ObjectInputFilter.Status.REJECTED;
+    };
+
+    /**
+     * 迁移结果
+     */
+    public static final class Result {
+        private long migrated;
+        private long copied;
+        private long failed;
+        private long bytesRead;
+        private long bytesWritten;
+        private long millis;
+
+        private void add(Result other) {
+            migrated += other.migrated;
+            copied += other.copied;
+            failed += other.failed;
+            bytesRead += other.bytesRead;
+            bytesWritten += other.bytesWritten;
+        }
+
+        /**
+         * @return 完整转换的存档数
+         */
+        public long getMigrated() {
+            return migrated;
+        }
+
+        /**
+         * @return 已经是GameCodec格式、原样复制的存档数
+         */
+        public long getCopied() {
+            return copied;
+        }
+
+        /**
+         * @return 转换失败的文件数
+         */
+        public long getFailed() {
+            return failed;
+        }
+
+        /**
+         * @return 处理的文件总数
+         */
+        public long getFiles() {
+            return migrated + copied + failed;
+        }
+
+        public long getBytesRead() {
+            return bytesRead;
+        }
+
+        public long getBytesWritten() {
+            return bytesWritten;
+        }
+
+        public long getMillis() {
+            return millis;
+        }
+    }
+
+    private final int threads;
+
+    /**
+     * 使用与CPU核数相同的工作线程
+     */
+    public SaveMigrator() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param threads 工作线程数
+     */
+    public SaveMigrator(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("工作线程数必须为正数: " + threads);
+        }
+        this.threads = threads;
+    }
+
+    /**
+     * 迁移目录（包括子目录）中的所有文件，输出目录中保持相同的相对路径和文件名
+     *
+     * @param source 旧存档目录
+     * @param target 输出目录
+     * @param log    失败日志文件，每个失败的文件一行：相对路径、制表符、原因
+     * @return 迁移结果
+     * @throws IOException 如果无法列出旧存档或无法写入日志
+     */
+    public Result migrate(Path source, Path target, Path log) throws IOException, InterruptedException {
+        long start = System.currentTimeMillis();
+        List<Path> files;
+        try (Stream<Path> walk = Files.walk(source)) {
+            files = walk.filter(Files::isRegularFile).collect(Collectors.toList());
+        }
+        Files.createDirectories(target);
+
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try (BufferedWriter failures = Files.newBufferedWriter(log, StandardCharsets.UTF_8)) {
+            AtomicInteger next = new AtomicInteger();
+            List<Future<Result>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                futures.add(pool.submit(() -> {
+                    Result result = new Result();
+                    for (int i = next.getAndIncrement(); i < files.size(); i = next.getAndIncrement()) {
+                        Path relative = source.relativize(files.get(i));
+                        migrateFile(files.get(i), target.resolve(relative), relative, result, failures);
+                    }
+                    return result;
+                }));
+            }
+            Result total = new Result();
+            for (Future<Result> future : futures) {
+                total.add(future.get());
+            }
+            total.millis = System.currentTimeMillis() - start;
+            return total;
+        } catch (ExecutionException e) {
+            throw new IOException("迁移失败", e.getCause());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * 迁移一个文件并累加到result，失败时写一行日志
+     */
+    private static void migrateFile(Path file, Path output, Path relative, Result result, BufferedWriter failures)
+            throws IOException {
+        boolean current = false;
+        try {
+            if (Files.size(file) > MAX_SAVE_BYTES) {
+                throw new IOException("文件过大，不是存档");
+            }
+            byte[] data = Files.readAllBytes(file);
+            result.bytesRead += data.length;
+            ByteBuffer encoded;
+            if (data.length >= 4 && ByteBuffer.wrap(data).getInt(0) == GameCodec.MAGIC) {
+                // 已经是新格式，原样复制
+                encoded = ByteBuffer.wrap(data);
+                current = true;
+            } else {
+                BlackjackGame game = convert(data);
+                encoded = ByteBuffer.allocate(GameCodec.encodedSize(game, GameCodec.DeckEncoding.SEED));
+                GameCodec.encode(game, encoded, GameCodec.DeckEncoding.SEED);
+                encoded.flip();
+            }
+            write(output, encoded);
+            result.bytesWritten += encoded.limit();
+        } catch (IOException | RuntimeException e) {
+            result.failed++;
+            log(failures, relative, e.getMessage() != null ? e.getMessage() : e.toString());
+            return;
+        }
+        if (current) {
+            result.copied++;
+        } else {
+            result.migrated++;
+        }
+    }
+
+    /**
+     * 把一个旧版序列化存档转换为游戏
+     *
+     * @param data 存档的全部字节
+     * @return 转换得到的游戏
+     * @throws IOException 如果存档写入时已中断，或者无法完整反序列化
+     */
+    static BlackjackGame convert(byte[] data) throws IOException {
+        if (isAborted(data)) {
+            throw new IOException("存档写入时已中断（Card和Player不可序列化），文件中只有类描述，没有牌局数据");
+        }
+        return deserialize(data);
+    }
+
+    /**
+     * 判断是否是写入时中断的BlackjackGame序列化流：类描述和基本类型字段之后紧跟着异常记录
+     *
+     * @return 流在写对象字段时中断时返回true；流中的BlackjackGame对象没有中断时返回false
+     * @throws IOException 如果不是BlackjackGame的序列化流
+     */
+    static boolean isAborted(byte[] data) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+        try {
+            if (in.readShort() != ObjectStreamConstants.STREAM_MAGIC
+                    || in.readShort() != ObjectStreamConstants.STREAM_VERSION) {
+                throw new IOException("不是存档文件");
+            }
+            if (in.readByte() != ObjectStreamConstants.TC_OBJECT || in.readByte() != ObjectStreamConstants.TC_CLASSDESC
+                    || !in.readUTF().equals("BlackjackGame")) {
+                throw new IOException("不是BlackjackGame的存档");
+            }
+            in.readLong(); // serialVersionUID
+            in.readByte(); // 类描述标志
+            int count = in.readShort();
+            char[] types = new char[count];
+            for (int i = 0; i < count; i++) {
+                types[i] = (char) in.readByte();
+                in.readUTF(); // 字段名
+                if (types[i] == 'L' || types[i] == '[') {
+                    // 字段的类型名：字符串或对之前字符串的引用
+                    if (in.readByte() == ObjectStreamConstants.TC_STRING) {
+                        in.readUTF();
+                    } else {
+                        in.readInt();
+                    }
+                }
+            }
+            if (in.readByte() != ObjectStreamConstants.TC_ENDBLOCKDATA
+                    || in.readByte() != ObjectStreamConstants.TC_NULL) {
+                // 有类注解或父类描述，不是旧版本写出的流
+                return false;
+            }
+
+            // 基本类型字段在前，对象字段在后，按类描述中的顺序写出；旧版本没有基本类型字段
+            for (int i = 0; i < count && types[i] != 'L' && types[i] != '['; i++) {
+                readPrimitive(in, types[i]);
+            }
+            // 写对象字段时出错的流在这里是一个重置标记和异常记录
+            int marker = in.readByte();
+            if (marker == ObjectStreamConstants.TC_RESET) {
+                marker = in.readByte();
+            }
+            return marker == ObjectStreamConstants.TC_EXCEPTION;
+        } catch (EOFException e) {
+            throw new IOException("存档不完整");
+        }
+    }
+
+    private static Object readPrimitive(DataInputStream in, char type) throws IOException {
+        switch (type) {
+            case 'B':
+                return in.readByte();
+            case 'C':
+                return in.readChar();
+            case 'D':
+                return in.readDouble();
+            case 'F':
+                return in.readFloat();
+            case 'I':
+                return in.readInt();
+            case 'J':
+                return in.readLong();
+            case 'S':
+                return in.readShort();
+            case 'Z':
+                return in.readBoolean();
+            default:
+                throw new IOException("未知的字段类型: " + type);
+        }
+    }
+
+    /**
+     * 完整地反序列化一个存档，读取任何对象之前先安装FILTER
+     */
+    private static BlackjackGame deserialize(byte[] data) throws IOException {
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(data))) {
+            in.setObjectInputFilter(FILTER);
+            return (BlackjackGame) in.readObject();
+        } catch (WriteAbortedException e) {
+            throw new IOException("存档写入时已中断: " + e.getCause());
+        } catch (InvalidClassException | ClassNotFoundException | ClassCastException e) {
+            throw new IOException("存档与当前版本不兼容或包含不允许的内容: " + e);
+        }
+    }
+
+    /**
+     * 先写临时文件再改名，迁移中断时输出目录中不会留下不完整的存档
+     */
+    private static void write(Path output, ByteBuffer encoded) throws IOException {
+        Files.createDirectories(output.toAbsolutePath().getParent());
+        Path temp = output.resolveSibling(output.getFileName() + ".tmp");
+        try {
+            Files.write(temp, encoded.array().length == encoded.limit() ? encoded.array()
+                    : Arrays.copyOf(encoded.array(), encoded.limit()));
+            Files.move(temp, output, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private static void log(BufferedWriter failures, Path relative, String reason) throws IOException {
+        synchronized (failures) {
+            failures.write(relative + "\t" + reason);
+            failures.newLine();
+        }
+    }
+
+    /**
+     * 迁移旧存档目录并输出结果
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length < 2) {
+            System.out.println("用法：java SaveMigrator 旧存档目录 输出目录 [失败日志文件]");
+            return;
+        }
+        Path log = Paths.get(args.length > 2 ? args[2] : "migration-failures.log");
+        Result result = new SaveMigrator().migrate(Paths.get(args[0]), Paths.get(args[1]), log);
+        double seconds = Math.max(1, result.getMillis()) / 1000.0;
+        System.out.printf("共%d个文件，耗时%.1f秒（%.0f个/秒，%.1f MB/秒）%n", result.getFiles(), seconds,
+                result.getFiles() / seconds, result.getBytesRead() / seconds / (1 << 20));
+        System.out.printf("完整转换%d个，原样复制%d个，失败%d个；%d字节转换为%d字节%n",
+                result.getMigrated(), result.getCopied(), result.getFailed(),
+                result.getBytesRead(), result.getBytesWritten());
+        if (result.getFailed() > 0) {
+            System.out.println("失败的文件见" + log);
+        }
+    }
+}
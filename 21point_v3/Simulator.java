@@ -0,0 +1,269 @@
+/**
+ * 21点牌局模拟器
+ * 使用牌靴模式批量模拟牌局，比较不同的人类玩家策略和电脑策略的胜负率，
+ * 用于衡量算牌带来的收益
+ *
+ * 模拟的配置：
+ * - 人类固定策略（17点停牌） 对 电脑默认概率策略
+ * - 人类算牌策略（按真数调整停牌点数） 对 电脑默认概率策略
+ * - 人类固定策略 对 电脑算牌策略
+ * - 人类固定策略 对 电脑策略选择器（在默认、算牌、自适应策略之间在线选择，所有工作线程共享）
+ *
+ * 每个配置按CPU核数拆分为多个互不共享状态的工作线程，每个线程使用自己的游戏实例
+ * 指定牌局记录目录时，所有模拟的牌局都会写入牌局记录（见HandHistoryWriter）；
+ * 指定列文件目录时，所有模拟的结果都会按列导出（见ColumnarWriter）
+ *
+ * 用法：java Simulator [牌靴数] [牌的副数] [渗透率] [牌局记录目录|-] [列文件目录]
+ */
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class Simulator {
+    /**
+     * 人类玩家的固定停牌点数
+     */
+    private static final int FLAT_STAND = 17;
+
+    /**
+     * 一次模拟的配置
+     */
+    private final int deckCount;
+    private final double penetration;
+    private final boolean humanCounts;
+    private final ComputerStrategy computerStrategy;
+
+    /**
+     * 牌局记录写入器，为null时不记录
+     */
+    private HandHistoryWriter history;
+
+    /**
+     * 列式导出写入器，为null时不导出
+     */
+    private ColumnarWriter columns;
+
+    /**
+     * 模拟结果：从人类玩家角度统计的胜、平、负局数
+     */
+    public static final class Result {
+        private long rounds;
+        private long wins;
+        private long draws;
+        private long losses;
+
+        private void add(Result other) {
+            rounds += other.rounds;
+            wins += other.wins;
+            draws += other.draws;
+            losses += other.losses;
+        }
+
+        public long getRounds() {
+            return rounds;
+        }
+
+        public double getWinRate() {
+            return rounds == 0 ? 0 : (double) wins / rounds;
+        }
+
+        public double getDrawRate() {
+            return rounds == 0 ? 0 : (double) draws / rounds;
+        }
+
+        public double getLossRate() {
+            return rounds == 0 ? 0 : (double) losses / rounds;
+        }
+
+        /**
+         * @return 人类玩家每局的平均净胜率（胜率减负率）
+         */
+        public double getEdge() {
+            return getWinRate() - getLossRate();
+        }
+    }
+
+    /**
+     * @param deckCount        牌的副数
+     * @param penetration      渗透率
+     * @param humanCounts      人类玩家是否按真数调整停牌点数
+     * @param computerStrategy 电脑玩家使用的策略，为null时使用默认策略；
+     *                         该实例由所有工作线程共享，必须是线程安全的
+     */
+    public Simulator(int deckCount, double penetration, boolean humanCounts,
+            ComputerStrategy computerStrategy) {
+        this.deckCount = deckCount;
+        this.penetration = penetration;
+        this.humanCounts = humanCounts;
+        this.computerStrategy = computerStrategy;
+    }
+
+    /**
+     * 设置牌局记录写入器，所有工作线程共享
+     *
+     * @param history 牌局记录写入器，为null时不记录
+     */
+    public void setHandHistory(HandHistoryWriter history) {
+        this.history = history;
+    }
+
+    /**
+     * 设置列式导出写入器，所有工作线程共享
+     *
+     * @param columns 列式导出写入器，为null时不导出
+     */
+    public void setColumnarExport(ColumnarWriter columns) {
+        this.columns = columns;
+    }
+
+    /**
+     * 模拟指定数量的牌靴
+     *
+     * @param shoes   牌靴数量
+     * @param threads 工作线程数
+     * @return 汇总的模拟结果
+     */
+    public Result run(long shoes, int threads) throws InterruptedException {
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Result>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                long share = shoes / threads + (t < shoes % threads ? 1 : 0);
+                futures.add(pool.submit(() -> simulate(share)));
+            }
+            Result total = new Result();
+            for (Future<Result> future : futures) {
+                total.add(future.get());
+            }
+            return total;
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("模拟失败", e.getCause());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * 在当前线程中模拟指定数量的牌靴
+     * 开始的局总是打完并计入结果：最后一个牌靴在一局中途发完时，这一局用重新洗的牌打完
+     */
+    private Result simulate(long shoes) {
+        BlackjackGame game = new BlackjackGame();
+        game.setShoe(deckCount, penetration);
+        if (computerStrategy != null) {
+            game.getComputer().setStrategy(computerStrategy);
+        }
+        if (history != null) {
+            game.addGameListener(history);
+        }
+        if (columns != null) {
+            game.addGameListener(columns);
+        }
+        CountingStrategy humanPolicy = new CountingStrategy(FLAT_STAND, 15, 19);
+        Result result = new Result();
+
+        // 每次洗牌开始一个新的牌靴，包括一局中途牌发完时的重新洗牌
+        long[] shoesPlayed = new long[1];
+        game.addGameListener(new GameListener() {
+            @Override
+            public void shuffled(BlackjackGame g, long seed) {
+                shoesPlayed[0]++;
+            }
+        });
+        while (true) {
+            // 在开局之前判断：已经开始的局总是打完，牌靴数用完之后不再开始需要新牌靴的局
+            if (shoesPlayed[0] > shoes || shoesPlayed[0] == shoes && game.needsShuffle()) {
+                break;
+            }
+            game.startGame();
+            CardCounter counter = game.getCardCounter();
+
+            while (game.getState() == BlackjackGame.GameState.PLAYING && !game.getHuman().isStanding()) {
+                int stand = humanCounts ? humanPolicy.getStandScore(counter) : FLAT_STAND;
+                if (game.getHumanScore() < stand) {
+                    game.playHit();
+                } else {
+                    game.playStand();
+                }
+            }
+            game.finalizeGame();
+
+            result.rounds++;
+            switch (game.getState()) {
+                case HUMAN_WIN:
+                case COMPUTER_BUST:
+                    result.wins++;
+                    break;
+                case DRAW:
+                    result.draws++;
+                    break;
+                default:
+                    result.losses++;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 打印一个配置的模拟结果
+     */
+    private static Result report(String name, Simulator simulator, long shoes, int threads,
+            HandHistoryWriter history, ColumnarWriter columns) throws InterruptedException {
+        simulator.setHandHistory(history);
+        simulator.setColumnarExport(columns);
+        long start = System.currentTimeMillis();
+        Result r = simulator.run(shoes, threads);
+        long elapsed = Math.max(1, System.currentTimeMillis() - start);
+        System.out.printf("%s: %d局，胜 %.4f%%，平 %.4f%%，负 %.4f%%，净胜 %+.4f%%（%d局/秒）%n",
+                name, r.getRounds(), r.getWinRate() * 100, r.getDrawRate() * 100,
+                r.getLossRate() * 100, r.getEdge() * 100, r.getRounds() * 1000 / elapsed);
+        return r;
+    }
+
+    /**
+     * 运行模拟并输出算牌带来的收益
+     *
+     * @param args 可选参数：牌靴数（默认100000）、牌的副数（默认6）、渗透率（默认0.75）、
+     *             牌局记录目录（默认不记录，"-"表示不记录）、列文件目录（默认不导出）
+     */
+    public static void main(String[] args) throws InterruptedException, IOException {
+        long shoes = args.length > 0 ? Long.parseLong(args[0]) : 100_000;
+        int decks = args.length > 1 ? Integer.parseInt(args[1]) : 6;
+        double penetration = args.length > 2 ? Double.parseDouble(args[2]) : 0.75;
+        HandHistoryWriter history = args.length > 3 && !args[3].equals("-")
+                ? new HandHistoryWriter(Paths.get(args[3])) : null;
+        ColumnarWriter columns = args.length > 4 ? new ColumnarWriter(Paths.get(args[4])) : null;
+        int threads = Runtime.getRuntime().availableProcessors();
+
+        System.out.println("===== 21点模拟：" + shoes + "个牌靴，" + decks + "副牌，渗透率" + penetration + " =====");
+        Result flat = report("人类固定策略 vs 电脑默认策略", new Simulator(decks, penetration, false, null),
+                shoes, threads, history, columns);
+        Result counting = report("人类算牌策略 vs 电脑默认策略", new Simulator(decks, penetration, true, null),
+                shoes, threads, history, columns);
+        Result computerCounting = report("人类固定策略 vs 电脑算牌策略",
+                new Simulator(decks, penetration, false, new CountingStrategy()), shoes, threads, history, columns);
+        BanditStrategy bandit = new BanditStrategy(new ProbabilisticStrategy(), new CountingStrategy(),
+                new AdaptiveStrategy());
+        report("人类固定策略 vs 电脑策略选择器", new Simulator(decks, penetration, false, bandit),
+                shoes, threads, history, columns);
+        for (int i = 0; i < bandit.getArmCount(); i++) {
+            System.out.printf("  策略%d：%d局，平均收益 %.4f%n", i, bandit.getPulls(i), bandit.getMeanReward(i));
+        }
+
+        System.out.printf("人类算牌收益：%+.4f%%%n", (counting.getEdge() - flat.getEdge()) * 100);
+        System.out.printf("电脑算牌收益：%+.4f%%%n", (flat.getEdge() - computerCounting.getEdge()) * 100);
+        if (history != null) {
+            history.close();
+            System.out.println("牌局记录：" + history.getRoundCount() + "局，保存在" + args[3]);
+        }
+        if (columns != null) {
+            columns.close();
+            System.out.println("列式导出：" + columns.getRowCount() + "局，保存在" + args[4]);
+        }
+    }
+}
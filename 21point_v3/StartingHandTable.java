@@ -0,0 +1,248 @@
+/**
+ * 起手牌胜率表
+ * 预先计算人类玩家所有两张起手牌组合对电脑玩家每一张明牌时的胜/平/负概率和最佳操作，
+ * 以二进制文件保存，运行时通过内存映射读取
+ *
+ * 查询时直接按下标计算文件偏移量读取，时间复杂度O(1)，无需预热计算，
+ * 表数据位于映射的文件页中，不占用Java堆内存
+ *
+ * 文件格式（大端序）：
+ * - 文件头16字节：魔数"BJST"、版本号、条目数、条目长度
+ * - 条目按 [人类第一张牌][人类第二张牌][电脑明牌][电脑是否已停牌] 顺序排列，
+ *   牌以分值组表示（0代表A，1~8代表2~9，9代表10/J/Q/K）
+ * - 每个条目24字节：要牌胜率、要牌平局率、停牌胜率、停牌平局率、最佳操作下的失败率（float），
+ *   最佳操作（1为要牌，0为停牌）及3字节填充
+ *
+ * 表中的概率对应"单副牌刚发出这三张牌"的局面，即剩余49张牌
+ */
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class StartingHandTable {
+    /**
+     * 文件魔数："BJST"
+     */
+    private static final int MAGIC = 0x424A5354;
+
+    /**
+     * 文件格式版本号
+     */
+    private static final int VERSION = 1;
+
+    private static final int HEADER_SIZE = 16;
+    private static final int ENTRY_SIZE = 24;
+    private static final int RANKS = 10;
+    private static final int ENTRY_COUNT = RANKS * RANKS * RANKS * 2;
+
+    /**
+     * 表中局面对应的剩余牌数：单副牌发出人类两张、电脑一张之后
+     */
+    public static final int REMAINING_CARDS = 49;
+
+    /**
+     * 映射的文件内容
+     */
+    private final ByteBuffer buffer;
+
+    private StartingHandTable(ByteBuffer buffer) {
+        this.buffer = buffer;
+    }
+
+    /**
+     * 以只读内存映射的方式打开起手牌胜率表
+     *
+     * @param path 表文件路径
+     * @return 起手牌胜率表
+     * @throws IOException 如果文件不存在、无法读取或格式不正确
+     */
+    public static StartingHandTable open(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long expected = HEADER_SIZE + (long) ENTRY_COUNT * ENTRY_SIZE;
+            if (channel.size() != expected) {
+                throw new IOException("起手牌胜率表文件长度不正确: " + channel.size());
+            }
+            // 映射在通道关闭后依然有效
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, expected);
+            mapped.order(ByteOrder.BIG_ENDIAN);
+            if (mapped.getInt(0) != MAGIC || mapped.getInt(4) != VERSION
+                    || mapped.getInt(8) != ENTRY_COUNT || mapped.getInt(12) != ENTRY_SIZE) {
+                throw new IOException("不是有效的起手牌胜率表文件: " + path);
+            }
+            return new StartingHandTable(mapped);
+        }
+    }
+
+    /**
+     * 计算所有起手局面并写入表文件
+     * 所有局面共用同一个胜率预测器，牌组构成相近的局面可以复用缓存
+     *
+     * @param path 输出文件路径
+     * @throws IOException 如果写入文件失败
+     */
+    public static void generate(Path path) throws IOException {
+        ByteBuffer out = ByteBuffer.allocate(HEADER_SIZE + ENTRY_COUNT * ENTRY_SIZE);
+        out.putInt(MAGIC).putInt(VERSION).putInt(ENTRY_COUNT).putInt(ENTRY_SIZE);
+
+        WinOracle oracle = new WinOracle();
+        ComputerPlayer computer = new ComputerPlayer();
+        for (int h1 = 0; h1 < RANKS; h1++) {
+            for (int h2 = 0; h2 < RANKS; h2++) {
+                for (int c = 0; c < RANKS; c++) {
+                    Card first = cardOfRank(h1);
+                    Card second = cardOfRank(h2);
+                    Card up = cardOfRank(c);
+                    List<Card> deck = fullDeck();
+                    removeRank(deck, h1);
+                    removeRank(deck, h2);
+                    removeRank(deck, c);
+                    oracle.reset(deck);
+                    for (int standing = 0; standing < 2; standing++) {
+                        WinOracle.Estimate e = oracle.estimate(Arrays.asList(first, second),
+                                Arrays.asList(up), computer, standing == 1);
+                        boolean hit = e.isHitBetter();
+                        double win = hit ? e.getHitWinProbability() : e.getStandWinProbability();
+                        double draw = hit ? e.getHitDrawProbability() : e.getStandDrawProbability();
+                        out.position(offset(h1, h2, c, standing == 1));
+                        out.putFloat((float) e.getHitWinProbability());
+                        out.putFloat((float) e.getHitDrawProbability());
+                        out.putFloat((float) e.getStandWinProbability());
+                        out.putFloat((float) e.getStandDrawProbability());
+                        out.putFloat((float) Math.max(0.0, 1.0 - win - draw));
+                        out.put((byte) (hit ? 1 : 0));
+                    }
+                }
+            }
+        }
+
+        out.clear();
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (out.hasRemaining()) {
+                channel.write(out);
+            }
+        }
+    }
+
+    /**
+     * 判断给定局面是否可以直接查表：单副牌刚发出人类两张、电脑一张
+     *
+     * @param humanHand      人类玩家手牌
+     * @param computerHand   电脑玩家手牌
+     * @param shoeSize       牌靴总牌数
+     * @param remainingCards 剩余牌数
+     * @return true表示可以查表
+     */
+    public static boolean covers(List<Card> humanHand, List<Card> computerHand, int shoeSize,
+            int remainingCards) {
+        return humanHand.size() == 2 && computerHand.size() == 1
+                && shoeSize == 52 && remainingCards == REMAINING_CARDS;
+    }
+
+    /**
+     * 查询起手局面的胜率估计
+     *
+     * @param humanFirst       人类玩家第一张牌
+     * @param humanSecond      人类玩家第二张牌
+     * @param computerUp       电脑玩家的明牌
+     * @param computerStanding 电脑玩家是否已停牌
+     * @return 胜率估计结果
+     */
+    public WinOracle.Estimate lookup(Card humanFirst, Card humanSecond, Card computerUp,
+            boolean computerStanding) {
+        int base = offset(rankOf(humanFirst), rankOf(humanSecond), rankOf(computerUp), computerStanding);
+        return new WinOracle.Estimate(buffer.getFloat(base), buffer.getFloat(base + 4),
+                buffer.getFloat(base + 8), buffer.getFloat(base + 12));
+    }
+
+    /**
+     * 查询起手局面在最佳操作下的失败概率
+     *
+     * @return 失败概率
+     */
+    public double getLossProbability(Card humanFirst, Card humanSecond, Card computerUp,
+            boolean computerStanding) {
+        int base = offset(rankOf(humanFirst), rankOf(humanSecond), rankOf(computerUp), computerStanding);
+        return buffer.getFloat(base + 16);
+    }
+
+    /**
+     * 查询起手局面的最佳操作
+     *
+     * @return true表示要牌更优，false表示停牌更优
+     */
+    public boolean isHitBetter(Card humanFirst, Card humanSecond, Card computerUp,
+            boolean computerStanding) {
+        int base = offset(rankOf(humanFirst), rankOf(humanSecond), rankOf(computerUp), computerStanding);
+        return buffer.get(base + 20) == 1;
+    }
+
+    /**
+     * 计算条目在文件中的偏移量
+     */
+    private static int offset(int h1, int h2, int c, boolean computerStanding) {
+        int index = ((h1 * RANKS + h2) * RANKS + c) * 2 + (computerStanding ? 1 : 0);
+        return HEADER_SIZE + index * ENTRY_SIZE;
+    }
+
+    /**
+     * 牌的分值组：0代表A，9代表10/J/Q/K
+     */
+    private static int rankOf(Card card) {
+        return card.getScore() - 1;
+    }
+
+    /**
+     * 构造指定分值组的代表牌
+     */
+    private static Card cardOfRank(int rank) {
+        return new Card("♠", rank + 1);
+    }
+
+    /**
+     * 构造一副完整的52张牌（按分值统计时花色不影响结果）
+     */
+    private static List<Card> fullDeck() {
+        List<Card> deck = new ArrayList<>(52);
+        String[] suits = { "♠", "♥", "♦", "♣" };
+        for (String suit : suits) {
+            for (int value = 1; value <= 13; value++) {
+                deck.add(new Card(suit, value));
+            }
+        }
+        return deck;
+    }
+
+    /**
+     * 从牌组中移除一张指定分值组的牌
+     */
+    private static void removeRank(List<Card> deck, int rank) {
+        for (int i = 0; i < deck.size(); i++) {
+            if (rankOf(deck.get(i)) == rank) {
+                deck.remove(i);
+                return;
+            }
+        }
+    }
+
+    /**
+     * 生成起手牌胜率表文件
+     *
+     * @param args 可选参数：输出文件路径，默认为starting_hands.bin
+     */
+    public static void main(String[] args) throws IOException {
+        Path path = Paths.get(args.length > 0 ? args[0] : "starting_hands.bin");
+        long start = System.currentTimeMillis();
+        generate(path);
+        System.out.println("起手牌胜率表已生成: " + path + "，耗时 "
+                + (System.currentTimeMillis() - start) + "ms");
+    }
+}
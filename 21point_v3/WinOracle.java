@@ -0,0 +1,619 @@
+/**
+ * 胜率预测与操作提示类
+ * 根据剩余牌组的构成和电脑玩家的决策策略，计算人类玩家"现在要牌"和"现在停牌"两种选择下的
+ * 获胜概率与平局概率，并给出更优的操作建议
+ *
+ * 计算模型与游戏流程一致：
+ * - 人类玩家要牌后，若电脑尚未停牌，电脑进行一次决策（要牌或停牌），随后人类玩家再次选择
+ * - 人类玩家停牌后，电脑按自身策略持续决策直到停牌或爆牌，最后比较点数
+ * - 人类玩家后续的每一步都按获胜概率最大的方式选择
+ *
+ * 性能设计：
+ * - 牌组只按分值分为10组（A、2~9、10/J/Q/K），剩余张数随发牌以O(1)增量更新
+ * - 牌组构成用Zobrist散列表示，每发一张牌只需两次异或即可得到新的散列值
+ * - 递归结果以（牌组散列, 双方手牌, 电脑停牌状态）为键缓存，
+ *   之前计算过的子局面在后续发牌后仍然有效，因此每次发牌后的查询通常只需命中缓存
+ * - 电脑策略通过ComputerStrategy.Situation读取推演中的假设局面，不读取牌桌上的实际状态；
+ *   依赖学习数据的策略（见ComputerStrategy.isLearning）只在一次查询之内使用缓存
+ * - 假设局面的真数 = 查询时刻的计数 + 推演中取出的牌的计点值，后者随取牌和放回增量更新；
+ *   同一个牌靴中它只取决于剩余牌组的构成，因此缓存在查询之间仍然有效，
+ *   更换算牌器或牌靴大小时缓存失效
+ */
+import java.util.Arrays;
+import java.util.List;
+
+public class WinOracle {
+    /**
+     * 分值组的数量：A、2~9、10（含J、Q、K）
+     */
+    private static final int RANKS = 10;
+
+    /**
+     * 单个分值组允许的最大张数
+     * 按8副牌的牌靴计算：10点组为8*16=128张
+     */
+    private static final int MAX_COUNT = 128;
+
+    /**
+     * 缓存条目上限，超过后清空缓存，防止长时间运行时内存无限增长
+     */
+    private static final int MAX_MEMO_SIZE = 2_000_000;
+
+    /**
+     * Zobrist随机数表，ZOBRIST[分值组][张数]
+     * 使用固定种子生成，保证每次运行结果一致
+     */
+    private static final long[][] ZOBRIST = new long[RANKS][MAX_COUNT + 1];
+
+    static {
+        long seed = 0x21A1B2C3D4E5F607L;
+        for (int r = 0; r < RANKS; r++) {
+            for (int n = 0; n <= MAX_COUNT; n++) {
+                seed += 0x9E3779B97F4A7C15L;
+                ZOBRIST[r][n] = mix(seed);
+            }
+        }
+    }
+
+    // 缓存键中区分不同递归函数的编号
+    private static final int FN_DECIDE = 0;
+    private static final int FN_STAND = 1;
+    private static final int FN_HIT = 2;
+    private static final int FN_AFTER_HIT = 3;
+
+    /**
+     * 剩余牌组中各分值组的张数，下标为分值减1
+     */
+    private final int[] counts = new int[RANKS];
+
+    /**
+     * 剩余牌的总张数
+     */
+    private int remaining;
+
+    /**
+     * 当前牌组构成的Zobrist散列值
+     */
+    private long compositionHash;
+
+    /**
+     * 递归结果缓存，键为局面散列，值为获胜概率与平局概率
+     */
+    private final ProbabilityTable memo = new ProbabilityTable();
+
+    /**
+     * 递归函数的返回值：获胜概率与平局概率
+     * 用两个字段代替数组返回，避免在递归中频繁分配对象
+     */
+    private double outWin;
+    private double outDraw;
+
+    /**
+     * 计算时使用的电脑玩家，用于获取其在各点数下的要牌概率
+     */
+    private ComputerPlayer computer;
+
+    /**
+     * 缓存结果所对应的电脑策略；策略变化时缓存失效
+     */
+    private ComputerStrategy cachedStrategy;
+
+    /**
+     * 缓存结果所对应的子策略编号（见ComputerPlayer.getStrategyArm()）；
+     * 策略选择器每局可能换用不同的子策略，编号变化时缓存同样失效
+     */
+    private int cachedArm = -1;
+
+    /**
+     * 推演当前节点中人类玩家的点数和停牌状态，在每次询问电脑策略之前设置
+     */
+    private int humanScore;
+    private boolean humanStanding;
+
+    /**
+     * 查询时刻电脑玩家的算牌器，没有时为null；缓存结果所对应的算牌器和牌靴大小
+     */
+    private CardCounter counter;
+    private CardCounter cachedCounter;
+    private int cachedShoeSize;
+
+    /**
+     * 各分值组的计点值（10点组按10计）
+     */
+    private final int[] tags = new int[RANKS];
+
+    /**
+     * 查询开始以来推演中取出的牌的计点值之和，以及查询开始时剩余的牌数
+     */
+    private int drawnTags;
+    private int queryRemaining;
+
+    /**
+     * 传给电脑策略的假设局面，读取上面两个字段；只有一个实例，推演中不分配对象
+     */
+    private final ComputerStrategy.Situation situation = new ComputerStrategy.Situation() {
+        @Override
+        public int getHumanScore() {
+            return humanScore;
+        }
+
+        @Override
+        public boolean isHumanStanding() {
+            return humanStanding;
+        }
+
+        @Override
+        public double getTrueCount() {
+            return counter == null ? 0 : counter.getTrueCount(drawnTags, queryRemaining - remaining);
+        }
+    };
+
+    /**
+     * 胜率估计结果
+     * 包含要牌和停牌两种选择下人类玩家的获胜概率与平局概率
+     */
+    public static final class Estimate {
+        private final double hitWin;
+        private final double hitDraw;
+        private final double standWin;
+        private final double standDraw;
+
+        Estimate(double hitWin, double hitDraw, double standWin, double standDraw) {
+            this.hitWin = hitWin;
+            this.hitDraw = hitDraw;
+            this.standWin = standWin;
+            this.standDraw = standDraw;
+        }
+
+        /**
+         * @return 现在要牌（之后按最优方式继续）时人类玩家的获胜概率
+         */
+        public double getHitWinProbability() {
+            return hitWin;
+        }
+
+        /**
+         * @return 现在要牌时的平局概率
+         */
+        public double getHitDrawProbability() {
+            return hitDraw;
+        }
+
+        /**
+         * @return 现在停牌时人类玩家的获胜概率
+         */
+        public double getStandWinProbability() {
+            return standWin;
+        }
+
+        /**
+         * @return 现在停牌时的平局概率
+         */
+        public double getStandDrawProbability() {
+            return standDraw;
+        }
+
+        /**
+         * 判断要牌是否优于停牌
+         * 以获胜概率为准，获胜概率相同时比较平局概率
+         *
+         * @return true表示建议要牌，false表示建议停牌
+         */
+        public boolean isHitBetter() {
+            if (hitWin != standWin) {
+                return hitWin > standWin;
+            }
+            return hitDraw > standDraw;
+        }
+    }
+
+    /**
+     * 根据剩余牌组重新统计各分值组的张数
+     * 在洗牌或加载游戏后调用
+     *
+     * @param deck 剩余牌组
+     */
+    public void reset(List<Card> deck) {
+        for (int r = 0; r < RANKS; r++) {
+            counts[r] = 0;
+        }
+        for (Card card : deck) {
+            counts[card.getScore() - 1]++;
+        }
+        remaining = deck.size();
+        compositionHash = 0;
+        for (int r = 0; r < RANKS; r++) {
+            compositionHash ^= ZOBRIST[r][counts[r]];
+        }
+    }
+
+    /**
+     * 从剩余牌组中移除一张已发出的牌，O(1)增量更新统计和散列
+     *
+     * @param card 已发出的牌
+     */
+    public void cardDealt(Card card) {
+        int r = card.getScore() - 1;
+        if (counts[r] > 0) {
+            take(r);
+        }
+    }
+
+    /**
+     * 清空缓存
+     * 更换电脑策略或子策略时缓存会自动失效，依赖学习数据的策略在每次查询前清空缓存；
+     * 如果策略本身的参数发生了变化，需要手动调用此方法
+     */
+    public void invalidate() {
+        memo.clear();
+    }
+
+    /**
+     * 估计人类玩家当前要牌和停牌两种选择下的胜率
+     *
+     * @param humanHand         人类玩家当前手牌
+     * @param computerHand      电脑玩家当前手牌
+     * @param computer          电脑玩家，用于获取其要牌策略
+     * @param computerStanding  电脑玩家是否已停牌
+     * @return 胜率估计结果；如果人类玩家已经爆牌，所有概率均为0
+     */
+    public Estimate estimate(List<Card> humanHand, List<Card> computerHand,
+            ComputerPlayer computer, boolean computerStanding) {
+        int h = handOf(humanHand);
+        int c = handOf(computerHand);
+        if (h < 0) {
+            return new Estimate(0, 0, 0, 0);
+        }
+        if (c < 0) {
+            return new Estimate(1, 0, 1, 0);
+        }
+        counter = computer.getCardCounter();
+        int shoeSize = counter == null ? 0 : counter.getShoeSize();
+        if (memo.size() > MAX_MEMO_SIZE || computer.getStrategy() != cachedStrategy
+                || computer.getStrategyArm() != cachedArm || computer.getStrategy().isLearning(computer)
+                || counter != cachedCounter || shoeSize != cachedShoeSize) {
+            memo.clear();
+            cachedStrategy = computer.getStrategy();
+            cachedArm = computer.getStrategyArm();
+            cachedCounter = counter;
+            cachedShoeSize = shoeSize;
+        }
+        for (int r = 0; r < RANKS; r++) {
+            tags[r] = counter == null ? 0 : counter.getTag(r + 1);
+        }
+        drawnTags = 0;
+        queryRemaining = remaining;
+        this.computer = computer;
+        hit(h, c, computerStanding);
+        double hitWin = outWin;
+        double hitDraw = outDraw;
+        stand(h, c, computerStanding);
+        return new Estimate(hitWin, hitDraw, outWin, outDraw);
+    }
+
+    /**
+     * 人类玩家选择的局面：取要牌和停牌中获胜概率较大者
+     */
+    private void decide(int h, int c, boolean cs) {
+        long key = key(FN_DECIDE, h, c, cs);
+        if (lookup(key)) {
+            return;
+        }
+        stand(h, c, cs);
+        double standWin = outWin;
+        double standDraw = outDraw;
+        hit(h, c, cs);
+        if (!(outWin > standWin || (outWin == standWin && outDraw > standDraw))) {
+            outWin = standWin;
+            outDraw = standDraw;
+        }
+        memo.put(key, outWin, outDraw);
+    }
+
+    /**
+     * 人类玩家停牌后的局面：电脑按策略持续决策直到停牌或爆牌
+     */
+    private void stand(int h, int c, boolean cs) {
+        if (cs || remaining == 0) {
+            compare(h, c);
+            return;
+        }
+        // 停牌后人类手牌只参与比较点数，按最佳点数归一化可以让更多局面共享缓存
+        h = score(h) * 2;
+        long key = key(FN_STAND, h, c, cs);
+        if (lookup(key)) {
+            return;
+        }
+        humanScore = score(h);
+        humanStanding = true;
+        double p = computer.getHitProbability(score(c), situation);
+        compare(h, c);
+        double win = (1 - p) * outWin;
+        double draw = (1 - p) * outDraw;
+        if (p > 0) {
+            int total = remaining;
+            for (int r = 0; r < RANKS; r++) {
+                if (counts[r] == 0) {
+                    continue;
+                }
+                double prob = p * counts[r] / total;
+                int next = add(c, r);
+                if (next < 0) {
+                    win += prob; // 电脑爆牌
+                } else {
+                    take(r);
+                    stand(h, next, false);
+                    putBack(r);
+                    win += prob * outWin;
+                    draw += prob * outDraw;
+                }
+            }
+        }
+        store(key, win, draw);
+    }
+
+    /**
+     * 人类玩家要牌的局面：抽一张牌，未爆牌则轮到电脑决策
+     */
+    private void hit(int h, int c, boolean cs) {
+        if (remaining == 0) {
+            stand(h, c, cs);
+            return;
+        }
+        long key = key(FN_HIT, h, c, cs);
+        if (lookup(key)) {
+            return;
+        }
+        double win = 0;
+        double draw = 0;
+        int total = remaining;
+        for (int r = 0; r < RANKS; r++) {
+            if (counts[r] == 0) {
+                continue;
+            }
+            int next = add(h, r);
+            if (next < 0) {
+                continue; // 人类玩家爆牌，计为失败
+            }
+            double prob = (double) counts[r] / total;
+            take(r);
+            afterHumanHit(next, c, cs);
+            putBack(r);
+            win += prob * outWin;
+            draw += prob * outDraw;
+        }
+        store(key, win, draw);
+    }
+
+    /**
+     * 人类玩家要牌之后的局面：电脑进行一次决策，然后回到人类玩家选择
+     */
+    private void afterHumanHit(int h, int c, boolean cs) {
+        if (cs || remaining == 0) {
+            decide(h, c, true);
+            return;
+        }
+        long key = key(FN_AFTER_HIT, h, c, cs);
+        if (lookup(key)) {
+            return;
+        }
+        humanScore = score(h);
+        humanStanding = false;
+        double p = computer.getHitProbability(score(c), situation);
+        decide(h, c, true);
+        double win = (1 - p) * outWin;
+        double draw = (1 - p) * outDraw;
+        if (p > 0) {
+            int total = remaining;
+            for (int r = 0; r < RANKS; r++) {
+                if (counts[r] == 0) {
+                    continue;
+                }
+                double prob = p * counts[r] / total;
+                int next = add(c, r);
+                if (next < 0) {
+                    win += prob; // 电脑爆牌
+                } else {
+                    take(r);
+                    decide(h, next, false);
+                    putBack(r);
+                    win += prob * outWin;
+                    draw += prob * outDraw;
+                }
+            }
+        }
+        store(key, win, draw);
+    }
+
+    /**
+     * 查询缓存，命中时将结果写入outWin/outDraw
+     *
+     * @return 是否命中
+     */
+    private boolean lookup(long key) {
+        int slot = memo.find(key);
+        if (slot < 0) {
+            return false;
+        }
+        outWin = memo.win(slot);
+        outDraw = memo.draw(slot);
+        return true;
+    }
+
+    /**
+     * 将结果写入缓存和outWin/outDraw
+     */
+    private void store(long key, double win, double draw) {
+        memo.put(key, win, draw);
+        outWin = win;
+        outDraw = draw;
+    }
+
+    /**
+     * 从剩余牌组中取出一张指定分值组的牌
+     */
+    private void take(int r) {
+        compositionHash ^= ZOBRIST[r][counts[r]];
+        counts[r]--;
+        compositionHash ^= ZOBRIST[r][counts[r]];
+        remaining--;
+        drawnTags += tags[r];
+    }
+
+    /**
+     * 将一张指定分值组的牌放回剩余牌组
+     */
+    private void putBack(int r) {
+        compositionHash ^= ZOBRIST[r][counts[r]];
+        counts[r]++;
+        compositionHash ^= ZOBRIST[r][counts[r]];
+        remaining++;
+        drawnTags -= tags[r];
+    }
+
+    /**
+     * 比较双方点数，将获胜概率与平局概率写入outWin/outDraw
+     */
+    private void compare(int h, int c) {
+        int hs = score(h);
+        int cs = score(c);
+        outWin = hs > cs ? 1 : 0;
+        outDraw = hs == cs ? 1 : 0;
+    }
+
+    /**
+     * 将手牌压缩为一个整数：硬点数*2 + 是否含A
+     *
+     * @return 压缩后的手牌；如果已爆牌返回-1
+     */
+    private static int handOf(List<Card> cards) {
+        int hard = 0;
+        int ace = 0;
+        for (Card card : cards) {
+            hard += card.getScore();
+            if (card.getValue() == 1) {
+                ace = 1;
+            }
+        }
+        return hard > 21 ? -1 : hard * 2 + ace;
+    }
+
+    /**
+     * 向压缩手牌中加入一张指定分值组的牌
+     *
+     * @return 新的压缩手牌；如果爆牌返回-1
+     */
+    private static int add(int hand, int r) {
+        int hard = (hand >> 1) + r + 1;
+        int ace = (hand & 1) | (r == 0 ? 1 : 0);
+        return hard > 21 ? -1 : hard * 2 + ace;
+    }
+
+    /**
+     * 计算压缩手牌的最佳点数（A在不爆牌时计为11点）
+     */
+    private static int score(int hand) {
+        int hard = hand >> 1;
+        return ((hand & 1) == 1 && hard + 10 <= 21) ? hard + 10 : hard;
+    }
+
+    /**
+     * 组合缓存键：牌组散列与局面编号的混合
+     */
+    private long key(int fn, int h, int c, boolean cs) {
+        long local = (((long) fn * 64 + h) * 64 + c) * 2 + (cs ? 1 : 0);
+        return compositionHash ^ mix(local + 0x632BE59BD9B4E019L);
+    }
+
+    /**
+     * SplitMix64混合函数，用于生成分布均匀的64位散列
+     */
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    /**
+     * 基于开放寻址的long到概率的散列表
+     * 键和值都保存在基本类型数组中，避免Long装箱和数组分配
+     */
+    private static final class ProbabilityTable {
+        /**
+         * 空槽位的标记；真实键恰好等于该值的概率可以忽略，出现时仅导致一次重复计算
+         */
+        private static final long EMPTY = 0L;
+
+        private long[] keys = new long[1 << 16];
+        private double[] wins = new double[1 << 16];
+        private double[] draws = new double[1 << 16];
+        private int size;
+
+        int size() {
+            return size;
+        }
+
+        void clear() {
+            Arrays.fill(keys, EMPTY);
+            size = 0;
+        }
+
+        /**
+         * @return 键所在的槽位，不存在时返回-1
+         */
+        int find(long key) {
+            int mask = keys.length - 1;
+            int i = (int) key & mask;
+            while (keys[i] != EMPTY) {
+                if (keys[i] == key) {
+                    return i;
+                }
+                i = (i + 1) & mask;
+            }
+            return -1;
+        }
+
+        double win(int slot) {
+            return wins[slot];
+        }
+
+        double draw(int slot) {
+            return draws[slot];
+        }
+
+        void put(long key, double win, double draw) {
+            if (key == EMPTY) {
+                return;
+            }
+            if ((size + 1) * 2 > keys.length) {
+                grow();
+            }
+            int mask = keys.length - 1;
+            int i = (int) key & mask;
+            while (keys[i] != EMPTY && keys[i] != key) {
+                i = (i + 1) & mask;
+            }
+            if (keys[i] == EMPTY) {
+                size++;
+            }
+            keys[i] = key;
+            wins[i] = win;
+            draws[i] = draw;
+        }
+
+        private void grow() {
+            long[] oldKeys = keys;
+            double[] oldWins = wins;
+            double[] oldDraws = draws;
+            keys = new long[oldKeys.length * 2];
+            wins = new double[oldKeys.length * 2];
+            draws = new double[oldKeys.length * 2];
+            size = 0;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != EMPTY) {
+                    put(oldKeys[i], oldWins[i], oldDraws[i]);
+                }
+            }
+        }
+    }
+}